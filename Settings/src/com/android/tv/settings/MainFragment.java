@@ -159,6 +159,8 @@ public class MainFragment extends PreferenceControllerFragment implements
         mSuggestionQuickSettingPrefsContainer.onCreate();
         mConnectivityListener = new ConnectivityListener(getContext(), this::updateConnectivity,
                 getSettingsLifecycle());
+        mConnectivityListener.setNotifiedChanges(
+                ConnectivityListener.CHANGE_ALL & ~ConnectivityListener.CHANGE_IP_ADDRESSES);
         mBtAdapter = BluetoothAdapter.getDefaultAdapter();
         super.onCreate(savedInstanceState);
         // This is to record the initial start of Settings root in two panel settings case, as the
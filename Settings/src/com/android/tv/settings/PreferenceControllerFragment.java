@@ -135,7 +135,10 @@ public abstract class PreferenceControllerFragment extends SettingsPreferenceFra
         }
     }
 
-    private void refreshAllPreferences() {
+    /**
+     * Let each PreferenceController show or hide its preference on the screen.
+     */
+    protected void refreshAllPreferences() {
         final PreferenceScreen screen = getPreferenceScreen();
         Collection<AbstractPreferenceController> controllers =
                 new ArrayList<>(mPreferenceControllers);
@@ -28,20 +28,26 @@ import android.net.LinkAddress;
 import android.net.LinkProperties;
 import android.net.Network;
 import android.net.NetworkInfo;
+import android.net.NetworkRequest;
 import android.net.wifi.WifiConfiguration;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
 import android.telephony.PhoneStateListener;
 import android.telephony.SignalStrength;
 import android.telephony.TelephonyManager;
-import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.UiThread;
+import androidx.annotation.WorkerThread;
 
 import com.android.settingslib.core.lifecycle.Lifecycle;
 import com.android.settingslib.core.lifecycle.LifecycleObserver;
+import com.android.settingslib.core.lifecycle.events.OnDestroy;
 import com.android.settingslib.core.lifecycle.events.OnStart;
 import com.android.settingslib.core.lifecycle.events.OnStop;
 import com.android.settingslib.wifi.AccessPoint;
@@ -52,43 +58,86 @@ import java.util.List;
 
 /**
  * Listens for changes to the current connectivity status.
+ *
+ * <p>The status is read on a background thread whenever a network callback or wifi broadcast
+ * reports a change, and published as an immutable {@link ConnectivitySnapshot}. The getters read
+ * the latest snapshot without blocking, and the {@link Listener} is only called when a field it
+ * asked for with {@link #setNotifiedChanges} changed.
  */
 public class ConnectivityListener implements WifiTracker.WifiListener, LifecycleObserver, OnStart,
-        OnStop {
+        OnStop, OnDestroy {
 
     private static final String TAG = "ConnectivityListener";
 
+    /** Type of the active network changed. */
+    public static final int CHANGE_NETWORK_TYPE = 1;
+    /** Wifi was enabled or disabled. */
+    public static final int CHANGE_WIFI_STATE = 1 << 1;
+    /** The connected wifi network changed. */
+    public static final int CHANGE_WIFI_CONNECTION = 1 << 2;
+    /** Level of the wifi signal changed. */
+    public static final int CHANGE_WIFI_SIGNAL = 1 << 3;
+    /** Level of the cell signal changed. */
+    public static final int CHANGE_CELL_SIGNAL = 1 << 4;
+    /** IP address of the wifi or ethernet connection changed. */
+    public static final int CHANGE_IP_ADDRESSES = 1 << 5;
+    public static final int CHANGE_ALL = ~0;
+
+    private static Handler sBackgroundHandler;
+
     private final Context mContext;
     private final Listener mListener;
     private boolean mStarted;
+    private int mNotifiedChanges = CHANGE_ALL;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Handler mBackgroundHandler;
+    // Written on the background thread, or once by getSnapshot before the first read there.
+    private volatile ConnectivitySnapshot mSnapshot;
+    private final Object mSnapshotLock = new Object();
+    private final Runnable mUpdateRunnable = this::updateConnectivityStatus;
 
     private WifiTracker mWifiTracker;
+    private WifiScanScheduler mScanScheduler;
 
     private final ConnectivityManager mConnectivityManager;
     private final WifiManager mWifiManager;
     private final EthernetManager mEthernetManager;
     private WifiNetworkListener mWifiListener;
+    // Received on the background thread.
     private final BroadcastReceiver mNetworkReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            updateConnectivityStatus();
-            if (mListener != null) {
-                mListener.onConnectivityChange();
-            }
+            scheduleUpdate();
         }
     };
+    private final ConnectivityManager.NetworkCallback mNetworkCallback =
+            new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    scheduleUpdate();
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    scheduleUpdate();
+                }
+
+                @Override
+                public void onLinkPropertiesChanged(Network network,
+                        LinkProperties linkProperties) {
+                    scheduleUpdate();
+                }
+            };
     private final PhoneStateListener mPhoneStateListener = new PhoneStateListener() {
         @Override
         public void onSignalStrengthsChanged(SignalStrength signalStrength) {
             mCellSignalStrength = signalStrength;
-            mListener.onConnectivityChange();
+            scheduleUpdate();
         }
     };
 
-    private SignalStrength mCellSignalStrength;
-    private int mNetworkType;
-    private String mWifiSsid;
-    private int mWifiSignalStrength;
+    private volatile SignalStrength mCellSignalStrength;
 
     /**
      * @deprecated use the constructor that provides a {@link Lifecycle} instead
@@ -105,15 +154,52 @@ public class ConnectivityListener implements WifiTracker.WifiListener, Lifecycle
         mWifiManager = mContext.getSystemService(WifiManager.class);
         mEthernetManager = mContext.getSystemService(EthernetManager.class);
         mListener = listener;
+        mBackgroundHandler = getBackgroundHandler();
+        if (lifecycle != null) {
+            lifecycle.addObserver(this);
+        }
         if (mWifiManager != null) {
-            if (lifecycle != null) {
-                lifecycle.addObserver(this);
-                mWifiTracker = new WifiTracker(context, this, lifecycle, true, true);
-            } else {
-                mWifiTracker = new WifiTracker(context, this, true, true);
+            // Started and stopped by the scan scheduler, not by the lifecycle.
+            mWifiTracker = new WifiTracker(context, this, true, true);
+            mScanScheduler = new WifiScanScheduler(mWifiTracker, mMainHandler);
+        }
+        scheduleUpdate();
+    }
+
+    private static synchronized Handler getBackgroundHandler() {
+        if (sBackgroundHandler == null) {
+            final HandlerThread thread = new HandlerThread(TAG,
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sBackgroundHandler = new Handler(thread.getLooper());
+        }
+        return sBackgroundHandler;
+    }
+
+    /**
+     * Sets the {@code CHANGE_*} flags of the changes the {@link Listener} is called for, by
+     * default {@link #CHANGE_ALL}.
+     */
+    public void setNotifiedChanges(int changes) {
+        mNotifiedChanges = changes;
+    }
+
+    /**
+     * Returns the latest connectivity status. This only reads the status right away if it was
+     * not read in the background yet; the listener is called if that read turns out different.
+     */
+    public ConnectivitySnapshot getSnapshot() {
+        final ConnectivitySnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        final ConnectivitySnapshot read = readSnapshot(0);
+        synchronized (mSnapshotLock) {
+            if (mSnapshot == null) {
+                mSnapshot = read;
             }
+            return mSnapshot;
         }
-        updateConnectivityStatus();
     }
 
     /**
@@ -124,9 +210,6 @@ public class ConnectivityListener implements WifiTracker.WifiListener, Lifecycle
     @UiThread
     @Deprecated
     public void start() {
-        if (!mStarted && mWifiTracker != null) {
-            mWifiTracker.onStart();
-        }
         onStart();
     }
 
@@ -134,20 +217,27 @@ public class ConnectivityListener implements WifiTracker.WifiListener, Lifecycle
     public void onStart() {
         if (!mStarted) {
             mStarted = true;
-            updateConnectivityStatus();
+            scheduleUpdate();
             IntentFilter networkIntentFilter = new IntentFilter();
             networkIntentFilter.addAction(WifiManager.NETWORK_STATE_CHANGED_ACTION);
             networkIntentFilter.addAction(WifiManager.RSSI_CHANGED_ACTION);
             networkIntentFilter.addAction(WifiManager.WIFI_STATE_CHANGED_ACTION);
-            networkIntentFilter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
 
-            mContext.registerReceiver(mNetworkReceiver, networkIntentFilter);
+            mContext.registerReceiver(mNetworkReceiver, networkIntentFilter, null,
+                    mBackgroundHandler);
+            // Listen to all networks, the status covers ethernet even if it is not the default.
+            mConnectivityManager.registerNetworkCallback(
+                    new NetworkRequest.Builder().clearCapabilities().build(), mNetworkCallback,
+                    mBackgroundHandler);
             final TelephonyManager telephonyManager = mContext
                     .getSystemService(TelephonyManager.class);
             if (telephonyManager != null) {
                 telephonyManager.listen(mPhoneStateListener,
                         PhoneStateListener.LISTEN_SIGNAL_STRENGTHS);
             }
+            if (mScanScheduler != null) {
+                mScanScheduler.setVisible(true);
+            }
         }
     }
 
@@ -159,9 +249,6 @@ public class ConnectivityListener implements WifiTracker.WifiListener, Lifecycle
     @UiThread
     @Deprecated
     public void stop() {
-        if (mStarted && mWifiTracker != null) {
-            mWifiTracker.onStop();
-        }
         onStop();
     }
 
@@ -170,12 +257,16 @@ public class ConnectivityListener implements WifiTracker.WifiListener, Lifecycle
         if (mStarted) {
             mStarted = false;
             mContext.unregisterReceiver(mNetworkReceiver);
+            mConnectivityManager.unregisterNetworkCallback(mNetworkCallback);
             mWifiListener = null;
             final TelephonyManager telephonyManager = mContext
                     .getSystemService(TelephonyManager.class);
             if (telephonyManager != null) {
                 telephonyManager.listen(mPhoneStateListener, PhoneStateListener.LISTEN_NONE);
             }
+            if (mScanScheduler != null) {
+                mScanScheduler.setVisible(false);
+            }
         }
     }
 
@@ -185,6 +276,11 @@ public class ConnectivityListener implements WifiTracker.WifiListener, Lifecycle
      */
     @Deprecated
     public void destroy() {
+        onDestroy();
+    }
+
+    @Override
+    public void onDestroy() {
         if (mWifiTracker != null) {
             mWifiTracker.onDestroy();
         }
@@ -195,12 +291,7 @@ public class ConnectivityListener implements WifiTracker.WifiListener, Lifecycle
     }
 
     public String getWifiIpAddress() {
-        if (isWifiConnected()) {
-            Network network = mWifiManager.getCurrentNetwork();
-            return formatIpAddresses(network);
-        } else {
-            return "";
-        }
+        return getSnapshot().wifiIpAddress;
     }
 
     /**
@@ -260,23 +351,17 @@ public class ConnectivityListener implements WifiTracker.WifiListener, Lifecycle
     }
 
     public boolean isEthernetConnected() {
-        return mNetworkType == ConnectivityManager.TYPE_ETHERNET;
+        return getSnapshot().networkType == ConnectivityManager.TYPE_ETHERNET;
     }
 
     public boolean isWifiConnected() {
-        if (mNetworkType == ConnectivityManager.TYPE_WIFI) {
-            return true;
-        } else {
-            if (mWifiManager != null) {
-                WifiInfo connectionInfo = mWifiManager.getConnectionInfo();
-                return connectionInfo.getNetworkId() != -1;
-            }
-        }
-        return false;
+        final ConnectivitySnapshot snapshot = getSnapshot();
+        return snapshot.networkType == ConnectivityManager.TYPE_WIFI
+                || snapshot.wifiNetworkId != -1;
     }
 
     public boolean isCellConnected() {
-        return mNetworkType == ConnectivityManager.TYPE_MOBILE;
+        return getSnapshot().networkType == ConnectivityManager.TYPE_MOBILE;
     }
 
     /**
@@ -324,24 +409,20 @@ public class ConnectivityListener implements WifiTracker.WifiListener, Lifecycle
      * if none available.
      */
     public String getEthernetIpAddress() {
-        final Network network = getFirstEthernet();
-        if (network == null) {
-            return null;
-        }
-        return formatIpAddresses(network);
+        return getSnapshot().ethernetIpAddress;
     }
 
     public int getWifiSignalStrength(int maxLevel) {
         if (mWifiManager != null) {
-            WifiInfo wifiInfo = mWifiManager.getConnectionInfo();
-            return WifiManager.calculateSignalLevel(wifiInfo.getRssi(), maxLevel);
+            return WifiManager.calculateSignalLevel(getSnapshot().wifiRssi, maxLevel);
         }
         return 0;
     }
 
     public int getCellSignalStrength() {
-        if (isCellConnected() && mCellSignalStrength != null) {
-            return mCellSignalStrength.getLevel();
+        final ConnectivitySnapshot snapshot = getSnapshot();
+        if (snapshot.networkType == ConnectivityManager.TYPE_MOBILE) {
+            return snapshot.cellSignalLevel;
         } else {
             return 0;
         }
@@ -367,74 +448,114 @@ public class ConnectivityListener implements WifiTracker.WifiListener, Lifecycle
         }
     }
 
+    private void scheduleUpdate() {
+        // Several callbacks usually arrive for one change; read the status once for them.
+        mBackgroundHandler.removeCallbacks(mUpdateRunnable);
+        mBackgroundHandler.post(mUpdateRunnable);
+    }
+
+    /**
+     * Reads and publishes the status, and notifies the listener if it changed. The newest readings
+     * are published even when nothing changed enough to notify, since getters such as
+     * {@link #getWifiSignalStrength} derive their result from the raw values.
+     */
+    @WorkerThread
     private void updateConnectivityStatus() {
+        final ConnectivitySnapshot previous = mSnapshot;
+        final ConnectivitySnapshot snapshot =
+                readSnapshot(previous == null ? 1 : previous.version + 1);
+        final int changes;
+        synchronized (mSnapshotLock) {
+            // getSnapshot may have read a status on the main thread meanwhile.
+            final ConnectivitySnapshot shown = mSnapshot;
+            mSnapshot = snapshot;
+            if (shown == null) {
+                // Nothing was shown from an earlier status yet.
+                return;
+            }
+            changes = snapshot.getChanges(shown);
+            if (changes == 0) {
+                return;
+            }
+        }
+        mMainHandler.post(() -> {
+            if (mScanScheduler != null
+                    && (changes & (CHANGE_WIFI_STATE | CHANGE_WIFI_CONNECTION)) != 0) {
+                // The network list may change too while the tracker is stopped between scans.
+                mScanScheduler.onNetworksChanged();
+            }
+            if (mStarted && mListener != null && (changes & mNotifiedChanges) != 0) {
+                mListener.onConnectivityChange();
+            }
+        });
+    }
+
+    private ConnectivitySnapshot readSnapshot(long version) {
+        int networkType = ConnectivityManager.TYPE_NONE;
         NetworkInfo networkInfo = mConnectivityManager.getActiveNetworkInfo();
-        if (networkInfo == null) {
-            mNetworkType = ConnectivityManager.TYPE_NONE;
-        } else {
+        if (networkInfo != null) {
             switch (networkInfo.getType()) {
-                case ConnectivityManager.TYPE_WIFI: {
-
-                    if (mWifiManager == null) {
-                        break;
-                    }
-                    // Determine if this is
-                    // an open or secure wifi connection.
-                    mNetworkType = ConnectivityManager.TYPE_WIFI;
-
-                    String ssid = getSsid();
-                    if (!TextUtils.equals(mWifiSsid, ssid)) {
-                        mWifiSsid = ssid;
-                    }
-
-                    WifiInfo wifiInfo = mWifiManager.getConnectionInfo();
-                    // Calculate the signal strength.
-                    int signalStrength;
-                    if (wifiInfo != null) {
-                        // Calculate the signal strength between 0 and 3.
-                        signalStrength = WifiManager.calculateSignalLevel(wifiInfo.getRssi(), 4);
-                    } else {
-                        signalStrength = 0;
-                    }
-                    if (mWifiSignalStrength != signalStrength) {
-                        mWifiSignalStrength = signalStrength;
+                case ConnectivityManager.TYPE_WIFI:
+                    if (mWifiManager != null) {
+                        networkType = ConnectivityManager.TYPE_WIFI;
                     }
                     break;
-                }
 
                 case ConnectivityManager.TYPE_ETHERNET:
-                    mNetworkType = ConnectivityManager.TYPE_ETHERNET;
+                    networkType = ConnectivityManager.TYPE_ETHERNET;
                     break;
 
                 case ConnectivityManager.TYPE_MOBILE:
-                    mNetworkType = ConnectivityManager.TYPE_MOBILE;
+                    networkType = ConnectivityManager.TYPE_MOBILE;
                     break;
 
                 default:
-                    mNetworkType = ConnectivityManager.TYPE_NONE;
                     break;
             }
         }
+
+        int wifiState = WifiManager.WIFI_STATE_UNKNOWN;
+        int wifiNetworkId = -1;
+        String wifiSsid = null;
+        int wifiRssi = WifiInfo.INVALID_RSSI;
+        String wifiIpAddress = "";
+        if (mWifiManager != null) {
+            wifiState = mWifiManager.getWifiState();
+            final WifiInfo wifiInfo = mWifiManager.getConnectionInfo();
+            if (wifiInfo != null) {
+                wifiNetworkId = wifiInfo.getNetworkId();
+                wifiSsid = wifiInfo.getSSID() != null ? sanitizeSsid(wifiInfo.getSSID()) : null;
+                wifiRssi = wifiInfo.getRssi();
+            }
+            if (networkType == ConnectivityManager.TYPE_WIFI || wifiNetworkId != -1) {
+                wifiIpAddress = formatIpAddresses(mWifiManager.getCurrentNetwork());
+            }
+        }
+
+        final Network ethernet = getFirstEthernet();
+        final String ethernetIpAddress = ethernet != null ? formatIpAddresses(ethernet) : null;
+        final SignalStrength cellSignalStrength = mCellSignalStrength;
+        final int cellSignalLevel = cellSignalStrength != null ? cellSignalStrength.getLevel() : 0;
+
+        return new ConnectivitySnapshot(version, networkType, wifiState, wifiNetworkId, wifiSsid,
+                wifiRssi, cellSignalLevel, wifiIpAddress, ethernetIpAddress);
     }
 
     @Override
     public void onWifiStateChanged(int state) {
-        updateConnectivityStatus();
-        if (mListener != null) {
-            mListener.onConnectivityChange();
-        }
+        scheduleUpdate();
     }
 
     @Override
     public void onConnectedChanged() {
-        updateConnectivityStatus();
-        if (mListener != null) {
-            mListener.onConnectivityChange();
-        }
+        scheduleUpdate();
     }
 
     @Override
     public void onAccessPointsChanged() {
+        if (mScanScheduler != null) {
+            mScanScheduler.onAccessPointsChanged(mWifiTracker.getAccessPoints());
+        }
         if (mWifiListener != null) {
             mWifiListener.onWifiListChanged();
         }
@@ -453,19 +574,7 @@ public class ConnectivityListener implements WifiTracker.WifiListener, Lifecycle
      * @return SSID
      */
     public String getSsid() {
-        if (mWifiManager == null) {
-            return null;
-        }
-        WifiInfo wifiInfo = mWifiManager.getConnectionInfo();
-        // Find the SSID of network.
-        String ssid = null;
-        if (wifiInfo != null) {
-            ssid = wifiInfo.getSSID();
-            if (ssid != null) {
-                ssid = sanitizeSsid(ssid);
-            }
-        }
-        return ssid;
+        return getSnapshot().wifiSsid;
     }
 
     public static String sanitizeSsid(@Nullable String string) {
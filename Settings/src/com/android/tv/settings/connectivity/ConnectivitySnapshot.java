@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.connectivity;
+
+import android.net.wifi.WifiManager;
+import android.text.TextUtils;
+
+/**
+ * Immutable view of the connectivity status reported by {@link ConnectivityListener}.
+ *
+ * <p>Every read is published as a new snapshot with a higher {@link #version};
+ * {@link #getChanges} tells which fields changed enough to notify listeners.
+ */
+public final class ConnectivitySnapshot {
+    /**
+     * Level counts the wifi signal is compared at when looking for changes: the main screen shows
+     * 5 levels, the wifi details screens one per entry of {@code R.array.wifi_signal_strength}.
+     */
+    private static final int[] WIFI_SIGNAL_LEVELS = {4, 5};
+
+    public final long version;
+    /** Type of the active network, or {@link android.net.ConnectivityManager#TYPE_NONE}. */
+    public final int networkType;
+    public final int wifiState;
+    /** Id of the wifi network the device is connected to, or -1. */
+    public final int wifiNetworkId;
+    public final String wifiSsid;
+    public final int wifiRssi;
+    public final int cellSignalLevel;
+    public final String wifiIpAddress;
+    public final String ethernetIpAddress;
+
+    ConnectivitySnapshot(long version, int networkType, int wifiState, int wifiNetworkId,
+            String wifiSsid, int wifiRssi, int cellSignalLevel, String wifiIpAddress,
+            String ethernetIpAddress) {
+        this.version = version;
+        this.networkType = networkType;
+        this.wifiState = wifiState;
+        this.wifiNetworkId = wifiNetworkId;
+        this.wifiSsid = wifiSsid;
+        this.wifiRssi = wifiRssi;
+        this.cellSignalLevel = cellSignalLevel;
+        this.wifiIpAddress = wifiIpAddress;
+        this.ethernetIpAddress = ethernetIpAddress;
+    }
+
+    /**
+     * Returns the {@code ConnectivityListener.CHANGE_*} flags of the fields that differ from
+     * {@code other}, or 0 if they are the same.
+     */
+    int getChanges(ConnectivitySnapshot other) {
+        int changes = 0;
+        if (networkType != other.networkType) {
+            changes |= ConnectivityListener.CHANGE_NETWORK_TYPE;
+        }
+        if (wifiState != other.wifiState) {
+            changes |= ConnectivityListener.CHANGE_WIFI_STATE;
+        }
+        if (wifiNetworkId != other.wifiNetworkId || !TextUtils.equals(wifiSsid, other.wifiSsid)) {
+            changes |= ConnectivityListener.CHANGE_WIFI_CONNECTION;
+        }
+        for (int levels : WIFI_SIGNAL_LEVELS) {
+            if (WifiManager.calculateSignalLevel(wifiRssi, levels)
+                    != WifiManager.calculateSignalLevel(other.wifiRssi, levels)) {
+                changes |= ConnectivityListener.CHANGE_WIFI_SIGNAL;
+                break;
+            }
+        }
+        if (cellSignalLevel != other.cellSignalLevel) {
+            changes |= ConnectivityListener.CHANGE_CELL_SIGNAL;
+        }
+        if (!TextUtils.equals(wifiIpAddress, other.wifiIpAddress)
+                || !TextUtils.equals(ethernetIpAddress, other.ethernetIpAddress)) {
+            changes |= ConnectivityListener.CHANGE_IP_ADDRESSES;
+        }
+        return changes;
+    }
+}
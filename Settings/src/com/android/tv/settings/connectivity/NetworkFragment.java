@@ -57,8 +57,8 @@ import com.android.tv.settings.widget.CustomContentDescriptionSwitchPreference;
 import com.android.tv.settings.widget.TvAccessPointPreference;
 import com.android.tv.twopanelsettings.slices.SlicePreference;
 
-import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -116,6 +116,7 @@ public class NetworkFragment extends SettingsPreferenceFragment implements
             updateWifiList();
         }
     };
+    private WifiListRenderer mWifiListRenderer;
     private boolean mIsWifiHardwarePresent;
 
     public static NetworkFragment newInstance() {
@@ -128,10 +129,15 @@ public class NetworkFragment extends SettingsPreferenceFragment implements
                 .hasSystemFeature(PackageManager.FEATURE_WIFI);
         mConnectivityListener = new ConnectivityListener(
                 getContext(), this, getSettingsLifecycle());
+        mConnectivityListener.setNotifiedChanges(ConnectivityListener.CHANGE_NETWORK_TYPE
+                | ConnectivityListener.CHANGE_WIFI_STATE
+                | ConnectivityListener.CHANGE_IP_ADDRESSES);
         mWifiManager = getContext().getSystemService(WifiManager.class);
         mConnectivityManager = getContext().getSystemService(ConnectivityManager.class);
         mUserBadgeCache =
                 new TvAccessPointPreference.UserBadgeCache(getContext().getPackageManager());
+        mWifiListRenderer = new WifiListRenderer(mHandler, getResources().getInteger(
+                R.integer.config_wifi_list_min_refresh_interval_millis), this::renderWifiList);
         super.onCreate(savedInstanceState);
     }
 
@@ -359,6 +365,7 @@ public class NetworkFragment extends SettingsPreferenceFragment implements
 
         if (!mIsWifiHardwarePresent || !mConnectivityListener.isWifiEnabledOrEnabling()) {
             mWifiNetworksCategory.removeAll();
+            mWifiListRenderer.reset();
             mNoWifiUpdateBeforeMillis = 0;
             return;
         }
@@ -371,6 +378,15 @@ public class NetworkFragment extends SettingsPreferenceFragment implements
             return;
         }
 
+        mWifiListRenderer.requestRender();
+    }
+
+    private void renderWifiList() {
+        if (!isAdded() || !mIsWifiHardwarePresent
+                || !mConnectivityListener.isWifiEnabledOrEnabling()) {
+            return;
+        }
+
         final int existingCount = mWifiNetworksCategory.getRealPreferenceCount();
         final Set<Preference> toRemove = new HashSet<>(existingCount);
         for (int i = 0; i < existingCount; i++) {
@@ -378,7 +394,8 @@ public class NetworkFragment extends SettingsPreferenceFragment implements
         }
 
         final Context themedContext = getPreferenceManager().getContext();
-        final Collection<AccessPoint> accessPoints = mConnectivityListener.getAvailableNetworks();
+        final List<AccessPoint> accessPoints =
+                mWifiListRenderer.rank(mConnectivityListener.getAvailableNetworks());
         int index = 0;
 
         for (final AccessPoint accessPoint : accessPoints) {
@@ -386,37 +403,63 @@ public class NetworkFragment extends SettingsPreferenceFragment implements
             RestrictedPreferenceAdapter<TvAccessPointPreference> restrictedPref =
                     (RestrictedPreferenceAdapter<TvAccessPointPreference>) accessPoint.getTag();
             Preference pref;
+            boolean changed = false;
             if (restrictedPref == null) {
                 pref = new TvAccessPointPreference(accessPoint, themedContext, mUserBadgeCache,
                         false);
                 restrictedPref = new RestrictedPreferenceAdapter(themedContext, pref,
                         UserManager.DISALLOW_CONFIG_WIFI);
                 accessPoint.setTag(restrictedPref);
+                changed = true;
             } else {
                 toRemove.remove(restrictedPref.getPreference());
                 pref = restrictedPref.getOriginalPreference();
             }
-            if (accessPoint.isActive() && !isCaptivePortal(accessPoint)) {
-                pref.setFragment(WifiDetailsFragment.class.getName());
-                // No need to track entry selection as new page will be focused
-                pref.setOnPreferenceClickListener(preference -> false);
+            // Only touch the rows whose state changed, rebinding every row moves the focus.
+            final boolean showDetails = accessPoint.isActive() && !isCaptivePortal(accessPoint);
+            if (showDetails) {
+                if (changed || pref.getFragment() == null) {
+                    pref.setFragment(WifiDetailsFragment.class.getName());
+                    // No need to track entry selection as new page will be focused
+                    pref.setOnPreferenceClickListener(preference -> false);
+                    pref.setIntent(null);
+                    changed = true;
+                }
                 WifiDetailsFragment.prepareArgs(pref.getExtras(), accessPoint);
-                pref.setIntent(null);
             } else {
-                pref.setFragment(null);
-                pref.setIntent(WifiConnectionActivity.createIntent(getContext(), accessPoint));
-                pref.setOnPreferenceClickListener(
-                        preference -> {
-                            logEntrySelected(TvSettingsEnums.NETWORK_NOT_CONNECTED_AP);
-                            return false;
-                        });
+                // Rebuild the target when the network's security changed since it was built.
+                final Intent intent = WifiConnectionActivity.createIntent(getContext(),
+                        accessPoint);
+                if (changed || !isSameIntent(pref.getIntent(), intent)) {
+                    pref.setFragment(null);
+                    pref.setIntent(intent);
+                    pref.setOnPreferenceClickListener(
+                            preference -> {
+                                logEntrySelected(TvSettingsEnums.NETWORK_NOT_CONNECTED_AP);
+                                return false;
+                            });
+                    changed = true;
+                }
+            }
+            final boolean visible = !restrictedPref.isRestricted() || accessPoint.isSaved();
+            if (pref.isVisible() != visible) {
+                pref.setVisible(visible);
+                changed = true;
+            }
+            final int order = index++;
+            if (pref.getOrder() != order) {
+                pref.setOrder(order);
+                restrictedPref.getPreference().setOrder(order);
+                changed = true;
+            }
+            // The restricted copy mirrors the row, which the access point updates on its own.
+            if (changed || restrictedPref.isRestricted()) {
+                restrictedPref.updatePreference();
             }
-            pref.setVisible(!restrictedPref.isRestricted() || accessPoint.isSaved());
-            pref.setOrder(index++);
-            restrictedPref.updatePreference();
 
-            // Double-adding is harmless
-            mWifiNetworksCategory.addPreference(restrictedPref.getPreference());
+            if (restrictedPref.getPreference().getParent() == null) {
+                mWifiNetworksCategory.addPreference(restrictedPref.getPreference());
+            }
         }
 
         for (final Preference preference : toRemove) {
@@ -426,6 +469,18 @@ public class NetworkFragment extends SettingsPreferenceFragment implements
         mCollapsePref.setVisible(mWifiNetworksCategory.shouldShowCollapsePref());
     }
 
+    private static boolean isSameIntent(Intent a, Intent b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (!a.filterEquals(b)) {
+            return false;
+        }
+        final Bundle extrasA = a.getExtras();
+        final Bundle extrasB = b.getExtras();
+        return extrasA == null ? extrasB == null : extrasA.kindofEquals(extrasB);
+    }
+
     private boolean isCaptivePortal(AccessPoint accessPoint) {
         if (accessPoint.getDetailedState() != NetworkInfo.DetailedState.CONNECTED) {
             return false;
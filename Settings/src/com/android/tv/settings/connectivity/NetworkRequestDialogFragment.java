@@ -47,11 +47,9 @@ import androidx.annotation.VisibleForTesting;
 import androidx.appcompat.app.AlertDialog;
 
 import com.android.settingslib.Utils;
-import com.android.settingslib.core.lifecycle.Lifecycle;
 import com.android.settingslib.core.lifecycle.ObservableDialogFragment;
 import com.android.settingslib.wifi.AccessPoint;
 import com.android.settingslib.wifi.WifiTracker;
-import com.android.settingslib.wifi.WifiTrackerFactory;
 import com.android.tv.settings.R;
 import com.android.tv.settings.connectivity.NetworkRequestErrorDialogFragment.ERROR_DIALOG_TYPE;
 
@@ -306,7 +304,7 @@ public class NetworkRequestDialogFragment extends ObservableDialogFragment imple
         mHandler.sendEmptyMessageDelayed(MESSAGE_STOP_SCAN_WIFI_LIST, DELAY_TIME_STOP_SCAN_MS);
 
         if (mFilterWifiTracker == null) {
-            mFilterWifiTracker = new FilterWifiTracker(getActivity(), getSettingsLifecycle());
+            mFilterWifiTracker = new FilterWifiTracker(getActivity(), mHandler);
         }
         mFilterWifiTracker.onResume();
     }
@@ -466,11 +464,14 @@ public class NetworkRequestDialogFragment extends ObservableDialogFragment imple
     private final class FilterWifiTracker {
         private final List<String> mAccessPointKeys;
         private final WifiTracker mWifiTracker;
+        private final WifiScanScheduler mScanScheduler;
         private final Context mContext;
 
-        FilterWifiTracker(Context context, Lifecycle lifecycle) {
-            mWifiTracker = WifiTrackerFactory.create(context, mWifiListener,
-                    lifecycle, /* includeSaved */ true, /* includeScans */ true);
+        FilterWifiTracker(Context context, Handler handler) {
+            // Started and stopped by the scan scheduler, not by the lifecycle.
+            mWifiTracker = new WifiTracker(context, mWifiListener,
+                    /* includeSaved */ true, /* includeScans */ true);
+            mScanScheduler = new WifiScanScheduler(mWifiTracker, handler);
             mAccessPointKeys = new ArrayList<>();
             mContext = context;
         }
@@ -534,16 +535,19 @@ public class NetworkRequestDialogFragment extends ObservableDialogFragment imple
 
             @Override
             public void onWifiStateChanged(int state) {
+                mScanScheduler.onNetworksChanged();
                 notifyAdapterRefresh();
             }
 
             @Override
             public void onConnectedChanged() {
+                mScanScheduler.onNetworksChanged();
                 notifyAdapterRefresh();
             }
 
             @Override
             public void onAccessPointsChanged() {
+                mScanScheduler.onAccessPointsChanged(mWifiTracker.getAccessPoints());
                 notifyAdapterRefresh();
             }
         };
@@ -555,15 +559,11 @@ public class NetworkRequestDialogFragment extends ObservableDialogFragment imple
         }
 
         public void onResume() {
-            if (mWifiTracker != null) {
-                mWifiTracker.onStart();
-            }
+            mScanScheduler.setVisible(true);
         }
 
         public void onPause() {
-            if (mWifiTracker != null) {
-                mWifiTracker.onStop();
-            }
+            mScanScheduler.setVisible(false);
         }
     }
 }
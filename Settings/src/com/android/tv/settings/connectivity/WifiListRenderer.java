@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.connectivity;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+
+import com.android.settingslib.wifi.AccessPoint;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides when and in which order {@link NetworkFragment} shows the Wi-Fi networks.
+ *
+ * <p>The list is rendered at most once per refresh interval; changes reported in between are
+ * picked up by the next render. Networks are ranked by signal strength with some hysteresis: the
+ * strength a network is ranked by only follows the signal once it moved by
+ * {@link #HYSTERESIS_DBM}, and networks ranked equally keep their previous order. Small RSSI
+ * swings then don't move rows around under the focus in places with many networks.
+ */
+final class WifiListRenderer {
+    private static final int HYSTERESIS_DBM = 5;
+
+    private static final Comparator<Ranked> RANK_COMPARATOR = (a, b) -> {
+        if (a.mTier != b.mTier) {
+            return Integer.compare(a.mTier, b.mTier);
+        }
+        if (a.mRssi != b.mRssi) {
+            return Integer.compare(b.mRssi, a.mRssi);
+        }
+        if (a.mPreviousRank != b.mPreviousRank) {
+            return Integer.compare(a.mPreviousRank, b.mPreviousRank);
+        }
+        return Integer.compare(a.mIndex, b.mIndex);
+    };
+
+    private final Handler mHandler;
+    private final long mMinIntervalMillis;
+    private final Runnable mRenderCallback;
+
+    // Ranking state of the networks rendered last, by access point key.
+    private Map<String, RankState> mRankStates = new ArrayMap<>();
+    private long mLastRenderMillis;
+    private boolean mRenderPending;
+
+    private final Runnable mRenderRunnable = () -> {
+        mRenderPending = false;
+        render();
+    };
+
+    private static final class RankState {
+        final int mRssi;
+        final int mRank;
+
+        RankState(int rssi, int rank) {
+            mRssi = rssi;
+            mRank = rank;
+        }
+    }
+
+    private static final class Ranked {
+        final AccessPoint mAccessPoint;
+        final int mTier;
+        final int mRssi;
+        final int mPreviousRank;
+        final int mIndex;
+
+        Ranked(AccessPoint accessPoint, int tier, int rssi, int previousRank, int index) {
+            mAccessPoint = accessPoint;
+            mTier = tier;
+            mRssi = rssi;
+            mPreviousRank = previousRank;
+            mIndex = index;
+        }
+    }
+
+    /**
+     * @param minIntervalMillis minimum time between two renders
+     * @param renderCallback renders the list, calling {@link #rank} for the networks to show
+     */
+    WifiListRenderer(Handler handler, long minIntervalMillis, Runnable renderCallback) {
+        mHandler = handler;
+        mMinIntervalMillis = minIntervalMillis;
+        mRenderCallback = renderCallback;
+    }
+
+    /** Renders the list now, or when the refresh interval since the last render has passed. */
+    void requestRender() {
+        if (mRenderPending) {
+            return;
+        }
+        final long delay = mLastRenderMillis + mMinIntervalMillis - SystemClock.elapsedRealtime();
+        if (delay <= 0) {
+            render();
+        } else {
+            mRenderPending = true;
+            mHandler.postDelayed(mRenderRunnable, delay);
+        }
+    }
+
+    /** Cancels a pending render and forgets the previous ranking. */
+    void reset() {
+        mHandler.removeCallbacks(mRenderRunnable);
+        mRenderPending = false;
+        mLastRenderMillis = 0;
+        mRankStates.clear();
+    }
+
+    /**
+     * Orders {@code accessPoints} for display. The networks are expected in the order of
+     * {@link AccessPoint#compareTo}, which breaks the remaining ties.
+     */
+    List<AccessPoint> rank(Collection<AccessPoint> accessPoints) {
+        final List<Ranked> ranked = new ArrayList<>(accessPoints.size());
+        int index = 0;
+        for (AccessPoint accessPoint : accessPoints) {
+            final RankState previous = mRankStates.get(accessPoint.getKey());
+            int rssi = accessPoint.getRssi();
+            if (previous != null && accessPoint.isReachable()
+                    && previous.mRssi != AccessPoint.UNREACHABLE_RSSI
+                    && Math.abs(rssi - previous.mRssi) < HYSTERESIS_DBM) {
+                rssi = previous.mRssi;
+            }
+            ranked.add(new Ranked(accessPoint, getTier(accessPoint), rssi,
+                    previous != null ? previous.mRank : Integer.MAX_VALUE, index++));
+        }
+        ranked.sort(RANK_COMPARATOR);
+
+        final Map<String, RankState> rankStates = new ArrayMap<>(ranked.size());
+        final List<AccessPoint> result = new ArrayList<>(ranked.size());
+        for (int i = 0; i < ranked.size(); i++) {
+            final Ranked entry = ranked.get(i);
+            rankStates.put(entry.mAccessPoint.getKey(), new RankState(entry.mRssi, i));
+            result.add(entry.mAccessPoint);
+        }
+        mRankStates = rankStates;
+        return result;
+    }
+
+    private void render() {
+        mLastRenderMillis = SystemClock.elapsedRealtime();
+        mRenderCallback.run();
+    }
+
+    /** Same grouping as {@link AccessPoint#compareTo}, before it compares signal strength. */
+    private static int getTier(AccessPoint accessPoint) {
+        if (accessPoint.isActive()) {
+            return 0;
+        }
+        return 1 + (accessPoint.isReachable() ? 0 : 2) + (accessPoint.isSaved() ? 0 : 1);
+    }
+}
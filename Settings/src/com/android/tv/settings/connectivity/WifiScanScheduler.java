@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.connectivity;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settingslib.wifi.AccessPoint;
+import com.android.settingslib.wifi.WifiTracker;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Decides when a {@link WifiTracker} scans for Wi-Fi networks.
+ *
+ * <p>While the networks are shown and keep changing, the tracker runs and scans at its own rate.
+ * Once {@link #STABLE_SCANS} scans in a row found the same networks at the same signal levels,
+ * the tracker is stopped between scans, and the time until the next scan doubles after each scan
+ * that finds no change, up to {@link #MAX_INTERVAL_MILLIS}. A scan that finds a change, or a
+ * change of the wifi state or connection, goes back to scanning at the tracker's rate. Nothing is
+ * scanned while the networks are not shown.
+ *
+ * <p>The tracker must only be started and stopped by this class.
+ */
+@MainThread
+final class WifiScanScheduler {
+    private static final String TAG = "WifiScanScheduler";
+
+    @VisibleForTesting
+    static final int STABLE_SCANS = 2;
+    @VisibleForTesting
+    static final long MIN_INTERVAL_MILLIS = 20_000;
+    @VisibleForTesting
+    static final long MAX_INTERVAL_MILLIS = 160_000;
+    /** How long a single scan may take before it is considered to have found no change. */
+    @VisibleForTesting
+    static final long SCAN_TIMEOUT_MILLIS = 15_000;
+
+    private final WifiTracker mWifiTracker;
+    private final Handler mHandler;
+
+    private boolean mVisible;
+    private boolean mTrackerStarted;
+    // Time between single scans, or 0 while the tracker runs.
+    private long mIntervalMillis;
+    private int mStableScans;
+    private boolean mHasSignature;
+    private int mSignature;
+
+    // Stats of the current visible period.
+    private long mVisibleSinceMillis;
+    private long mConvergedAfterMillis;
+    private int mScans;
+    private long mResults;
+
+    private final Runnable mScanRunnable = this::scanOnce;
+    private final Runnable mScanTimeoutRunnable = this::backOff;
+
+    WifiScanScheduler(WifiTracker wifiTracker, Handler handler) {
+        mWifiTracker = wifiTracker;
+        mHandler = handler;
+    }
+
+    /** Starts scanning when the networks are shown, and stops it when they are not. */
+    void setVisible(boolean visible) {
+        if (mVisible == visible) {
+            return;
+        }
+        mVisible = visible;
+        if (visible) {
+            mVisibleSinceMillis = SystemClock.elapsedRealtime();
+            mConvergedAfterMillis = -1;
+            mScans = 0;
+            mResults = 0;
+            mStableScans = 0;
+            mHasSignature = false;
+            scanContinuously();
+        } else {
+            mHandler.removeCallbacks(mScanRunnable);
+            mHandler.removeCallbacks(mScanTimeoutRunnable);
+            stopTracker();
+            Log.d(TAG, "Scans: " + mScans
+                    + ", results per scan: " + (mScans > 0 ? mResults / mScans : 0)
+                    + ", converged after: "
+                    + (mConvergedAfterMillis >= 0 ? mConvergedAfterMillis + " ms" : "never"));
+        }
+    }
+
+    /** Goes back to scanning at the tracker's rate, e.g. after wifi was enabled or connected. */
+    void onNetworksChanged() {
+        mStableScans = 0;
+        if (mVisible && mIntervalMillis != 0) {
+            scanContinuously();
+        }
+    }
+
+    /** Called with the networks found by the tracker whenever they changed. */
+    void onAccessPointsChanged(List<AccessPoint> accessPoints) {
+        if (!mVisible || !mTrackerStarted) {
+            // Posted before the tracker was stopped.
+            return;
+        }
+        mScans++;
+        mResults += accessPoints.size();
+
+        final int signature = getSignature(accessPoints);
+        final boolean changed = !mHasSignature || signature != mSignature;
+        mHasSignature = true;
+        mSignature = signature;
+        if (changed) {
+            mStableScans = 0;
+            if (mIntervalMillis != 0) {
+                scanContinuously();
+            }
+            return;
+        }
+        mStableScans++;
+        if (mIntervalMillis == 0 && mStableScans < STABLE_SCANS) {
+            return;
+        }
+        if (mConvergedAfterMillis < 0) {
+            mConvergedAfterMillis = SystemClock.elapsedRealtime() - mVisibleSinceMillis;
+        }
+        backOff();
+    }
+
+    private void scanContinuously() {
+        mHandler.removeCallbacks(mScanRunnable);
+        mHandler.removeCallbacks(mScanTimeoutRunnable);
+        mIntervalMillis = 0;
+        startTracker();
+    }
+
+    /** Starts the tracker for one scan; it is stopped again once the results came in. */
+    private void scanOnce() {
+        startTracker();
+        mHandler.postDelayed(mScanTimeoutRunnable, SCAN_TIMEOUT_MILLIS);
+    }
+
+    private void backOff() {
+        mHandler.removeCallbacks(mScanTimeoutRunnable);
+        stopTracker();
+        mIntervalMillis = mIntervalMillis == 0
+                ? MIN_INTERVAL_MILLIS : Math.min(mIntervalMillis * 2, MAX_INTERVAL_MILLIS);
+        mHandler.postDelayed(mScanRunnable, mIntervalMillis);
+    }
+
+    private void startTracker() {
+        if (!mTrackerStarted) {
+            mTrackerStarted = true;
+            mWifiTracker.onStart();
+        }
+    }
+
+    private void stopTracker() {
+        if (mTrackerStarted) {
+            mTrackerStarted = false;
+            mWifiTracker.onStop();
+        }
+    }
+
+    /** Hash of the networks and their signal levels, independent of their order. */
+    private static int getSignature(List<AccessPoint> accessPoints) {
+        int signature = accessPoints.size();
+        for (AccessPoint accessPoint : accessPoints) {
+            signature += Objects.hash(accessPoint.getKey(), accessPoint.getLevel());
+        }
+        return signature;
+    }
+}
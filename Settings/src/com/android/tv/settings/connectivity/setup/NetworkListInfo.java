@@ -28,6 +28,7 @@ public class NetworkListInfo extends ViewModel {
     private WifiTracker mWifiTracker;
     private boolean mShowSkipNetwork;
     private long mNextNetworkRefreshTime;
+    private final ScanResultIndex mScanResultIndex = new ScanResultIndex();
 
     public boolean isShowSkipNetwork() {
         return mShowSkipNetwork;
@@ -62,4 +63,15 @@ public class NetworkListInfo extends ViewModel {
     public void setWifiTracker(WifiTracker wifiTracker) {
         this.mWifiTracker = wifiTracker;
     }
+
+    public ScanResultIndex getScanResultIndex() {
+        return mScanResultIndex;
+    }
+
+    /**
+     * Update the scan result index from the latest scan results.
+     */
+    public void updateScanResultIndex() {
+        mScanResultIndex.update(mWifiTracker.getManager().getScanResults());
+    }
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.connectivity.setup;
+
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiManager;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.Pair;
+
+import androidx.annotation.MainThread;
+
+import com.android.tv.settings.connectivity.util.WifiSecurityUtil;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The networks found by the last Wi-Fi scan, one per SSID and security, shared by the screens of
+ * the Wi-Fi setup flow.
+ *
+ * <p>Each network keeps the scan result of its strongest access point. An update only reports the
+ * networks that appeared, disappeared or moved to another signal level, so the screens can patch
+ * their lists instead of rebuilding them from the raw scan results.
+ */
+@MainThread
+public final class ScanResultIndex {
+    /** Signal levels shown by the setup screens; moves within a level are not reported. */
+    static final int SIGNAL_LEVELS = 4;
+
+    private final Map<Pair<String, Integer>, Entry> mEntries = new ArrayMap<>();
+    private final List<Listener> mListeners = new ArrayList<>();
+    private int mGeneration;
+
+    /** Changes of the index made by one update. */
+    public static final class Delta {
+        public final List<ScanResult> added = new ArrayList<>();
+        /** Networks whose signal level changed, with their new strongest scan result. */
+        public final List<ScanResult> changed = new ArrayList<>();
+        /** Networks no longer found, with the last scan result they had. */
+        public final List<ScanResult> removed = new ArrayList<>();
+
+        Delta() {
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    /** Listener notified of the changes of each update. */
+    public interface Listener {
+        void onScanResultsChanged(Delta delta);
+    }
+
+    private static final class Entry {
+        ScanResult mBest;
+        int mReportedLevel;
+        int mGeneration;
+        boolean mReported;
+    }
+
+    /** Returns the key networks are consolidated by. */
+    static Pair<String, Integer> getKey(ScanResult result) {
+        return new Pair<>(result.SSID, WifiSecurityUtil.getSecurity(result));
+    }
+
+    static int getSignalLevel(ScanResult result) {
+        return WifiManager.calculateSignalLevel(result.level, SIGNAL_LEVELS);
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /** Returns the strongest scan result of each network. */
+    public List<ScanResult> getScanResults() {
+        final List<ScanResult> results = new ArrayList<>(mEntries.size());
+        for (Entry entry : mEntries.values()) {
+            results.add(entry.mBest);
+        }
+        return results;
+    }
+
+    /**
+     * Returns the current strongest scan result of the network of {@code result}, or
+     * {@code result} itself if the network is no longer found.
+     */
+    public ScanResult getCurrentScanResult(ScanResult result) {
+        final Entry entry = mEntries.get(getKey(result));
+        return entry != null ? entry.mBest : result;
+    }
+
+    /**
+     * Updates the index from the results of a scan and notifies the listeners if anything they
+     * show changed.
+     *
+     * @return the changes, possibly empty
+     */
+    public Delta update(List<ScanResult> results) {
+        final int generation = ++mGeneration;
+        if (results != null) {
+            for (ScanResult result : results) {
+                if (TextUtils.isEmpty(result.SSID)) {
+                    continue;
+                }
+                final Pair<String, Integer> key = getKey(result);
+                Entry entry = mEntries.get(key);
+                if (entry == null) {
+                    entry = new Entry();
+                    mEntries.put(key, entry);
+                }
+                if (entry.mGeneration != generation || entry.mBest.level < result.level) {
+                    entry.mBest = result;
+                    entry.mGeneration = generation;
+                }
+            }
+        }
+
+        final Delta delta = new Delta();
+        final Iterator<Entry> it = mEntries.values().iterator();
+        while (it.hasNext()) {
+            final Entry entry = it.next();
+            if (entry.mGeneration != generation) {
+                it.remove();
+                delta.removed.add(entry.mBest);
+                continue;
+            }
+            final int level = getSignalLevel(entry.mBest);
+            if (!entry.mReported) {
+                delta.added.add(entry.mBest);
+            } else if (entry.mReportedLevel != level) {
+                delta.changed.add(entry.mBest);
+            }
+            entry.mReported = true;
+            entry.mReportedLevel = level;
+        }
+
+        if (!delta.isEmpty()) {
+            for (Listener listener : new ArrayList<>(mListeners)) {
+                listener.onScanResultsChanged(delta);
+            }
+        }
+        return delta;
+    }
+}
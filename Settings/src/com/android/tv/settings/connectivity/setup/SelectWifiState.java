@@ -18,9 +18,9 @@ package com.android.tv.settings.connectivity.setup;
 
 import android.content.Context;
 import android.net.wifi.ScanResult;
-import android.net.wifi.WifiManager;
 import android.os.Bundle;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.Pair;
 import android.view.View;
 
@@ -40,8 +40,8 @@ import com.android.tv.settings.connectivity.util.WifiSecurityUtil;
 
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * State responsible for selecting Wi-Fi.
@@ -86,6 +86,12 @@ public class SelectWifiState implements State {
         private StateMachine mStateMachine;
         private UserChoiceInfo mUserChoiceInfo;
         private WifiGuidedActionComparator mWifiComparator = new WifiGuidedActionComparator();
+        // Action of each network in the scan result index, by network key.
+        private final Map<Pair<String, Integer>, WifiGuidedAction> mWifiActions =
+                new ArrayMap<>();
+        // "Skip" and "Other network" actions, shown after the networks.
+        private final List<WifiGuidedAction> mTrailingActions = new ArrayList<>();
+        private final ScanResultIndex.Listener mScanResultListener = this::onScanResultsChanged;
 
         @Override
         public void onCreate(Bundle savedInstanceState) {
@@ -100,15 +106,41 @@ public class SelectWifiState implements State {
             super.onCreate(savedInstanceState);
         }
 
-        void updateNetworkList() {
+        private void onScanResultsChanged(ScanResultIndex.Delta delta) {
+            boolean reorder = !delta.added.isEmpty() || !delta.removed.isEmpty();
+            for (ScanResult result : delta.removed) {
+                mWifiActions.remove(ScanResultIndex.getKey(result));
+            }
+            for (ScanResult result : delta.added) {
+                mWifiActions.put(ScanResultIndex.getKey(result), createWifiAction(result));
+            }
+            final List<WifiGuidedAction> changedActions = new ArrayList<>(delta.changed.size());
+            for (ScanResult result : delta.changed) {
+                final WifiGuidedAction action = mWifiActions.get(ScanResultIndex.getKey(result));
+                if (action == null) {
+                    mWifiActions.put(ScanResultIndex.getKey(result), createWifiAction(result));
+                    reorder = true;
+                    continue;
+                }
+                action.setScanResult(result);
+                action.setIconLevel(ScanResultIndex.getSignalLevel(result));
+                changedActions.add(action);
+            }
+
+            final List<GuidedAction> actions = getNetworks();
+            if (!reorder && actions.equals(getActions())) {
+                // Same rows in the same order; only rebind the ones whose signal level changed.
+                for (WifiGuidedAction action : changedActions) {
+                    notifyActionChanged(getActions().indexOf(action));
+                }
+                return;
+            }
             int lastSelectedActionPosition = getSelectedActionPosition();
             CharSequence lastWifiTitle = null;
             if (lastSelectedActionPosition != -1) {
                 lastWifiTitle = getActions().get(lastSelectedActionPosition).getTitle();
             }
-            List<WifiGuidedAction> newWifiActionList = getNetworks();
-            List<GuidedAction> list = new ArrayList<>(newWifiActionList);
-            setActions(list);
+            setActions(actions);
             moveToPosition(lastWifiTitle);
         }
 
@@ -151,60 +183,55 @@ public class SelectWifiState implements State {
         @Override
         public void onCreateActions(@NonNull List<GuidedAction> actions,
                 Bundle savedInstanceState) {
-            actions.addAll(getNetworks());
-        }
-
-        private ArrayList<WifiGuidedAction> getNetworks() {
-            Context context = getActivity();
-            ArrayList<WifiGuidedAction> actions = new ArrayList<>();
-
-            final List<ScanResult> results =
-                    mNetworkListInfo.getWifiTracker().getManager().getScanResults();
-            final HashMap<Pair<String, Integer>, ScanResult> consolidatedScanResults =
-                    new HashMap<>();
-            if (results == null) return new ArrayList<>();
-            for (ScanResult result : results) {
-                if (TextUtils.isEmpty(result.SSID)) {
-                    continue;
-                }
-
-                Pair<String, Integer> key =
-                        new Pair<>(result.SSID, WifiSecurityUtil.getSecurity(result));
-                ScanResult existing = consolidatedScanResults.get(key);
-                if (existing == null || existing.level < result.level) {
-                    consolidatedScanResults.put(key, result);
-                }
-            }
-            for (ScanResult result : consolidatedScanResults.values()) {
-                int iconResource = AccessPoint.SECURITY_NONE == WifiSecurityUtil.getSecurity(result)
-                        ? R.drawable.setup_wifi_signal_open
-                        : R.drawable.setup_wifi_signal_lock;
-                actions.add(new WifiGuidedAction.Builder(context)
-                        .title(result.SSID)
-                        .icon(iconResource)
-                        .setHasIconLevel(true)
-                        .setIconLevel(WifiManager.calculateSignalLevel(result.level, 4))
-                        .setScanResult(result)
-                        .build());
-            }
-
-            actions.sort(mWifiComparator);
-
+            final Context context = getActivity();
             if (mNetworkListInfo.isShowSkipNetwork()) {
-                actions.add(new WifiGuidedAction.Builder(context)
+                mTrailingActions.add(new WifiGuidedAction.Builder(context)
                         .title(R.string.skip_network)
                         .id(GuidedAction.ACTION_ID_CANCEL)
                         .icon(R.drawable.ic_arrow_forward)
                         .setHasIconLevel(false)
                         .build());
             }
-
-            actions.add(new WifiGuidedAction.Builder(context)
+            mTrailingActions.add(new WifiGuidedAction.Builder(context)
                     .title(R.string.other_network)
                     .icon(R.drawable.ic_wifi_add)
                     .setHasIconLevel(false)
                     .build());
 
+            mNetworkListInfo.updateScanResultIndex();
+            for (ScanResult result : mNetworkListInfo.getScanResultIndex().getScanResults()) {
+                mWifiActions.put(ScanResultIndex.getKey(result), createWifiAction(result));
+            }
+            actions.addAll(getNetworks());
+            mNetworkListInfo.getScanResultIndex().addListener(mScanResultListener);
+        }
+
+        @Override
+        public void onDestroy() {
+            mNetworkListInfo.getScanResultIndex().removeListener(mScanResultListener);
+            super.onDestroy();
+        }
+
+        private WifiGuidedAction createWifiAction(ScanResult result) {
+            int iconResource = AccessPoint.SECURITY_NONE == WifiSecurityUtil.getSecurity(result)
+                    ? R.drawable.setup_wifi_signal_open
+                    : R.drawable.setup_wifi_signal_lock;
+            return new WifiGuidedAction.Builder(getActivity())
+                    .title(result.SSID)
+                    .icon(iconResource)
+                    .setHasIconLevel(true)
+                    .setIconLevel(ScanResultIndex.getSignalLevel(result))
+                    .setScanResult(result)
+                    .build();
+        }
+
+        private List<GuidedAction> getNetworks() {
+            final List<WifiGuidedAction> wifiActions = new ArrayList<>(mWifiActions.values());
+            wifiActions.sort(mWifiComparator);
+            final List<GuidedAction> actions =
+                    new ArrayList<>(wifiActions.size() + mTrailingActions.size());
+            actions.addAll(wifiActions);
+            actions.addAll(mTrailingActions);
             return actions;
         }
 
@@ -228,7 +255,8 @@ public class SelectWifiState implements State {
                 mStateMachine.finish(RESULT_NETWORK_SKIPPED);
             } else {
                 mUserChoiceInfo.put(UserChoiceInfo.SELECT_WIFI, action.getTitle().toString());
-                mUserChoiceInfo.setChosenNetwork(((WifiGuidedAction) action).getScanResult());
+                mUserChoiceInfo.setChosenNetwork(mNetworkListInfo.getScanResultIndex()
+                        .getCurrentScanResult(((WifiGuidedAction) action).getScanResult()));
 
                 mStateMachine.getListener().onComplete(
                         StateMachine.ADD_PAGE_BASED_ON_NETWORK_CHOICE);
@@ -129,8 +129,7 @@ public class WifiSetupActivity extends FragmentActivity implements State.Fragmen
                 long currentTime = System.currentTimeMillis();
                 if (mStateMachine.getCurrentState() == mSelectWifiState
                         && currentTime >= mNetworkListInfo.getNextNetworkRefreshTime()) {
-                    ((SelectWifiState.SelectWifiFragment) mSelectWifiState.getFragment())
-                            .updateNetworkList();
+                    mNetworkListInfo.updateScanResultIndex();
                     mNetworkListInfo.updateNextNetworkRefreshTime();
                 }
             }
@@ -25,12 +25,7 @@ import android.app.tvsettings.TvSettingsEnums;
 import android.content.Context;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.storage.DiskInfo;
-import android.os.storage.StorageManager;
-import android.os.storage.VolumeInfo;
-import android.os.storage.VolumeRecord;
 import android.util.ArraySet;
-import android.util.Log;
 
 import androidx.annotation.Keep;
 import androidx.preference.Preference;
@@ -42,18 +37,21 @@ import com.android.tv.settings.device.storage.MissingStorageFragment;
 import com.android.tv.settings.device.storage.NewStorageActivity;
 import com.android.tv.settings.device.storage.StorageFragment;
 import com.android.tv.settings.device.storage.StoragePreference;
+import com.android.tv.settings.device.storage.StorageSnapshot;
+import com.android.tv.settings.device.storage.StorageSnapshotService;
 import com.android.tv.settings.overlay.FlavorUtils;
 
-import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Set;
 
 /**
  * The "Storage" screen in TV settings.
+ *
+ * <p>Volumes are read in the background by {@link StorageSnapshotService}; this screen only
+ * applies the resulting {@link StorageSnapshot} to its preferences.
  */
 @Keep
-public class StorageSummaryFragment extends SettingsPreferenceFragment {
+public class StorageSummaryFragment extends SettingsPreferenceFragment
+        implements StorageSnapshotService.Listener {
     private static final String TAG = "StorageSummaryFragment";
 
     private static final String KEY_DEVICE_CATEGORY = "device_storage";
@@ -61,9 +59,9 @@ public class StorageSummaryFragment extends SettingsPreferenceFragment {
 
     private static final int REFRESH_DELAY_MILLIS = 500;
 
-    private StorageManager mStorageManager;
-    private final StorageSummaryFragment.StorageEventListener
-            mStorageEventListener = new StorageSummaryFragment.StorageEventListener();
+    private StorageSnapshotService mSnapshotService;
+    // Last snapshot applied to the preferences.
+    private StorageSnapshot mAppliedSnapshot;
 
     private final Handler mHandler = new Handler();
     private final Runnable mRefreshRunnable = new Runnable() {
@@ -79,7 +77,7 @@ public class StorageSummaryFragment extends SettingsPreferenceFragment {
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
-        mStorageManager = getContext().getSystemService(StorageManager.class);
+        mSnapshotService = StorageSnapshotService.getInstance(getContext());
         super.onCreate(savedInstanceState);
     }
 
@@ -105,7 +103,7 @@ public class StorageSummaryFragment extends SettingsPreferenceFragment {
     @Override
     public void onStart() {
         super.onStart();
-        mStorageManager.registerListener(mStorageEventListener);
+        mSnapshotService.addListener(this);
     }
 
     @Override
@@ -125,78 +123,53 @@ public class StorageSummaryFragment extends SettingsPreferenceFragment {
     @Override
     public void onStop() {
         super.onStop();
-        mStorageManager.unregisterListener(mStorageEventListener);
+        mSnapshotService.removeListener(this);
+    }
+
+    @Override
+    public void onStorageSnapshotChanged(StorageSnapshot snapshot) {
+        if (!mHandler.hasCallbacks(mRefreshRunnable)) {
+            refresh();
+        }
     }
 
     private void refresh() {
         if (!isResumed()) {
             return;
         }
-        final Context themedContext = getPreferenceManager().getContext();
-
-        final List<VolumeInfo> volumes = mStorageManager.getVolumes();
-        volumes.sort(VolumeInfo.getDescriptionComparator());
-
-        final List<VolumeInfo> privateVolumes = new ArrayList<>(volumes.size());
-        final List<VolumeInfo> publicVolumes = new ArrayList<>(volumes.size());
-
-        // Find mounted volumes
-        for (final VolumeInfo vol : volumes) {
-            if (vol.getType() == VolumeInfo.TYPE_PRIVATE) {
-                privateVolumes.add(vol);
-            } else if (vol.getType() == VolumeInfo.TYPE_PUBLIC) {
-                publicVolumes.add(vol);
-            } else {
-                Log.d(TAG, "Skipping volume " + vol.toString());
-            }
-        }
-
-        // Find missing private filesystems
-        final List<VolumeRecord> volumeRecords = mStorageManager.getVolumeRecords();
-        final List<VolumeRecord> privateMissingVolumes = new ArrayList<>(volumeRecords.size());
-
-        for (final VolumeRecord record : volumeRecords) {
-            if (record.getType() == VolumeInfo.TYPE_PRIVATE
-                    && mStorageManager.findVolumeByUuid(record.getFsUuid()) == null) {
-                privateMissingVolumes.add(record);
-            }
-        }
-
-        // Find unreadable disks
-        final List<DiskInfo> disks = mStorageManager.getDisks();
-        final List<DiskInfo> unsupportedDisks = new ArrayList<>(disks.size());
-        for (final DiskInfo disk : disks) {
-            if (disk.volumeCount == 0 && disk.size > 0) {
-                unsupportedDisks.add(disk);
-            }
+        final StorageSnapshot snapshot = mSnapshotService.getSnapshot();
+        if (snapshot == null || snapshot == mAppliedSnapshot) {
+            return;
         }
+        mAppliedSnapshot = snapshot;
+        final Context themedContext = getPreferenceManager().getContext();
 
         // Add the prefs
         final PreferenceCategory deviceCategory =
                 (PreferenceCategory) findPreference(KEY_DEVICE_CATEGORY);
-        final Set<String> touchedDeviceKeys =
-                new ArraySet<>(privateVolumes.size() + privateMissingVolumes.size());
+        final Set<String> touchedDeviceKeys = new ArraySet<>(
+                snapshot.privateVolumes.size() + snapshot.missingPrivateVolumes.size());
 
-        for (final VolumeInfo volumeInfo : privateVolumes) {
-            final String key = StorageSummaryFragment.VolPreference.makeKey(volumeInfo);
+        for (final StorageSnapshot.Volume volume : snapshot.privateVolumes) {
+            final String key = StorageSummaryFragment.VolPreference.makeKey(volume);
             touchedDeviceKeys.add(key);
             StorageSummaryFragment.VolPreference volPreference =
                         (StorageSummaryFragment.VolPreference) deviceCategory.findPreference(key);
             if (volPreference == null) {
-                volPreference = new StorageSummaryFragment.VolPreference(themedContext, volumeInfo);
+                volPreference = new StorageSummaryFragment.VolPreference(themedContext, volume);
             }
-            volPreference.refresh(themedContext, mStorageManager, volumeInfo);
+            volPreference.refresh(themedContext, volume);
             deviceCategory.addPreference(volPreference);
         }
 
-        for (final VolumeRecord volumeRecord : privateMissingVolumes) {
-            final String key = StorageSummaryFragment.MissingPreference.makeKey(volumeRecord);
+        for (final StorageSnapshot.MissingVolume missingVolume : snapshot.missingPrivateVolumes) {
+            final String key = StorageSummaryFragment.MissingPreference.makeKey(missingVolume);
             touchedDeviceKeys.add(key);
             StorageSummaryFragment.MissingPreference missingPreference =
                     (StorageSummaryFragment.MissingPreference) deviceCategory.findPreference(key);
             if (missingPreference == null) {
                 missingPreference = new StorageSummaryFragment.MissingPreference(
-                            themedContext, volumeRecord);
+                            themedContext, missingVolume);
             }
             deviceCategory.addPreference(missingPreference);
         }
@@ -212,30 +185,30 @@ public class StorageSummaryFragment extends SettingsPreferenceFragment {
 
         final PreferenceCategory removableCategory =
                 (PreferenceCategory) findPreference(KEY_REMOVABLE_CATEGORY);
-        final int publicCount = publicVolumes.size() + unsupportedDisks.size();
+        final int publicCount = snapshot.publicVolumes.size() + snapshot.unsupportedDisks.size();
         final Set<String> touchedRemovableKeys = new ArraySet<>(publicCount);
         // Only show section if there are public/unknown volumes present
         removableCategory.setVisible(publicCount > 0);
 
-        for (final VolumeInfo volumeInfo : publicVolumes) {
-            final String key = StorageSummaryFragment.VolPreference.makeKey(volumeInfo);
+        for (final StorageSnapshot.Volume volume : snapshot.publicVolumes) {
+            final String key = StorageSummaryFragment.VolPreference.makeKey(volume);
             touchedRemovableKeys.add(key);
             StorageSummaryFragment.VolPreference volPreference =
                     (StorageSummaryFragment.VolPreference) removableCategory.findPreference(key);
             if (volPreference == null) {
-                volPreference = new StorageSummaryFragment.VolPreference(themedContext, volumeInfo);
+                volPreference = new StorageSummaryFragment.VolPreference(themedContext, volume);
             }
-            volPreference.refresh(themedContext, mStorageManager, volumeInfo);
+            volPreference.refresh(themedContext, volume);
             removableCategory.addPreference(volPreference);
         }
-        for (final DiskInfo diskInfo : unsupportedDisks) {
-            final String key = StorageSummaryFragment.UnsupportedDiskPreference.makeKey(diskInfo);
+        for (final StorageSnapshot.UnsupportedDisk disk : snapshot.unsupportedDisks) {
+            final String key = StorageSummaryFragment.UnsupportedDiskPreference.makeKey(disk);
             touchedRemovableKeys.add(key);
             StorageSummaryFragment.UnsupportedDiskPreference unsupportedDiskPreference =
                     (StorageSummaryFragment.UnsupportedDiskPreference) findPreference(key);
             if (unsupportedDiskPreference == null) {
                 unsupportedDiskPreference = new StorageSummaryFragment.UnsupportedDiskPreference(
-                            themedContext, diskInfo);
+                            themedContext, disk);
             }
             removableCategory.addPreference(unsupportedDiskPreference);
         }
@@ -251,101 +224,65 @@ public class StorageSummaryFragment extends SettingsPreferenceFragment {
     }
 
     private static class VolPreference extends Preference {
-        VolPreference(Context context, VolumeInfo volumeInfo) {
+        VolPreference(Context context, StorageSnapshot.Volume volume) {
             super(context);
-            setKey(makeKey(volumeInfo));
+            setKey(makeKey(volume));
         }
 
-        private void refresh(Context context, StorageManager storageManager,
-                VolumeInfo volumeInfo) {
-            final String description = storageManager
-                    .getBestVolumeDescription(volumeInfo);
-            setTitle(description);
-            if (volumeInfo.isMountedReadable()) {
-                setSummary(getSizeString(volumeInfo));
+        private void refresh(Context context, StorageSnapshot.Volume volume) {
+            setTitle(volume.description);
+            if (volume.mountedReadable) {
+                setSummary(getSizeString(volume));
                 setFragment(StorageFragment.class.getName());
-                StorageFragment.prepareArgs(getExtras(), volumeInfo);
+                StorageFragment.prepareArgs(getExtras(), volume.id);
             } else {
-                setSummary(context.getString(R.string.storage_unmount_success, description));
+                setSummary(context.getString(R.string.storage_unmount_success,
+                        volume.description));
             }
         }
 
-        private String getSizeString(VolumeInfo vol) {
-            final File path = vol.getPath();
-            if (vol.isMountedReadable() && path != null) {
+        private String getSizeString(StorageSnapshot.Volume volume) {
+            if (volume.totalSpace >= 0) {
                 return String.format(getContext().getString(R.string.storage_size),
-                        StoragePreference.formatSize(getContext(), path.getTotalSpace()));
+                        StoragePreference.formatSize(getContext(), volume.totalSpace));
             } else {
                 return null;
             }
         }
 
-        public static String makeKey(VolumeInfo volumeInfo) {
-            return "VolPref:" + volumeInfo.getId();
+        public static String makeKey(StorageSnapshot.Volume volume) {
+            return "VolPref:" + volume.id;
         }
     }
 
     private static class MissingPreference extends Preference {
-        MissingPreference(Context context, VolumeRecord volumeRecord) {
+        MissingPreference(Context context, StorageSnapshot.MissingVolume missingVolume) {
             super(context);
-            setKey(makeKey(volumeRecord));
-            setTitle(volumeRecord.getNickname());
+            setKey(makeKey(missingVolume));
+            setTitle(missingVolume.nickname);
             setSummary(R.string.storage_not_connected);
             setFragment(MissingStorageFragment.class.getName());
-            MissingStorageFragment.prepareArgs(getExtras(), volumeRecord.getFsUuid());
+            MissingStorageFragment.prepareArgs(getExtras(), missingVolume.fsUuid);
         }
 
-        public static String makeKey(VolumeRecord volumeRecord) {
-            return "MissingPref:" + volumeRecord.getFsUuid();
+        public static String makeKey(StorageSnapshot.MissingVolume missingVolume) {
+            return "MissingPref:" + missingVolume.fsUuid;
         }
     }
 
     private static class UnsupportedDiskPreference extends Preference {
-        UnsupportedDiskPreference(Context context, DiskInfo info) {
+        UnsupportedDiskPreference(Context context, StorageSnapshot.UnsupportedDisk disk) {
             super(context);
-            setKey(makeKey(info));
-            setTitle(info.getDescription());
-            setIntent(NewStorageActivity.getNewStorageLaunchIntent(context, null, info.getId()));
+            setKey(makeKey(disk));
+            setTitle(disk.description);
+            setIntent(NewStorageActivity.getNewStorageLaunchIntent(context, null, disk.id));
         }
 
-        public static String makeKey(DiskInfo info) {
-            return "UnsupportedPref:" + info.getId();
+        public static String makeKey(StorageSnapshot.UnsupportedDisk disk) {
+            return "UnsupportedPref:" + disk.id;
         }
     }
 
-    private class StorageEventListener extends android.os.storage.StorageEventListener {
-        @Override
-        public void onStorageStateChanged(String path, String oldState, String newState) {
-            refresh();
-        }
-
-        @Override
-        public void onVolumeStateChanged(VolumeInfo vol, int oldState, int newState) {
-            refresh();
-        }
-
-        @Override
-        public void onVolumeRecordChanged(VolumeRecord rec) {
-            refresh();
-        }
-
-        @Override
-        public void onVolumeForgotten(String fsUuid) {
-            refresh();
-        }
-
-        @Override
-        public void onDiskScanned(DiskInfo disk, int volumeCount) {
-            refresh();
-        }
-
-        @Override
-        public void onDiskDestroyed(DiskInfo disk) {
-            refresh();
-        }
-
-    }
-
     @Override
     protected int getPageId() {
         return TvSettingsEnums.SYSTEM_STORAGE;
@@ -18,7 +18,9 @@ package com.android.tv.settings.device.apps;
 import static com.android.tv.settings.util.InstrumentationUtils.logEntrySelected;
 
 import android.app.tvsettings.TvSettingsEnums;
+import android.content.Context;
 import android.content.pm.PackageManager;
+import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.SystemClock;
@@ -30,9 +32,9 @@ import android.util.Log;
 
 import androidx.annotation.Keep;
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceGroup;
+import androidx.preference.PreferenceViewHolder;
 
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.tv.settings.R;
@@ -40,12 +42,16 @@ import com.android.tv.settings.SettingsPreferenceFragment;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
  * Fragment for listing and managing all apps on the device.
+ *
+ * <p>In the paged list mode, icons and sizes are not requested for every app up front; they are
+ * loaded as rows are bound, along with those of the rows just around them.
  */
 @Keep
 public class AllAppsFragment extends SettingsPreferenceFragment implements
@@ -54,25 +60,33 @@ public class AllAppsFragment extends SettingsPreferenceFragment implements
     private static final String TAG = "AllAppsFragment";
     private static final String KEY_SHOW_OTHER_APPS = "ShowOtherApps";
     private static Set<String> sSystemAppPackages;
+    // Added to the flags of the app index, which already requests home and launcher info.
     private static final @ApplicationsState.SessionFlags int SESSION_FLAGS =
-            ApplicationsState.FLAG_SESSION_REQUEST_HOME_APP
-            | ApplicationsState.FLAG_SESSION_REQUEST_ICONS
-            | ApplicationsState.FLAG_SESSION_REQUEST_SIZES
-            | ApplicationsState.FLAG_SESSION_REQUEST_LEANBACK_LAUNCHER;
+            ApplicationsState.FLAG_SESSION_REQUEST_ICONS
+            | ApplicationsState.FLAG_SESSION_REQUEST_SIZES;
+    private static final @ApplicationsState.SessionFlags int PAGED_SESSION_FLAGS = 0;
+    // Rows on each side of a bound row whose icons are loaded ahead of scrolling.
+    private static final int PREFETCH_MARGIN = 6;
 
     private ApplicationsState mApplicationsState;
-    private ApplicationsState.Session mSessionInstalled;
     private ApplicationsState.AppFilter mFilterInstalled;
-    private ApplicationsState.Session mSessionDisabled;
     private ApplicationsState.AppFilter mFilterDisabled;
-    private ApplicationsState.Session mSessionOther;
     private ApplicationsState.AppFilter mFilterOther;
+    private AppIndex.View mViewOther;
 
     private PreferenceGroup mInstalledPreferenceGroup;
     private PreferenceGroup mDisabledPreferenceGroup;
     private PreferenceGroup mOtherPreferenceGroup;
     private Preference mShowOtherApps;
 
+    private boolean mPagedList;
+    private AppIconCache mIconCache;
+    private Drawable mPlaceholderIcon;
+    // Entries last shown by each group, in order, to find the rows around a bound one.
+    private final Map<PreferenceGroup, List<ApplicationsState.AppEntry>> mGroupEntries =
+            new ArrayMap<>(3);
+    private final Set<String> mSizesRequested = new ArraySet<>();
+
     private final Handler mHandler = new Handler();
     private final Map<PreferenceGroup,
             ArrayList<ApplicationsState.AppEntry>> mUpdateMap = new ArrayMap<>(3);
@@ -108,6 +122,12 @@ public class AllAppsFragment extends SettingsPreferenceFragment implements
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
         mApplicationsState = ApplicationsState.getInstance(getActivity().getApplication());
+        mPagedList = getResources().getBoolean(R.bool.config_all_apps_paged_list);
+        if (mPagedList) {
+            mIconCache = AppIconCache.getInstance(getContext());
+            mPlaceholderIcon = getContext().getPackageManager().getDefaultActivityIcon();
+        }
+        final int sessionFlags = mPagedList ? PAGED_SESSION_FLAGS : SESSION_FLAGS;
         sSystemAppPackages = Arrays.stream(getResources()
                 .getStringArray(R.array.system_app_packages)).collect(Collectors.toSet());
 
@@ -132,50 +152,15 @@ public class AllAppsFragment extends SettingsPreferenceFragment implements
             mFilterOther = FILTER_OTHER;
         }
 
-        mSessionInstalled = mApplicationsState.newSession(new RowUpdateCallbacks() {
-            @Override
-            protected void doRebuild() {
-                rebuildInstalled();
-            }
-
-            @Override
-            public void onRebuildComplete(ArrayList<ApplicationsState.AppEntry> apps) {
-                updateAppList(mInstalledPreferenceGroup, apps);
-            }
-        }, getLifecycle());
-        mSessionInstalled.setSessionFlags(SESSION_FLAGS);
-
-        mSessionDisabled = mApplicationsState.newSession(new RowUpdateCallbacks() {
-            @Override
-            protected void doRebuild() {
-                rebuildDisabled();
-            }
-
-            @Override
-            public void onRebuildComplete(ArrayList<ApplicationsState.AppEntry> apps) {
-                updateAppList(mDisabledPreferenceGroup, apps);
-            }
-        }, getLifecycle());
-        mSessionDisabled.setSessionFlags(SESSION_FLAGS);
-
-        mSessionOther = mApplicationsState.newSession(new RowUpdateCallbacks() {
-            @Override
-            protected void doRebuild() {
-                if (!mShowOtherApps.isVisible()) {
-                    rebuildOther();
-                }
-            }
-
-            @Override
-            public void onRebuildComplete(ArrayList<ApplicationsState.AppEntry> apps) {
-                updateAppList(mOtherPreferenceGroup, apps);
-            }
-        }, getLifecycle());
-        mSessionOther.setSessionFlags(SESSION_FLAGS);
-
-
-        rebuildInstalled();
-        rebuildDisabled();
+        final AppIndex appIndex = AppIndex.getInstance(getContext());
+        appIndex.newView(mFilterInstalled, ApplicationsState.ALPHA_COMPARATOR, sessionFlags,
+                apps -> updateAppList(mInstalledPreferenceGroup, apps), getLifecycle());
+        appIndex.newView(mFilterDisabled, ApplicationsState.ALPHA_COMPARATOR, sessionFlags,
+                apps -> updateAppList(mDisabledPreferenceGroup, apps), getLifecycle());
+        mViewOther = appIndex.newView(mFilterOther, ApplicationsState.ALPHA_COMPARATOR,
+                sessionFlags, apps -> updateAppList(mOtherPreferenceGroup, apps),
+                getLifecycle());
+        mViewOther.setEnabled(!mShowOtherApps.isVisible());
     }
 
     @Override
@@ -191,37 +176,13 @@ public class AllAppsFragment extends SettingsPreferenceFragment implements
         mShowOtherApps.setVisible(TextUtils.isEmpty(volumeUuid));
     }
 
-    private void rebuildInstalled() {
-        ArrayList<ApplicationsState.AppEntry> apps =
-                mSessionInstalled.rebuild(mFilterInstalled, ApplicationsState.ALPHA_COMPARATOR);
-        if (apps != null) {
-            updateAppList(mInstalledPreferenceGroup, apps);
-        }
-    }
-
-    private void rebuildDisabled() {
-        ArrayList<ApplicationsState.AppEntry> apps =
-                mSessionDisabled.rebuild(mFilterDisabled, ApplicationsState.ALPHA_COMPARATOR);
-        if (apps != null) {
-            updateAppList(mDisabledPreferenceGroup, apps);
-        }
-    }
-
-    private void rebuildOther() {
-        ArrayList<ApplicationsState.AppEntry> apps =
-                mSessionOther.rebuild(mFilterOther, ApplicationsState.ALPHA_COMPARATOR);
-        if (apps != null) {
-            updateAppList(mOtherPreferenceGroup, apps);
-        }
-    }
-
     private void updateAppList(PreferenceGroup group,
             ArrayList<ApplicationsState.AppEntry> entries) {
         if (group == null) {
             Log.d(TAG, "Not updating list for null group");
             return;
         }
-        mUpdateMap.put(group, filterAppsInstalledInParentProfile(entries));
+        mUpdateMap.put(group, entries);
 
         // We can get spammed with updates, so coalesce them to reduce jank and flicker
         if (mRunAt == Long.MIN_VALUE) {
@@ -240,26 +201,22 @@ public class AllAppsFragment extends SettingsPreferenceFragment implements
         }
     }
 
-    private ArrayList<ApplicationsState.AppEntry> filterAppsInstalledInParentProfile(
-            @Nullable ArrayList<ApplicationsState.AppEntry> appEntries) {
-        if (appEntries == null) {
-            return new ArrayList<>();
-        } else {
-            return appEntries.stream().filter(appEntry ->
-                    UserHandle.getUserId(appEntry.info.uid) == UserHandle.myUserId())
-                    .collect(Collectors.toCollection(ArrayList::new));
-        }
-    }
-
     private void updateAppListInternal(PreferenceGroup group,
             ArrayList<ApplicationsState.AppEntry> entries) {
         if (entries != null) {
             final Set<String> touched = new ArraySet<>(entries.size());
-            for (final ApplicationsState.AppEntry entry : entries) {
+            mGroupEntries.put(group, entries);
+            for (int i = 0; i < entries.size(); i++) {
+                final ApplicationsState.AppEntry entry = entries.get(i);
                 final String packageName = entry.info.packageName;
                 Preference recycle = group.findPreference(packageName);
                 if (recycle == null) {
-                    recycle = new Preference(getPreferenceManager().getContext());
+                    recycle = mPagedList
+                            ? new AppRowPreference(getPreferenceManager().getContext())
+                            : new Preference(getPreferenceManager().getContext());
+                }
+                if (recycle instanceof AppRowPreference) {
+                    ((AppRowPreference) recycle).setEntry(entry, i);
                 }
                 final Preference newPref = bindPreference(recycle, entry);
                 group.addPreference(newPref);
@@ -291,10 +248,45 @@ public class AllAppsFragment extends SettingsPreferenceFragment implements
         preference.setSummary(entry.sizeStr);
         preference.setFragment(AppManagementFragment.class.getName());
         AppManagementFragment.prepareArgs(preference.getExtras(), entry.info.packageName);
-        preference.setIcon(entry.icon);
+        if (mPagedList && entry.icon == null) {
+            final Drawable cached = mIconCache.get(entry.info);
+            preference.setIcon(cached != null ? cached : mPlaceholderIcon);
+        } else {
+            preference.setIcon(entry.icon);
+        }
         return preference;
     }
 
+    /** Loads what a row just bound on screen is missing, and the icons of the rows around it. */
+    private void onRowBound(AppRowPreference preference) {
+        final ApplicationsState.AppEntry entry = preference.mEntry;
+        if (entry.icon == null) {
+            mIconCache.load(entry.info, icon -> {
+                if (preference.mEntry == entry && preference.getIcon() != icon) {
+                    preference.setIcon(icon);
+                }
+            });
+        }
+        if (entry.size == ApplicationsState.SIZE_UNKNOWN
+                && mSizesRequested.add(entry.info.packageName)) {
+            // The size arrives through onPackageSizeChanged.
+            mApplicationsState.requestSize(entry.info.packageName,
+                    UserHandle.getUserId(entry.info.uid));
+        }
+        final List<ApplicationsState.AppEntry> entries = mGroupEntries.get(preference.getParent());
+        if (entries == null) {
+            return;
+        }
+        final int start = Math.max(0, preference.mIndex - PREFETCH_MARGIN);
+        final int end = Math.min(entries.size(), preference.mIndex + PREFETCH_MARGIN + 1);
+        for (int i = start; i < end; i++) {
+            final ApplicationsState.AppEntry neighbor = entries.get(i);
+            if (neighbor != entry && neighbor.icon == null) {
+                mIconCache.load(neighbor.info, null);
+            }
+        }
+    }
+
     @Override
     public boolean onPreferenceClick(Preference preference) {
         if  (KEY_SHOW_OTHER_APPS.equals(preference.getKey())) {
@@ -308,46 +300,32 @@ public class AllAppsFragment extends SettingsPreferenceFragment implements
     private void showOtherApps() {
         mShowOtherApps.setVisible(false);
         mOtherPreferenceGroup.setVisible(true);
-        rebuildOther();
+        mViewOther.setEnabled(true);
     }
 
-    private abstract class RowUpdateCallbacks implements ApplicationsState.Callbacks {
-
-        protected abstract void doRebuild();
-
-        @Override
-        public void onRunningStateChanged(boolean running) {
-            doRebuild();
-        }
-
-        @Override
-        public void onPackageListChanged() {
-            doRebuild();
-        }
-
-        @Override
-        public void onPackageIconChanged() {
-            doRebuild();
-        }
+    /** App row that reports when it is bound, which only happens for rows on or near screen. */
+    private class AppRowPreference extends Preference {
+        private ApplicationsState.AppEntry mEntry;
+        private int mIndex;
 
-        @Override
-        public void onPackageSizeChanged(String packageName) {
-            doRebuild();
+        AppRowPreference(Context context) {
+            super(context);
         }
 
-        @Override
-        public void onAllSizesComputed() {
-            doRebuild();
+        void setEntry(ApplicationsState.AppEntry entry, int index) {
+            mEntry = entry;
+            mIndex = index;
         }
 
         @Override
-        public void onLauncherInfoChanged() {
-            doRebuild();
-        }
-
-        @Override
-        public void onLoadEntriesCompleted() {
-            doRebuild();
+        public void onBindViewHolder(PreferenceViewHolder holder) {
+            super.onBindViewHolder(holder);
+            // Changing the row while it is being bound is not allowed.
+            mHandler.post(() -> {
+                if (mEntry != null && isAdded()) {
+                    onRowBound(this);
+                }
+            });
         }
     }
 
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.device.apps;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.IconDrawableFactory;
+import android.util.LruCache;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recently used app icons, keyed by package, version and user so an update drops the old icon.
+ *
+ * <p>Icons are loaded on a background thread and only while a row asks for them, which keeps the
+ * number of decoded drawables bounded however many apps are installed.
+ */
+final class AppIconCache {
+    private static final int MAX_ICONS = 64;
+
+    private static AppIconCache sInstance;
+
+    /** Called on the main thread once an icon is loaded. */
+    interface Callback {
+        void onIconLoaded(Drawable icon);
+    }
+
+    private final IconDrawableFactory mIconDrawableFactory;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, Drawable> mIcons = new LruCache<>(MAX_ICONS);
+    // Callbacks of the icons being loaded; an empty list only fills the cache.
+    private final Map<String, List<Callback>> mPending = new ArrayMap<>();
+
+    @MainThread
+    static AppIconCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppIconCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AppIconCache(Context context) {
+        mIconDrawableFactory = IconDrawableFactory.newInstance(context);
+    }
+
+    @MainThread
+    @Nullable
+    Drawable get(ApplicationInfo info) {
+        return mIcons.get(getKey(info));
+    }
+
+    /**
+     * Loads the icon of {@code info} unless it is cached or already loading.
+     *
+     * @param callback called once the icon is loaded, or {@code null} to only prefetch it
+     */
+    @MainThread
+    void load(ApplicationInfo info, @Nullable Callback callback) {
+        final String key = getKey(info);
+        final Drawable cached = mIcons.get(key);
+        if (cached != null) {
+            if (callback != null) {
+                callback.onIconLoaded(cached);
+            }
+            return;
+        }
+        List<Callback> callbacks = mPending.get(key);
+        if (callbacks == null) {
+            callbacks = new ArrayList<>(1);
+            mPending.put(key, callbacks);
+            ThreadUtils.postOnBackgroundThread(() -> {
+                final Drawable icon = mIconDrawableFactory.getBadgedIcon(info);
+                mHandler.post(() -> deliver(key, icon));
+            });
+        }
+        if (callback != null) {
+            callbacks.add(callback);
+        }
+    }
+
+    @MainThread
+    private void deliver(String key, Drawable icon) {
+        final List<Callback> callbacks = mPending.remove(key);
+        if (icon == null) {
+            return;
+        }
+        mIcons.put(key, icon);
+        if (callbacks != null) {
+            for (Callback callback : callbacks) {
+                callback.onIconLoaded(icon);
+            }
+        }
+    }
+
+    private static String getKey(ApplicationInfo info) {
+        return info.packageName + ":" + info.longVersionCode + ":"
+                + UserHandle.getUserId(info.uid);
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.device.apps;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.UserHandle;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleObserver;
+import androidx.lifecycle.OnLifecycleEvent;
+
+import com.android.settingslib.applications.ApplicationsState;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Process wide index of the apps of the current user, shared by the app list screens.
+ *
+ * <p>A single {@link ApplicationsState.Session} keeps one alphabetically sorted snapshot of the
+ * user's apps, rebuilt only when the package list or launcher info changes. Screens subscribe to
+ * a {@link View} with their own filter and comparator, which is applied to the snapshot on a
+ * background thread instead of rebuilding the package list through a session of their own. Icon
+ * and size updates are passed on to the views without filtering again.
+ */
+public final class AppIndex {
+    private static final @ApplicationsState.SessionFlags int BASE_SESSION_FLAGS =
+            ApplicationsState.FLAG_SESSION_REQUEST_HOME_APP
+            | ApplicationsState.FLAG_SESSION_REQUEST_LEANBACK_LAUNCHER;
+
+    private static AppIndex sInstance;
+
+    /** Receives the apps of a view, on the main thread. */
+    public interface Listener {
+        void onAppListChanged(ArrayList<ApplicationsState.AppEntry> apps);
+    }
+
+    private final Context mContext;
+    private final ApplicationsState mApplicationsState;
+    private final ApplicationsState.Session mSession;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Handler mBackgroundHandler;
+    private final List<View> mActiveViews = new ArrayList<>();
+
+    // Immutable, replaced on the main thread after each rebuild.
+    private volatile List<ApplicationsState.AppEntry> mSnapshot;
+    private boolean mRebuildScheduled;
+
+    private final Runnable mRebuildRunnable = this::rebuild;
+
+    private final ApplicationsState.Callbacks mCallbacks = new ApplicationsState.Callbacks() {
+        @Override
+        public void onRunningStateChanged(boolean running) {
+            scheduleRebuild();
+        }
+
+        @Override
+        public void onPackageListChanged() {
+            scheduleRebuild();
+        }
+
+        @Override
+        public void onRebuildComplete(ArrayList<ApplicationsState.AppEntry> apps) {
+            setSnapshot(apps);
+        }
+
+        @Override
+        public void onPackageIconChanged() {
+            notifyEntriesChanged();
+        }
+
+        @Override
+        public void onPackageSizeChanged(String packageName) {
+            notifyEntriesChanged();
+        }
+
+        @Override
+        public void onAllSizesComputed() {
+            notifyEntriesChanged();
+        }
+
+        @Override
+        public void onLauncherInfoChanged() {
+            scheduleRebuild();
+        }
+
+        @Override
+        public void onLoadEntriesCompleted() {
+            scheduleRebuild();
+        }
+    };
+
+    private static final ApplicationsState.AppFilter FILTER_CURRENT_USER =
+            new ApplicationsState.AppFilter() {
+                private int mUserId;
+
+                @Override
+                public void init() {
+                    mUserId = UserHandle.myUserId();
+                }
+
+                @Override
+                public boolean filterApp(ApplicationsState.AppEntry entry) {
+                    return entry.info != null && UserHandle.getUserId(entry.info.uid) == mUserId;
+                }
+            };
+
+    @MainThread
+    public static AppIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppIndex((Application) context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AppIndex(Application application) {
+        mContext = application;
+        mApplicationsState = ApplicationsState.getInstance(application);
+        mSession = mApplicationsState.newSession(mCallbacks);
+        mSession.setSessionFlags(BASE_SESSION_FLAGS);
+        HandlerThread thread = new HandlerThread("AppIndex", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mBackgroundHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Creates a view over the index that is active while {@code lifecycle} is resumed.
+     *
+     * @param filter selects the apps of the view, or {@code null} for all of them
+     * @param comparator orders the apps, or {@code null} to keep them alphabetical
+     * @param sessionFlags additional {@link ApplicationsState.SessionFlags} the view relies on
+     */
+    @MainThread
+    public View newView(@Nullable ApplicationsState.AppFilter filter,
+            @Nullable Comparator<ApplicationsState.AppEntry> comparator,
+            @ApplicationsState.SessionFlags int sessionFlags, @NonNull Listener listener,
+            @NonNull Lifecycle lifecycle) {
+        final View view = new View(filter, comparator, sessionFlags, listener, lifecycle);
+        lifecycle.addObserver(view);
+        return view;
+    }
+
+    @MainThread
+    private void activate(View view) {
+        final boolean firstView = mActiveViews.isEmpty();
+        mActiveViews.add(view);
+        updateSessionFlags();
+        if (firstView) {
+            // The snapshot was not kept up to date while paused; show it, then rebuild.
+            mSession.onResume();
+            scheduleRebuild();
+        }
+        if (mSnapshot != null) {
+            view.refresh();
+        }
+    }
+
+    @MainThread
+    private void deactivate(View view) {
+        if (!mActiveViews.remove(view)) {
+            return;
+        }
+        updateSessionFlags();
+        if (mActiveViews.isEmpty()) {
+            mSession.onPause();
+            mMainHandler.removeCallbacks(mRebuildRunnable);
+            mRebuildScheduled = false;
+        }
+    }
+
+    private void updateSessionFlags() {
+        int flags = BASE_SESSION_FLAGS;
+        for (View view : mActiveViews) {
+            flags |= view.mSessionFlags;
+        }
+        if (flags != mSession.getSessionFlags()) {
+            mSession.setSessionFlags(flags);
+        }
+    }
+
+    @MainThread
+    private void scheduleRebuild() {
+        if (!mRebuildScheduled) {
+            // ApplicationsState often reports several changes in a row.
+            mRebuildScheduled = true;
+            mMainHandler.post(mRebuildRunnable);
+        }
+    }
+
+    @MainThread
+    private void rebuild() {
+        mRebuildScheduled = false;
+        if (mActiveViews.isEmpty()) {
+            return;
+        }
+        final ArrayList<ApplicationsState.AppEntry> apps =
+                mSession.rebuild(FILTER_CURRENT_USER, ApplicationsState.ALPHA_COMPARATOR);
+        if (apps != null) {
+            setSnapshot(apps);
+        }
+    }
+
+    @MainThread
+    private void setSnapshot(ArrayList<ApplicationsState.AppEntry> apps) {
+        mSnapshot = Collections.unmodifiableList(new ArrayList<>(apps));
+        for (View view : new ArrayList<>(mActiveViews)) {
+            view.refresh();
+        }
+    }
+
+    @MainThread
+    private void notifyEntriesChanged() {
+        for (View view : new ArrayList<>(mActiveViews)) {
+            view.redeliver();
+        }
+    }
+
+    /** The apps of the index selected and ordered for one screen. */
+    public final class View implements LifecycleObserver {
+        private final ApplicationsState.AppFilter mFilter;
+        private final Comparator<ApplicationsState.AppEntry> mComparator;
+        private final int mSessionFlags;
+        private final Listener mListener;
+        private final Lifecycle mLifecycle;
+
+        private boolean mEnabled = true;
+        private boolean mResumed;
+        // Incremented for each refresh so only the latest result is delivered.
+        private int mGeneration;
+        private ArrayList<ApplicationsState.AppEntry> mApps;
+
+        private View(ApplicationsState.AppFilter filter,
+                Comparator<ApplicationsState.AppEntry> comparator, int sessionFlags,
+                Listener listener, Lifecycle lifecycle) {
+            mFilter = filter;
+            mComparator = comparator;
+            mSessionFlags = sessionFlags;
+            mListener = listener;
+            mLifecycle = lifecycle;
+        }
+
+        /** Views that are not enabled are never filtered; they are enabled by default. */
+        @MainThread
+        public void setEnabled(boolean enabled) {
+            if (mEnabled == enabled) {
+                return;
+            }
+            mEnabled = enabled;
+            updateActive();
+        }
+
+        /** Filters the apps again, for filters depending on state the index does not track. */
+        @MainThread
+        public void refresh() {
+            if (!isActive()) {
+                return;
+            }
+            final List<ApplicationsState.AppEntry> snapshot = mSnapshot;
+            if (snapshot == null) {
+                return;
+            }
+            final int generation = ++mGeneration;
+            mBackgroundHandler.post(() -> {
+                final ArrayList<ApplicationsState.AppEntry> apps = select(snapshot);
+                mMainHandler.post(() -> {
+                    if (generation == mGeneration && isActive()) {
+                        mApps = apps;
+                        mListener.onAppListChanged(apps);
+                    }
+                });
+            });
+        }
+
+        private void redeliver() {
+            if (mApps != null) {
+                mListener.onAppListChanged(mApps);
+            }
+        }
+
+        private ArrayList<ApplicationsState.AppEntry> select(
+                List<ApplicationsState.AppEntry> snapshot) {
+            final ArrayList<ApplicationsState.AppEntry> apps = new ArrayList<>(snapshot.size());
+            if (mFilter == null) {
+                apps.addAll(snapshot);
+            } else {
+                mFilter.init(mContext);
+                for (ApplicationsState.AppEntry entry : snapshot) {
+                    if (mFilter.filterApp(entry)) {
+                        apps.add(entry);
+                    }
+                }
+            }
+            // The snapshot is already in alphabetical order.
+            if (mComparator != null && mComparator != ApplicationsState.ALPHA_COMPARATOR) {
+                apps.sort(mComparator);
+            }
+            return apps;
+        }
+
+        private boolean isActive() {
+            return mResumed && mEnabled;
+        }
+
+        private void updateActive() {
+            if (isActive()) {
+                activate(this);
+            } else {
+                mGeneration++;
+                deactivate(this);
+            }
+        }
+
+        @OnLifecycleEvent(Lifecycle.Event.ON_RESUME)
+        public void onResume() {
+            mResumed = true;
+            updateActive();
+        }
+
+        @OnLifecycleEvent(Lifecycle.Event.ON_PAUSE)
+        public void onPause() {
+            mResumed = false;
+            updateActive();
+        }
+
+        @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY)
+        public void onDestroy() {
+            mLifecycle.removeObserver(this);
+        }
+    }
+}
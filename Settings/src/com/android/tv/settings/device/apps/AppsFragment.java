@@ -151,7 +151,10 @@ public class AppsFragment extends PreferenceControllerFragment {
         final Activity activity = getActivity();
         final Application app = activity != null ? activity.getApplication() : null;
         List<AbstractPreferenceController> controllers = new ArrayList<>();
-        controllers.add(new RecentAppsPreferenceController(getContext(), app));
+        final RecentAppsPreferenceController recentAppsController =
+                new RecentAppsPreferenceController(getContext(), app);
+        getSettingsLifecycle().addObserver(recentAppsController);
+        controllers.add(recentAppsController);
         return controllers;
     }
 
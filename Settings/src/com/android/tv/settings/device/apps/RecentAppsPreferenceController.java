@@ -17,83 +17,66 @@
 package com.android.tv.settings.device.apps;
 
 import android.app.Application;
-import android.app.usage.UsageStats;
 import android.app.usage.UsageStatsManager;
 import android.content.Context;
-import android.content.Intent;
-import android.content.pm.PackageManager;
 import android.os.UserHandle;
 import android.text.TextUtils;
 import android.util.ArrayMap;
-import android.util.ArraySet;
 import android.util.IconDrawableFactory;
-import android.util.Log;
 
 import androidx.annotation.VisibleForTesting;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceCategory;
 import androidx.preference.PreferenceScreen;
 
-import com.android.settingslib.applications.AppUtils;
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.settingslib.core.AbstractPreferenceController;
+import com.android.settingslib.core.lifecycle.LifecycleObserver;
+import com.android.settingslib.core.lifecycle.events.OnStop;
 import com.android.settingslib.utils.StringUtil;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Calendar;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * This controller displays a list of recently used apps and a "See all" button.
  */
 public class RecentAppsPreferenceController extends AbstractPreferenceController
-        implements Comparator<UsageStats> {
+        implements LifecycleObserver, OnStop {
 
-    private static final String TAG = "RecentAppsPreferenceController";
     private static final String KEY_PREF_CATEGORY = "recently_used_apps_category";
     @VisibleForTesting
     static final String KEY_SEE_ALL = "see_all_apps";
-    private static final int SHOW_RECENT_APP_COUNT = 5;
-    private static final Set<String> SKIP_SYSTEM_PACKAGES = new ArraySet<>();
 
-    private final PackageManager mPm;
-    private final UsageStatsManager mUsageStatsManager;
+    private final RecentAppsSource mRecentAppsSource;
     private final ApplicationsState mApplicationsState;
     private final int mUserId;
     private final IconDrawableFactory mIconDrawableFactory;
 
-    private Calendar mCal;
-    private List<UsageStats> mStats;
-
     private PreferenceCategory mCategory;
-
-    static {
-        SKIP_SYSTEM_PACKAGES.addAll(Arrays.asList(
-                "android",
-                "com.android.tv.settings",
-                "com.android.systemui",
-                "com.android.providers.calendar",
-                "com.android.providers.media"
-        ));
-    }
+    // Waiting for the load in flight, if any.
+    private RecentAppsSource.Callback mLoadCallback;
 
     public RecentAppsPreferenceController(Context context, Application app) {
-        this(context, app == null ? null : ApplicationsState.getInstance(app));
+        this(context, app == null ? null : ApplicationsState.getInstance(app),
+                RecentAppsSource.getInstance(context));
     }
 
+    /** Loads usage with the services of {@code context}, delivering the results right away. */
     @VisibleForTesting(otherwise = VisibleForTesting.NONE)
     RecentAppsPreferenceController(Context context, ApplicationsState appState) {
+        this(context, appState, new RecentAppsSource(context.getPackageManager(),
+                (UsageStatsManager) context.getSystemService(Context.USAGE_STATS_SERVICE),
+                appState, Runnable::run, Runnable::run));
+    }
+
+    @VisibleForTesting
+    RecentAppsPreferenceController(Context context, ApplicationsState appState,
+            RecentAppsSource recentAppsSource) {
         super(context);
         mIconDrawableFactory = IconDrawableFactory.newInstance(context);
         mUserId = UserHandle.myUserId();
-        mPm = context.getPackageManager();
-        mUsageStatsManager =
-                (UsageStatsManager) context.getSystemService(Context.USAGE_STATS_SERVICE);
+        mRecentAppsSource = recentAppsSource;
         mApplicationsState = appState;
     }
 
@@ -116,12 +99,31 @@ public class RecentAppsPreferenceController extends AbstractPreferenceController
 
     @VisibleForTesting
     void refreshUi(Context prefContext) {
-        reloadData();
-        final List<UsageStats> recentApps = getDisplayableRecentAppList();
-        if (recentApps != null && !recentApps.isEmpty()) {
-            displayRecentApps(prefContext, recentApps);
-        } else {
-            displayOnlyAllApps();
+        // Show the apps found last time right away, then update them once usage is loaded.
+        final List<RecentAppsSource.RecentApp> cachedApps =
+                mRecentAppsSource.getCachedRecentApps(mUserId);
+        if (cachedApps != null) {
+            displayRecentApps(prefContext, cachedApps);
+        }
+        cancelLoad();
+        final RecentAppsSource.Callback callback = apps -> {
+            mLoadCallback = null;
+            displayRecentApps(prefContext, apps);
+        };
+        mLoadCallback = callback;
+        mRecentAppsSource.load(mUserId, callback);
+    }
+
+    @Override
+    public void onStop() {
+        // Don't keep the screen around until the load finishes.
+        cancelLoad();
+    }
+
+    private void cancelLoad() {
+        if (mLoadCallback != null) {
+            mRecentAppsSource.cancel(mUserId, mLoadCallback);
+            mLoadCallback = null;
         }
     }
 
@@ -136,7 +138,12 @@ public class RecentAppsPreferenceController extends AbstractPreferenceController
         }
     }
 
-    private void displayRecentApps(Context prefContext, List<UsageStats> recentApps) {
+    private void displayRecentApps(Context prefContext,
+            List<RecentAppsSource.RecentApp> recentApps) {
+        if (recentApps.isEmpty()) {
+            displayOnlyAllApps();
+            return;
+        }
         mCategory.setVisible(true);
 
         // Rebind prefs/avoid adding new prefs if possible. Adding/removing prefs causes jank.
@@ -152,9 +159,9 @@ public class RecentAppsPreferenceController extends AbstractPreferenceController
         }
         final int recentAppsCount = recentApps.size();
         for (int i = 0; i < recentAppsCount; i++) {
-            final UsageStats stat = recentApps.get(i);
+            final RecentAppsSource.RecentApp stat = recentApps.get(i);
             // Bind recent apps to existing prefs if possible, or create a new pref.
-            final String pkgName = stat.getPackageName();
+            final String pkgName = stat.packageName;
             final ApplicationsState.AppEntry appEntry =
                     mApplicationsState.getEntry(pkgName, mUserId);
             if (appEntry == null) {
@@ -171,11 +178,11 @@ public class RecentAppsPreferenceController extends AbstractPreferenceController
             pref.setTitle(appEntry.label);
             pref.setIcon(mIconDrawableFactory.getBadgedIcon(appEntry.info));
             // Show empty summary if app last used time is larger than current time. b/183744220
-            if (stat.getLastTimeUsed() > System.currentTimeMillis()) {
+            if (stat.lastTimeUsed > System.currentTimeMillis()) {
                 pref.setSummary("");
             } else {
                 pref.setSummary(StringUtil.formatRelativeTime(mContext,
-                        System.currentTimeMillis() - stat.getLastTimeUsed(),
+                        System.currentTimeMillis() - stat.lastTimeUsed,
                         false));
             }
             pref.setOrder(i);
@@ -196,84 +203,4 @@ public class RecentAppsPreferenceController extends AbstractPreferenceController
         super.updateState(preference);
         refreshUi(mCategory.getContext());
     }
-
-    @Override
-    public final int compare(UsageStats a, UsageStats b) {
-        // return by descending order
-        return Long.compare(b.getLastTimeUsed(), a.getLastTimeUsed());
-    }
-
-    @VisibleForTesting
-    void reloadData() {
-        mCal = Calendar.getInstance();
-        mCal.add(Calendar.DAY_OF_YEAR, -1);
-        mStats = mUsageStatsManager.queryUsageStats(
-                UsageStatsManager.INTERVAL_BEST, mCal.getTimeInMillis(),
-                System.currentTimeMillis());
-    }
-
-    private List<UsageStats> getDisplayableRecentAppList() {
-        final List<UsageStats> recentApps = new ArrayList<>();
-        final Map<String, UsageStats> map = new ArrayMap<>();
-        final int statCount = mStats.size();
-        for (int i = 0; i < statCount; i++) {
-            final UsageStats pkgStats = mStats.get(i);
-            if (!shouldIncludePkgInRecents(pkgStats)) {
-                continue;
-            }
-            final String pkgName = pkgStats.getPackageName();
-            final UsageStats existingStats = map.get(pkgName);
-            if (existingStats == null) {
-                map.put(pkgName, pkgStats);
-            } else {
-                existingStats.add(pkgStats);
-            }
-        }
-        final List<UsageStats> packageStats = new ArrayList<>();
-        packageStats.addAll(map.values());
-        Collections.sort(packageStats, this /* comparator */);
-        int count = 0;
-        for (UsageStats stat : packageStats) {
-            final ApplicationsState.AppEntry appEntry = mApplicationsState.getEntry(
-                    stat.getPackageName(), mUserId);
-            if (appEntry == null) {
-                continue;
-            }
-            recentApps.add(stat);
-            count++;
-            if (count >= SHOW_RECENT_APP_COUNT) {
-                break;
-            }
-        }
-        return recentApps;
-    }
-
-    /**
-     * Whether or not the app should be included in recent list.
-     */
-    private boolean shouldIncludePkgInRecents(UsageStats stat) {
-        final String pkgName = stat.getPackageName();
-        if (stat.getLastTimeUsed() < mCal.getTimeInMillis()) {
-            Log.d(TAG, "Invalid timestamp, skipping " + pkgName);
-            return false;
-        }
-
-        if (SKIP_SYSTEM_PACKAGES.contains(pkgName)) {
-            Log.d(TAG, "System package, skipping " + pkgName);
-            return false;
-        }
-        final Intent launchIntent = new Intent().addCategory(Intent.CATEGORY_LEANBACK_LAUNCHER)
-                .setPackage(pkgName);
-
-        if (mPm.resolveActivity(launchIntent, 0) == null) {
-            // Not visible on launcher -> likely not a user visible app, skip if non-instant.
-            final ApplicationsState.AppEntry appEntry =
-                    mApplicationsState.getEntry(pkgName, mUserId);
-            if (appEntry == null || appEntry.info == null || !AppUtils.isInstant(appEntry.info)) {
-                Log.d(TAG, "Not a user visible or instant app, skipping " + pkgName);
-                return false;
-            }
-        }
-        return true;
-    }
 }
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.device.apps;
+
+import android.app.Application;
+import android.app.usage.UsageStats;
+import android.app.usage.UsageStatsManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.settingslib.applications.AppUtils;
+import com.android.settingslib.applications.ApplicationsState;
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the most recently used apps of each user, for {@link RecentAppsPreferenceController}.
+ *
+ * <p>Usage stats are queried on a background thread. The last time each app was used is kept
+ * between loads, so each load only queries the usage since the previous one, and the most recent
+ * apps are picked with a small heap instead of sorting all of them.
+ */
+final class RecentAppsSource {
+    private static final String TAG = "RecentAppsSource";
+
+    private static final int MAX_RECENT_APPS = 5;
+    private static final Set<String> SKIP_SYSTEM_PACKAGES = new ArraySet<>(Arrays.asList(
+            "android",
+            "com.android.tv.settings",
+            "com.android.systemui",
+            "com.android.providers.calendar",
+            "com.android.providers.media"
+    ));
+    private static final Comparator<RecentApp> LEAST_RECENT_FIRST =
+            Comparator.comparingLong(app -> app.lastTimeUsed);
+
+    private static RecentAppsSource sInstance;
+
+    private final PackageManager mPm;
+    private final UsageStatsManager mUsageStatsManager;
+    private final ApplicationsState mApplicationsState;
+    private final Executor mBackgroundExecutor;
+    private final Executor mMainExecutor;
+    private final SparseArray<UserState> mUserStates = new SparseArray<>();
+
+    /** An app and the last time it was used. */
+    static final class RecentApp {
+        final String packageName;
+        final long lastTimeUsed;
+
+        RecentApp(String packageName, long lastTimeUsed) {
+            this.packageName = packageName;
+            this.lastTimeUsed = lastTimeUsed;
+        }
+    }
+
+    /** Receives the recent apps, most recent first, on the main thread. */
+    interface Callback {
+        void onRecentAppsLoaded(List<RecentApp> apps);
+    }
+
+    private static final class UserState {
+        // Only touched by the load in flight.
+        final Map<String, Long> mLastTimeUsed = new ArrayMap<>();
+        long mQueriedUntil;
+        // Main thread only.
+        List<RecentApp> mRecentApps;
+        List<Callback> mPendingCallbacks;
+    }
+
+    @MainThread
+    static RecentAppsSource getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RecentAppsSource((Application) context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private RecentAppsSource(Application application) {
+        this(application.getPackageManager(),
+                application.getSystemService(UsageStatsManager.class),
+                ApplicationsState.getInstance(application),
+                ThreadUtils::postOnBackgroundThread, ThreadUtils::postOnMainThread);
+    }
+
+    /**
+     * @param backgroundExecutor runs the usage stats queries
+     * @param mainExecutor delivers the results; must run on the main thread
+     */
+    @VisibleForTesting
+    RecentAppsSource(PackageManager pm, UsageStatsManager usageStatsManager,
+            ApplicationsState applicationsState, Executor backgroundExecutor,
+            Executor mainExecutor) {
+        mPm = pm;
+        mUsageStatsManager = usageStatsManager;
+        mApplicationsState = applicationsState;
+        mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
+    }
+
+    /** Returns the apps found by the last load, or {@code null} if none finished yet. */
+    @MainThread
+    @Nullable
+    List<RecentApp> getCachedRecentApps(int userId) {
+        final UserState state = mUserStates.get(userId);
+        return state == null ? null : state.mRecentApps;
+    }
+
+    /** Loads the recent apps in the background; loads requested meanwhile share the result. */
+    @MainThread
+    void load(int userId, Callback callback) {
+        UserState state = mUserStates.get(userId);
+        if (state == null) {
+            state = new UserState();
+            mUserStates.put(userId, state);
+        }
+        if (state.mPendingCallbacks != null) {
+            state.mPendingCallbacks.add(callback);
+            return;
+        }
+        state.mPendingCallbacks = new ArrayList<>();
+        state.mPendingCallbacks.add(callback);
+        final UserState loadingState = state;
+        mBackgroundExecutor.execute(() -> {
+            final List<RecentApp> apps = update(loadingState, userId);
+            mMainExecutor.execute(() -> {
+                final List<Callback> callbacks = loadingState.mPendingCallbacks;
+                loadingState.mPendingCallbacks = null;
+                loadingState.mRecentApps = apps;
+                for (Callback pending : callbacks) {
+                    pending.onRecentAppsLoaded(apps);
+                }
+            });
+        });
+    }
+
+    /**
+     * Drops {@code callback} if its load is still running, e.g. because the screen that asked
+     * went away.
+     */
+    @MainThread
+    void cancel(int userId, Callback callback) {
+        final UserState state = mUserStates.get(userId);
+        if (state != null && state.mPendingCallbacks != null) {
+            state.mPendingCallbacks.remove(callback);
+        }
+    }
+
+    @WorkerThread
+    private List<RecentApp> update(UserState state, int userId) {
+        final Calendar cal = Calendar.getInstance();
+        cal.add(Calendar.DAY_OF_YEAR, -1);
+        final long windowStart = cal.getTimeInMillis();
+        final long now = System.currentTimeMillis();
+
+        // Usage up to the previous load is already known; only ask for what came after it.
+        final List<UsageStats> stats = mUsageStatsManager.queryUsageStats(
+                UsageStatsManager.INTERVAL_BEST, Math.max(windowStart, state.mQueriedUntil), now);
+        if (stats != null) {
+            for (UsageStats pkgStats : stats) {
+                final Long lastTimeUsed = state.mLastTimeUsed.get(pkgStats.getPackageName());
+                if (lastTimeUsed == null || lastTimeUsed < pkgStats.getLastTimeUsed()) {
+                    state.mLastTimeUsed.put(pkgStats.getPackageName(), pkgStats.getLastTimeUsed());
+                }
+            }
+        }
+        state.mQueriedUntil = now;
+
+        final PriorityQueue<RecentApp> heap =
+                new PriorityQueue<>(MAX_RECENT_APPS + 1, LEAST_RECENT_FIRST);
+        final Iterator<Map.Entry<String, Long>> it = state.mLastTimeUsed.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, Long> entry = it.next();
+            final long lastTimeUsed = entry.getValue();
+            if (lastTimeUsed < windowStart) {
+                it.remove();
+                continue;
+            }
+            // Only apps that would make the list are checked, as the check resolves activities.
+            if (heap.size() == MAX_RECENT_APPS && lastTimeUsed <= heap.peek().lastTimeUsed) {
+                continue;
+            }
+            if (!shouldIncludePkgInRecents(entry.getKey(), userId)) {
+                continue;
+            }
+            heap.add(new RecentApp(entry.getKey(), lastTimeUsed));
+            if (heap.size() > MAX_RECENT_APPS) {
+                heap.poll();
+            }
+        }
+        final List<RecentApp> recentApps = new ArrayList<>(heap);
+        recentApps.sort(Collections.reverseOrder(LEAST_RECENT_FIRST));
+        return Collections.unmodifiableList(recentApps);
+    }
+
+    /**
+     * Whether or not the app should be included in recent list.
+     */
+    private boolean shouldIncludePkgInRecents(String pkgName, int userId) {
+        if (SKIP_SYSTEM_PACKAGES.contains(pkgName)) {
+            Log.d(TAG, "System package, skipping " + pkgName);
+            return false;
+        }
+        final ApplicationsState.AppEntry appEntry = mApplicationsState.getEntry(pkgName, userId);
+        if (appEntry == null) {
+            return false;
+        }
+        final Intent launchIntent = new Intent().addCategory(Intent.CATEGORY_LEANBACK_LAUNCHER)
+                .setPackage(pkgName);
+
+        if (mPm.resolveActivity(launchIntent, 0) == null) {
+            // Not visible on launcher -> likely not a user visible app, skip if non-instant.
+            if (appEntry.info == null || !AppUtils.isInstant(appEntry.info)) {
+                Log.d(TAG, "Not a user visible or instant app, skipping " + pkgName);
+                return false;
+            }
+        }
+        return true;
+    }
+}
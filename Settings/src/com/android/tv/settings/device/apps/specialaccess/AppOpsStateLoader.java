@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.device.apps.specialaccess;
+
+import android.app.ActivityThread;
+import android.app.AppOpsManager;
+import android.content.Context;
+import android.content.pm.IPackageManager;
+import android.content.pm.PackageManager;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.internal.app.IAppOpsService;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the app op state of all apps for one op in a single pass over the app list.
+ *
+ * <p>{@link #load()} fetches the packages requesting the permission and the packages with a mode
+ * set for the op with one call each, instead of asking for every app. The bulk call does not
+ * report modes set for a whole uid, so those are looked up once per uid. Together they tell which
+ * apps the op is relevant to; the mode of a relevant app is checked on its own, as are
+ * permissions, once per uid.
+ */
+final class AppOpsStateLoader {
+    private static final String TAG = "AppOpsStateLoader";
+
+    private final IPackageManager mIPackageManager;
+    private final AppOpsManager mAppOpsManager;
+    private final IAppOpsService mAppOpsService;
+    private final int mOpCode;
+    private final String mPermission;
+    private final int mDefaultMode;
+
+    private Set<String> mRequestingPackages = Collections.emptySet();
+    // Apps with a package mode set for the op, keyed by uid and package name.
+    private Set<String> mPackagesWithMode = Collections.emptySet();
+    // Effective modes checked during this pass, keyed by uid and package name.
+    private final Map<String, Integer> mModes = new ArrayMap<>();
+    private final SparseBooleanArray mGrantedUids = new SparseBooleanArray();
+    // Whether a mode is set for the op for the whole uid, checked during this pass.
+    private final SparseBooleanArray mUidsWithMode = new SparseBooleanArray();
+
+    AppOpsStateLoader(Context context, int opCode, @Nullable String permission) {
+        this(ActivityThread.getPackageManager(), context.getSystemService(AppOpsManager.class),
+                IAppOpsService.Stub.asInterface(
+                        ServiceManager.getService(Context.APP_OPS_SERVICE)),
+                opCode, permission);
+    }
+
+    @VisibleForTesting
+    AppOpsStateLoader(IPackageManager packageManager, AppOpsManager appOpsManager,
+            IAppOpsService appOpsService, int opCode, @Nullable String permission) {
+        mIPackageManager = packageManager;
+        mAppOpsManager = appOpsManager;
+        mAppOpsService = appOpsService;
+        mOpCode = opCode;
+        mPermission = permission;
+        mDefaultMode = AppOpsManager.opToDefaultMode(opCode);
+    }
+
+    /** Fetches the state of all apps; call once before a pass over the app list. */
+    @WorkerThread
+    synchronized void load() {
+        mGrantedUids.clear();
+        mUidsWithMode.clear();
+        mModes.clear();
+        mRequestingPackages = Collections.emptySet();
+        if (mPermission != null) {
+            try {
+                final String[] packages = mIPackageManager.getAppOpPermissionPackages(mPermission);
+                if (packages != null) {
+                    mRequestingPackages = new ArraySet<>(packages);
+                }
+            } catch (RemoteException e) {
+                Log.e(TAG, "PackageManager dead. Cannot get permission info");
+            }
+        }
+        final List<AppOpsManager.PackageOps> packageOpsList =
+                mAppOpsManager.getPackagesForOps(new int[] {mOpCode});
+        if (packageOpsList == null) {
+            mPackagesWithMode = Collections.emptySet();
+            return;
+        }
+        final Set<String> packagesWithMode = new ArraySet<>(packageOpsList.size());
+        for (AppOpsManager.PackageOps packageOps : packageOpsList) {
+            for (AppOpsManager.OpEntry opEntry : packageOps.getOps()) {
+                if (opEntry.getOp() == mOpCode) {
+                    packagesWithMode.add(
+                            getKey(packageOps.getUid(), packageOps.getPackageName()));
+                }
+            }
+        }
+        mPackagesWithMode = packagesWithMode;
+    }
+
+    synchronized boolean hasRequestedPermission(String packageName) {
+        return mRequestingPackages.contains(packageName);
+    }
+
+    /**
+     * Whether the mode of the op for the app can be other than {@link AppOpsManager#MODE_DEFAULT}:
+     * the op defaults to another mode, or a mode was set for the package or its uid.
+     */
+    @WorkerThread
+    synchronized boolean mayHaveMode(int uid, String packageName) {
+        return mDefaultMode != AppOpsManager.MODE_DEFAULT
+                || mPackagesWithMode.contains(getKey(uid, packageName))
+                || hasUidMode(uid);
+    }
+
+    @WorkerThread
+    private boolean hasUidMode(int uid) {
+        final int index = mUidsWithMode.indexOfKey(uid);
+        if (index >= 0) {
+            return mUidsWithMode.valueAt(index);
+        }
+        boolean hasMode = false;
+        try {
+            final List<AppOpsManager.PackageOps> uidOps =
+                    mAppOpsService.getUidOps(uid, new int[] {mOpCode});
+            hasMode = uidOps != null && !uidOps.isEmpty();
+        } catch (RemoteException e) {
+            Log.e(TAG, "AppOpsService dead. Cannot get uid modes");
+        }
+        mUidsWithMode.put(uid, hasMode);
+        return hasMode;
+    }
+
+    /** Returns the mode of the op for the app, taking a mode set for its uid into account. */
+    @WorkerThread
+    synchronized int getAppOpMode(int uid, String packageName) {
+        final String key = getKey(uid, packageName);
+        Integer mode = mModes.get(key);
+        if (mode == null) {
+            mode = mAppOpsManager.checkOpNoThrow(mOpCode, uid, packageName);
+            mModes.put(key, mode);
+        }
+        return mode;
+    }
+
+    @WorkerThread
+    synchronized boolean hasPermission(int uid) {
+        if (mPermission == null) {
+            return false;
+        }
+        final int index = mGrantedUids.indexOfKey(uid);
+        if (index >= 0) {
+            return mGrantedUids.valueAt(index);
+        }
+        boolean granted = false;
+        try {
+            granted = mIPackageManager.checkUidPermission(mPermission, uid)
+                    == PackageManager.PERMISSION_GRANTED;
+        } catch (RemoteException e) {
+            Log.e(TAG, "PackageManager dead. Cannot get permission info");
+        }
+        mGrantedUids.put(uid, granted);
+        return granted;
+    }
+
+    private static String getKey(int uid, String packageName) {
+        return uid + ":" + packageName;
+    }
+}
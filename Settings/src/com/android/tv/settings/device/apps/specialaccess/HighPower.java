@@ -32,6 +32,8 @@ import com.android.settingslib.fuelgauge.PowerAllowlistBackend;
 import com.android.tv.settings.R;
 import com.android.tv.settings.SettingsPreferenceFragment;
 
+import java.util.Set;
+
 /**
  * Fragment for managing power save allowlist
  */
@@ -47,15 +49,19 @@ public class HighPower extends SettingsPreferenceFragment implements
                             ApplicationsState.FILTER_WITHOUT_DISABLED_UNTIL_USED,
                             ApplicationsState.FILTER_ALL_ENABLED),
                     new ApplicationsState.AppFilter() {
+                        private Set<String> mIgnoredPackages;
+
                         @Override
-                        public void init() {}
+                        public void init() {
+                            mIgnoredPackages = ManageAppOp.getIgnoredPackages(getContext(), 0);
+                        }
 
                         @Override
                         public boolean filterApp(ApplicationsState.AppEntry info) {
                             info.extraInfo =
                                     mPowerAllowlistBackend.isAllowlisted(info.info.packageName);
-                            return !ManageAppOp.shouldIgnorePackage(getContext(),
-                                    info.info.packageName, 0);
+                            return !ManageAppOp.shouldIgnorePackage(mIgnoredPackages,
+                                    info.info.packageName);
                         }
                     });
 
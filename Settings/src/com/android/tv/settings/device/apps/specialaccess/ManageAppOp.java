@@ -16,28 +16,21 @@
 
 package com.android.tv.settings.device.apps.specialaccess;
 
-import android.app.ActivityThread;
 import android.app.AppOpsManager;
 import android.content.Context;
-import android.content.pm.IPackageManager;
-import android.content.pm.PackageManager;
-import android.os.Bundle;
-import android.os.RemoteException;
-import android.util.Log;
+import android.util.ArraySet;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.preference.Preference;
 
-import com.android.internal.util.ArrayUtils;
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.tv.settings.R;
 import com.android.tv.settings.SettingsPreferenceFragment;
 
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * Base class for managing app ops
@@ -46,25 +39,18 @@ public abstract class ManageAppOp extends SettingsPreferenceFragment
         implements ManageApplicationsController.Callback {
     private static final String TAG = "ManageAppOps";
 
-    private IPackageManager mIPackageManager;
-    private AppOpsManager mAppOpsManager;
+    private AppOpsStateLoader mStateLoader;
 
     private ManageApplicationsController mManageApplicationsController;
 
     @Override
     public void onAttach(Context context) {
         super.onAttach(context);
+        mStateLoader = new AppOpsStateLoader(context, getAppOpsOpCode(), getPermission());
         mManageApplicationsController = new ManageApplicationsController(context, this,
                 getLifecycle(), getAppFilter(), getAppComparator());
     }
 
-    @Override
-    public void onCreate(Bundle savedInstanceState) {
-        mIPackageManager = ActivityThread.getPackageManager();
-        mAppOpsManager = getContext().getSystemService(AppOpsManager.class);
-        super.onCreate(savedInstanceState);
-    }
-
     /**
      * Subclasses may override this to provide an alternate app filter. The default filter inserts
      * {@link PermissionState} objects into the {@link ApplicationsState.AppEntry#extraInfo} field.
@@ -73,16 +59,22 @@ public abstract class ManageAppOp extends SettingsPreferenceFragment
     @NonNull
     public ApplicationsState.AppFilter getAppFilter() {
         return new ApplicationsState.AppFilter() {
+            private Set<String> mIgnoredPackages;
+
             @Override
             public void init() {
+                mIgnoredPackages = getIgnoredPackages(getContext(),
+                        customizedIgnoredPackagesArray());
+                mStateLoader.load();
             }
 
             @Override
             public boolean filterApp(ApplicationsState.AppEntry entry) {
+                if (shouldIgnorePackage(mIgnoredPackages, entry.info.packageName)) {
+                    return false;
+                }
                 entry.extraInfo = createPermissionStateFor(entry.info.packageName, entry.info.uid);
-                return !shouldIgnorePackage(
-                        getContext(), entry.info.packageName, customizedIgnoredPackagesArray())
-                        && ((PermissionState) entry.extraInfo).isPermissible();
+                return ((PermissionState) entry.extraInfo).isPermissible();
             }
         };
     }
@@ -118,55 +110,42 @@ public abstract class ManageAppOp extends SettingsPreferenceFragment
      */
     public abstract String getPermission();
 
-    private boolean hasRequestedAppOpPermission(String permission, String packageName) {
-        try {
-            String[] packages = mIPackageManager.getAppOpPermissionPackages(permission);
-            return ArrayUtils.contains(packages, packageName);
-        } catch (RemoteException exc) {
-            Log.e(TAG, "PackageManager dead. Cannot get permission info");
-            return false;
-        }
-    }
-
-    private boolean hasPermission(int uid) {
-        try {
-            int result = mIPackageManager.checkUidPermission(getPermission(), uid);
-            return result == PackageManager.PERMISSION_GRANTED;
-        } catch (RemoteException e) {
-            Log.e(TAG, "PackageManager dead. Cannot get permission info");
-            return false;
-        }
-    }
-
-    private int getAppOpMode(int uid, String packageName) {
-        return mAppOpsManager.checkOpNoThrow(getAppOpsOpCode(), uid, packageName);
-    }
-
     private PermissionState createPermissionStateFor(String packageName, int uid) {
-        return new PermissionState(
-                hasRequestedAppOpPermission(getPermission(), packageName),
-                hasPermission(uid),
-                getAppOpMode(uid, packageName));
+        final boolean requested = mStateLoader.hasRequestedPermission(packageName);
+        if (!requested && !mStateLoader.mayHaveMode(uid, packageName)) {
+            // The op is not relevant to the app, skip checking its mode and grant.
+            return new PermissionState(false, false, AppOpsManager.MODE_DEFAULT);
+        }
+        final int mode = mStateLoader.getAppOpMode(uid, packageName);
+        final boolean granted = mStateLoader.hasPermission(uid);
+        return new PermissionState(requested, granted, mode);
     }
 
     /**
-     * Checks for packages that should be ignored for further processing
+     * Returns the packages that should be ignored for further processing, or {@code null} if the
+     * fragment is detached.
      */
-    static boolean shouldIgnorePackage(Context context, String packageName,
-            int customizedIgnoredPackagesArray) {
+    static Set<String> getIgnoredPackages(Context context, int customizedIgnoredPackagesArray) {
         if (context == null) {
-            return true;
+            return null;
         }
-        Set<String> ignoredPackageNames = null;
+        final Set<String> ignoredPackageNames = new ArraySet<>();
+        ignoredPackageNames.add("android");
+        ignoredPackageNames.add("com.android.systemui");
+        ignoredPackageNames.add(context.getPackageName());
         if (customizedIgnoredPackagesArray != 0) {
-            ignoredPackageNames = Arrays.stream(context.getResources()
-                    .getStringArray(customizedIgnoredPackagesArray)).collect(Collectors.toSet());
-
+            Collections.addAll(ignoredPackageNames,
+                    context.getResources().getStringArray(customizedIgnoredPackagesArray));
         }
-        return packageName.equals("android")
-                || packageName.equals("com.android.systemui")
-                || packageName.equals(context.getPackageName())
-                || (ignoredPackageNames != null && ignoredPackageNames.contains(packageName));
+        return ignoredPackageNames;
+    }
+
+    /**
+     * Checks for packages that should be ignored for further processing
+     * @param ignoredPackageNames Set from {@link #getIgnoredPackages}
+     */
+    static boolean shouldIgnorePackage(Set<String> ignoredPackageNames, String packageName) {
+        return ignoredPackageNames == null || ignoredPackageNames.contains(packageName);
     }
 
     /**
@@ -18,6 +18,10 @@ package com.android.tv.settings.device.apps.specialaccess;
 
 import android.app.Application;
 import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.ArraySet;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.Lifecycle;
@@ -26,16 +30,23 @@ import androidx.preference.Preference;
 import androidx.preference.PreferenceGroup;
 
 import com.android.settingslib.applications.ApplicationsState;
+import com.android.settingslib.utils.ThreadUtils;
+import com.android.tv.settings.device.apps.AppIndex;
 
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A class to manage a list of apps in a {@link PreferenceGroup}. The list is configured by passing
  * an {@link ApplicationsState.AppFilter} and a {@link Comparator} for
  * {@link ApplicationsState.AppEntry} objects, and the PreferenceGroup is manipulated through the
- * {@link Callback} object.
+ * {@link Callback} object. The apps come from a view over the shared {@link AppIndex}.
+ *
+ * <p>Rows are matched to apps by package name, so an update only rebinds and reorders existing
+ * rows, keeping focus where it was. Icons are loaded in the background behind a placeholder, and
+ * updates that only change the apps' sizes or icons are batched.
  */
 public class ManageApplicationsController implements LifecycleObserver {
     /**
@@ -43,56 +54,25 @@ public class ManageApplicationsController implements LifecycleObserver {
      */
     public static final String HEADER_KEY = "header";
 
+    // Delay of updates for which the list of apps is unchanged.
+    private static final long CONTENT_UPDATE_DELAY_MILLIS = 250;
+    private static final int ICON_BATCH_SIZE = 8;
+
     private final Callback mCallback;
     private final Lifecycle mLifecycle;
     private final ApplicationsState.AppFilter mFilter;
     private final Comparator<ApplicationsState.AppEntry> mComparator;
 
-    private ApplicationsState.Session mAppSession;
-    private ApplicationsState mApplicationsState;
-    private final ApplicationsState.Callbacks mAppSessionCallbacks =
-            new ApplicationsState.Callbacks() {
-
-                @Override
-                public void onRunningStateChanged(boolean running) {
-                    updateAppList();
-                }
-
-                @Override
-                public void onPackageListChanged() {
-                    updateAppList();
-                }
+    private final ApplicationsState mApplicationsState;
+    private final AppIndex.View mAppView;
+    private final Drawable mPlaceholderIcon;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
 
-                @Override
-                public void onRebuildComplete(ArrayList<ApplicationsState.AppEntry> apps) {
-                    updateAppList(apps);
-                }
-
-                @Override
-                public void onPackageIconChanged() {
-                    updateAppList();
-                }
-
-                @Override
-                public void onPackageSizeChanged(String packageName) {
-                    updateAppList();
-                }
-
-                @Override
-                public void onAllSizesComputed() {
-                    updateAppList();
-                }
-
-                @Override
-                public void onLauncherInfoChanged() {
-                    updateAppList();
-                }
-
-                @Override
-                public void onLoadEntriesCompleted() {
-                    updateAppList();
-                }
-            };
+    private ArrayList<ApplicationsState.AppEntry> mApps;
+    private Preference mEmptyPreference;
+    // Packages whose icons are being loaded.
+    private final Set<String> mIconsLoading = new ArraySet<>();
+    private final Runnable mUpdateRunnable = this::applyAppList;
 
     public ManageApplicationsController(@NonNull Context context, @NonNull Callback callback,
             @NonNull Lifecycle lifecycle, ApplicationsState.AppFilter filter,
@@ -104,47 +84,105 @@ public class ManageApplicationsController implements LifecycleObserver {
         mComparator = comparator;
         mApplicationsState = ApplicationsState.getInstance(
                 (Application) context.getApplicationContext());
-        mAppSession = mApplicationsState.newSession(mAppSessionCallbacks, mLifecycle);
-        updateAppList();
+        mPlaceholderIcon = context.getPackageManager().getDefaultActivityIcon();
+        mAppView = AppIndex.getInstance(context).newView(
+                new ApplicationsState.CompoundFilter(mFilter, ApplicationsState.FILTER_NOT_HIDE),
+                mComparator, 0, this::onAppListChanged, mLifecycle);
     }
 
     /**
      * Call this method to trigger the app list to refresh.
      */
     public void updateAppList() {
-        ApplicationsState.AppFilter filter = new ApplicationsState.CompoundFilter(
-                mFilter, ApplicationsState.FILTER_NOT_HIDE);
-        ArrayList<ApplicationsState.AppEntry> apps = mAppSession.rebuild(filter, mComparator);
-        if (apps != null) {
-            updateAppList(apps);
+        mAppView.refresh();
+    }
+
+    private void onAppListChanged(ArrayList<ApplicationsState.AppEntry> apps) {
+        if (apps == mApps) {
+            // Only sizes or icons changed; these tend to arrive one package at a time.
+            if (!mHandler.hasCallbacks(mUpdateRunnable)) {
+                mHandler.postDelayed(mUpdateRunnable, CONTENT_UPDATE_DELAY_MILLIS);
+            }
+            return;
         }
+        mApps = apps;
+        mHandler.removeCallbacks(mUpdateRunnable);
+        applyAppList();
     }
 
-    private void updateAppList(ArrayList<ApplicationsState.AppEntry> apps) {
-        PreferenceGroup group = mCallback.getAppPreferenceGroup();
-        final List<Preference> newList = new ArrayList<>(apps.size() + 1);
-        for (final ApplicationsState.AppEntry entry : apps) {
+    private void applyAppList() {
+        final PreferenceGroup group = mCallback.getAppPreferenceGroup();
+        final ArrayList<ApplicationsState.AppEntry> apps = mApps;
+        final Preference header = group.findPreference(HEADER_KEY);
+        final int firstOrder = header != null ? header.getOrder() + 1 : 0;
+        final Set<String> touched = new ArraySet<>(apps.size());
+        final List<ApplicationsState.AppEntry> missingIcons = new ArrayList<>();
+        for (int i = 0; i < apps.size(); i++) {
+            final ApplicationsState.AppEntry entry = apps.get(i);
             final String packageName = entry.info.packageName;
-            mApplicationsState.ensureIcon(entry);
-            Preference recycle = group.findPreference(packageName);
-            if (recycle == null) {
-                recycle = mCallback.createAppPreference();
+            touched.add(packageName);
+            Preference pref = group.findPreference(packageName);
+            final boolean isNew = pref == null;
+            if (isNew) {
+                pref = mCallback.createAppPreference();
+            }
+            pref = bindPreference(pref, entry);
+            // Orders keep the rows sorted without removing and adding them again.
+            pref.setOrder(firstOrder + i);
+            if (isNew) {
+                group.addPreference(pref);
+            }
+            if (entry.icon == null && mIconsLoading.add(packageName)) {
+                missingIcons.add(entry);
             }
-            newList.add(mCallback.bindPreference(recycle, entry));
         }
-        final Preference header = group.findPreference(HEADER_KEY);
-        // Because we're sorting the app entries, we should remove-all to ensure that sort order
-        // is retained
-        group.removeAll();
-        if (header != null) {
-            group.addPreference(header);
+        for (int i = group.getPreferenceCount() - 1; i >= 0; i--) {
+            final Preference pref = group.getPreference(i);
+            if (pref != header && !touched.contains(pref.getKey())
+                    && !(apps.isEmpty() && pref == mEmptyPreference)) {
+                group.removePreference(pref);
+            }
+        }
+        if (apps.isEmpty()) {
+            if (mEmptyPreference == null) {
+                mEmptyPreference = mCallback.getEmptyPreference();
+            }
+            group.addPreference(mEmptyPreference);
+        }
+        if (!missingIcons.isEmpty()) {
+            loadIcons(missingIcons);
         }
-        if (newList.size() > 0) {
-            for (Preference prefToAdd : newList) {
-                group.addPreference(prefToAdd);
+    }
+
+    private Preference bindPreference(Preference preference, ApplicationsState.AppEntry entry) {
+        final Preference bound = mCallback.bindPreference(preference, entry);
+        if (entry.icon == null) {
+            bound.setIcon(mPlaceholderIcon);
+        }
+        return bound;
+    }
+
+    private void loadIcons(List<ApplicationsState.AppEntry> entries) {
+        ThreadUtils.postOnBackgroundThread(() -> {
+            for (int start = 0; start < entries.size(); start += ICON_BATCH_SIZE) {
+                final List<ApplicationsState.AppEntry> batch = entries.subList(start,
+                        Math.min(entries.size(), start + ICON_BATCH_SIZE));
+                for (ApplicationsState.AppEntry entry : batch) {
+                    mApplicationsState.ensureIcon(entry);
+                }
+                mHandler.post(() -> onIconsLoaded(batch));
+            }
+        });
+    }
+
+    private void onIconsLoaded(List<ApplicationsState.AppEntry> entries) {
+        final PreferenceGroup group = mCallback.getAppPreferenceGroup();
+        for (ApplicationsState.AppEntry entry : entries) {
+            mIconsLoading.remove(entry.info.packageName);
+            final Preference pref = group.findPreference(entry.info.packageName);
+            if (pref != null && entry.icon != null) {
+                pref.setIcon(entry.icon);
             }
-        } else {
-            group.addPreference(mCallback.getEmptyPreference());
         }
     }
 
@@ -35,6 +35,8 @@ import com.android.settingslib.applications.ApplicationsState;
 import com.android.tv.settings.R;
 import com.android.tv.settings.SettingsPreferenceFragment;
 
+import java.util.Set;
+
 /**
  * Fragment for managing which apps are granted PIP access
  */
@@ -45,6 +47,7 @@ public class PictureInPicture extends SettingsPreferenceFragment
 
     private ManageApplicationsController mManageApplicationsController;
     private AppOpsManager mAppOpsManager;
+    private AppOpsStateLoader mStateLoader;
 
     private final ApplicationsState.AppFilter mFilter =
             new ApplicationsState.CompoundFilter(
@@ -53,18 +56,25 @@ public class PictureInPicture extends SettingsPreferenceFragment
                             ApplicationsState.FILTER_ALL_ENABLED),
 
                     new ApplicationsState.AppFilter() {
+                        private Set<String> mIgnoredPackages;
+
                         @Override
-                        public void init() {}
+                        public void init() {
+                            mIgnoredPackages = ManageAppOp.getIgnoredPackages(getContext(), 0);
+                            mStateLoader.load();
+                        }
 
                         @Override
                         public boolean filterApp(ApplicationsState.AppEntry info) {
-                            info.extraInfo = mAppOpsManager.checkOpNoThrow(
-                                    AppOpsManager.OP_PICTURE_IN_PICTURE,
-                                    info.info.uid,
+                            if (ManageAppOp.shouldIgnorePackage(
+                                    mIgnoredPackages, info.info.packageName)
+                                    || !checkPackageHasPipActivities(info.info.packageName)) {
+                                return false;
+                            }
+                            // Only check the mode of the apps shown.
+                            info.extraInfo = mStateLoader.getAppOpMode(info.info.uid,
                                     info.info.packageName) == AppOpsManager.MODE_ALLOWED;
-                            return !ManageAppOp.shouldIgnorePackage(
-                                    getContext(), info.info.packageName, 0)
-                                    && checkPackageHasPipActivities(info.info.packageName);
+                            return true;
                         }
                     });
 
@@ -72,6 +82,8 @@ public class PictureInPicture extends SettingsPreferenceFragment
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         mAppOpsManager = getContext().getSystemService(AppOpsManager.class);
+        mStateLoader = new AppOpsStateLoader(getContext(), AppOpsManager.OP_PICTURE_IN_PICTURE,
+                null);
         mManageApplicationsController = new ManageApplicationsController(getContext(), this,
                 getLifecycle(), mFilter, ApplicationsState.ALPHA_COMPARATOR);
     }
@@ -20,23 +20,27 @@ import static com.android.tv.settings.util.InstrumentationUtils.logEntrySelected
 
 import android.app.ActivityManager;
 import android.app.tvsettings.TvSettingsEnums;
+import android.app.usage.StorageStatsManager;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.storage.StorageManager;
 import android.os.storage.VolumeInfo;
 import android.text.TextUtils;
+import android.text.format.DateUtils;
 import android.util.Log;
 
 import androidx.preference.Preference;
 import androidx.preference.PreferenceScreen;
 
 import com.android.settingslib.deviceinfo.StorageMeasurement;
+import com.android.settingslib.utils.ThreadUtils;
 import com.android.tv.settings.R;
 import com.android.tv.settings.SettingsPreferenceFragment;
 import com.android.tv.settings.device.apps.AppsFragment;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 
@@ -57,6 +61,7 @@ public class StorageFragment extends SettingsPreferenceFragment {
     private static final String KEY_CACHE_USAGE = "cache_usage";
     private static final String KEY_MISC_USAGE = "misc_usage";
     private static final String KEY_AVAILABLE = "available";
+    private static final String KEY_LAST_MEASURED = "last_measured";
 
     private StorageManager mStorageManager;
     private PackageManager mPackageManager;
@@ -64,6 +69,9 @@ public class StorageFragment extends SettingsPreferenceFragment {
     private VolumeInfo mVolumeInfo;
 
     private StorageMeasurement mMeasure;
+    private StorageMeasurementCache mMeasurementCache;
+    private StorageMeasurementCache.Totals mTotals;
+    private StorageMeasurementCache.Stamp mMeasureStamp;
     private final StorageMeasurement.MeasurementReceiver mMeasurementReceiver =
             new MeasurementReceiver();
     private final StorageEventListener mStorageEventListener = new StorageEventListener();
@@ -78,15 +86,21 @@ public class StorageFragment extends SettingsPreferenceFragment {
     private StoragePreference mCacheUsagePref;
     private StoragePreference mMiscUsagePref;
     private StoragePreference mAvailablePref;
+    private Preference mLastMeasuredPref;
 
     public static void prepareArgs(Bundle bundle, VolumeInfo volumeInfo) {
-        bundle.putString(VolumeInfo.EXTRA_VOLUME_ID, volumeInfo.getId());
+        prepareArgs(bundle, volumeInfo.getId());
+    }
+
+    public static void prepareArgs(Bundle bundle, String volumeId) {
+        bundle.putString(VolumeInfo.EXTRA_VOLUME_ID, volumeId);
     }
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         mStorageManager = getContext().getSystemService(StorageManager.class);
         mPackageManager = getContext().getPackageManager();
+        mMeasurementCache = StorageMeasurementCache.getInstance(getContext());
 
         mVolumeInfo = mStorageManager.findVolumeById(
                 getArguments().getString(VolumeInfo.EXTRA_VOLUME_ID));
@@ -138,6 +152,8 @@ public class StorageFragment extends SettingsPreferenceFragment {
         mCacheUsagePref = (StoragePreference) findPreference(KEY_CACHE_USAGE);
         mMiscUsagePref = (StoragePreference) findPreference(KEY_MISC_USAGE);
         mAvailablePref = (StoragePreference) findPreference(KEY_AVAILABLE);
+        mLastMeasuredPref = findPreference(KEY_LAST_MEASURED);
+        mLastMeasuredPref.setVisible(false);
     }
 
     @Override
@@ -205,6 +221,17 @@ public class StorageFragment extends SettingsPreferenceFragment {
 
     private void startMeasurement() {
         if (mVolumeInfo != null && mVolumeInfo.isMountedReadable()) {
+            mTotals = mMeasurementCache.get(mVolumeInfo.fsUuid);
+            if (mTotals != null) {
+                showTotals();
+            }
+            if (mTotals != null && !mMeasurementCache.needsMeasurement(mVolumeInfo.fsUuid)) {
+                // Free space changes all the time; only the usage totals are kept.
+                readAvailable();
+                return;
+            }
+            mLastMeasuredPref.setSummary(R.string.storage_updating);
+            mMeasureStamp = mMeasurementCache.stamp();
             final VolumeInfo sharedVolume = mStorageManager.findEmulatedForPrivate(mVolumeInfo);
             mMeasure = new StorageMeasurement(getContext(), mVolumeInfo, sharedVolume);
             mMeasure.setReceiver(mMeasurementReceiver);
@@ -215,6 +242,7 @@ public class StorageFragment extends SettingsPreferenceFragment {
     private void stopMeasurement() {
         if (mMeasure != null) {
             mMeasure.onDestroy();
+            mMeasure = null;
         }
     }
 
@@ -232,13 +260,52 @@ public class StorageFragment extends SettingsPreferenceFragment {
         final long downloadsSize = totalValues(details.mediaSize.get(currentUser),
                 Environment.DIRECTORY_DOWNLOADS);
 
-        mAvailablePref.setSize(Math.max(0L, details.availSize - cachePartitionSize()));
-        mAppsUsagePref.setSize(details.appsSize.get(currentUser));
-        mDcimUsagePref.setSize(dcimSize);
-        mMusicUsagePref.setSize(musicSize);
-        mDownloadsUsagePref.setSize(downloadsSize);
-        mCacheUsagePref.setSize(details.cacheSize);
-        mMiscUsagePref.setSize(details.miscSize.get(currentUser));
+        mTotals = new StorageMeasurementCache.Totals(System.currentTimeMillis(),
+                Math.max(0L, details.availSize - cachePartitionSize()),
+                details.appsSize.get(currentUser), dcimSize, musicSize, downloadsSize,
+                details.cacheSize, details.miscSize.get(currentUser));
+        mMeasurementCache.put(mVolumeInfo.fsUuid, mTotals, mMeasureStamp);
+        mLastMeasuredPref.setSummary(null);
+        showTotals();
+    }
+
+    private void showTotals() {
+        mAvailablePref.setSize(mTotals.mAvailable);
+        mAppsUsagePref.setSize(mTotals.mApps);
+        mDcimUsagePref.setSize(mTotals.mDcim);
+        mMusicUsagePref.setSize(mTotals.mMusic);
+        mDownloadsUsagePref.setSize(mTotals.mDownloads);
+        mCacheUsagePref.setSize(mTotals.mCache);
+        mMiscUsagePref.setSize(mTotals.mMisc);
+        mLastMeasuredPref.setTitle(getString(R.string.storage_last_measured,
+                DateUtils.getRelativeTimeSpanString(mTotals.mMeasuredAtMillis,
+                        System.currentTimeMillis(), DateUtils.MINUTE_IN_MILLIS)));
+        mLastMeasuredPref.setVisible(true);
+    }
+
+    /** Shows the free space of the volume, read in the background. */
+    private void readAvailable() {
+        final VolumeInfo volume = mVolumeInfo;
+        final StorageStatsManager stats = getContext().getSystemService(StorageStatsManager.class);
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final long availSize;
+            if (volume.getType() == VolumeInfo.TYPE_PRIVATE) {
+                try {
+                    availSize = stats.getFreeBytes(volume.fsUuid);
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot read free space of " + volume.getId(), e);
+                    return;
+                }
+            } else {
+                availSize = volume.getPath().getFreeSpace();
+            }
+            final long available = Math.max(0L, availSize - cachePartitionSize());
+            ThreadUtils.postOnMainThread(() -> {
+                if (isAdded() && volume == mVolumeInfo) {
+                    mAvailablePref.setSize(available);
+                }
+            });
+        });
     }
 
     private static long cachePartitionSize() {
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.device.storage;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.ChangedPackages;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Last usage totals measured for each storage volume, keyed by file system UUID and user.
+ *
+ * <p>Totals are persisted so the storage screen can show them as soon as it opens. A volume is
+ * only measured again when something may have changed it: the MediaStore generation or the
+ * package sequence number moved since its last measurement, it was measured by an earlier
+ * process, or the totals are older than {@link #MAX_AGE_MILLIS}. App data and caches grow
+ * without any such signal, which is what the short maximum age is for.
+ */
+final class StorageMeasurementCache {
+    private static final String PREFS_NAME = "storage_measurement_cache";
+    private static final String KEY_PRIVATE_INTERNAL = "private_internal";
+    private static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    private static final int MAX_VOLUMES = 16;
+    private static final int FIELD_COUNT = 8;
+
+    private static StorageMeasurementCache sInstance;
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+    // Volumes measured by this process, and what media and packages looked like then.
+    private final Map<String, Stamp> mValidated = new ArrayMap<>();
+    // Latest package sequence number seen, so later queries only list recent changes.
+    private int mPackageSequence;
+
+    /** Change counters of media and packages, read when a volume is measured. */
+    static final class Stamp {
+        final long mMediaGeneration;
+        final int mPackageSequence;
+
+        Stamp(long mediaGeneration, int packageSequence) {
+            mMediaGeneration = mediaGeneration;
+            mPackageSequence = packageSequence;
+        }
+    }
+
+    /** Usage of one volume, in bytes, as shown by {@link StorageFragment}. */
+    static final class Totals {
+        final long mMeasuredAtMillis;
+        final long mAvailable;
+        final long mApps;
+        final long mDcim;
+        final long mMusic;
+        final long mDownloads;
+        final long mCache;
+        final long mMisc;
+
+        Totals(long measuredAtMillis, long available, long apps, long dcim, long music,
+                long downloads, long cache, long misc) {
+            mMeasuredAtMillis = measuredAtMillis;
+            mAvailable = available;
+            mApps = apps;
+            mDcim = dcim;
+            mMusic = music;
+            mDownloads = downloads;
+            mCache = cache;
+            mMisc = misc;
+        }
+
+        String flatten() {
+            return TextUtils.join(",", new Long[] {mMeasuredAtMillis, mAvailable, mApps, mDcim,
+                    mMusic, mDownloads, mCache, mMisc});
+        }
+
+        @Nullable
+        static Totals unflatten(String value) {
+            String[] fields = value.split(",");
+            if (fields.length != FIELD_COUNT) {
+                return null;
+            }
+            long[] values = new long[FIELD_COUNT];
+            try {
+                for (int i = 0; i < FIELD_COUNT; i++) {
+                    values[i] = Long.parseLong(fields[i]);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return new Totals(values[0], values[1], values[2], values[3], values[4], values[5],
+                    values[6], values[7]);
+        }
+    }
+
+    @MainThread
+    static StorageMeasurementCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StorageMeasurementCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private StorageMeasurementCache(Context context) {
+        mContext = context;
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Nullable
+    Totals get(@Nullable String fsUuid) {
+        String value = mPrefs.getString(getKey(fsUuid), null);
+        return value == null ? null : Totals.unflatten(value);
+    }
+
+    /** Whether the cached totals for {@code fsUuid} may be out of date. */
+    boolean needsMeasurement(@Nullable String fsUuid) {
+        Totals totals = get(fsUuid);
+        Stamp stamp = mValidated.get(getKey(fsUuid));
+        return totals == null
+                || stamp == null
+                || System.currentTimeMillis() - totals.mMeasuredAtMillis > MAX_AGE_MILLIS
+                || totals.mMeasuredAtMillis > System.currentTimeMillis()
+                || getMediaGeneration() != stamp.mMediaGeneration
+                || havePackagesChanged(stamp.mPackageSequence);
+    }
+
+    /**
+     * Stores {@code totals} for {@code fsUuid}. Call {@link #stamp} before measuring, so changes
+     * made during the measurement cause another one.
+     */
+    void put(@Nullable String fsUuid, Totals totals, Stamp stamp) {
+        String key = getKey(fsUuid);
+        mValidated.put(key, stamp);
+        SharedPreferences.Editor editor = mPrefs.edit().putString(key, totals.flatten());
+        Map<String, ?> all = mPrefs.getAll();
+        if (all.size() > MAX_VOLUMES) {
+            // Drop the volume measured longest ago, likely a drive that was reformatted.
+            String oldestKey = null;
+            long oldest = Long.MAX_VALUE;
+            for (Map.Entry<String, ?> entry : all.entrySet()) {
+                Totals entryTotals = entry.getValue() instanceof String
+                        ? Totals.unflatten((String) entry.getValue()) : null;
+                long measuredAt = entryTotals == null ? 0 : entryTotals.mMeasuredAtMillis;
+                if (!entry.getKey().equals(key) && measuredAt < oldest) {
+                    oldest = measuredAt;
+                    oldestKey = entry.getKey();
+                }
+            }
+            if (oldestKey != null) {
+                editor.remove(oldestKey);
+            }
+        }
+        editor.apply();
+    }
+
+    /** Reads what media and packages look like before a measurement starts. */
+    Stamp stamp() {
+        ChangedPackages changed =
+                mContext.getPackageManager().getChangedPackages(mPackageSequence);
+        if (changed != null) {
+            mPackageSequence = changed.getSequenceNumber();
+        }
+        return new Stamp(getMediaGeneration(), mPackageSequence);
+    }
+
+    private long getMediaGeneration() {
+        try {
+            return MediaStore.getGeneration(mContext, MediaStore.VOLUME_EXTERNAL);
+        } catch (RuntimeException e) {
+            // MediaStore is not available; rely on the other checks.
+            return -1;
+        }
+    }
+
+    private boolean havePackagesChanged(int sequence) {
+        return mContext.getPackageManager().getChangedPackages(sequence) != null;
+    }
+
+    private static String getKey(@Nullable String fsUuid) {
+        // App and media totals are per user.
+        return (fsUuid == null ? KEY_PRIVATE_INTERNAL : fsUuid)
+                + ":" + ActivityManager.getCurrentUser();
+    }
+}
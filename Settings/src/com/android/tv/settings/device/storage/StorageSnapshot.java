@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.device.storage;
+
+import android.os.storage.DiskInfo;
+import android.os.storage.StorageManager;
+import android.os.storage.VolumeInfo;
+import android.os.storage.VolumeRecord;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable view of the storage volumes, missing volume records and unsupported disks shown on
+ * the storage summary screen.
+ */
+public final class StorageSnapshot {
+    private static final String TAG = "StorageSnapshot";
+
+    public final List<Volume> privateVolumes;
+    public final List<MissingVolume> missingPrivateVolumes;
+    public final List<Volume> publicVolumes;
+    public final List<UnsupportedDisk> unsupportedDisks;
+
+    /** A mounted or mounting volume. */
+    public static final class Volume {
+        public final String id;
+        public final String diskId;
+        public final String description;
+        public final boolean mountedReadable;
+        /** Total size in bytes, or -1 if not readable. */
+        public final long totalSpace;
+
+        Volume(String id, String diskId, String description, boolean mountedReadable,
+                long totalSpace) {
+            this.id = id;
+            this.diskId = diskId;
+            this.description = description;
+            this.mountedReadable = mountedReadable;
+            this.totalSpace = totalSpace;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Volume)) {
+                return false;
+            }
+            Volume other = (Volume) o;
+            return TextUtils.equals(id, other.id)
+                    && TextUtils.equals(diskId, other.diskId)
+                    && TextUtils.equals(description, other.description)
+                    && mountedReadable == other.mountedReadable
+                    && totalSpace == other.totalSpace;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, diskId, description, mountedReadable, totalSpace);
+        }
+    }
+
+    /** A private volume that was adopted but is not connected. */
+    public static final class MissingVolume {
+        public final String fsUuid;
+        public final String nickname;
+
+        MissingVolume(String fsUuid, String nickname) {
+            this.fsUuid = fsUuid;
+            this.nickname = nickname;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MissingVolume)) {
+                return false;
+            }
+            MissingVolume other = (MissingVolume) o;
+            return TextUtils.equals(fsUuid, other.fsUuid)
+                    && TextUtils.equals(nickname, other.nickname);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fsUuid, nickname);
+        }
+    }
+
+    /** A disk with no volume the device can read. */
+    public static final class UnsupportedDisk {
+        public final String id;
+        public final String description;
+
+        UnsupportedDisk(String id, String description) {
+            this.id = id;
+            this.description = description;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof UnsupportedDisk)) {
+                return false;
+            }
+            UnsupportedDisk other = (UnsupportedDisk) o;
+            return TextUtils.equals(id, other.id)
+                    && TextUtils.equals(description, other.description);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, description);
+        }
+    }
+
+    private StorageSnapshot(List<Volume> privateVolumes, List<MissingVolume> missingPrivateVolumes,
+            List<Volume> publicVolumes, List<UnsupportedDisk> unsupportedDisks) {
+        this.privateVolumes = Collections.unmodifiableList(privateVolumes);
+        this.missingPrivateVolumes = Collections.unmodifiableList(missingPrivateVolumes);
+        this.publicVolumes = Collections.unmodifiableList(publicVolumes);
+        this.unsupportedDisks = Collections.unmodifiableList(unsupportedDisks);
+    }
+
+    /** Reads the current state from {@code storageManager}. This may touch every volume. */
+    @WorkerThread
+    static StorageSnapshot read(StorageManager storageManager) {
+        final List<VolumeInfo> volumes = storageManager.getVolumes();
+        volumes.sort(VolumeInfo.getDescriptionComparator());
+
+        final List<Volume> privateVolumes = new ArrayList<>(volumes.size());
+        final List<Volume> publicVolumes = new ArrayList<>(volumes.size());
+        final List<String> mountedUuids = new ArrayList<>(volumes.size());
+
+        // Find mounted volumes
+        for (final VolumeInfo vol : volumes) {
+            if (vol.getType() == VolumeInfo.TYPE_PRIVATE) {
+                privateVolumes.add(createVolume(storageManager, vol));
+            } else if (vol.getType() == VolumeInfo.TYPE_PUBLIC) {
+                publicVolumes.add(createVolume(storageManager, vol));
+            } else {
+                Log.d(TAG, "Skipping volume " + vol.toString());
+            }
+            if (vol.getFsUuid() != null) {
+                mountedUuids.add(vol.getFsUuid());
+            }
+        }
+
+        // Find missing private filesystems, matching against the volumes already listed instead
+        // of looking each record up again.
+        final List<VolumeRecord> volumeRecords = storageManager.getVolumeRecords();
+        final List<MissingVolume> missingVolumes = new ArrayList<>(volumeRecords.size());
+        for (final VolumeRecord record : volumeRecords) {
+            if (record.getType() == VolumeInfo.TYPE_PRIVATE
+                    && !mountedUuids.contains(record.getFsUuid())) {
+                missingVolumes.add(new MissingVolume(record.getFsUuid(), record.getNickname()));
+            }
+        }
+
+        // Find unreadable disks
+        final List<DiskInfo> disks = storageManager.getDisks();
+        final List<UnsupportedDisk> unsupportedDisks = new ArrayList<>(disks.size());
+        for (final DiskInfo disk : disks) {
+            if (disk.volumeCount == 0 && disk.size > 0) {
+                unsupportedDisks.add(new UnsupportedDisk(disk.getId(), disk.getDescription()));
+            }
+        }
+        return new StorageSnapshot(privateVolumes, missingVolumes, publicVolumes,
+                unsupportedDisks);
+    }
+
+    private static Volume createVolume(StorageManager storageManager, VolumeInfo vol) {
+        final File path = vol.getPath();
+        final boolean mountedReadable = vol.isMountedReadable();
+        final long totalSpace = mountedReadable && path != null ? path.getTotalSpace() : -1;
+        return new Volume(vol.getId(), vol.getDiskId(),
+                storageManager.getBestVolumeDescription(vol), mountedReadable, totalSpace);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof StorageSnapshot)) {
+            return false;
+        }
+        StorageSnapshot other = (StorageSnapshot) o;
+        return privateVolumes.equals(other.privateVolumes)
+                && missingPrivateVolumes.equals(other.missingPrivateVolumes)
+                && publicVolumes.equals(other.publicVolumes)
+                && unsupportedDisks.equals(other.unsupportedDisks);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(privateVolumes, missingPrivateVolumes, publicVolumes,
+                unsupportedDisks);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.device.storage;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.storage.DiskInfo;
+import android.os.storage.StorageEventListener;
+import android.os.storage.StorageManager;
+import android.os.storage.VolumeInfo;
+import android.os.storage.VolumeRecord;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a {@link StorageSnapshot} up to date off the main thread while anyone listens.
+ *
+ * <p>Storage events restart a short quiet period on a background thread, so a burst of events,
+ * such as a hub with several drives being plugged in, results in a single read of the volumes.
+ * Listeners are only called, on the main thread, when the snapshot actually changed.
+ */
+public final class StorageSnapshotService {
+    private static final long EVENT_QUIET_PERIOD_MILLIS = 150;
+
+    private static StorageSnapshotService sInstance;
+
+    /** Receives snapshots on the main thread. */
+    public interface Listener {
+        void onStorageSnapshotChanged(StorageSnapshot snapshot);
+    }
+
+    private final StorageManager mStorageManager;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Handler mBackgroundHandler;
+    private final List<Listener> mListeners = new ArrayList<>();
+    private StorageSnapshot mSnapshot;
+
+    private final Runnable mReadRunnable = this::read;
+
+    private final StorageEventListener mStorageEventListener = new StorageEventListener() {
+        @Override
+        public void onStorageStateChanged(String path, String oldState, String newState) {
+            scheduleRead();
+        }
+
+        @Override
+        public void onVolumeStateChanged(VolumeInfo vol, int oldState, int newState) {
+            scheduleRead();
+        }
+
+        @Override
+        public void onVolumeRecordChanged(VolumeRecord rec) {
+            scheduleRead();
+        }
+
+        @Override
+        public void onVolumeForgotten(String fsUuid) {
+            scheduleRead();
+        }
+
+        @Override
+        public void onDiskScanned(DiskInfo disk, int volumeCount) {
+            scheduleRead();
+        }
+
+        @Override
+        public void onDiskDestroyed(DiskInfo disk) {
+            scheduleRead();
+        }
+    };
+
+    @MainThread
+    public static StorageSnapshotService getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StorageSnapshotService(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private StorageSnapshotService(Context context) {
+        mStorageManager = context.getSystemService(StorageManager.class);
+        HandlerThread thread = new HandlerThread("StorageSnapshotService",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mBackgroundHandler = new Handler(thread.getLooper());
+    }
+
+    /** Returns the last snapshot read, or {@code null} if none was read yet. */
+    @MainThread
+    @Nullable
+    public StorageSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /** Starts tracking storage events and reads the volumes again. */
+    @MainThread
+    public void addListener(Listener listener) {
+        if (mListeners.isEmpty()) {
+            mStorageManager.registerListener(mStorageEventListener);
+        }
+        mListeners.add(listener);
+        mBackgroundHandler.removeCallbacks(mReadRunnable);
+        mBackgroundHandler.post(mReadRunnable);
+    }
+
+    @MainThread
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+        if (mListeners.isEmpty()) {
+            mStorageManager.unregisterListener(mStorageEventListener);
+            mBackgroundHandler.removeCallbacks(mReadRunnable);
+        }
+    }
+
+    private void scheduleRead() {
+        mBackgroundHandler.removeCallbacks(mReadRunnable);
+        mBackgroundHandler.postDelayed(mReadRunnable, EVENT_QUIET_PERIOD_MILLIS);
+    }
+
+    private void read() {
+        final StorageSnapshot snapshot = StorageSnapshot.read(mStorageManager);
+        mMainHandler.post(() -> {
+            if (snapshot.equals(mSnapshot)) {
+                return;
+            }
+            mSnapshot = snapshot;
+            for (Listener listener : new ArrayList<>(mListeners)) {
+                listener.onStorageSnapshotChanged(snapshot);
+            }
+        });
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.enterprise;
+
+/**
+ * Immutable copy of everything the enterprise privacy screen discloses, read in a single pass by
+ * {@link EnterprisePrivacyFeatureProviderImpl}.
+ */
+final class EnterpriseDisclosureSnapshot {
+    final boolean mHasDeviceOwner;
+    final boolean mHasManagedProfile;
+    final String mDeviceOwnerOrganizationName;
+    final long mLastSecurityLogRetrievalTime;
+    final long mLastBugReportRequestTime;
+    final long mLastNetworkLogRetrievalTime;
+    final boolean mSecurityLoggingEnabled;
+    final boolean mNetworkLoggingEnabled;
+    final boolean mAlwaysOnVpnSetInCurrentUser;
+    final boolean mAlwaysOnVpnSetInManagedProfile;
+    final int mMaximumFailedPasswordsBeforeWipeInCurrentUser;
+    final int mMaximumFailedPasswordsBeforeWipeInManagedProfile;
+    final String mImeLabelIfOwnerSet;
+    final int mOwnerInstalledCaCertsForCurrentUser;
+    final int mOwnerInstalledCaCertsForManagedProfile;
+    final int mActiveDeviceAdmins;
+    final boolean mHasWorkPolicyInfo;
+
+    private EnterpriseDisclosureSnapshot(Builder builder) {
+        mHasDeviceOwner = builder.mHasDeviceOwner;
+        mHasManagedProfile = builder.mHasManagedProfile;
+        mDeviceOwnerOrganizationName = builder.mDeviceOwnerOrganizationName;
+        mLastSecurityLogRetrievalTime = builder.mLastSecurityLogRetrievalTime;
+        mLastBugReportRequestTime = builder.mLastBugReportRequestTime;
+        mLastNetworkLogRetrievalTime = builder.mLastNetworkLogRetrievalTime;
+        mSecurityLoggingEnabled = builder.mSecurityLoggingEnabled;
+        mNetworkLoggingEnabled = builder.mNetworkLoggingEnabled;
+        mAlwaysOnVpnSetInCurrentUser = builder.mAlwaysOnVpnSetInCurrentUser;
+        mAlwaysOnVpnSetInManagedProfile = builder.mAlwaysOnVpnSetInManagedProfile;
+        mMaximumFailedPasswordsBeforeWipeInCurrentUser =
+                builder.mMaximumFailedPasswordsBeforeWipeInCurrentUser;
+        mMaximumFailedPasswordsBeforeWipeInManagedProfile =
+                builder.mMaximumFailedPasswordsBeforeWipeInManagedProfile;
+        mImeLabelIfOwnerSet = builder.mImeLabelIfOwnerSet;
+        mOwnerInstalledCaCertsForCurrentUser = builder.mOwnerInstalledCaCertsForCurrentUser;
+        mOwnerInstalledCaCertsForManagedProfile = builder.mOwnerInstalledCaCertsForManagedProfile;
+        mActiveDeviceAdmins = builder.mActiveDeviceAdmins;
+        mHasWorkPolicyInfo = builder.mHasWorkPolicyInfo;
+    }
+
+    boolean isInCompMode() {
+        return mHasDeviceOwner && mHasManagedProfile;
+    }
+
+    static final class Builder {
+        boolean mHasDeviceOwner;
+        boolean mHasManagedProfile;
+        String mDeviceOwnerOrganizationName;
+        long mLastSecurityLogRetrievalTime = -1;
+        long mLastBugReportRequestTime = -1;
+        long mLastNetworkLogRetrievalTime = -1;
+        boolean mSecurityLoggingEnabled;
+        boolean mNetworkLoggingEnabled;
+        boolean mAlwaysOnVpnSetInCurrentUser;
+        boolean mAlwaysOnVpnSetInManagedProfile;
+        int mMaximumFailedPasswordsBeforeWipeInCurrentUser;
+        int mMaximumFailedPasswordsBeforeWipeInManagedProfile;
+        String mImeLabelIfOwnerSet;
+        int mOwnerInstalledCaCertsForCurrentUser;
+        int mOwnerInstalledCaCertsForManagedProfile;
+        int mActiveDeviceAdmins;
+        boolean mHasWorkPolicyInfo;
+
+        EnterpriseDisclosureSnapshot build() {
+            return new EnterpriseDisclosureSnapshot(this);
+        }
+    }
+}
@@ -138,4 +138,17 @@ public interface EnterprisePrivacyFeatureProvider {
      * been launched.
      */
     boolean showParentalControls();
+
+    /**
+     * Reads every disclosure in a single background pass and calls {@code onLoaded} on the main
+     * thread. From then until {@link #releaseDisclosureSnapshot}, the getters of this provider
+     * answer from the result instead of asking the system again.
+     */
+    void loadDisclosureSnapshot(Runnable onLoaded);
+
+    /**
+     * Drops the result of {@link #loadDisclosureSnapshot}, or the load still in flight, so the
+     * getters ask the system again.
+     */
+    void releaseDisclosureSnapshot();
 }
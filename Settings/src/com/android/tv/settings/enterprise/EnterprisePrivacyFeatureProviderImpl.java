@@ -33,6 +33,9 @@ import android.text.SpannableStringBuilder;
 import android.text.style.ClickableSpan;
 import android.view.View;
 
+import androidx.annotation.WorkerThread;
+
+import com.android.settingslib.utils.ThreadUtils;
 import com.android.tv.settings.R;
 
 import java.util.Date;
@@ -51,6 +54,10 @@ public class EnterprisePrivacyFeatureProviderImpl implements EnterprisePrivacyFe
     private final Resources mResources;
 
     private static final int MY_USER_ID = UserHandle.myUserId();
+    // Set on the main thread while the enterprise privacy screen holds a snapshot.
+    private volatile EnterpriseDisclosureSnapshot mSnapshot;
+    // Main thread only; superseded loads are dropped.
+    private int mSnapshotGeneration;
 
     public EnterprisePrivacyFeatureProviderImpl(Context context, DevicePolicyManager dpm,
             PackageManager pm, UserManager um, ConnectivityManager cm, VpnManager vm,
@@ -66,16 +73,28 @@ public class EnterprisePrivacyFeatureProviderImpl implements EnterprisePrivacyFe
 
     @Override
     public boolean hasDeviceOwner() {
+        final EnterpriseDisclosureSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot.mHasDeviceOwner;
+        }
         return getDeviceOwnerComponent() != null;
     }
 
     @Override
     public boolean isInCompMode() {
+        final EnterpriseDisclosureSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot.isInCompMode();
+        }
         return hasDeviceOwner() && getManagedProfileUserId() != UserHandle.USER_NULL;
     }
 
     @Override
     public String getDeviceOwnerOrganizationName() {
+        final EnterpriseDisclosureSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot.mDeviceOwnerOrganizationName;
+        }
         final CharSequence organizationName = mDpm.getDeviceOwnerOrganizationName();
         if (organizationName == null) {
             return null;
@@ -106,39 +125,67 @@ public class EnterprisePrivacyFeatureProviderImpl implements EnterprisePrivacyFe
 
     @Override
     public Date getLastSecurityLogRetrievalTime() {
+        final EnterpriseDisclosureSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return toDate(snapshot.mLastSecurityLogRetrievalTime);
+        }
         final long timestamp = mDpm.getLastSecurityLogRetrievalTime();
         return timestamp < 0 ? null : new Date(timestamp);
     }
 
     @Override
     public Date getLastBugReportRequestTime() {
+        final EnterpriseDisclosureSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return toDate(snapshot.mLastBugReportRequestTime);
+        }
         final long timestamp = mDpm.getLastBugReportRequestTime();
         return timestamp < 0 ? null : new Date(timestamp);
     }
 
     @Override
     public Date getLastNetworkLogRetrievalTime() {
+        final EnterpriseDisclosureSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return toDate(snapshot.mLastNetworkLogRetrievalTime);
+        }
         final long timestamp = mDpm.getLastNetworkLogRetrievalTime();
         return timestamp < 0 ? null : new Date(timestamp);
     }
 
     @Override
     public boolean isSecurityLoggingEnabled() {
+        final EnterpriseDisclosureSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot.mSecurityLoggingEnabled;
+        }
         return mDpm.isSecurityLoggingEnabled(null);
     }
 
     @Override
     public boolean isNetworkLoggingEnabled() {
+        final EnterpriseDisclosureSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot.mNetworkLoggingEnabled;
+        }
         return mDpm.isNetworkLoggingEnabled(null);
     }
 
     @Override
     public boolean isAlwaysOnVpnSetInCurrentUser() {
+        final EnterpriseDisclosureSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot.mAlwaysOnVpnSetInCurrentUser;
+        }
         return mVm.getAlwaysOnVpnPackageForUser(MY_USER_ID) != null;
     }
 
     @Override
     public boolean isAlwaysOnVpnSetInManagedProfile() {
+        final EnterpriseDisclosureSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot.mAlwaysOnVpnSetInManagedProfile;
+        }
         final int managedProfileUserId = getManagedProfileUserId();
         return managedProfileUserId != UserHandle.USER_NULL && (mVm.getAlwaysOnVpnPackageForUser(
                 managedProfileUserId) != null);
@@ -146,18 +193,19 @@ public class EnterprisePrivacyFeatureProviderImpl implements EnterprisePrivacyFe
 
     @Override
     public int getMaximumFailedPasswordsBeforeWipeInCurrentUser() {
-        ComponentName owner = mDpm.getDeviceOwnerComponentOnCallingUser();
-        if (owner == null) {
-            owner = mDpm.getProfileOwnerAsUser(MY_USER_ID);
-        }
-        if (owner == null) {
-            return 0;
+        final EnterpriseDisclosureSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot.mMaximumFailedPasswordsBeforeWipeInCurrentUser;
         }
-        return mDpm.getMaximumFailedPasswordsForWipe(owner, MY_USER_ID);
+        return queryMaximumFailedPasswordsBeforeWipeInCurrentUser();
     }
 
     @Override
     public int getMaximumFailedPasswordsBeforeWipeInManagedProfile() {
+        final EnterpriseDisclosureSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot.mMaximumFailedPasswordsBeforeWipeInManagedProfile;
+        }
         final int userId = getManagedProfileUserId();
         if (userId == UserHandle.USER_NULL) {
             return 0;
@@ -171,6 +219,25 @@ public class EnterprisePrivacyFeatureProviderImpl implements EnterprisePrivacyFe
 
     @Override
     public String getImeLabelIfOwnerSet() {
+        final EnterpriseDisclosureSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot.mImeLabelIfOwnerSet;
+        }
+        return queryImeLabelIfOwnerSet();
+    }
+
+    private int queryMaximumFailedPasswordsBeforeWipeInCurrentUser() {
+        ComponentName owner = mDpm.getDeviceOwnerComponentOnCallingUser();
+        if (owner == null) {
+            owner = mDpm.getProfileOwnerAsUser(MY_USER_ID);
+        }
+        if (owner == null) {
+            return 0;
+        }
+        return mDpm.getMaximumFailedPasswordsForWipe(owner, MY_USER_ID);
+    }
+
+    private String queryImeLabelIfOwnerSet() {
         if (!mDpm.isCurrentInputMethodSetByOwner()) {
             return null;
         }
@@ -189,19 +256,27 @@ public class EnterprisePrivacyFeatureProviderImpl implements EnterprisePrivacyFe
 
     @Override
     public int getNumberOfOwnerInstalledCaCertsForCurrentUser() {
-        final List<String> certs = mDpm.getOwnerInstalledCaCerts(new UserHandle(MY_USER_ID));
-        if (certs == null) {
-            return 0;
+        final EnterpriseDisclosureSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot.mOwnerInstalledCaCertsForCurrentUser;
         }
-        return certs.size();
+        return queryOwnerInstalledCaCerts(MY_USER_ID);
     }
 
     @Override
     public int getNumberOfOwnerInstalledCaCertsForManagedProfile() {
+        final EnterpriseDisclosureSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot.mOwnerInstalledCaCertsForManagedProfile;
+        }
         final int userId = getManagedProfileUserId();
         if (userId == UserHandle.USER_NULL) {
             return 0;
         }
+        return queryOwnerInstalledCaCerts(userId);
+    }
+
+    private int queryOwnerInstalledCaCerts(int userId) {
         final List<String> certs = mDpm.getOwnerInstalledCaCerts(new UserHandle(userId));
         if (certs == null) {
             return 0;
@@ -211,6 +286,10 @@ public class EnterprisePrivacyFeatureProviderImpl implements EnterprisePrivacyFe
 
     @Override
     public int getNumberOfActiveDeviceAdminsForCurrentUserAndManagedProfile() {
+        final EnterpriseDisclosureSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot.mActiveDeviceAdmins;
+        }
         int activeAdmins = 0;
         for (final UserInfo userInfo : mUm.getProfiles(MY_USER_ID)) {
             final List<ComponentName> activeAdminsForUser = mDpm.getActiveAdminsAsUser(userInfo.id);
@@ -223,6 +302,10 @@ public class EnterprisePrivacyFeatureProviderImpl implements EnterprisePrivacyFe
 
     @Override
     public boolean hasWorkPolicyInfo() {
+        final EnterpriseDisclosureSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot.mHasWorkPolicyInfo;
+        }
         return (getWorkPolicyInfoIntentDO() != null) || (getWorkPolicyInfoIntentPO() != null);
     }
 
@@ -255,6 +338,83 @@ public class EnterprisePrivacyFeatureProviderImpl implements EnterprisePrivacyFe
         return false;
     }
 
+    @Override
+    public void loadDisclosureSnapshot(Runnable onLoaded) {
+        final int generation = ++mSnapshotGeneration;
+        mSnapshot = null;
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final EnterpriseDisclosureSnapshot snapshot = buildSnapshot();
+            ThreadUtils.postOnMainThread(() -> {
+                if (generation == mSnapshotGeneration) {
+                    mSnapshot = snapshot;
+                    onLoaded.run();
+                }
+            });
+        });
+    }
+
+    @Override
+    public void releaseDisclosureSnapshot() {
+        mSnapshotGeneration++;
+        mSnapshot = null;
+    }
+
+    /**
+     * Reads all disclosures, listing the profiles and looking up the owners only once. This must
+     * not call the getters, which may answer from the previous snapshot.
+     */
+    @WorkerThread
+    private EnterpriseDisclosureSnapshot buildSnapshot() {
+        final EnterpriseDisclosureSnapshot.Builder builder =
+                new EnterpriseDisclosureSnapshot.Builder();
+        UserInfo managedProfile = null;
+        for (final UserInfo userInfo : mUm.getProfiles(MY_USER_ID)) {
+            if (managedProfile == null && userInfo.isManagedProfile()) {
+                managedProfile = userInfo;
+            }
+            final List<ComponentName> activeAdminsForUser = mDpm.getActiveAdminsAsUser(userInfo.id);
+            if (activeAdminsForUser != null) {
+                builder.mActiveDeviceAdmins += activeAdminsForUser.size();
+            }
+        }
+        final ComponentName deviceOwner = getDeviceOwnerComponent();
+        builder.mHasDeviceOwner = deviceOwner != null;
+        builder.mHasManagedProfile = managedProfile != null;
+        final CharSequence organizationName = mDpm.getDeviceOwnerOrganizationName();
+        builder.mDeviceOwnerOrganizationName =
+                organizationName == null ? null : organizationName.toString();
+        builder.mLastSecurityLogRetrievalTime = mDpm.getLastSecurityLogRetrievalTime();
+        builder.mLastBugReportRequestTime = mDpm.getLastBugReportRequestTime();
+        builder.mLastNetworkLogRetrievalTime = mDpm.getLastNetworkLogRetrievalTime();
+        builder.mSecurityLoggingEnabled = mDpm.isSecurityLoggingEnabled(null);
+        builder.mNetworkLoggingEnabled = mDpm.isNetworkLoggingEnabled(null);
+        builder.mAlwaysOnVpnSetInCurrentUser =
+                mVm.getAlwaysOnVpnPackageForUser(MY_USER_ID) != null;
+        builder.mMaximumFailedPasswordsBeforeWipeInCurrentUser =
+                queryMaximumFailedPasswordsBeforeWipeInCurrentUser();
+        builder.mImeLabelIfOwnerSet = queryImeLabelIfOwnerSet();
+        builder.mOwnerInstalledCaCertsForCurrentUser = queryOwnerInstalledCaCerts(MY_USER_ID);
+        builder.mHasWorkPolicyInfo = getWorkPolicyInfoIntentDO(deviceOwner) != null;
+        if (managedProfile != null) {
+            final int userId = managedProfile.id;
+            builder.mAlwaysOnVpnSetInManagedProfile =
+                    mVm.getAlwaysOnVpnPackageForUser(userId) != null;
+            final ComponentName profileOwner = mDpm.getProfileOwnerAsUser(userId);
+            if (profileOwner != null) {
+                builder.mMaximumFailedPasswordsBeforeWipeInManagedProfile =
+                        mDpm.getMaximumFailedPasswordsForWipe(profileOwner, userId);
+                builder.mHasWorkPolicyInfo |=
+                        getWorkPolicyInfoIntentPO(userId, profileOwner) != null;
+            }
+            builder.mOwnerInstalledCaCertsForManagedProfile = queryOwnerInstalledCaCerts(userId);
+        }
+        return builder.build();
+    }
+
+    private static Date toDate(long timestamp) {
+        return timestamp < 0 ? null : new Date(timestamp);
+    }
+
     private Intent getParentalControlsIntent() {
         final ComponentName componentName =
                 mDpm.getProfileOwnerOrDeviceOwnerSupervisionComponent(new UserHandle(MY_USER_ID));
@@ -297,7 +457,10 @@ public class EnterprisePrivacyFeatureProviderImpl implements EnterprisePrivacyFe
     }
 
     private Intent getWorkPolicyInfoIntentDO() {
-        final ComponentName ownerComponent = getDeviceOwnerComponent();
+        return getWorkPolicyInfoIntentDO(getDeviceOwnerComponent());
+    }
+
+    private Intent getWorkPolicyInfoIntentDO(ComponentName ownerComponent) {
         if (ownerComponent == null) {
             return null;
         }
@@ -321,7 +484,10 @@ public class EnterprisePrivacyFeatureProviderImpl implements EnterprisePrivacyFe
             return null;
         }
 
-        final ComponentName ownerComponent = mDpm.getProfileOwnerAsUser(userId);
+        return getWorkPolicyInfoIntentPO(userId, mDpm.getProfileOwnerAsUser(userId));
+    }
+
+    private Intent getWorkPolicyInfoIntentPO(int userId, ComponentName ownerComponent) {
         if (ownerComponent == null) {
             return null;
         }
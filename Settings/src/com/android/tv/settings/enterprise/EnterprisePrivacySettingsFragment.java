@@ -17,6 +17,10 @@
 package com.android.tv.settings.enterprise;
 
 import android.content.Context;
+import android.os.Bundle;
+
+import androidx.preference.Preference;
+import androidx.preference.PreferenceScreen;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.settingslib.core.AbstractPreferenceController;
@@ -31,6 +35,9 @@ public class EnterprisePrivacySettingsFragment extends PreferenceControllerFragm
 
     @VisibleForTesting
     PrivacySettingsPreference mPrivacySettingsPreference;
+    private EnterprisePrivacyFeatureProvider mFeatureProvider;
+    @VisibleForTesting
+    boolean mSnapshotLoaded;
 
     public static EnterprisePrivacySettingsFragment newInstance() {
         return new EnterprisePrivacySettingsFragment();
@@ -55,11 +62,60 @@ public class EnterprisePrivacySettingsFragment extends PreferenceControllerFragm
     public void onAttach(Context context) {
         mPrivacySettingsPreference = new PrivacySettingsEnterprisePreference(context);
         super.onAttach(context);
+        mFeatureProvider = FlavorUtils.getFeatureFactory(context)
+                .getEnterprisePrivacyFeatureProvider(context);
+    }
+
+    @Override
+    public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
+        setPreferencesFromResource(getPreferenceScreenResId(), null);
+        // Asking the controllers which rows apply would query the system for each of them here on
+        // the main thread. Keep the rows hidden until the snapshot answers instead.
+        final PreferenceScreen screen = getPreferenceScreen();
+        for (AbstractPreferenceController controller
+                : getPreferenceControllers(AbstractPreferenceController.class)) {
+            final Preference preference = screen.findPreference(controller.getPreferenceKey());
+            if (preference != null) {
+                preference.setVisible(false);
+            }
+        }
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        // Read all disclosures in one background pass; the controllers answer from it while
+        // this screen is started.
+        mSnapshotLoaded = false;
+        mFeatureProvider.loadDisclosureSnapshot(() -> {
+            mSnapshotLoaded = true;
+            // Disclosures may have appeared or gone away since the rows were last shown.
+            refreshAllPreferences();
+            if (isResumed()) {
+                updatePreferenceStates();
+            }
+        });
+    }
+
+    @Override
+    public void onStop() {
+        mFeatureProvider.releaseDisclosureSnapshot();
+        super.onStop();
+    }
+
+    @Override
+    protected void updatePreferenceStates() {
+        // Rows keep their initial state until the snapshot arrives rather than asking the system
+        // once now and again when it does.
+        if (mSnapshotLoaded) {
+            super.updatePreferenceStates();
+        }
     }
 
     @Override
     public void onDetach() {
         mPrivacySettingsPreference = null;
+        mFeatureProvider = null;
         super.onDetach();
     }
 
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.enterprise.apps;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.IPackageManager;
+import android.content.pm.PackageManager;
+import android.content.pm.UserInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.ArraySet;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the apps of the current user and its profiles that the admin granted permissions to,
+ * shared by the camera, location and microphone controllers.
+ *
+ * <p>Profiles are listed and apps are checked in chunks on a small pool of threads. Each check
+ * covers every permission requested so far, so controllers asking at the same time share one
+ * pass. Results are kept until a package, profile or policy change of any user invalidates
+ * them, and for at most {@link #MAX_AGE_MILLIS}: a grant set by the admin sends no broadcast.
+ */
+final class AdminGrantedPermissionsEngine {
+    private static final String TAG = "AdminGrantedPermsEngine";
+
+    private static final int MAX_THREADS = 4;
+    private static final int CHUNK_SIZE = 32;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    // Long enough for the controllers of one screen and the app list opened from it.
+    @VisibleForTesting
+    static final long MAX_AGE_MILLIS = 10 * 1000;
+
+    private final PackageManager mPm;
+    private final IPackageManager mPms;
+    private final DevicePolicyManager mDpm;
+    private final UserManager mUm;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(MAX_THREADS,
+            MAX_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    // Every permission asked about, so one pass serves all controllers.
+    private final Set<String> mRequestedPermissions = new ArraySet<>();
+    private final Object mLock = new Object();
+    // Guarded by mLock.
+    private List<AppGrants> mApps;
+    private final Set<String> mCheckedPermissions = new ArraySet<>();
+    private int mCacheGeneration;
+    private long mLoadedAtMillis;
+    // Incremented when package or policy changes invalidate the cache.
+    private volatile int mGeneration;
+
+    /** An app and the checked permissions the admin granted to it. */
+    private static final class AppGrants {
+        final UserInfo mUser;
+        final ApplicationInfo mInfo;
+        final Set<String> mGranted = new ArraySet<>();
+        // Only read for apps using install-time permissions.
+        Integer mInstallReason;
+
+        AppGrants(UserInfo user, ApplicationInfo info) {
+            mUser = user;
+            mInfo = info;
+        }
+    }
+
+    AdminGrantedPermissionsEngine(Context context, PackageManager pm, IPackageManager pms,
+            DevicePolicyManager dpm, UserManager um) {
+        mPm = pm;
+        mPms = pms;
+        mDpm = dpm;
+        mUm = um;
+        mExecutor.allowCoreThreadTimeOut(true);
+
+        final BroadcastReceiver invalidateReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                mGeneration++;
+            }
+        };
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addDataScheme("package");
+        context.registerReceiverAsUser(invalidateReceiver, UserHandle.ALL, packageFilter,
+                null /* broadcastPermission */, null /* scheduler */);
+        final IntentFilter policyFilter = new IntentFilter();
+        policyFilter.addAction(DevicePolicyManager.ACTION_DEVICE_POLICY_MANAGER_STATE_CHANGED);
+        policyFilter.addAction(Intent.ACTION_MANAGED_PROFILE_ADDED);
+        policyFilter.addAction(Intent.ACTION_MANAGED_PROFILE_REMOVED);
+        context.registerReceiverAsUser(invalidateReceiver, UserHandle.ALL, policyFilter,
+                null /* broadcastPermission */, null /* scheduler */);
+    }
+
+    void countApps(String[] permissions, boolean async,
+            ApplicationFeatureProvider.NumberOfAppsCallback callback) {
+        if (!async) {
+            callback.onNumberOfAppsResult(getApps(permissions).size());
+            return;
+        }
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final int count = getApps(permissions).size();
+            mMainHandler.post(() -> callback.onNumberOfAppsResult(count));
+        });
+    }
+
+    void listApps(String[] permissions, ApplicationFeatureProvider.ListOfAppsCallback callback) {
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final List<UserAppInfo> apps = getApps(permissions);
+            mMainHandler.post(() -> callback.onListOfAppsResult(apps));
+        });
+    }
+
+    @WorkerThread
+    private List<UserAppInfo> getApps(String[] permissions) {
+        synchronized (mRequestedPermissions) {
+            Collections.addAll(mRequestedPermissions, permissions);
+        }
+        synchronized (mLock) {
+            final Set<String> wanted;
+            synchronized (mRequestedPermissions) {
+                wanted = new ArraySet<>(mRequestedPermissions);
+            }
+            final List<AppGrants> apps = ensureGrantsLocked(wanted);
+            final List<UserAppInfo> result = new ArrayList<>();
+            for (AppGrants app : apps) {
+                for (String permission : permissions) {
+                    if (app.mGranted.contains(permission)) {
+                        result.add(new UserAppInfo(app.mUser, app.mInfo));
+                        break;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    private List<AppGrants> ensureGrantsLocked(Set<String> wanted) {
+        final int generation = mGeneration;
+        final long now = SystemClock.elapsedRealtime();
+        if (mApps == null || mCacheGeneration != generation
+                || now - mLoadedAtMillis > MAX_AGE_MILLIS) {
+            mApps = loadApps();
+            mCheckedPermissions.clear();
+            mCacheGeneration = generation;
+            mLoadedAtMillis = now;
+        }
+        final Set<String> missing = new ArraySet<>(wanted);
+        missing.removeAll(mCheckedPermissions);
+        if (!missing.isEmpty()) {
+            checkGrants(mApps, missing.toArray(new String[0]));
+            mCheckedPermissions.addAll(missing);
+        }
+        final List<AppGrants> apps = mApps;
+        if (mGeneration != generation) {
+            // Changed while checking; use these results once, then check again.
+            mApps = null;
+        }
+        return apps;
+    }
+
+    /** Lists the installed apps of each profile in parallel. */
+    private List<AppGrants> loadApps() {
+        final List<UserInfo> profiles = mUm.getProfiles(UserHandle.myUserId());
+        final List<Future<List<AppGrants>>> futures = new ArrayList<>(profiles.size());
+        for (UserInfo user : profiles) {
+            futures.add(mExecutor.submit(() -> {
+                final List<ApplicationInfo> list = mPm.getInstalledApplicationsAsUser(
+                        PackageManager.GET_DISABLED_COMPONENTS
+                                | PackageManager.GET_DISABLED_UNTIL_USED_COMPONENTS
+                                | (user.isAdmin() ? PackageManager.MATCH_ANY_USER : 0),
+                        user.id);
+                final List<AppGrants> apps = new ArrayList<>(list.size());
+                for (ApplicationInfo info : list) {
+                    apps.add(new AppGrants(user, info));
+                }
+                return apps;
+            }));
+        }
+        final List<AppGrants> apps = new ArrayList<>();
+        for (Future<List<AppGrants>> future : futures) {
+            apps.addAll(await(future, Collections.emptyList()));
+        }
+        return apps;
+    }
+
+    /** Checks {@code permissions} for all apps, one chunk of apps per task. */
+    private void checkGrants(List<AppGrants> apps, String[] permissions) {
+        final List<Future<?>> futures = new ArrayList<>(apps.size() / CHUNK_SIZE + 1);
+        for (int start = 0; start < apps.size(); start += CHUNK_SIZE) {
+            final List<AppGrants> chunk =
+                    apps.subList(start, Math.min(apps.size(), start + CHUNK_SIZE));
+            futures.add(mExecutor.submit(() -> {
+                for (AppGrants app : chunk) {
+                    for (String permission : permissions) {
+                        if (isGrantedByAdmin(app, permission)) {
+                            app.mGranted.add(permission);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            await(future, null);
+        }
+    }
+
+    /**
+     * Whether the admin granted {@code permission} to the app, either by policy for run-time
+     * permissions or by installing the app for install-time permissions.
+     */
+    private boolean isGrantedByAdmin(AppGrants app, String permission) {
+        final ApplicationInfo info = app.mInfo;
+        if (info.targetSdkVersion >= Build.VERSION_CODES.M) {
+            // Run-time permissions: check whether the permission was granted by policy.
+            return mDpm.getPermissionGrantState(null /* admin */, info.packageName, permission)
+                    == DevicePolicyManager.PERMISSION_GRANT_STATE_GRANTED;
+        }
+        // Install-time permissions are implicitly granted by a policy install.
+        if (app.mInstallReason == null) {
+            app.mInstallReason = mPm.getInstallReason(info.packageName,
+                    new UserHandle(UserHandle.getUserId(info.uid)));
+        }
+        if (app.mInstallReason != PackageManager.INSTALL_REASON_POLICY) {
+            return false;
+        }
+        try {
+            return mPms.checkUidPermission(permission, info.uid)
+                    == PackageManager.PERMISSION_GRANTED;
+        } catch (RemoteException e) {
+            return false;
+        }
+    }
+
+    private static <T> T await(Future<T> future, T fallback) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Failed to check apps", e.getCause());
+            return fallback;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return fallback;
+        }
+    }
+}
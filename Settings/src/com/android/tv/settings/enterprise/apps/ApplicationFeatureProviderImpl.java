@@ -57,6 +57,7 @@ public class ApplicationFeatureProviderImpl implements ApplicationFeatureProvide
     private final IPackageManager mPms;
     private final DevicePolicyManager mDpm;
     private final UserManager mUm;
+    private final AdminGrantedPermissionsEngine mAdminGrantedPermissionsEngine;
     /** Flags to use when querying PackageManager for Euicc component implementations. */
     private static final int EUICC_QUERY_FLAGS =
             PackageManager.MATCH_SYSTEM_ONLY | PackageManager.MATCH_DEBUG_TRIAGED_MISSING
@@ -69,6 +70,8 @@ public class ApplicationFeatureProviderImpl implements ApplicationFeatureProvide
         mPms = pms;
         mDpm = dpm;
         mUm = UserManager.get(mContext);
+        mAdminGrantedPermissionsEngine =
+                new AdminGrantedPermissionsEngine(mContext, pm, pms, dpm, mUm);
     }
 
     @Override
@@ -92,23 +95,13 @@ public class ApplicationFeatureProviderImpl implements ApplicationFeatureProvide
     @Override
     public void calculateNumberOfAppsWithAdminGrantedPermissions(String[] permissions,
             boolean async, NumberOfAppsCallback callback) {
-        final CurrentUserAndManagedProfileAppWithAdminGrantedPermissionsCounter counter =
-                new CurrentUserAndManagedProfileAppWithAdminGrantedPermissionsCounter(mContext,
-                        permissions, mPm, mPms, mDpm, callback);
-        if (async) {
-            counter.execute();
-        } else {
-            counter.executeInForeground();
-        }
+        mAdminGrantedPermissionsEngine.countApps(permissions, async, callback);
     }
 
     @Override
     public void listAppsWithAdminGrantedPermissions(String[] permissions,
             ListOfAppsCallback callback) {
-        final CurrentUserAppWithAdminGrantedPermissionsLister lister =
-                new CurrentUserAppWithAdminGrantedPermissionsLister(permissions, mPm, mPms, mDpm,
-                        mUm, callback);
-        lister.execute();
+        mAdminGrantedPermissionsEngine.listApps(permissions, callback);
     }
 
     @Override
@@ -197,24 +190,6 @@ public class ApplicationFeatureProviderImpl implements ApplicationFeatureProvide
         }
     }
 
-    private static class CurrentUserAndManagedProfileAppWithAdminGrantedPermissionsCounter
-            extends AppWithAdminGrantedPermissionsCounter {
-        private NumberOfAppsCallback mCallback;
-
-        CurrentUserAndManagedProfileAppWithAdminGrantedPermissionsCounter(Context context,
-                String[] permissions, PackageManager packageManager,
-                IPackageManager packageManagerService,
-                DevicePolicyManager devicePolicyManager, NumberOfAppsCallback callback) {
-            super(context, permissions, packageManager, packageManagerService, devicePolicyManager);
-            mCallback = callback;
-        }
-
-        @Override
-        protected void onCountComplete(int num) {
-            mCallback.onNumberOfAppsResult(num);
-        }
-    }
-
     private static class CurrentUserPolicyInstalledAppLister extends InstalledAppLister {
         private ListOfAppsCallback mCallback;
 
@@ -230,25 +205,6 @@ public class ApplicationFeatureProviderImpl implements ApplicationFeatureProvide
         }
     }
 
-    private static class CurrentUserAppWithAdminGrantedPermissionsLister extends
-            AppWithAdminGrantedPermissionsLister {
-        private ListOfAppsCallback mCallback;
-
-        CurrentUserAppWithAdminGrantedPermissionsLister(String[] permissions,
-                PackageManager packageManager, IPackageManager packageManagerService,
-                DevicePolicyManager devicePolicyManager, UserManager userManager,
-                ListOfAppsCallback callback) {
-            super(permissions, packageManager, packageManagerService, devicePolicyManager,
-                    userManager);
-            mCallback = callback;
-        }
-
-        @Override
-        protected void onAppListBuilt(List<UserAppInfo> list) {
-            mCallback.onListOfAppsResult(list);
-        }
-    }
-
     /**
      * Return the component info of the EuiccService to bind to, or null if none were found.
      */
@@ -21,6 +21,7 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.android.tv.settings.R;
 
@@ -93,4 +94,10 @@ public final class FlavorUtils {
         }
         return sFeatureFactory;
     }
+
+    /** Replaces the FeatureFactory; {@code null} picks the one for the flavor again. */
+    @VisibleForTesting
+    public static void setFeatureFactory(@Nullable FeatureFactory featureFactory) {
+        sFeatureFactory = featureFactory;
+    }
 }
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.service;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.ArrayMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A list of {@link PreferenceParcelable} encoded against a session {@link PreferenceStringTable}.
+ *
+ * <p>Every string of a row is written as its id in the table. The strings the receiver has not
+ * seen yet are sent once, at the head of the list, so repeated keys, summaries and info entries
+ * cost four bytes after the first transfer. Intents are written without their class name.
+ *
+ * <p>The sender builds the list with {@link #CompactPreferenceList(List, PreferenceStringTable)};
+ * the receiver calls {@link #decode} with its own table, in the order the lists arrived.
+ */
+public class CompactPreferenceList implements Parcelable {
+    private static final int FLAG_EXTRAS = 1;
+    private static final int FLAG_INTENT = 1 << 1;
+    private static final int FLAG_CHILDREN = 1 << 2;
+    private static final int FLAG_INFO = 1 << 3;
+
+    private final int mTableBase;
+    private final List<String> mNewStrings;
+    // Set on the sending side.
+    private final List<PreferenceParcelable> mPreferences;
+    private final PreferenceStringTable mTable;
+    // Set on the receiving side.
+    private final List<Row> mRows;
+
+    /**
+     * Interns the strings of {@code preferences} in {@code table} and encodes against it. A full
+     * table is reset first, so the list carries all of its strings and resyncs the receiver.
+     */
+    public CompactPreferenceList(List<PreferenceParcelable> preferences,
+            PreferenceStringTable table) {
+        if (table.isFull()) {
+            table.reset();
+        }
+        mTableBase = table.size();
+        for (PreferenceParcelable preference : preferences) {
+            intern(preference, table);
+        }
+        mNewStrings = table.getStrings(mTableBase);
+        mPreferences = preferences;
+        mTable = table;
+        mRows = null;
+    }
+
+    private CompactPreferenceList(Parcel source) {
+        mTableBase = source.readInt();
+        mNewStrings = source.createStringArrayList();
+        int count = source.readInt();
+        mRows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            mRows.add(Row.read(source));
+        }
+        mPreferences = null;
+        mTable = null;
+    }
+
+    /**
+     * Applies the new strings to {@code table} and returns the preferences.
+     *
+     * @throws IllegalStateException if a previous list was not decoded with this table
+     */
+    public List<PreferenceParcelable> decode(PreferenceStringTable table) {
+        if (mPreferences != null) {
+            return mPreferences;
+        }
+        table.append(mTableBase, mNewStrings);
+        List<PreferenceParcelable> preferences = new ArrayList<>(mRows.size());
+        for (Row row : mRows) {
+            preferences.add(row.toPreference(table));
+        }
+        return preferences;
+    }
+
+    private static void intern(PreferenceParcelable preference, PreferenceStringTable table) {
+        for (String keySegment : preference.getKey()) {
+            table.intern(keySegment);
+        }
+        table.intern(preference.getTitle());
+        table.intern(preference.getSummary());
+        table.intern(preference.getContentDescription());
+        for (Map.Entry<String, String> entry : preference.getInfoMap().entrySet()) {
+            table.intern(entry.getKey());
+            table.intern(entry.getValue());
+        }
+        List<PreferenceParcelable> children = preference.getChildPreferences();
+        if (children != null) {
+            for (PreferenceParcelable child : children) {
+                intern(child, table);
+            }
+        }
+    }
+
+    private static void write(Parcel dest, PreferenceParcelable preference,
+            PreferenceStringTable table, int flags) {
+        String[] key = preference.getKey();
+        dest.writeInt(key.length);
+        for (String keySegment : key) {
+            dest.writeInt(table.idOf(keySegment));
+        }
+        dest.writeInt(table.idOf(preference.getTitle()));
+        dest.writeInt(table.idOf(preference.getSummary()));
+        dest.writeInt(table.idOf(preference.getContentDescription()));
+        Map<String, String> info = preference.getInfoMap();
+        List<PreferenceParcelable> children = preference.getChildPreferences();
+        int rowFlags = 0;
+        if (preference.getExtras() != null) {
+            rowFlags |= FLAG_EXTRAS;
+        }
+        if (preference.getIntent() != null) {
+            rowFlags |= FLAG_INTENT;
+        }
+        if (children != null) {
+            rowFlags |= FLAG_CHILDREN;
+        }
+        if (!info.isEmpty()) {
+            rowFlags |= FLAG_INFO;
+        }
+        // type, checked, visible and flags packed into one int.
+        dest.writeInt((preference.getType() & 0xff)
+                | (preference.getChecked() & 0xff) << 8
+                | (preference.getVisible() & 0xff) << 16
+                | rowFlags << 24);
+        if ((rowFlags & FLAG_EXTRAS) != 0) {
+            dest.writeBundle(preference.getExtras());
+        }
+        if ((rowFlags & FLAG_INTENT) != 0) {
+            preference.getIntent().writeToParcel(dest, flags);
+        }
+        if ((rowFlags & FLAG_INFO) != 0) {
+            dest.writeInt(info.size());
+            for (Map.Entry<String, String> entry : info.entrySet()) {
+                dest.writeInt(table.idOf(entry.getKey()));
+                dest.writeInt(table.idOf(entry.getValue()));
+            }
+        }
+        if ((rowFlags & FLAG_CHILDREN) != 0) {
+            dest.writeInt(children.size());
+            for (PreferenceParcelable child : children) {
+                write(dest, child, table, flags);
+            }
+        }
+    }
+
+    /** A received row whose strings are still ids. */
+    private static final class Row {
+        int[] mKey;
+        int mTitle;
+        int mSummary;
+        int mContentDescription;
+        int mPacked;
+        Bundle mExtras;
+        Intent mIntent;
+        int[] mInfo;
+        Row[] mChildren;
+
+        static Row read(Parcel source) {
+            Row row = new Row();
+            row.mKey = new int[source.readInt()];
+            for (int i = 0; i < row.mKey.length; i++) {
+                row.mKey[i] = source.readInt();
+            }
+            row.mTitle = source.readInt();
+            row.mSummary = source.readInt();
+            row.mContentDescription = source.readInt();
+            row.mPacked = source.readInt();
+            int rowFlags = row.mPacked >>> 24;
+            if ((rowFlags & FLAG_EXTRAS) != 0) {
+                row.mExtras = source.readBundle();
+            }
+            if ((rowFlags & FLAG_INTENT) != 0) {
+                row.mIntent = Intent.CREATOR.createFromParcel(source);
+            }
+            if ((rowFlags & FLAG_INFO) != 0) {
+                row.mInfo = new int[source.readInt() * 2];
+                for (int i = 0; i < row.mInfo.length; i++) {
+                    row.mInfo[i] = source.readInt();
+                }
+            }
+            if ((rowFlags & FLAG_CHILDREN) != 0) {
+                row.mChildren = new Row[source.readInt()];
+                for (int i = 0; i < row.mChildren.length; i++) {
+                    row.mChildren[i] = read(source);
+                }
+            }
+            return row;
+        }
+
+        PreferenceParcelable toPreference(PreferenceStringTable table) {
+            String[] key = new String[mKey.length];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = table.get(mKey[i]);
+            }
+            PreferenceParcelable preference = new PreferenceParcelable(key);
+            preference.setTitle(table.get(mTitle));
+            preference.setSummary(table.get(mSummary));
+            preference.setContentDescription(table.get(mContentDescription));
+            preference.setType((byte) mPacked);
+            preference.setChecked((byte) (mPacked >>> 8));
+            preference.setVisible((byte) (mPacked >>> 16));
+            preference.setExtras(mExtras);
+            preference.setIntent(mIntent);
+            Map<String, String> info = new ArrayMap<>();
+            if (mInfo != null) {
+                for (int i = 0; i < mInfo.length; i += 2) {
+                    info.put(table.get(mInfo[i]), table.get(mInfo[i + 1]));
+                }
+            }
+            preference.setInfoMap(info);
+            if (mChildren != null) {
+                preference.initChildPreferences();
+                for (Row child : mChildren) {
+                    preference.addChildPrefParcelable(child.toPreference(table));
+                }
+            }
+            return preference;
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        if (mPreferences == null) {
+            throw new IllegalStateException("A received list cannot be written again");
+        }
+        dest.writeInt(mTableBase);
+        dest.writeStringList(mNewStrings);
+        dest.writeInt(mPreferences.size());
+        for (PreferenceParcelable preference : mPreferences) {
+            write(dest, preference, mTable, flags);
+        }
+    }
+
+    public static final Creator<CompactPreferenceList> CREATOR =
+            new Creator<CompactPreferenceList>() {
+                @Override
+                public CompactPreferenceList createFromParcel(Parcel source) {
+                    return new CompactPreferenceList(source);
+                }
+
+                @Override
+                public CompactPreferenceList[] newArray(int size) {
+                    return new CompactPreferenceList[size];
+                }
+            };
+}
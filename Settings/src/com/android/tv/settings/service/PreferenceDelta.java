@@ -0,0 +1,437 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.service;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The fields of one preference that changed since the previous version sent to the client.
+ *
+ * <p>Only the fields flagged in {@link #getFields()} are meaningful and written to the parcel.
+ * Children of a category are sent as their own deltas keyed by the parent key followed by the
+ * child key; the category itself only carries the ordered list of its child keys.
+ */
+public class PreferenceDelta implements Parcelable {
+    public static final int FIELD_TITLE = 1;
+    public static final int FIELD_SUMMARY = 1 << 1;
+    public static final int FIELD_CONTENT_DESCRIPTION = 1 << 2;
+    public static final int FIELD_TYPE = 1 << 3;
+    public static final int FIELD_CHECKED = 1 << 4;
+    public static final int FIELD_VISIBLE = 1 << 5;
+    public static final int FIELD_EXTRAS = 1 << 6;
+    public static final int FIELD_INTENT = 1 << 7;
+    /** Changed info map entries; a {@code null} value means the entry was removed. */
+    public static final int FIELD_INFO = 1 << 8;
+    /** Ordered keys of the children, relative to this preference. */
+    public static final int FIELD_CHILDREN = 1 << 9;
+    /** The preference is gone; no other field is set. */
+    public static final int FIELD_REMOVED = 1 << 31;
+
+    private final String[] key;
+    private int fields;
+    private String title;
+    private String summary;
+    private String contentDescription;
+    private byte type;
+    private byte checked;
+    private byte visible;
+    private Bundle extras;
+    private Intent intent;
+    private Map<String, String> info;
+    private String[] childKeys;
+
+    public PreferenceDelta(String[] key) {
+        this.key = key;
+    }
+
+    public String[] getKey() {
+        return key;
+    }
+
+    public int getFields() {
+        return fields;
+    }
+
+    public boolean has(int field) {
+        return (fields & field) != 0;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getSummary() {
+        return summary;
+    }
+
+    public String getContentDescription() {
+        return contentDescription;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public byte getChecked() {
+        return checked;
+    }
+
+    public byte getVisible() {
+        return visible;
+    }
+
+    public Bundle getExtras() {
+        return extras;
+    }
+
+    public Intent getIntent() {
+        return intent;
+    }
+
+    public Map<String, String> getInfo() {
+        return info;
+    }
+
+    public String[] getChildKeys() {
+        return childKeys;
+    }
+
+    /** Returns a delta telling the client that {@code key} no longer exists. */
+    public static PreferenceDelta removed(String[] key) {
+        PreferenceDelta delta = new PreferenceDelta(key);
+        delta.fields = FIELD_REMOVED;
+        return delta;
+    }
+
+    /**
+     * Computes the fields of {@code now} that differ from {@code old}.
+     *
+     * @param old the last version sent, or {@code null} if the client has never seen this key
+     * @param oldChildKeys the children keys last sent, or {@code null}
+     * @param newChildKeys the current children keys, or {@code null} if not a category
+     * @return the delta, or {@code null} when nothing changed
+     */
+    public static PreferenceDelta diff(PreferenceParcelable old, PreferenceParcelable now,
+            String[] oldChildKeys, String[] newChildKeys) {
+        PreferenceDelta delta = new PreferenceDelta(now.getKey());
+        if (old == null || !TextUtils.equals(old.getTitle(), now.getTitle())) {
+            delta.fields |= FIELD_TITLE;
+            delta.title = now.getTitle();
+        }
+        if (old == null || !TextUtils.equals(old.getSummary(), now.getSummary())) {
+            delta.fields |= FIELD_SUMMARY;
+            delta.summary = now.getSummary();
+        }
+        if (old == null
+                || !TextUtils.equals(old.getContentDescription(), now.getContentDescription())) {
+            delta.fields |= FIELD_CONTENT_DESCRIPTION;
+            delta.contentDescription = now.getContentDescription();
+        }
+        if (old == null || old.getType() != now.getType()) {
+            delta.fields |= FIELD_TYPE;
+            delta.type = (byte) now.getType();
+        }
+        if (old == null || old.getChecked() != now.getChecked()) {
+            delta.fields |= FIELD_CHECKED;
+            delta.checked = now.getChecked();
+        }
+        if (old == null || old.getVisible() != now.getVisible()) {
+            delta.fields |= FIELD_VISIBLE;
+            delta.visible = now.getVisible();
+        }
+        if (old == null || !bundlesEqual(old.getExtras(), now.getExtras())) {
+            delta.fields |= FIELD_EXTRAS;
+            delta.extras = now.getExtras();
+        }
+        if (old == null || !intentsEqual(old.getIntent(), now.getIntent())) {
+            delta.fields |= FIELD_INTENT;
+            delta.intent = now.getIntent();
+        }
+        Map<String, String> infoChanges = diffInfo(
+                old != null ? old.getInfoMap() : null, now.getInfoMap());
+        if (infoChanges != null) {
+            delta.fields |= FIELD_INFO;
+            delta.info = infoChanges;
+        }
+        if (newChildKeys != null && (old == null || !Arrays.equals(oldChildKeys, newChildKeys))) {
+            delta.fields |= FIELD_CHILDREN;
+            delta.childKeys = newChildKeys;
+        }
+        return delta.fields == 0 ? null : delta;
+    }
+
+    /** Folds a later delta for the same key into this one. */
+    public void merge(PreferenceDelta later) {
+        if (later.has(FIELD_REMOVED) || has(FIELD_REMOVED)) {
+            // Either the key went away, or it came back and the later delta lists every field.
+            fields = later.fields;
+            title = later.title;
+            summary = later.summary;
+            contentDescription = later.contentDescription;
+            type = later.type;
+            checked = later.checked;
+            visible = later.visible;
+            extras = later.extras;
+            intent = later.intent;
+            info = later.info;
+            childKeys = later.childKeys;
+            return;
+        }
+        fields |= later.fields;
+        if (later.has(FIELD_TITLE)) {
+            title = later.title;
+        }
+        if (later.has(FIELD_SUMMARY)) {
+            summary = later.summary;
+        }
+        if (later.has(FIELD_CONTENT_DESCRIPTION)) {
+            contentDescription = later.contentDescription;
+        }
+        if (later.has(FIELD_TYPE)) {
+            type = later.type;
+        }
+        if (later.has(FIELD_CHECKED)) {
+            checked = later.checked;
+        }
+        if (later.has(FIELD_VISIBLE)) {
+            visible = later.visible;
+        }
+        if (later.has(FIELD_EXTRAS)) {
+            extras = later.extras;
+        }
+        if (later.has(FIELD_INTENT)) {
+            intent = later.intent;
+        }
+        if (later.has(FIELD_INFO)) {
+            if (info == null) {
+                info = new ArrayMap<>();
+            }
+            info.putAll(later.info);
+        }
+        if (later.has(FIELD_CHILDREN)) {
+            childKeys = later.childKeys;
+        }
+    }
+
+    private static Map<String, String> diffInfo(Map<String, String> old, Map<String, String> now) {
+        Map<String, String> changes = null;
+        if (now != null) {
+            for (Map.Entry<String, String> entry : now.entrySet()) {
+                if (old == null || !old.containsKey(entry.getKey())
+                        || !Objects.equals(old.get(entry.getKey()), entry.getValue())) {
+                    if (changes == null) {
+                        changes = new ArrayMap<>();
+                    }
+                    changes.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (old != null) {
+            for (String oldKey : old.keySet()) {
+                if (now == null || !now.containsKey(oldKey)) {
+                    if (changes == null) {
+                        changes = new ArrayMap<>();
+                    }
+                    changes.put(oldKey, null);
+                }
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Compares the values of the bundles. {@link Bundle#kindofEquals} does not help here: it
+     * falls back to {@code equals} for values such as the WifiInfo an active access point carries,
+     * which do not implement it, so the extras would look changed on every update.
+     */
+    private static boolean bundlesEqual(Bundle a, Bundle b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null || !a.keySet().equals(b.keySet())) {
+            return false;
+        }
+        for (String key : a.keySet()) {
+            if (!valuesEqual(a.get(key), b.get(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean valuesEqual(Object a, Object b) {
+        if (Objects.equals(a, b)) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a instanceof Bundle && b instanceof Bundle) {
+            return bundlesEqual((Bundle) a, (Bundle) b);
+        }
+        if (a instanceof List && b instanceof List) {
+            final List<?> listA = (List<?>) a;
+            final List<?> listB = (List<?>) b;
+            if (listA.size() != listB.size()) {
+                return false;
+            }
+            for (int i = 0; i < listA.size(); i++) {
+                if (!valuesEqual(listA.get(i), listB.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof Parcelable && b instanceof Parcelable && a.getClass() == b.getClass()) {
+            final byte[] bytesA = marshall((Parcelable) a);
+            return bytesA != null && Arrays.equals(bytesA, marshall((Parcelable) b));
+        }
+        if (a.getClass().isArray() && b.getClass().isArray()) {
+            return Arrays.deepEquals(new Object[] {a}, new Object[] {b});
+        }
+        return false;
+    }
+
+    private static byte[] marshall(Parcelable value) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeParcelable(value, 0);
+            return parcel.marshall();
+        } catch (RuntimeException e) {
+            // Values holding binders or file descriptors can't be marshalled; treat as changed.
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static boolean intentsEqual(Intent a, Intent b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        return a.filterEquals(b) && a.getFlags() == b.getFlags()
+                && bundlesEqual(a.getExtras(), b.getExtras());
+    }
+
+    @Override
+    public String toString() {
+        return "PreferenceDelta{" +
+                "key='" + Arrays.toString(key) + '\'' +
+                ", fields=0x" + Integer.toHexString(fields) +
+                '}';
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeStringArray(key);
+        dest.writeInt(fields);
+        if (has(FIELD_TITLE)) {
+            dest.writeString(title);
+        }
+        if (has(FIELD_SUMMARY)) {
+            dest.writeString(summary);
+        }
+        if (has(FIELD_CONTENT_DESCRIPTION)) {
+            dest.writeString(contentDescription);
+        }
+        if (has(FIELD_TYPE)) {
+            dest.writeByte(type);
+        }
+        if (has(FIELD_CHECKED)) {
+            dest.writeByte(checked);
+        }
+        if (has(FIELD_VISIBLE)) {
+            dest.writeByte(visible);
+        }
+        if (has(FIELD_EXTRAS)) {
+            dest.writeBundle(extras);
+        }
+        if (has(FIELD_INTENT)) {
+            dest.writeParcelable(intent, flags);
+        }
+        if (has(FIELD_INFO)) {
+            dest.writeMap(info);
+        }
+        if (has(FIELD_CHILDREN)) {
+            dest.writeStringArray(childKeys);
+        }
+    }
+
+    public static final Creator<PreferenceDelta> CREATOR =
+            new Creator<PreferenceDelta>() {
+                @Override
+                public PreferenceDelta createFromParcel(Parcel source) {
+                    PreferenceDelta delta = new PreferenceDelta(source.createStringArray());
+                    delta.fields = source.readInt();
+                    if (delta.has(FIELD_TITLE)) {
+                        delta.title = source.readString();
+                    }
+                    if (delta.has(FIELD_SUMMARY)) {
+                        delta.summary = source.readString();
+                    }
+                    if (delta.has(FIELD_CONTENT_DESCRIPTION)) {
+                        delta.contentDescription = source.readString();
+                    }
+                    if (delta.has(FIELD_TYPE)) {
+                        delta.type = source.readByte();
+                    }
+                    if (delta.has(FIELD_CHECKED)) {
+                        delta.checked = source.readByte();
+                    }
+                    if (delta.has(FIELD_VISIBLE)) {
+                        delta.visible = source.readByte();
+                    }
+                    if (delta.has(FIELD_EXTRAS)) {
+                        delta.extras = source.readBundle();
+                    }
+                    if (delta.has(FIELD_INTENT)) {
+                        delta.intent = source.readParcelable(Intent.class.getClassLoader());
+                    }
+                    if (delta.has(FIELD_INFO)) {
+                        delta.info = new ArrayMap<>();
+                        source.readMap(delta.info, Map.class.getClassLoader());
+                    }
+                    if (delta.has(FIELD_CHILDREN)) {
+                        delta.childKeys = source.createStringArray();
+                    }
+                    return delta;
+                }
+
+                @Override
+                public PreferenceDelta[] newArray(int size) {
+                    return new PreferenceDelta[size];
+                }
+            };
+}
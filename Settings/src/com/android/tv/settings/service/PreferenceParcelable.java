@@ -35,6 +35,8 @@ public class PreferenceParcelable implements Parcelable {
     public static final byte TYPE_PREFERENCE_WIFI_COLLAPSE_CATEGORY = 3;
 
     private final String[] key;
+    // Keys joined by spaces, computed on first use.
+    private String compoundKey;
     private String title;
     private String summary;
     private String contentDescription;
@@ -92,6 +94,13 @@ public class PreferenceParcelable implements Parcelable {
         return key;
     }
 
+    public String getCompoundKey() {
+        if (compoundKey == null) {
+            compoundKey = key.length == 1 ? key[0] : String.join(" ", key);
+        }
+        return compoundKey;
+    }
+
     public String getTitle() {
         return title;
     }
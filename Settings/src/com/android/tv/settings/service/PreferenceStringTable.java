@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.service;
+
+import android.util.ArrayMap;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Strings shared by both ends of a listener session, addressed by small integer ids.
+ *
+ * <p>The service interns every key, title, summary and info entry before sending a
+ * {@link CompactPreferenceList}; only strings the client has not seen yet travel with it. Ids are
+ * assigned in order and never reused, so the client table stays in sync as long as it applies
+ * every list it receives. {@link #reset} starts a new session on both ends.
+ *
+ * <p>Strings that are no longer shown stay in the table, so once it holds {@link #MAX_STRINGS}
+ * the sender resets it and the next list carries every string again.
+ */
+public class PreferenceStringTable {
+    public static final int NO_STRING = -1;
+    public static final int MAX_STRINGS = 4096;
+
+    private final List<String> mStrings = new ArrayList<>();
+    private final ArrayMap<String, Integer> mIds = new ArrayMap<>();
+    private final int mMaxStrings;
+
+    public PreferenceStringTable() {
+        this(MAX_STRINGS);
+    }
+
+    @VisibleForTesting
+    PreferenceStringTable(int maxStrings) {
+        mMaxStrings = maxStrings;
+    }
+
+    public int size() {
+        return mStrings.size();
+    }
+
+    /** Whether the sender should start a new session before encoding another list. */
+    public boolean isFull() {
+        return mStrings.size() >= mMaxStrings;
+    }
+
+    /** Returns the id of {@code value}, adding it to the table if needed. */
+    public int intern(String value) {
+        if (value == null) {
+            return NO_STRING;
+        }
+        Integer id = mIds.get(value);
+        if (id == null) {
+            id = mStrings.size();
+            mStrings.add(value);
+            mIds.put(value, id);
+        }
+        return id;
+    }
+
+    /** Returns the id of a string already in the table. */
+    public int idOf(String value) {
+        if (value == null) {
+            return NO_STRING;
+        }
+        Integer id = mIds.get(value);
+        if (id == null) {
+            throw new IllegalStateException("Not interned: " + value);
+        }
+        return id;
+    }
+
+    public String get(int id) {
+        return id == NO_STRING ? null : mStrings.get(id);
+    }
+
+    /** Returns the strings added since the table had {@code fromSize} entries. */
+    List<String> getStrings(int fromSize) {
+        return new ArrayList<>(mStrings.subList(fromSize, mStrings.size()));
+    }
+
+    /**
+     * Appends strings received from the other end.
+     *
+     * @throws IllegalStateException if {@code base} does not match the local table, meaning a
+     *         list was missed and the client has to resync
+     */
+    void append(int base, List<String> strings) {
+        if (base == 0) {
+            reset();
+        } else if (base != mStrings.size()) {
+            throw new IllegalStateException(
+                    "String table out of sync: expected " + mStrings.size() + " got " + base);
+        }
+        for (String value : strings) {
+            mIds.put(value, mStrings.size());
+            mStrings.add(value);
+        }
+    }
+
+    public void reset() {
+        mStrings.clear();
+        mIds.clear();
+    }
+}
@@ -29,19 +29,25 @@ import androidx.annotation.Nullable;
 
 import com.android.tv.settings.service.ISettingsService;
 import com.android.tv.settings.service.ISettingsServiceListener;
+import com.android.tv.settings.service.data.BatchingServiceListener;
 import com.android.tv.settings.service.data.State;
+import com.android.tv.settings.service.data.StateScheduler;
 import com.android.tv.settings.service.data.StateUtil;
 import com.android.tv.twopanelsettings.slices.ContextSingleton;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.List;
 
 public class SettingsService extends Service {
     private static final String TAG = "TvSettingsService";
     private static final boolean DEBUG = true;
     private final Handler mHandler = new Handler();
+    // Guarded by itself; states are called on the workers of mScheduler.
     private final ArrayMap<Integer, Pair<State, Integer>> mStateMap = new ArrayMap<>();
+    private final StateScheduler mScheduler = new StateScheduler();
 
-    private ISettingsServiceListener mListener;
+    private volatile BatchingServiceListener mListener;
 
     private final ISettingsService.Stub mBinder = new ISettingsService.Stub() {
 
@@ -58,7 +64,26 @@ public class SettingsService extends Service {
         @Override
         public void registerListener(ISettingsServiceListener listener) {
             mHandler.post(() -> {
-                mListener = listener;
+                mListener = new BatchingServiceListener(listener, false, mHandler);
+            });
+        }
+
+        @Override
+        public void registerDeltaListener(ISettingsServiceListener listener) {
+            mHandler.post(() -> {
+                mListener = new BatchingServiceListener(listener, true, mHandler);
+            });
+        }
+
+        @Override
+        public void requestResync(int state, boolean resetStrings) {
+            mHandler.post(() -> {
+                if (DEBUG) {
+                    Log.d(TAG, "requestResync " + state);
+                }
+                if (mListener != null) {
+                    mListener.resync(state, resetStrings);
+                }
             });
         }
 
@@ -71,7 +96,7 @@ public class SettingsService extends Service {
 
         @Override
         public void onCreate(int state, Bundle extras) {
-            mHandler.post(() -> {
+            mScheduler.submit(state, StateScheduler.OP_CREATE, () -> {
                 if (DEBUG) {
                     Log.d(TAG, "onCreate " + state);
                 }
@@ -81,7 +106,7 @@ public class SettingsService extends Service {
 
         @Override
         public void onStart(int state) {
-            mHandler.post(() -> {
+            mScheduler.submit(state, StateScheduler.OP_START, () -> {
                 if (DEBUG) {
                     Log.d(TAG, "onStart " + state);
                 }
@@ -91,7 +116,7 @@ public class SettingsService extends Service {
 
         @Override
         public void onResume(int state) {
-            mHandler.post(() -> {
+            mScheduler.submit(state, StateScheduler.OP_RESUME, () -> {
                 if (DEBUG) {
                     Log.d(TAG, "onResume " + state);
                 }
@@ -102,7 +127,7 @@ public class SettingsService extends Service {
 
         @Override
         public void onPause(int state) {
-            mHandler.post(() -> {
+            mScheduler.submit(state, StateScheduler.OP_PAUSE, () -> {
                 if (DEBUG) {
                     Log.d(TAG, "onPause " + state);
                 }
@@ -112,7 +137,7 @@ public class SettingsService extends Service {
 
         @Override
         public void onStop(int state) {
-            mHandler.post(() -> {
+            mScheduler.submit(state, StateScheduler.OP_STOP, () -> {
                 if (DEBUG) {
                     Log.d(TAG, "onStop " + state);
                 }
@@ -122,7 +147,7 @@ public class SettingsService extends Service {
 
         @Override
         public void onDestroy(int state) {
-            mHandler.post(() -> {
+            mScheduler.submit(state, StateScheduler.OP_DESTROY, () -> {
                 if (DEBUG) {
                     Log.d(TAG, "onDestroy " + state);
                 }
@@ -132,7 +157,7 @@ public class SettingsService extends Service {
 
         @Override
         public void onPreferenceClick(int state, String key, boolean status) {
-            mHandler.post(() -> {
+            mScheduler.submit(state, StateScheduler.OP_CLICK, () -> {
                 if (DEBUG) {
                     Log.d(TAG, "onPreferenceTreeClick " + state + " " + key);
                 }
@@ -148,36 +173,58 @@ public class SettingsService extends Service {
     };
 
     void onCreateFragment(int state, Bundle extras) {
-        StateUtil.createState(
-                getApplicationContext(), state, mListener, mStateMap).onCreate(extras);
+        State created;
+        synchronized (mStateMap) {
+            created = StateUtil.createState(getApplicationContext(), state, mListener, mStateMap,
+                    mScheduler.getExecutor(state));
+        }
+        created.onCreate(extras);
     }
 
     void onStartFragment(int state) {
-        StateUtil.getState(state, mStateMap).onStart();
+        getState(state).onStart();
     }
 
 
     void onResumeFragment(int state) {
-        StateUtil.getState(state, mStateMap).onResume();
+        getState(state).onResume();
     }
 
     void onStopFragment(int state) {
-        StateUtil.getState(state, mStateMap).onStop();
+        getState(state).onStop();
     }
 
     void onPauseFragment(int state) {
-        StateUtil.getState(state, mStateMap).onPause();
+        getState(state).onPause();
     }
 
     void onDestroyFragment(int state) {
-        StateUtil.getState(state, mStateMap).onDestroy();
-        StateUtil.removeState(state, mStateMap);
+        getState(state).onDestroy();
+        boolean removed;
+        synchronized (mStateMap) {
+            StateUtil.removeState(state, mStateMap);
+            removed = !mStateMap.containsKey(state);
+        }
+        BatchingServiceListener listener = mListener;
+        if (listener != null && removed) {
+            listener.removeState(state);
+        }
     }
 
     void onPreferenceClick(int state, String key, boolean status) {
-        StateUtil.getState(state, mStateMap).onPreferenceTreeClick(key, status);
+        getState(state).onPreferenceTreeClick(key, status);
     }
 
+    private State getState(int state) {
+        synchronized (mStateMap) {
+            return StateUtil.getState(state, mStateMap);
+        }
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mScheduler.dump("", writer);
+    }
 
     @Nullable
     @Override
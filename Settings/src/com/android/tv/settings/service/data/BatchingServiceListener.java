@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.service.data;
+
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+import android.view.Choreographer;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.tv.settings.service.CompactPreferenceList;
+import com.android.tv.settings.service.ISettingsServiceListener;
+import com.android.tv.settings.service.PreferenceDelta;
+import com.android.tv.settings.service.PreferenceParcelable;
+import com.android.tv.settings.service.PreferenceStringTable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sits between the states and the remote {@link ISettingsServiceListener}.
+ *
+ * <p>For listeners registered with the delta protocol, full updates from the states are diffed
+ * against what the client last received, and the changed fields of every key are batched into a
+ * single oneway {@code notifyDelta} per frame. Each batch moves the state to a new version; a
+ * client that notices a gap asks for {@link #resync}. Legacy listeners get every call forwarded
+ * unchanged.
+ *
+ * <p>States call in from their {@link StateScheduler} workers; staged changes are flushed on the
+ * next frame on the handler's thread, or right away by a state setting a title or asking for a
+ * resync. Deltas and snapshots are oneway calls, sent under a lock of their own so batches leave
+ * in version order whichever thread flushes them; staging only takes the instance lock, which is
+ * never held while calling the remote. The two-way {@code notifyUpdateScreenTitle}, and every
+ * call to a legacy listener, is made outside both locks, so a slow client only holds up the state
+ * that made the call.
+ */
+public class BatchingServiceListener implements ISettingsServiceListener {
+    private static final String TAG = "BatchingServiceListener";
+
+    private final ISettingsServiceListener mRemote;
+    private final boolean mDeltaEnabled;
+    private final Handler mHandler;
+    private final ArrayMap<Integer, StateTracker> mTrackers = new ArrayMap<>();
+    private final PreferenceStringTable mStringTable = new PreferenceStringTable();
+    // Held while sending deltas and snapshots; never acquired while holding the instance lock.
+    private final Object mSendLock = new Object();
+    // Set while a frame callback is posted; only that callback clears it.
+    private boolean mFlushScheduled;
+
+    public BatchingServiceListener(ISettingsServiceListener remote, boolean deltaEnabled,
+            Handler handler) {
+        mRemote = remote;
+        mDeltaEnabled = deltaEnabled;
+        mHandler = handler;
+    }
+
+    public ISettingsServiceListener getRemote() {
+        return mRemote;
+    }
+
+    /** Whether the remote registered for the delta protocol. */
+    public boolean isDeltaEnabled() {
+        return mDeltaEnabled;
+    }
+
+    @Override
+    public void notifyUpdate(int state, PreferenceParcelable preferenceParcelable)
+            throws RemoteException {
+        if (!mDeltaEnabled) {
+            mRemote.notifyUpdate(state, preferenceParcelable);
+            return;
+        }
+        synchronized (this) {
+            getTracker(state).stage(preferenceParcelable);
+            scheduleFlush();
+        }
+    }
+
+    @Override
+    public void notifyUpdateAll(int state, List<PreferenceParcelable> preferences)
+            throws RemoteException {
+        if (!mDeltaEnabled) {
+            mRemote.notifyUpdateAll(state, preferences);
+            return;
+        }
+        synchronized (this) {
+            getTracker(state).stageAll(preferences);
+            scheduleFlush();
+        }
+    }
+
+    @Override
+    public void notifyUpdateScreenTitle(int state, String title) throws RemoteException {
+        // Send the changes staged so far first.
+        flush();
+        mRemote.notifyUpdateScreenTitle(state, title);
+    }
+
+    @Override
+    public void notifyDelta(int state, long fromVersion, long toVersion,
+            List<PreferenceDelta> deltas) throws RemoteException {
+        mRemote.notifyDelta(state, fromVersion, toVersion, deltas);
+    }
+
+    @Override
+    public void notifySnapshot(int state, long version, CompactPreferenceList preferences)
+            throws RemoteException {
+        mRemote.notifySnapshot(state, version, preferences);
+    }
+
+    @Override
+    public IBinder asBinder() {
+        return mRemote.asBinder();
+    }
+
+    /**
+     * Sends everything the client should currently show for {@code state}.
+     *
+     * @param resetStrings whether to start a new string table session
+     */
+    public void resync(int state, boolean resetStrings) {
+        if (!mDeltaEnabled) {
+            return;
+        }
+        synchronized (mSendLock) {
+            flush();
+            final long version;
+            final CompactPreferenceList preferences;
+            synchronized (this) {
+                StateTracker tracker = getTracker(state);
+                if (resetStrings) {
+                    mStringTable.reset();
+                }
+                version = tracker.mVersion;
+                preferences = new CompactPreferenceList(
+                        new ArrayList<>(tracker.mTopLevel.values()), mStringTable);
+            }
+            try {
+                mRemote.notifySnapshot(state, version, preferences);
+            } catch (RemoteException e) {
+                Log.e(TAG, "remote failed: " + e);
+            }
+        }
+    }
+
+    /** Forgets {@code state} and drops its pending changes. */
+    public synchronized void removeState(int state) {
+        mTrackers.remove(state);
+    }
+
+    private StateTracker getTracker(int state) {
+        StateTracker tracker = mTrackers.get(state);
+        if (tracker == null) {
+            tracker = new StateTracker();
+            mTrackers.put(state, tracker);
+        }
+        return tracker;
+    }
+
+    private void scheduleFlush() {
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.post(mScheduleFrame);
+        }
+    }
+
+    // Runs on the handler's thread, whose Choreographer drives the flush.
+    private final Runnable mScheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+    };
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            synchronized (BatchingServiceListener.this) {
+                mFlushScheduled = false;
+            }
+            flush();
+        }
+    };
+
+    /**
+     * Sends the staged changes. A flush from another thread leaves the frame callback posted; it
+     * then finds nothing to send.
+     */
+    private void flush() {
+        synchronized (mSendLock) {
+            final List<Batch> batches = new ArrayList<>();
+            synchronized (this) {
+                for (int i = 0; i < mTrackers.size(); i++) {
+                    StateTracker tracker = mTrackers.valueAt(i);
+                    if (tracker.mPending.isEmpty()) {
+                        continue;
+                    }
+                    List<PreferenceDelta> deltas = new ArrayList<>(tracker.mPending.values());
+                    tracker.mPending.clear();
+                    long fromVersion = tracker.mVersion++;
+                    batches.add(new Batch(mTrackers.keyAt(i), fromVersion, tracker.mVersion,
+                            deltas));
+                }
+            }
+            for (Batch batch : batches) {
+                try {
+                    mRemote.notifyDelta(batch.mState, batch.mFromVersion, batch.mToVersion,
+                            batch.mDeltas);
+                } catch (RemoteException e) {
+                    Log.e(TAG, "remote failed: " + e);
+                }
+            }
+        }
+    }
+
+    /** One {@code notifyDelta} call, taken from a tracker to be sent outside the lock. */
+    private static final class Batch {
+        final int mState;
+        final long mFromVersion;
+        final long mToVersion;
+        final List<PreferenceDelta> mDeltas;
+
+        Batch(int state, long fromVersion, long toVersion, List<PreferenceDelta> deltas) {
+            mState = state;
+            mFromVersion = fromVersion;
+            mToVersion = toVersion;
+            mDeltas = deltas;
+        }
+    }
+
+    /** What the client has been sent for one state, flattened by compound key. */
+    @VisibleForTesting
+    static final class StateTracker {
+        long mVersion;
+        final Map<String, PreferenceParcelable> mTopLevel = new LinkedHashMap<>();
+        final Map<String, PreferenceParcelable> mSent = new ArrayMap<>();
+        final Map<String, String[]> mSentChildKeys = new ArrayMap<>();
+        final Map<String, PreferenceDelta> mPending = new LinkedHashMap<>();
+
+        /** Stages the whole screen; top level keys missing from it are removed. */
+        void stageAll(List<PreferenceParcelable> preferences) {
+            Set<String> keys = new ArraySet<>(preferences.size());
+            for (PreferenceParcelable preference : preferences) {
+                keys.add(preference.getKey()[0]);
+            }
+            Iterator<PreferenceParcelable> it = mTopLevel.values().iterator();
+            while (it.hasNext()) {
+                PreferenceParcelable preference = it.next();
+                if (!keys.contains(preference.getKey()[0])) {
+                    it.remove();
+                    remove(preference.getKey());
+                }
+            }
+            for (PreferenceParcelable preference : preferences) {
+                stage(preference);
+            }
+        }
+
+        void stage(PreferenceParcelable preference) {
+            String[] key = preference.getKey();
+            if (key.length == 1) {
+                mTopLevel.put(key[0], preference);
+            } else {
+                // An update to a single child; patch it into its parent for later snapshots.
+                PreferenceParcelable parent = mTopLevel.get(key[0]);
+                List<PreferenceParcelable> siblings =
+                        parent != null ? parent.getChildPreferences() : null;
+                if (siblings == null) {
+                    return;
+                }
+                String childKey = preference.getCompoundKey();
+                int index = -1;
+                for (int i = 0; i < siblings.size(); i++) {
+                    if (childKey.equals(siblings.get(i).getCompoundKey())) {
+                        index = i;
+                        break;
+                    }
+                }
+                if (index < 0) {
+                    // The client has no row for it; the next full list update will add it.
+                    return;
+                }
+                siblings.set(index, preference);
+            }
+            diff(preference);
+        }
+
+        private void diff(PreferenceParcelable preference) {
+            String key = preference.getCompoundKey();
+            List<PreferenceParcelable> children = preference.getChildPreferences();
+            String[] childKeys = null;
+            if (children != null) {
+                childKeys = new String[children.size()];
+                for (int i = 0; i < children.size(); i++) {
+                    String[] childKey = children.get(i).getKey();
+                    childKeys[i] = childKey[childKey.length - 1];
+                }
+            }
+            String[] oldChildKeys = mSentChildKeys.get(key);
+            addPending(key, PreferenceDelta.diff(
+                    mSent.get(key), preference, oldChildKeys, childKeys));
+            mSent.put(key, preference);
+            if (childKeys == null) {
+                return;
+            }
+            mSentChildKeys.put(key, childKeys);
+            for (PreferenceParcelable child : children) {
+                diff(child);
+            }
+            if (oldChildKeys != null) {
+                Set<String> current = new ArraySet<>(childKeys.length);
+                Collections.addAll(current, childKeys);
+                for (String oldChildKey : oldChildKeys) {
+                    if (!current.contains(oldChildKey)) {
+                        remove(getChildKey(preference.getKey(), oldChildKey));
+                    }
+                }
+            }
+        }
+
+        /** Forgets {@code key} and its descendants, and tells the client they are gone. */
+        private void remove(String[] key) {
+            String compoundKey = PreferenceParcelableManager.getKey(key);
+            mSent.remove(compoundKey);
+            String[] childKeys = mSentChildKeys.remove(compoundKey);
+            if (childKeys != null) {
+                for (String childKey : childKeys) {
+                    remove(getChildKey(key, childKey));
+                }
+            }
+            addPending(compoundKey, PreferenceDelta.removed(key));
+        }
+
+        private static String[] getChildKey(String[] parentKey, String childKey) {
+            String[] key = new String[parentKey.length + 1];
+            System.arraycopy(parentKey, 0, key, 0, parentKey.length);
+            key[key.length - 1] = childKey;
+            return key;
+        }
+
+        private void addPending(String key, PreferenceDelta delta) {
+            if (delta == null) {
+                return;
+            }
+            PreferenceDelta pending = mPending.get(key);
+            if (pending == null) {
+                mPending.put(key, delta);
+            } else {
+                pending.merge(delta);
+            }
+        }
+    }
+}
@@ -23,7 +23,6 @@ import com.android.tv.settings.service.PreferenceParcelable;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /** Manage preference parcelables. */
 public class PreferenceParcelableManager {
@@ -34,19 +33,26 @@ public class PreferenceParcelableManager {
     }
 
     public void addPrefParcelable(PreferenceParcelable preferenceParcelable) {
-        prefParcelables.put(getKey(preferenceParcelable.getKey()), preferenceParcelable);
+        prefParcelables.put(preferenceParcelable.getCompoundKey(), preferenceParcelable);
     }
 
     public PreferenceParcelable getOrCreatePrefParcelable(String key) {
-        return getOrCreatePrefParcelable(new String[]{key});
+        PreferenceParcelable preferenceParcelable = prefParcelables.get(key);
+        if (preferenceParcelable == null) {
+            preferenceParcelable = new PreferenceParcelable(key);
+            prefParcelables.put(key, preferenceParcelable);
+        }
+        return preferenceParcelable;
     }
 
     public PreferenceParcelable getOrCreatePrefParcelable(String[] key) {
         String compoundKey = getKey(key);
-        if (!prefParcelables.containsKey(compoundKey)) {
-            prefParcelables.put(compoundKey, new PreferenceParcelable(key));
+        PreferenceParcelable preferenceParcelable = prefParcelables.get(compoundKey);
+        if (preferenceParcelable == null) {
+            preferenceParcelable = new PreferenceParcelable(key);
+            prefParcelables.put(compoundKey, preferenceParcelable);
         }
-        return prefParcelables.get(compoundKey);
+        return preferenceParcelable;
     }
 
     public PreferenceParcelable prefParcelableCopy(String[] key) {
@@ -54,7 +60,7 @@ public class PreferenceParcelableManager {
     }
 
     public PreferenceParcelable prefParcelableCopy(String key) {
-        PreferenceParcelable preferenceParcelable = prefParcelables.get(getKey(new String[]{key}));
+        PreferenceParcelable preferenceParcelable = prefParcelables.get(key);
         if (preferenceParcelable != null) {
             return preferenceParcelable.immutableCopy();
         }
@@ -70,7 +76,8 @@ public class PreferenceParcelableManager {
         return prefs.stream().map(pref -> pref.immutableCopy()).collect(Collectors.toList());
     }
 
-    private static String getKey(String[] key) {
-        return Stream.of(key).collect(Collectors.joining(" "));
+    /** Returns the index key of a preference, the same as its {@code getCompoundKey()}. */
+    static String getKey(String[] key) {
+        return key.length == 1 ? key[0] : String.join(" ", key);
     }
 }
@@ -18,7 +18,12 @@ package com.android.tv.settings.service.data;
 
 import android.os.Bundle;
 
-/** Implement this to provide data for each settings screen. */
+/**
+ * Implement this to provide data for each settings screen.
+ *
+ * <p>All calls are made in order on the serial queue of the state in {@link StateScheduler}, off
+ * the main thread.
+ */
 public interface State {
     void onCreate(Bundle extras);
 
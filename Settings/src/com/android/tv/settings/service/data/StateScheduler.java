@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.service.data;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the calls made to each {@link State} in order, without letting one state hold up another.
+ *
+ * <p>Every state has its own serial queue, drained one call at a time on a small pool of worker
+ * threads shared by all states. A state that is slow, or blocked, only holds up its own queue;
+ * the others keep running on the remaining workers. Calls into modules that are bound to the main
+ * thread are handed over with {@link StateUtil#runOnMainThread}, and module callbacks come back
+ * to the state through {@link #getExecutor}.
+ *
+ * <p>Lifecycle calls that cancel out while still queued (pause then resume, stop then start) are
+ * dropped, as are repeats of the call at the tail of the queue and callbacks that are already
+ * queued. Clicks beyond {@link #MAX_QUEUED_CLICKS} are rejected so a stuck state cannot grow its
+ * queue without bound.
+ */
+public class StateScheduler {
+    private static final String TAG = "StateScheduler";
+
+    public static final int OP_CREATE = 0;
+    public static final int OP_START = 1;
+    public static final int OP_RESUME = 2;
+    public static final int OP_PAUSE = 3;
+    public static final int OP_STOP = 4;
+    public static final int OP_DESTROY = 5;
+    public static final int OP_CLICK = 6;
+    /** A callback of a module, handed over to the state; see {@link #getExecutor}. */
+    public static final int OP_CALLBACK = 7;
+
+    private static final int MAX_WORKERS = 2;
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 30;
+    static final int MAX_QUEUED_CLICKS = 16;
+
+    private final Executor mWorkers;
+    private final SparseArray<StateQueue> mQueues = new SparseArray<>();
+
+    public StateScheduler() {
+        this(createWorkers());
+    }
+
+    @VisibleForTesting
+    StateScheduler(Executor workers) {
+        mWorkers = workers;
+    }
+
+    private static Executor createWorkers() {
+        final AtomicInteger count = new AtomicInteger();
+        // The pool queue holds at most one task per state, so it does not need a bound.
+        final ThreadPoolExecutor workers = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS,
+                WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, "SettingsServiceWorker" + count.getAndIncrement()));
+        workers.allowCoreThreadTimeOut(true);
+        return workers;
+    }
+
+    /**
+     * Queues {@code call} for {@code stateIdentifier}. Can be called from any thread.
+     *
+     * @return whether the call was queued; false if it was rejected because the state has
+     *         {@link #MAX_QUEUED_CLICKS} clicks pending
+     */
+    public boolean submit(int stateIdentifier, int op, Runnable call) {
+        return getQueue(stateIdentifier).submit(op, call);
+    }
+
+    /**
+     * Returns an executor that runs callbacks on the queue of {@code stateIdentifier}, in order
+     * with its other calls. A callback that is still queued is not queued again.
+     */
+    public Executor getExecutor(int stateIdentifier) {
+        return runnable -> submit(stateIdentifier, OP_CALLBACK, runnable);
+    }
+
+    public void dump(String prefix, PrintWriter pw) {
+        pw.println(prefix + TAG + ":");
+        synchronized (mQueues) {
+            for (int i = 0; i < mQueues.size(); i++) {
+                mQueues.valueAt(i).dump(prefix + "  ", pw);
+            }
+        }
+    }
+
+    private StateQueue getQueue(int stateIdentifier) {
+        synchronized (mQueues) {
+            StateQueue queue = mQueues.get(stateIdentifier);
+            if (queue == null) {
+                queue = new StateQueue(stateIdentifier, mWorkers);
+                mQueues.put(stateIdentifier, queue);
+            }
+            return queue;
+        }
+    }
+
+    private static final class Call {
+        final int mOp;
+        final Runnable mRunnable;
+        final long mQueuedAtMillis = SystemClock.uptimeMillis();
+
+        Call(int op, Runnable runnable) {
+            mOp = op;
+            mRunnable = runnable;
+        }
+    }
+
+    private static final class StateQueue implements Runnable {
+        private final int mStateIdentifier;
+        private final Executor mWorkers;
+        private final ArrayDeque<Call> mCalls = new ArrayDeque<>();
+        private int mQueuedClicks;
+        private boolean mScheduled;
+
+        // Metrics, guarded by this.
+        private int mMaxDepth;
+        private long mDispatched;
+        private long mCoalesced;
+        private long mRejected;
+        private long mTotalLatencyMillis;
+        private long mMaxLatencyMillis;
+
+        StateQueue(int stateIdentifier, Executor workers) {
+            mStateIdentifier = stateIdentifier;
+            mWorkers = workers;
+        }
+
+        synchronized boolean submit(int op, Runnable runnable) {
+            Call tail = mCalls.peekLast();
+            // The call being dispatched is no longer in the queue, so the tail is still pending.
+            if (tail != null) {
+                if (cancels(tail.mOp, op)) {
+                    mCalls.pollLast();
+                    mCoalesced += 2;
+                    return true;
+                }
+                if (tail.mOp == op && op != OP_CLICK && op != OP_CREATE && op != OP_DESTROY
+                        && op != OP_CALLBACK) {
+                    mCoalesced++;
+                    return true;
+                }
+            }
+            if (op == OP_CALLBACK && isQueued(runnable)) {
+                mCoalesced++;
+                return true;
+            }
+            if (op == OP_CLICK) {
+                if (mQueuedClicks >= MAX_QUEUED_CLICKS) {
+                    mRejected++;
+                    Log.w(TAG, "Rejecting click for state " + mStateIdentifier
+                            + ", " + mQueuedClicks + " clicks queued");
+                    return false;
+                }
+                mQueuedClicks++;
+            }
+            mCalls.addLast(new Call(op, runnable));
+            mMaxDepth = Math.max(mMaxDepth, mCalls.size());
+            if (!mScheduled) {
+                mScheduled = true;
+                mWorkers.execute(this);
+            }
+            return true;
+        }
+
+        private static boolean cancels(int queued, int op) {
+            return (queued == OP_PAUSE && op == OP_RESUME) || (queued == OP_STOP && op == OP_START);
+        }
+
+        private boolean isQueued(Runnable runnable) {
+            for (Call call : mCalls) {
+                if (call.mOp == OP_CALLBACK && call.mRunnable == runnable) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            Call call;
+            synchronized (this) {
+                call = mCalls.pollFirst();
+                if (call == null) {
+                    mScheduled = false;
+                    return;
+                }
+                if (call.mOp == OP_CLICK) {
+                    mQueuedClicks--;
+                }
+                long latency = SystemClock.uptimeMillis() - call.mQueuedAtMillis;
+                mDispatched++;
+                mTotalLatencyMillis += latency;
+                mMaxLatencyMillis = Math.max(mMaxLatencyMillis, latency);
+            }
+            try {
+                call.mRunnable.run();
+            } finally {
+                synchronized (this) {
+                    if (mCalls.isEmpty()) {
+                        mScheduled = false;
+                    } else {
+                        // One call per task so the other queues get their turn at the workers.
+                        mWorkers.execute(this);
+                    }
+                }
+            }
+        }
+
+        synchronized void dump(String prefix, PrintWriter pw) {
+            List<String> pending = new ArrayList<>(mCalls.size());
+            for (Call call : mCalls) {
+                pending.add(String.valueOf(call.mOp));
+            }
+            pw.println(prefix + "state " + mStateIdentifier
+                    + " depth=" + mCalls.size() + " " + pending
+                    + " maxDepth=" + mMaxDepth
+                    + " dispatched=" + mDispatched
+                    + " coalesced=" + mCoalesced
+                    + " rejected=" + mRejected
+                    + " avgLatencyMs=" + (mDispatched == 0 ? 0 : mTotalLatencyMillis / mDispatched)
+                    + " maxLatencyMs=" + mMaxLatencyMillis);
+        }
+    }
+}
@@ -20,6 +20,8 @@ import static com.android.tv.settings.service.ServiceUtil.STATE_NETWORK_MAIN;
 import static com.android.tv.settings.service.ServiceUtil.STATE_WIFI_DETAILS;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Pair;
 
 import com.android.tv.settings.service.ISettingsServiceListener;
@@ -27,6 +29,9 @@ import com.android.tv.settings.service.network.NetworkMainState;
 import com.android.tv.settings.service.network.WifiDetailsState;
 
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 public final class StateUtil {
     private StateUtil() {
@@ -34,14 +39,14 @@ public final class StateUtil {
 
     public static State createState(
             Context context, int stateIdentifier, ISettingsServiceListener listener,
-            Map<Integer, Pair<State, Integer>> stateMap) {
+            Map<Integer, Pair<State, Integer>> stateMap, Executor executor) {
         State state = null;
         switch (stateIdentifier) {
             case STATE_NETWORK_MAIN:
-                state = new NetworkMainState(context, listener);
+                state = new NetworkMainState(context, listener, executor);
                 break;
             case STATE_WIFI_DETAILS:
-                state = new WifiDetailsState(context, listener);
+                state = new WifiDetailsState(context, listener, executor);
                 break;
             default:
                 // no-op
@@ -66,4 +71,24 @@ public final class StateUtil {
             stateMap.remove(stateIdentifier);
         }
     }
+
+    /**
+     * Runs {@code runnable} on the main thread and waits for it to finish. States use it for the
+     * calls into modules that have to be made there.
+     */
+    public static void runOnMainThread(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
+            return;
+        }
+        final FutureTask<Void> task = new FutureTask<>(runnable, null);
+        new Handler(Looper.getMainLooper()).post(task);
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
 }
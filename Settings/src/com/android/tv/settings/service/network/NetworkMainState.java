@@ -26,9 +26,11 @@ import android.net.NetworkCapabilities;
 import android.net.NetworkInfo;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.RemoteException;
 import android.os.SystemClock;
 import android.provider.Settings;
+import android.util.ArraySet;
 import android.util.Log;
 
 import com.android.settingslib.wifi.AccessPoint;
@@ -38,14 +40,22 @@ import com.android.tv.settings.connectivity.WifiConnectionActivity;
 import com.android.tv.settings.service.ISettingsServiceListener;
 import com.android.tv.settings.service.PreferenceParcelable;
 import com.android.tv.settings.service.ServiceUtil;
+import com.android.tv.settings.service.data.BatchingServiceListener;
 import com.android.tv.settings.service.data.PreferenceParcelableManager;
 import com.android.tv.settings.service.data.State;
+import com.android.tv.settings.service.data.StateUtil;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Executor;
 
-/** State to provide data for rendering NetworkFragment. */
+/**
+ * State to provide data for rendering NetworkFragment.
+ *
+ * <p>Runs on its {@link Executor}. The connectivity listener is started and stopped on the main
+ * thread, and its callbacks are handed back to the executor.
+ */
 public class NetworkMainState implements State, AccessPoint.AccessPointListener,
         ConnectivityListener.WifiNetworkListener, ConnectivityListener.Listener {
     private static final String TAG = "NetworkMainState";
@@ -77,7 +87,8 @@ public class NetworkMainState implements State, AccessPoint.AccessPointListener,
     private NetworkModule mNetworkModule;
     private final Context mContext;
     private final ISettingsServiceListener mServiceListener;
-    private final Handler mHandler = new Handler();
+    private final Executor mExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
     private long mNoWifiUpdateBeforeMillis;
     private final Runnable mInitialUpdateWifiListRunnable = new Runnable() {
         @Override
@@ -86,10 +97,19 @@ public class NetworkMainState implements State, AccessPoint.AccessPointListener,
             updateWifiList();
         }
     };
-
-    public NetworkMainState(Context context, ISettingsServiceListener listener) {
+    private final Runnable mPostInitialUpdateWifiListRunnable =
+            () -> mExecutor.execute(mInitialUpdateWifiListRunnable);
+    private final Runnable mUpdateWifiListRunnable = this::updateWifiList;
+    private final Runnable mUpdateConnectivityRunnable = this::updateConnectivity;
+    // Access points whose change is waiting for the executor, guarded by itself.
+    private final ArraySet<AccessPoint> mChangedAccessPoints = new ArraySet<>();
+    private final Runnable mNotifyAccessPointsRunnable = this::notifyAccessPointUpdates;
+
+    public NetworkMainState(Context context, ISettingsServiceListener listener,
+            Executor executor) {
         mServiceListener = listener;
         mContext = context;
+        mExecutor = executor;
     }
 
     @Override
@@ -115,10 +135,12 @@ public class NetworkMainState implements State, AccessPoint.AccessPointListener,
 
     @Override
     public void onStart() {
-        mNetworkModule.addState(this);
-        mNetworkModule.getConnectivityListener().setWifiListener(this);
+        StateUtil.runOnMainThread(() -> {
+            mNetworkModule.addState(this);
+            mNetworkModule.getConnectivityListener().setWifiListener(this);
+            mNetworkModule.getConnectivityListener().start();
+        });
         mNoWifiUpdateBeforeMillis = SystemClock.elapsedRealtime() + INITIAL_UPDATE_DELAY;
-        mNetworkModule.getConnectivityListener().start();
         updateWifiList();
     }
 
@@ -133,8 +155,11 @@ public class NetworkMainState implements State, AccessPoint.AccessPointListener,
 
     @Override
     public void onStop() {
-        mNetworkModule.getConnectivityListener().stop();
-        mNetworkModule.removeState(this);
+        mHandler.removeCallbacks(mPostInitialUpdateWifiListRunnable);
+        StateUtil.runOnMainThread(() -> {
+            mNetworkModule.getConnectivityListener().stop();
+            mNetworkModule.removeState(this);
+        });
     }
 
     @Override
@@ -150,8 +175,8 @@ public class NetworkMainState implements State, AccessPoint.AccessPointListener,
 
         final long now = SystemClock.elapsedRealtime();
         if (mNoWifiUpdateBeforeMillis > now) {
-            mHandler.removeCallbacks(mInitialUpdateWifiListRunnable);
-            mHandler.postDelayed(mInitialUpdateWifiListRunnable,
+            mHandler.removeCallbacks(mPostInitialUpdateWifiListRunnable);
+            mHandler.postDelayed(mPostInitialUpdateWifiListRunnable,
                     mNoWifiUpdateBeforeMillis - now);
             return;
         }
@@ -161,24 +186,7 @@ public class NetworkMainState implements State, AccessPoint.AccessPointListener,
         mWifiNetworkCategoryPref.initChildPreferences();
         for (final AccessPoint accessPoint : accessPoints) {
             accessPoint.setListener(this);
-            PreferenceParcelable accessPointPref = new PreferenceParcelable(
-                    new String[]{KEY_WIFI_LIST, accessPoint.getKey()});
-            accessPointPref.setTitle(accessPoint.getTitle());
-            accessPointPref.setType(PreferenceParcelable.TYPE_PREFERENCE_ACCESS_POINT);
-            accessPointPref.addInfo(ServiceUtil.INFO_WIFI_SIGNAL_LEVEL,
-                    String.valueOf(accessPoint.getLevel()));
-            if (accessPoint.isActive() && !isCaptivePortal(accessPoint)) {
-                Bundle apBundle = new Bundle();
-                accessPoint.saveWifiState(apBundle);
-                accessPointPref.setExtras(apBundle);
-                accessPointPref.addInfo(ServiceUtil.INFO_NEXT_STATE, String.valueOf(
-                        ServiceUtil.STATE_WIFI_DETAILS));
-                accessPointPref.setIntent(null);
-            } else {
-                accessPointPref.setIntent(
-                        WifiConnectionActivity.createIntent(mContext, accessPoint));
-            }
-            mWifiNetworkCategoryPref.addChildPrefParcelable(accessPointPref);
+            mWifiNetworkCategoryPref.addChildPrefParcelable(createAccessPointPref(accessPoint));
         }
         mNetworkModule.setAccessPoints(mWifiNetworkCategoryPref.getChildPrefParcelables());
         try {
@@ -189,6 +197,27 @@ public class NetworkMainState implements State, AccessPoint.AccessPointListener,
         }
     }
 
+    private PreferenceParcelable createAccessPointPref(AccessPoint accessPoint) {
+        PreferenceParcelable accessPointPref = new PreferenceParcelable(
+                new String[]{KEY_WIFI_LIST, accessPoint.getKey()});
+        accessPointPref.setTitle(accessPoint.getTitle());
+        accessPointPref.setType(PreferenceParcelable.TYPE_PREFERENCE_ACCESS_POINT);
+        accessPointPref.addInfo(ServiceUtil.INFO_WIFI_SIGNAL_LEVEL,
+                String.valueOf(accessPoint.getLevel()));
+        if (accessPoint.isActive() && !isCaptivePortal(accessPoint)) {
+            Bundle apBundle = new Bundle();
+            accessPoint.saveWifiState(apBundle);
+            accessPointPref.setExtras(apBundle);
+            accessPointPref.addInfo(ServiceUtil.INFO_NEXT_STATE, String.valueOf(
+                    ServiceUtil.STATE_WIFI_DETAILS));
+            accessPointPref.setIntent(null);
+        } else {
+            accessPointPref.setIntent(
+                    WifiConnectionActivity.createIntent(mContext, accessPoint));
+        }
+        return accessPointPref;
+    }
+
     @Override
     public void onPreferenceTreeClick(String key, boolean status) {
         switch (key) {
@@ -306,23 +335,45 @@ public class NetworkMainState implements State, AccessPoint.AccessPointListener,
 
     @Override
     public void onAccessPointChanged(AccessPoint accessPoint) {
-        PreferenceParcelable accessPointPref = new PreferenceParcelable(
-                new String[]{KEY_WIFI_LIST, accessPoint.getKey()});
-        try {
-            mServiceListener.notifyUpdate(getStateIdentifier(),
-                    PreferenceParcelableManager.prefParcelableCopy(accessPointPref));
-        } catch (RemoteException e) {
-            Log.e(TAG, "remote failed: " + e);
-        }
+        onAccessPointUpdated(accessPoint);
     }
 
     @Override
     public void onLevelChanged(AccessPoint accessPoint) {
-        PreferenceParcelable accessPointPref = new PreferenceParcelable(
-                new String[]{KEY_WIFI_LIST, accessPoint.getKey()});
+        onAccessPointUpdated(accessPoint);
+    }
+
+    /** Called on the main thread; the update is sent from the executor. */
+    private void onAccessPointUpdated(AccessPoint accessPoint) {
+        synchronized (mChangedAccessPoints) {
+            mChangedAccessPoints.add(accessPoint);
+        }
+        mExecutor.execute(mNotifyAccessPointsRunnable);
+    }
+
+    private void notifyAccessPointUpdates() {
+        final List<AccessPoint> accessPoints;
+        synchronized (mChangedAccessPoints) {
+            accessPoints = new ArrayList<>(mChangedAccessPoints);
+            mChangedAccessPoints.clear();
+        }
+        for (AccessPoint accessPoint : accessPoints) {
+            notifyAccessPointUpdate(accessPoint);
+        }
+    }
+
+    private void notifyAccessPointUpdate(AccessPoint accessPoint) {
+        PreferenceParcelable accessPointPref;
+        if (mServiceListener instanceof BatchingServiceListener
+                && ((BatchingServiceListener) mServiceListener).isDeltaEnabled()) {
+            // The delta is computed against the full row, so only the changed fields are sent.
+            accessPointPref = createAccessPointPref(accessPoint);
+        } else {
+            accessPointPref = PreferenceParcelableManager.prefParcelableCopy(
+                    new PreferenceParcelable(new String[]{KEY_WIFI_LIST, accessPoint.getKey()}));
+        }
         try {
-            mServiceListener.notifyUpdate(getStateIdentifier(),
-                    PreferenceParcelableManager.prefParcelableCopy(accessPointPref));
+            mServiceListener.notifyUpdate(getStateIdentifier(), accessPointPref);
         } catch (RemoteException e) {
             Log.e(TAG, "remote failed: " + e);
         }
@@ -330,7 +381,7 @@ public class NetworkMainState implements State, AccessPoint.AccessPointListener,
 
     @Override
     public void onWifiListChanged() {
-        updateWifiList();
+        mExecutor.execute(mUpdateWifiListRunnable);
     }
 
 
@@ -350,6 +401,6 @@ public class NetworkMainState implements State, AccessPoint.AccessPointListener,
 
     @Override
     public void onConnectivityChange() {
-        updateConnectivity();
+        mExecutor.execute(mUpdateConnectivityRunnable);
     }
 }
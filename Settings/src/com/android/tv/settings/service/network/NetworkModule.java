@@ -41,11 +41,13 @@ public class NetworkModule implements Module, ConnectivityListener.Listener {
     private boolean mIsWifiHardwarePresent;
     private static NetworkModule instance;
     private final Context mContext;
-    private List<PreferenceParcelable> mAccessPoints;
+    // Set by the network state and read by the details state, on their own workers.
+    private volatile List<PreferenceParcelable> mAccessPoints;
+    // Only changed on the main thread.
     ArraySet<State> states = new ArraySet<>();
 
 
-    public static NetworkModule getInstance(Context context) {
+    public static synchronized NetworkModule getInstance(Context context) {
         if (instance == null) {
             instance = new NetworkModule(context.getApplicationContext());
         }
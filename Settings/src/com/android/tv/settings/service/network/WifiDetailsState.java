@@ -38,15 +38,24 @@ import com.android.tv.settings.service.PreferenceParcelable;
 import com.android.tv.settings.service.ServiceUtil;
 import com.android.tv.settings.service.data.PreferenceParcelableManager;
 import com.android.tv.settings.service.data.State;
+import com.android.tv.settings.service.data.StateUtil;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
+/**
+ * State to provide data for rendering WifiDetailsFragment.
+ *
+ * <p>Runs on its {@link Executor}. The connectivity listener is started and stopped on the main
+ * thread, and its callbacks are handed back to the executor.
+ */
 public class WifiDetailsState implements State,
         ConnectivityListener.Listener, ConnectivityListener.WifiNetworkListener {
     private static final String TAG = "WifiDetailsState";
     private final Context mContext;
     private final ISettingsServiceListener mServiceListener;
+    private final Executor mExecutor;
     private NetworkModule mNetworkModule;
     private AccessPoint mAccessPoint;
     PreferenceParcelableManager mPreferenceParcelableManager;
@@ -74,9 +83,14 @@ public class WifiDetailsState implements State,
     private PreferenceParcelable mIpSettingsPref;
     private PreferenceParcelable mForgetNetworkPref;
 
-    public WifiDetailsState(Context context, ISettingsServiceListener listener) {
+    private final Runnable mUpdateRunnable = this::update;
+    private final Runnable mWifiListChangedRunnable = this::onAccessPointsChanged;
+
+    public WifiDetailsState(Context context, ISettingsServiceListener listener,
+            Executor executor) {
         mServiceListener = listener;
         mContext = context;
+        mExecutor = executor;
         mNetworkModule = NetworkModule.getInstance(mContext);
     }
 
@@ -107,9 +121,11 @@ public class WifiDetailsState implements State,
 
     @Override
     public void onStart() {
-        mNetworkModule.addState(this);
-        mNetworkModule.getConnectivityListener().setWifiListener(this);
-        mNetworkModule.getConnectivityListener().start();
+        StateUtil.runOnMainThread(() -> {
+            mNetworkModule.addState(this);
+            mNetworkModule.getConnectivityListener().setWifiListener(this);
+            mNetworkModule.getConnectivityListener().start();
+        });
     }
 
     @Override
@@ -124,8 +140,10 @@ public class WifiDetailsState implements State,
 
     @Override
     public void onStop() {
-        mNetworkModule.getConnectivityListener().stop();
-        mNetworkModule.removeState(this);
+        StateUtil.runOnMainThread(() -> {
+            mNetworkModule.getConnectivityListener().stop();
+            mNetworkModule.removeState(this);
+        });
     }
 
     @Override
@@ -157,11 +175,15 @@ public class WifiDetailsState implements State,
 
     @Override
     public void onConnectivityChange() {
-        update();
+        mExecutor.execute(mUpdateRunnable);
     }
 
     @Override
     public void onWifiListChanged() {
+        mExecutor.execute(mWifiListChangedRunnable);
+    }
+
+    private void onAccessPointsChanged() {
         final List<AccessPoint> accessPoints = mNetworkModule
                 .getConnectivityListener().getAvailableNetworks();
         for (final AccessPoint accessPoint : accessPoints) {
@@ -50,6 +50,7 @@ import android.widget.Switch;
 
 import androidx.annotation.NonNull;
 import androidx.collection.ArrayMap;
+import androidx.collection.ArraySet;
 import androidx.preference.ListPreference;
 import androidx.preference.MultiSelectListPreference;
 import androidx.preference.Preference;
@@ -371,18 +372,49 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
         }
     }
 
-    private class AppLoadingTask extends AsyncTask<Void, Void, Void> {
+    /** Package state the app list is built from, loaded with the apps. */
+    private static class PackageState {
+        // Packages that can be asked for restrictions.
+        final Set<String> mRestrictionsPackages;
+        final Map<String, PackageInfo> mPackageInfos;
+
+        PackageState(Set<String> restrictionsPackages, Map<String, PackageInfo> packageInfos) {
+            mRestrictionsPackages = restrictionsPackages;
+            mPackageInfos = packageInfos;
+        }
+    }
+
+    private class AppLoadingTask extends AsyncTask<Void, Void, PackageState> {
 
         @Override
-        protected Void doInBackground(Void... params) {
+        protected PackageState doInBackground(Void... params) {
             mHelper.fetchAndMergeApps();
-            return null;
+            return loadPackageState();
         }
 
         @Override
-        protected void onPostExecute(Void result) {
-            populateApps();
+        protected void onPostExecute(PackageState result) {
+            populateApps(result);
+        }
+    }
+
+    private PackageState loadPackageState() {
+        final Intent restrictionsIntent = new Intent(Intent.ACTION_GET_RESTRICTION_ENTRIES);
+        final List<ResolveInfo> receivers =
+                mPackageManager.queryBroadcastReceivers(restrictionsIntent, 0);
+        final Set<String> restrictionsPackages = new ArraySet<>(receivers.size());
+        for (ResolveInfo info : receivers) {
+            restrictionsPackages.add(info.activityInfo.packageName);
         }
+        // Fetch all packages at once rather than asking for each visible app.
+        final List<PackageInfo> packages = mPackageManager.getInstalledPackagesAsUser(
+                PackageManager.MATCH_ANY_USER | PackageManager.GET_SIGNATURES,
+                mUser.getIdentifier());
+        final Map<String, PackageInfo> packageInfos = new ArrayMap<>(packages.size());
+        for (PackageInfo pi : packages) {
+            packageInfos.put(pi.packageName, pi);
+        }
+        return new PackageState(restrictionsPackages, packageInfos);
     }
 
     private boolean isPlatformSigned(PackageInfo pi) {
@@ -399,10 +431,9 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
                 && (privateFlags&ApplicationInfo.PRIVATE_FLAG_HIDDEN) == 0);
     }
 
-    private void populateApps() {
+    private void populateApps(PackageState packageState) {
         final Context context = getActivity();
         if (context == null) return;
-        final PackageManager pm = mPackageManager;
         final int userId = mUser.getIdentifier();
 
         // Check if the user was removed in the meantime.
@@ -411,27 +442,29 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
         }
         mAppList.removeAll();
         addLocationAppRestrictionsPreference();
-        Intent restrictionsIntent = new Intent(Intent.ACTION_GET_RESTRICTION_ENTRIES);
-        final List<ResolveInfo> receivers = pm.queryBroadcastReceivers(restrictionsIntent, 0);
         for (AppRestrictionsHelper.SelectableAppInfo app : mHelper.getVisibleApps()) {
             String packageName = app.packageName;
             if (packageName == null) continue;
             final boolean isSettingsApp = packageName.equals(context.getPackageName());
             AppRestrictionsPreference p =
                     new AppRestrictionsPreference(getPreferenceManager().getContext());
-            final boolean hasSettings = resolveInfoListHasPackage(receivers, packageName);
+            final boolean hasSettings =
+                    packageState.mRestrictionsPackages.contains(packageName);
             if (isSettingsApp) {
                 // Settings app should be available to restricted user
                 mHelper.setPackageSelected(packageName, true);
                 continue;
             }
-            PackageInfo pi = null;
-            try {
-                pi = mIPm.getPackageInfo(packageName,
-                        PackageManager.MATCH_ANY_USER
-                                | PackageManager.GET_SIGNATURES, userId);
-            } catch (RemoteException e) {
-                // Ignore
+            PackageInfo pi = packageState.mPackageInfos.get(packageName);
+            if (pi == null) {
+                // Installed after the packages were fetched.
+                try {
+                    pi = mIPm.getPackageInfo(packageName,
+                            PackageManager.MATCH_ANY_USER
+                                    | PackageManager.GET_SIGNATURES, userId);
+                } catch (RemoteException e) {
+                    // Ignore
+                }
             }
             if (pi == null) {
                 continue;
@@ -533,15 +566,6 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
         }
     }
 
-    private boolean resolveInfoListHasPackage(List<ResolveInfo> receivers, String packageName) {
-        for (ResolveInfo info : receivers) {
-            if (info.activityInfo.packageName.equals(packageName)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private void updateAllEntries(String prefKey, boolean checked) {
         for (int i = 0; i < mAppList.getPreferenceCount(); i++) {
             Preference pref = mAppList.getPreference(i);
@@ -656,7 +680,8 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
     }
 
     /**
-     * Send a broadcast to the app to query its restrictions
+     * Send a broadcast to the app to query its restrictions. The requests for all apps are sent
+     * at once and each row is filled in when its app answers.
      * @param packageName package name of the app with restrictions
      * @param preference the preference item for the app toggle
      */
@@ -667,7 +692,8 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
         Intent intent = new Intent(Intent.ACTION_GET_RESTRICTION_ENTRIES);
         intent.setPackage(packageName);
         intent.putExtra(Intent.EXTRA_RESTRICTIONS_BUNDLE, oldEntries);
-        intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
+        // The user is waiting on the screen, don't queue behind background broadcasts.
+        intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES | Intent.FLAG_RECEIVER_FOREGROUND);
         getActivity().sendOrderedBroadcast(intent, null,
                 new RestrictionsResultReceiver(packageName, preference),
                 null, Activity.RESULT_OK, null, null);
@@ -687,18 +713,25 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
 
         @Override
         public void onReceive(Context context, Intent intent) {
+            // Results that come in after the screen is gone are saved, just not shown.
+            final boolean showResults = isAdded();
             Bundle results = getResultExtras(true);
             final ArrayList<RestrictionEntry> restrictions = results != null
                     ? results.getParcelableArrayList(Intent.EXTRA_RESTRICTIONS_LIST) : null;
             Intent restrictionsIntent = results != null
                     ? results.getParcelable(CUSTOM_RESTRICTIONS_INTENT) : null;
             if (restrictions != null && restrictionsIntent == null) {
-                onRestrictionsReceived(mPreference, restrictions);
+                if (showResults) {
+                    onRestrictionsReceived(mPreference, restrictions);
+                }
                 if (mRestrictedProfile) {
                     mUserManager.setApplicationRestrictions(mPackageName,
                             RestrictionsManager.convertRestrictionsToBundle(restrictions), mUser);
                 }
             } else if (restrictionsIntent != null) {
+                if (!showResults) {
+                    return;
+                }
                 mPreference.setRestrictions(null);
                 mPreference.removeAll();
                 final Preference p = new Preference(mPreference.getContext());
@@ -65,6 +65,28 @@ public class BluetoothDeviceCriteria {
         return true;
     }
 
+    /**
+     * Same as {@link #isMatchingDevice(BluetoothDevice)} for a device found by
+     * {@link BluetoothScanner}. The address is checked first, and the class the scanner already
+     * has is used, so checking a device against many criteria doesn't ask the device each time.
+     */
+    final boolean isMatchingDevice(BluetoothScanner.Device device) {
+        if (device.address == null || !isMatchingMacAddress(device.address)) {
+            return false;
+        }
+
+        final BluetoothClass bluetoothClass = device.getBluetoothClass();
+        if (bluetoothClass == null) {
+            return false;
+        }
+
+        if (!isMatchingMajorDeviceClass(bluetoothClass.getMajorDeviceClass())) {
+            return false;
+        }
+
+        return isMatchingDeviceClass(bluetoothClass.getDeviceClass());
+    }
+
     public boolean isMatchingMacAddress(String mac) {
         return mAddressPattern.matcher(mac).matches();
     }
@@ -17,16 +17,22 @@
 package com.android.tv.settings.util.bluetooth;
 
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Handler;
+import android.util.ArraySet;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Listens for unconfigured or problematic devices to show up on
@@ -40,6 +46,8 @@ public class BluetoothScanner {
     private static final int CONSECUTIVE_MISS_THRESHOLD = 4;
     private static final int FAILED_SETTING_NAME = CONSECUTIVE_MISS_THRESHOLD + 1;
     private static final int SCAN_DELAY = 4000;
+    // Longest delay between scans once the devices found stopped changing.
+    private static final int MAX_SCAN_DELAY = 16000;
 
     private static Receiver sReceiver;
 
@@ -53,6 +61,8 @@ public class BluetoothScanner {
         // the type of configuration this device needs, or -1 if the device does not
         // specify a configuration type
         public int configurationType = 0;
+        // Class of the device, read at most once; see getBluetoothClass().
+        BluetoothClass btClass;
 
         @Override
         public String toString() {
@@ -90,6 +100,13 @@ public class BluetoothScanner {
         public boolean hasConfigurationType() {
             return configurationType != 0;
         }
+
+        BluetoothClass getBluetoothClass() {
+            if (btClass == null && btDevice != null) {
+                btClass = btDevice.getBluetoothClass();
+            }
+            return btClass;
+        }
     }
 
     public static class Listener {
@@ -164,24 +181,65 @@ public class BluetoothScanner {
         public final Listener listener;
         public final ArrayList<Device> devices;
         public final List<BluetoothDeviceCriteria> matchers;
+        // Addresses of devices, to find a device without going through the list.
+        private final Set<String> mAddresses = new ArraySet<>();
 
         public ClientRecord(Listener listener, List<BluetoothDeviceCriteria> matchers) {
             this.listener = listener;
             devices = new ArrayList<>();
             this.matchers = matchers;
         }
+
+        boolean matches(Device device) {
+            for (BluetoothDeviceCriteria matcher : matchers) {
+                if (matcher.isMatchingDevice(device)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void addDevice(Device device) {
+            devices.add(device);
+            mAddresses.add(device.address);
+        }
+
+        boolean hasDevice(String address) {
+            return mAddresses.contains(address);
+        }
+
+        boolean removeDevice(String address) {
+            if (!mAddresses.remove(address)) {
+                return false;
+            }
+            for (int devPtr = devices.size() - 1; devPtr > -1; devPtr--) {
+                if (address.equals(devices.get(devPtr).address)) {
+                    devices.remove(devPtr);
+                    break;
+                }
+            }
+            return true;
+        }
     }
 
     private static class Receiver extends BroadcastReceiver {
+        private static final ClientRecord[] NO_CLIENTS = new ClientRecord[0];
+
         private final Handler mHandler = new Handler();
         // TODO mListenerLock should probably now protect mClients
         private final ArrayList<ClientRecord> mClients = new ArrayList<>();
-        private final ArrayList<Device> mPresentDevices = new ArrayList<>();
+        // Copy of mClients that callbacks are sent to without holding mListenerLock.
+        private volatile ClientRecord[] mClientsSnapshot = NO_CLIENTS;
+        // Present devices by address, in the order they were found.
+        private final Map<String, Device> mPresentDevices = new LinkedHashMap<>();
         private final Context mContext;
         private final BluetoothAdapter mBtAdapter;
         private static boolean mKeepScanning;
         private boolean mRegistered = false;
         private final Object mListenerLock = new Object();
+        // Delay before the next scan; grows while scans find no change.
+        private int mScanDelay = SCAN_DELAY;
+        private boolean mDevicesChanged;
 
         public Receiver(Context context) {
             mContext = context;
@@ -210,6 +268,7 @@ public class BluetoothScanner {
 
                 // Save this listener in the list
                 mClients.add(newClient);
+                mClientsSnapshot = mClients.toArray(NO_CLIENTS);
                 size = mClients.size();
 
             }
@@ -227,15 +286,10 @@ public class BluetoothScanner {
             mKeepScanning = true;
 
             // Call back with the ones we have already
-            final int N = mPresentDevices.size();
-            for (int i=0; i<N; i++) {
-                Device target = mPresentDevices.get(i);
-                for (BluetoothDeviceCriteria matcher : newClient.matchers) {
-                    if (matcher.isMatchingDevice(target.btDevice)) {
-                        newClient.devices.add(target);
-                        newClient.listener.onDeviceAdded(target);
-                        break;
-                    }
+            for (Device target : mPresentDevices.values()) {
+                if (newClient.matches(target)) {
+                    newClient.addDevice(target);
+                    newClient.listener.onDeviceAdded(target);
                 }
             }
 
@@ -246,6 +300,8 @@ public class BluetoothScanner {
             // pending ones.
             mHandler.removeCallbacks(mScanTask);
 
+            // A new client wants to see changes quickly.
+            mScanDelay = SCAN_DELAY;
             scanNow();
         }
 
@@ -257,6 +313,7 @@ public class BluetoothScanner {
                     ClientRecord client = mClients.get(ptr);
                     if (client.listener == listener) {
                         mClients.remove(ptr);
+                        mClientsSnapshot = mClients.toArray(NO_CLIENTS);
                         stopped = true;
                         break;
                     }
@@ -279,6 +336,7 @@ public class BluetoothScanner {
             sendScanningStarted();
 
             // Request discover from BluetoothAdapter
+            mDevicesChanged = false;
             mBtAdapter.startDiscovery();
         }
 
@@ -314,24 +372,10 @@ public class BluetoothScanner {
         }
 
         public void removeDevice(String btAddress) {
-            int count = mPresentDevices.size();
-            for (int i = 0; i < count; i++) {
-                Device d = mPresentDevices.get(i);
-                if (btAddress.equals(d.address)) {
-                    mPresentDevices.remove(d);
-                    break;
-                }
-            }
+            mPresentDevices.remove(btAddress);
 
-            for (int ptr = mClients.size() - 1; ptr > -1; ptr--) {
-                ClientRecord client = mClients.get(ptr);
-                for (int devPtr = client.devices.size() - 1; devPtr > -1; devPtr--) {
-                    Device d = client.devices.get(devPtr);
-                    if (btAddress.equals(d.address)) {
-                        client.devices.remove(devPtr);
-                        break;
-                    }
-                }
+            for (ClientRecord client : mClientsSnapshot) {
+                client.removeDevice(btAddress);
             }
         }
 
@@ -369,7 +413,11 @@ public class BluetoothScanner {
                 // Get the BluetoothDevice object from the Intent
                 BluetoothDevice btDevice = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
                 final String address = btDevice.getAddress();
-                String name = btDevice.getName();
+                // The name usually comes with the intent; only ask the device if it doesn't.
+                String name = intent.getStringExtra(BluetoothDevice.EXTRA_NAME);
+                if (name == null) {
+                    name = btDevice.getName();
+                }
 
                 if (DEBUG) {
                     Log.d(TAG, "Device found, address: " + address + " name: \"" + name + "\"");
@@ -385,15 +433,7 @@ public class BluetoothScanner {
                 }
 
                 // See if this is a device we already know about
-                Device device = null;
-                final int N = mPresentDevices.size();
-                for (int i=0; i<N; i++) {
-                    final Device d = mPresentDevices.get(i);
-                    if (address.equals(d.address)) {
-                        device = d;
-                        break;
-                    }
-                }
+                Device device = mPresentDevices.get(address);
 
                 if (device == null) {
                     if (DEBUG) {
@@ -403,11 +443,13 @@ public class BluetoothScanner {
                     device = new Device();
                     device.btDevice = btDevice;
                     device.address = address;
+                    device.btClass = intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS);
                     device.consecutiveMisses = -1;
 
                     device.setNameString(name);
                     // Save it
-                    mPresentDevices.add(device);
+                    mPresentDevices.put(address, device);
+                    mDevicesChanged = true;
 
                     // Tell the listeners
                     sendDeviceAdded(device);
@@ -423,6 +465,7 @@ public class BluetoothScanner {
                         return;
                     } else {
                         device.setNameString(name);
+                        mDevicesChanged = true;
                         sendDeviceChanged(device);
                         // If we can't parse it properly, treat it as a delete
                         // when we iterate through them again.
@@ -430,9 +473,9 @@ public class BluetoothScanner {
                 }
             } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
                 // Clear any devices that have disappeared since the last scan completed
-                final int N = mPresentDevices.size();
-                for (int i=N-1; i>=0; i--) {
-                    Device device = mPresentDevices.get(i);
+                final Iterator<Device> it = mPresentDevices.values().iterator();
+                while (it.hasNext()) {
+                    Device device = it.next();
                     if (device.consecutiveMisses < 0) {
                         // -1 means found on this scan, raise to 0 for next time
                         if (DEBUG) Log.d(TAG, device.address + " -- Found");
@@ -441,7 +484,8 @@ public class BluetoothScanner {
                     } else if (device.consecutiveMisses >= CONSECUTIVE_MISS_THRESHOLD) {
                         // Too many failures
                         if (DEBUG) Log.d(TAG, device.address + " -- Removing");
-                        mPresentDevices.remove(i);
+                        it.remove();
+                        mDevicesChanged = true;
                         sendDeviceRemoved(device);
 
                     } else {
@@ -457,77 +501,53 @@ public class BluetoothScanner {
                 // Show status when scanning is completed.
                 sendScanningStopped();
 
+                // Scan less often while the devices around don't change, e.g. in places with
+                // many devices that are all already known.
+                mScanDelay = mDevicesChanged
+                        ? SCAN_DELAY : Math.min(mScanDelay * 2, MAX_SCAN_DELAY);
+
                 if (mKeepScanning) {
-                    // Try again in SCAN_DELAY ms.
-                    mHandler.postDelayed(mScanTask, SCAN_DELAY);
+                    // Try again in mScanDelay ms.
+                    if (DEBUG) Log.d(TAG, "Next scan in " + mScanDelay + " ms");
+                    mHandler.postDelayed(mScanTask, mScanDelay);
                 }
             }
         }
 
         private void sendScanningStarted() {
-            synchronized (mListenerLock) {
-                final int N = mClients.size();
-                for (int i = 0; i < N; i++) {
-                    mClients.get(i).listener.onScanningStarted();
-                }
+            for (ClientRecord client : mClientsSnapshot) {
+                client.listener.onScanningStarted();
             }
         }
 
         private void sendScanningStopped() {
-            synchronized (mListenerLock) {
-                final int N = mClients.size();
-                // Loop backwards through the list in case a client wants to
-                // remove its listener in this callback.
-                for (int i = N - 1; i >= 0; --i) {
-                    ClientRecord client = mClients.get(i);
-                    client.listener.onScanningStopped(client.devices);
-                }
+            // The snapshot is unaffected if a client removes its listener in this callback.
+            for (ClientRecord client : mClientsSnapshot) {
+                client.listener.onScanningStopped(client.devices);
             }
         }
 
         private void sendDeviceAdded(Device device) {
-            synchronized (mListenerLock) {
-                for (int ptr = mClients.size() - 1; ptr > -1; ptr--) {
-                    ClientRecord client = mClients.get(ptr);
-                    for (BluetoothDeviceCriteria matcher : client.matchers) {
-                        if (matcher.isMatchingDevice(device.btDevice)) {
-                            client.devices.add(device);
-                            client.listener.onDeviceAdded(device);
-                            break;
-                        }
-                    }
+            for (ClientRecord client : mClientsSnapshot) {
+                if (client.matches(device)) {
+                    client.addDevice(device);
+                    client.listener.onDeviceAdded(device);
                 }
             }
         }
 
         private void sendDeviceChanged(Device device) {
-            synchronized (mListenerLock) {
-                final int N = mClients.size();
-                for (int i = 0; i < N; i++) {
-                    ClientRecord client = mClients.get(i);
-                    for (int ptr = client.devices.size() - 1; ptr > -1; ptr--) {
-                        Device d = client.devices.get(ptr);
-                        if (d.btDevice.getAddress().equals(device.btDevice.getAddress())) {
-                            client.listener.onDeviceChanged(device);
-                            break;
-                        }
-                    }
+            for (ClientRecord client : mClientsSnapshot) {
+                if (client.hasDevice(device.address)) {
+                    client.listener.onDeviceChanged(device);
                 }
             }
         }
 
         private void sendDeviceRemoved(Device device) {
-            synchronized (mListenerLock) {
-                for (int ptr = mClients.size() - 1; ptr > -1; ptr--) {
-                    ClientRecord client = mClients.get(ptr);
-                    for (int devPtr = client.devices.size() - 1; devPtr > -1; devPtr--) {
-                        Device d = client.devices.get(devPtr);
-                        if (d.btDevice.getAddress().equals(device.btDevice.getAddress())) {
-                            client.devices.remove(devPtr);
-                            client.listener.onDeviceRemoved(device);
-                            break;
-                        }
-                    }
+            for (ClientRecord client : mClientsSnapshot) {
+                if (client.removeDevice(device.address)) {
+                    client.listener.onDeviceRemoved(device);
                 }
             }
         }
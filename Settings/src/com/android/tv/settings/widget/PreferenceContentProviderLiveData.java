@@ -17,76 +17,34 @@
 package com.android.tv.settings.widget;
 
 import android.content.Context;
-import android.database.ContentObserver;
-import android.database.Cursor;
-import android.net.Uri;
 
 import androidx.lifecycle.MutableLiveData;
 
-import com.android.settingslib.utils.ThreadUtils;
-
+/**
+ * Whether the preference with the given key should be shown, as reported by the overlay content
+ * provider. Values are fetched and cached by {@link PreferenceVisibilitySource} together with the
+ * other keys of the screen.
+ */
 public class PreferenceContentProviderLiveData extends MutableLiveData<Boolean> {
-    private static final String AUTHORITY = "com.google.android.apps.tv.settings.contentprovider";
-    private static final String PATH_PREFERENCE = "preference";
-    private static final String PREFERENCE_DATA_PROVIDER_PATH =
-            "content://" + AUTHORITY + "/" + PATH_PREFERENCE;
-
-    private final ContentObserver mContentObserver = new ContentObserver(null) {
-        @Override
-        public void onChange(boolean selfChange) {
-            postGetVisibilityStatus();
-        }
-    };
-
     private final Context mContext;
-    private final Uri mUri;
     private final String mKey;
-    private boolean mRegistered = false;
-    private static final String VISIBLE = "visible";
 
     public PreferenceContentProviderLiveData(String key, Context context) {
         mKey = key;
-        mUri = Uri.parse(PREFERENCE_DATA_PROVIDER_PATH + "/" + key);
         mContext = context;
     }
 
     @Override
     protected void onActive() {
-        postGetVisibilityStatus();
-        if (!mRegistered) {
-            mContext.getContentResolver().registerContentObserver(mUri, false,
-                    mContentObserver);
-            mRegistered = true;
-        }
+        PreferenceVisibilitySource.getInstance(mContext).addListener(this);
     }
 
     @Override
     protected void onInactive() {
-        mContext.getContentResolver().unregisterContentObserver(mContentObserver);
-        mRegistered = false;
+        PreferenceVisibilitySource.getInstance(mContext).removeListener(this);
     }
 
     public String getKey() {
         return mKey;
     }
-
-    private void postGetVisibilityStatus() {
-        ThreadUtils.postOnBackgroundThread(() -> {
-            postValue(Boolean.valueOf(getVisibilityStatus()));
-        });
-    }
-
-    private boolean getVisibilityStatus() {
-        try {
-            Cursor cursor = mContext.getContentResolver().query(mUri, null, null, null);
-            if (cursor != null && cursor.getCount() != 0) {
-                cursor.moveToFirst();
-                int visible = cursor.getInt(cursor.getColumnIndex(VISIBLE));
-                return visible == 1;
-            }
-        } catch (IllegalArgumentException | NullPointerException e) {
-            return true;
-        }
-        return true;
-    }
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.widget;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.WorkerThread;
+
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Visibility of overlay controlled preferences, shared by every
+ * {@link PreferenceContentProviderLiveData} of the process.
+ *
+ * <p>Keys that become active in the same frame are fetched together: the provider is asked for
+ * all of its rows in a single query, falling back to one query per key if it does not return a
+ * key column. A single observer on the provider tracks changes while any key is active, and
+ * values are cached until a change is reported or the last key goes inactive.
+ */
+final class PreferenceVisibilitySource {
+    private static final String TAG = "PrefVisibilitySource";
+    private static final boolean DEBUG = false;
+
+    static final String AUTHORITY = "com.google.android.apps.tv.settings.contentprovider";
+    private static final String PATH_PREFERENCE = "preference";
+    static final Uri PREFERENCE_URI =
+            Uri.parse("content://" + AUTHORITY + "/" + PATH_PREFERENCE);
+    private static final String COLUMN_KEY = "key";
+    private static final String COLUMN_VISIBLE = "visible";
+
+    private static PreferenceVisibilitySource sInstance;
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, List<PreferenceContentProviderLiveData>> mActive = new ArrayMap<>();
+    // Written on the main thread only.
+    private final Map<String, Boolean> mCache = new ArrayMap<>();
+    private final Set<String> mPendingKeys = new ArraySet<>();
+    private boolean mRefreshScheduled;
+    private boolean mObserverRegistered;
+    // Incremented whenever cached values become invalid, so late results can be dropped.
+    private int mGeneration;
+    private volatile boolean mBatchQueryUnsupported;
+
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            String key = uri != null && uri.getPathSegments().size() > 1
+                    ? uri.getLastPathSegment() : null;
+            if (key != null && mActive.containsKey(key)) {
+                mCache.remove(key);
+                requestRefresh(key);
+            } else {
+                invalidateAll();
+            }
+        }
+    };
+
+    private final Runnable mRefreshRunnable = this::refresh;
+
+    @MainThread
+    static PreferenceVisibilitySource getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PreferenceVisibilitySource(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private PreferenceVisibilitySource(Context context) {
+        mResolver = context.getContentResolver();
+    }
+
+    @MainThread
+    void addListener(PreferenceContentProviderLiveData liveData) {
+        String key = liveData.getKey();
+        List<PreferenceContentProviderLiveData> listeners = mActive.get(key);
+        if (listeners == null) {
+            listeners = new ArrayList<>(1);
+            mActive.put(key, listeners);
+        }
+        listeners.add(liveData);
+        if (!mObserverRegistered) {
+            mResolver.registerContentObserver(PREFERENCE_URI, true, mObserver);
+            mObserverRegistered = true;
+        }
+        Boolean cached = mCache.get(key);
+        if (cached != null) {
+            liveData.setValue(cached);
+        } else {
+            requestRefresh(key);
+        }
+    }
+
+    @MainThread
+    void removeListener(PreferenceContentProviderLiveData liveData) {
+        String key = liveData.getKey();
+        List<PreferenceContentProviderLiveData> listeners = mActive.get(key);
+        if (listeners == null) {
+            return;
+        }
+        listeners.remove(liveData);
+        if (listeners.isEmpty()) {
+            mActive.remove(key);
+        }
+        if (mActive.isEmpty() && mObserverRegistered) {
+            // Without an observer the cache can go stale.
+            mResolver.unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+            mCache.clear();
+            mPendingKeys.clear();
+            mGeneration++;
+        }
+    }
+
+    @MainThread
+    private void invalidateAll() {
+        mCache.clear();
+        mGeneration++;
+        for (String key : mActive.keySet()) {
+            requestRefresh(key);
+        }
+    }
+
+    @MainThread
+    private void requestRefresh(String key) {
+        mPendingKeys.add(key);
+        if (!mRefreshScheduled) {
+            // Wait for the other preferences of the screen to become active.
+            mRefreshScheduled = true;
+            mHandler.post(mRefreshRunnable);
+        }
+    }
+
+    @MainThread
+    private void refresh() {
+        mRefreshScheduled = false;
+        if (mPendingKeys.isEmpty()) {
+            return;
+        }
+        Set<String> keys = new ArraySet<>(mPendingKeys);
+        mPendingKeys.clear();
+        int generation = mGeneration;
+        ThreadUtils.postOnBackgroundThread(() -> {
+            Map<String, Boolean> values = queryVisibility(keys);
+            mHandler.post(() -> deliver(values, generation));
+        });
+    }
+
+    @MainThread
+    private void deliver(Map<String, Boolean> values, int generation) {
+        if (generation != mGeneration) {
+            // Invalidated while querying; a new refresh is already on its way.
+            return;
+        }
+        for (Map.Entry<String, Boolean> entry : values.entrySet()) {
+            List<PreferenceContentProviderLiveData> listeners = mActive.get(entry.getKey());
+            if (listeners == null) {
+                continue;
+            }
+            mCache.put(entry.getKey(), entry.getValue());
+            for (PreferenceContentProviderLiveData liveData : listeners) {
+                liveData.setValue(entry.getValue());
+            }
+        }
+    }
+
+    @WorkerThread
+    private Map<String, Boolean> queryVisibility(Set<String> keys) {
+        Map<String, Boolean> values = null;
+        if (keys.size() > 1 && !mBatchQueryUnsupported) {
+            values = queryAll(keys);
+            if (values == null) {
+                mBatchQueryUnsupported = true;
+            }
+        }
+        if (values == null) {
+            values = new ArrayMap<>(keys.size());
+            for (String key : keys) {
+                values.put(key, queryKey(key));
+            }
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Fetched " + values);
+        }
+        return values;
+    }
+
+    /** Returns the visibility of {@code keys}, or {@code null} if the provider cannot list rows. */
+    @WorkerThread
+    private Map<String, Boolean> queryAll(Set<String> keys) {
+        try (Cursor cursor = mResolver.query(PREFERENCE_URI, null, null, null)) {
+            if (cursor == null) {
+                return null;
+            }
+            int keyColumn = cursor.getColumnIndex(COLUMN_KEY);
+            int visibleColumn = cursor.getColumnIndex(COLUMN_VISIBLE);
+            if (keyColumn < 0 || visibleColumn < 0) {
+                return null;
+            }
+            Map<String, Boolean> values = new ArrayMap<>(keys.size());
+            for (String key : keys) {
+                // Keys without a row are visible, as with a single key query.
+                values.put(key, true);
+            }
+            while (cursor.moveToNext()) {
+                String key = cursor.getString(keyColumn);
+                if (keys.contains(key)) {
+                    values.put(key, cursor.getInt(visibleColumn) == 1);
+                }
+            }
+            return values;
+        } catch (IllegalArgumentException | NullPointerException | SecurityException e) {
+            return null;
+        }
+    }
+
+    @WorkerThread
+    private boolean queryKey(String key) {
+        Uri uri = Uri.parse(PREFERENCE_URI + "/" + key);
+        try (Cursor cursor = mResolver.query(uri, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                return cursor.getInt(cursor.getColumnIndex(COLUMN_VISIBLE)) == 1;
+            }
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return true;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.connectivity;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.ConnectivityManager;
+import android.net.wifi.WifiManager;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class ConnectivitySnapshotTest {
+
+    @Test
+    public void testGetChanges_sameReadings_noChanges() {
+        assertThat(snapshot(-70).getChanges(snapshot(-70))).isEqualTo(0);
+    }
+
+    @Test
+    public void testGetChanges_rssiWithinLevels_noChanges() {
+        assertThat(snapshot(-70).getChanges(snapshot(-71))).isEqualTo(0);
+    }
+
+    @Test
+    public void testGetChanges_fourLevelSignalChanged_reportsSignal() {
+        // Same level out of 5, different level out of 4 as shown by the wifi details screen.
+        assertThat(WifiManager.calculateSignalLevel(-85, 5))
+                .isEqualTo(WifiManager.calculateSignalLevel(-86, 5));
+        assertThat(WifiManager.calculateSignalLevel(-85, 4))
+                .isNotEqualTo(WifiManager.calculateSignalLevel(-86, 4));
+
+        assertThat(snapshot(-85).getChanges(snapshot(-86)))
+                .isEqualTo(ConnectivityListener.CHANGE_WIFI_SIGNAL);
+    }
+
+    private static ConnectivitySnapshot snapshot(int wifiRssi) {
+        return new ConnectivitySnapshot(1, ConnectivityManager.TYPE_WIFI,
+                WifiManager.WIFI_STATE_ENABLED, 1, "ssid", wifiRssi, 0, "192.168.1.2", null);
+    }
+}
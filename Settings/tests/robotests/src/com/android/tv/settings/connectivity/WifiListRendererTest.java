@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.connectivity;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.settingslib.wifi.AccessPoint;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class WifiListRendererTest {
+    private WifiListRenderer mRenderer;
+
+    @Before
+    public void setUp() {
+        mRenderer = new WifiListRenderer(new Handler(Looper.getMainLooper()), 1000, () -> { });
+    }
+
+    @Test
+    public void testRank_keepsGroupsBeforeSignal() {
+        AccessPoint unreachable = accessPoint("unreachable", AccessPoint.UNREACHABLE_RSSI,
+                false, true);
+        AccessPoint unsaved = accessPoint("unsaved", -40, true, false);
+        AccessPoint saved = accessPoint("saved", -80, true, true);
+        AccessPoint active = accessPoint("active", -90, true, true);
+        when(active.isActive()).thenReturn(true);
+
+        List<AccessPoint> ranked = mRenderer.rank(
+                Arrays.asList(unreachable, unsaved, saved, active));
+
+        assertThat(ranked).containsExactly(active, saved, unsaved, unreachable).inOrder();
+    }
+
+    @Test
+    public void testRank_strongerSignalFirst() {
+        AccessPoint weak = accessPoint("weak", -80, true, false);
+        AccessPoint strong = accessPoint("strong", -50, true, false);
+
+        assertThat(mRenderer.rank(Arrays.asList(weak, strong)))
+                .containsExactly(strong, weak).inOrder();
+    }
+
+    @Test
+    public void testRank_smallSwings_keepPreviousOrder() {
+        AccessPoint a = accessPoint("a", -60, true, false);
+        AccessPoint b = accessPoint("b", -62, true, false);
+        mRenderer.rank(Arrays.asList(a, b));
+
+        // b is now stronger, but neither moved by the hysteresis.
+        when(a.getRssi()).thenReturn(-63);
+        when(b.getRssi()).thenReturn(-59);
+
+        assertThat(mRenderer.rank(Arrays.asList(b, a))).containsExactly(a, b).inOrder();
+    }
+
+    @Test
+    public void testRank_smallSwings_accumulate() {
+        AccessPoint a = accessPoint("a", -60, true, false);
+        AccessPoint b = accessPoint("b", -62, true, false);
+        mRenderer.rank(Arrays.asList(a, b));
+        when(b.getRssi()).thenReturn(-58);
+        mRenderer.rank(Arrays.asList(a, b));
+
+        // Ranked by -62 until the signal moved away from it by the hysteresis.
+        when(b.getRssi()).thenReturn(-57);
+
+        assertThat(mRenderer.rank(Arrays.asList(a, b))).containsExactly(b, a).inOrder();
+    }
+
+    @Test
+    public void testRank_largeSwing_reorders() {
+        AccessPoint a = accessPoint("a", -60, true, false);
+        AccessPoint b = accessPoint("b", -62, true, false);
+        mRenderer.rank(Arrays.asList(a, b));
+
+        when(b.getRssi()).thenReturn(-50);
+
+        assertThat(mRenderer.rank(Arrays.asList(b, a))).containsExactly(b, a).inOrder();
+    }
+
+    @Test
+    public void testRank_newNetwork_rankedBySignal() {
+        AccessPoint a = accessPoint("a", -60, true, false);
+        AccessPoint b = accessPoint("b", -70, true, false);
+        mRenderer.rank(Arrays.asList(a, b));
+
+        AccessPoint c = accessPoint("c", -65, true, false);
+
+        assertThat(mRenderer.rank(Arrays.asList(a, c, b))).containsExactly(a, c, b).inOrder();
+    }
+
+    @Test
+    public void testReset_forgetsPreviousRanking() {
+        AccessPoint a = accessPoint("a", -60, true, false);
+        AccessPoint b = accessPoint("b", -62, true, false);
+        mRenderer.rank(Arrays.asList(a, b));
+        when(a.getRssi()).thenReturn(-63);
+        when(b.getRssi()).thenReturn(-59);
+
+        mRenderer.reset();
+
+        assertThat(mRenderer.rank(Arrays.asList(a, b))).containsExactly(b, a).inOrder();
+    }
+
+    private static AccessPoint accessPoint(String key, int rssi, boolean reachable,
+            boolean saved) {
+        AccessPoint accessPoint = mock(AccessPoint.class);
+        when(accessPoint.getKey()).thenReturn(key);
+        when(accessPoint.getRssi()).thenReturn(rssi);
+        when(accessPoint.isReachable()).thenReturn(reachable);
+        when(accessPoint.isSaved()).thenReturn(saved);
+        return accessPoint;
+    }
+}
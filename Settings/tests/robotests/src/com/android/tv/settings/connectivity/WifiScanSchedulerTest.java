@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.connectivity;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.settingslib.wifi.AccessPoint;
+import com.android.settingslib.wifi.WifiTracker;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+@RunWith(RobolectricTestRunner.class)
+public class WifiScanSchedulerTest {
+    private final AccessPoint mHome = accessPoint("home", 3);
+    private final AccessPoint mOffice = accessPoint("office", 2);
+
+    private WifiScanScheduler mScheduler;
+    // State of the fake tracker.
+    private boolean mStarted;
+    private int mStarts;
+
+    @Before
+    public void setUp() {
+        shadowOf(Looper.getMainLooper()).pause();
+        WifiTracker tracker = mock(WifiTracker.class);
+        doAnswer(invocation -> {
+            assertThat(mStarted).isFalse();
+            mStarted = true;
+            mStarts++;
+            return null;
+        }).when(tracker).onStart();
+        doAnswer(invocation -> {
+            assertThat(mStarted).isTrue();
+            mStarted = false;
+            return null;
+        }).when(tracker).onStop();
+        mScheduler = new WifiScanScheduler(tracker, new Handler(Looper.getMainLooper()));
+    }
+
+    @Test
+    public void testVisible_scansContinuously() {
+        mScheduler.setVisible(true);
+
+        assertThat(mStarted).isTrue();
+    }
+
+    @Test
+    public void testNotVisible_stopsAndNeverScans() {
+        mScheduler.setVisible(true);
+        settle();
+
+        mScheduler.setVisible(false);
+        advance(WifiScanScheduler.MAX_INTERVAL_MILLIS * 2);
+
+        assertThat(mStarted).isFalse();
+        assertThat(mStarts).isEqualTo(1);
+    }
+
+    @Test
+    public void testStableScans_stopTrackerAfterEnoughInARow() {
+        mScheduler.setVisible(true);
+        // The first results are always a change.
+        scan(mHome, mOffice);
+        for (int i = 1; i < WifiScanScheduler.STABLE_SCANS; i++) {
+            scan(mHome, mOffice);
+            assertThat(mStarted).isTrue();
+        }
+
+        scan(mOffice, mHome);
+
+        assertThat(mStarted).isFalse();
+    }
+
+    @Test
+    public void testStableScans_changeRestartsCount() {
+        mScheduler.setVisible(true);
+        scan(mHome);
+        for (int i = 1; i < WifiScanScheduler.STABLE_SCANS; i++) {
+            scan(mHome);
+        }
+
+        scan(mHome, mOffice);
+        for (int i = 1; i < WifiScanScheduler.STABLE_SCANS; i++) {
+            scan(mHome, mOffice);
+            assertThat(mStarted).isTrue();
+        }
+        scan(mHome, mOffice);
+
+        assertThat(mStarted).isFalse();
+    }
+
+    @Test
+    public void testSignalLevelChange_isChange() {
+        mScheduler.setVisible(true);
+        scan(mHome);
+        for (int i = 1; i < WifiScanScheduler.STABLE_SCANS; i++) {
+            scan(mHome);
+        }
+
+        scan(accessPoint("home", 1));
+
+        assertThat(mStarted).isTrue();
+    }
+
+    @Test
+    public void testBackOff_doublesUpToMax() {
+        mScheduler.setVisible(true);
+        settle();
+
+        long interval = WifiScanScheduler.MIN_INTERVAL_MILLIS;
+        for (int i = 0; i < 6; i++) {
+            advance(interval - 1);
+            assertThat(mStarted).isFalse();
+            advance(1);
+            assertThat(mStarted).isTrue();
+
+            scan(mHome);
+            assertThat(mStarted).isFalse();
+            interval = Math.min(interval * 2, WifiScanScheduler.MAX_INTERVAL_MILLIS);
+        }
+        assertThat(interval).isEqualTo(WifiScanScheduler.MAX_INTERVAL_MILLIS);
+    }
+
+    @Test
+    public void testChangeWhileBackedOff_scansContinuouslyAgain() {
+        mScheduler.setVisible(true);
+        settle();
+        advance(WifiScanScheduler.MIN_INTERVAL_MILLIS);
+        scan(mHome);
+        advance(WifiScanScheduler.MIN_INTERVAL_MILLIS * 2);
+
+        scan(mHome, mOffice);
+        advance(WifiScanScheduler.MAX_INTERVAL_MILLIS * 2);
+
+        assertThat(mStarted).isTrue();
+        for (int i = 0; i < WifiScanScheduler.STABLE_SCANS; i++) {
+            scan(mHome, mOffice);
+        }
+        assertThat(mStarted).isFalse();
+        // The back off starts over from the shortest interval.
+        advance(WifiScanScheduler.MIN_INTERVAL_MILLIS);
+        assertThat(mStarted).isTrue();
+    }
+
+    @Test
+    public void testNetworksChangedWhileBackedOff_scansContinuouslyAgain() {
+        mScheduler.setVisible(true);
+        settle();
+
+        mScheduler.onNetworksChanged();
+
+        assertThat(mStarted).isTrue();
+        advance(WifiScanScheduler.MAX_INTERVAL_MILLIS * 2);
+        assertThat(mStarted).isTrue();
+    }
+
+    @Test
+    public void testScanTimeout_stopsTrackerAndBacksOff() {
+        mScheduler.setVisible(true);
+        settle();
+        advance(WifiScanScheduler.MIN_INTERVAL_MILLIS);
+
+        advance(WifiScanScheduler.SCAN_TIMEOUT_MILLIS - 1);
+        assertThat(mStarted).isTrue();
+        advance(1);
+        assertThat(mStarted).isFalse();
+
+        advance(WifiScanScheduler.MIN_INTERVAL_MILLIS * 2 - 1);
+        assertThat(mStarted).isFalse();
+        advance(1);
+        assertThat(mStarted).isTrue();
+    }
+
+    @Test
+    public void testResultsAfterStop_ignored() {
+        mScheduler.setVisible(true);
+        settle();
+
+        // Posted by the tracker before it was stopped.
+        scan(mHome, mOffice);
+
+        assertThat(mStarted).isFalse();
+        advance(WifiScanScheduler.MIN_INTERVAL_MILLIS);
+        assertThat(mStarted).isTrue();
+    }
+
+    /** Delivers the same results until the tracker is stopped between scans. */
+    private void settle() {
+        for (int i = 0; i <= WifiScanScheduler.STABLE_SCANS; i++) {
+            scan(mHome);
+        }
+        assertThat(mStarted).isFalse();
+    }
+
+    private void scan(AccessPoint... accessPoints) {
+        mScheduler.onAccessPointsChanged(Arrays.asList(accessPoints));
+    }
+
+    private static void advance(long millis) {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(millis));
+    }
+
+    private static AccessPoint accessPoint(String key, int level) {
+        AccessPoint accessPoint = mock(AccessPoint.class);
+        when(accessPoint.getKey()).thenReturn(key);
+        when(accessPoint.getLevel()).thenReturn(level);
+        return accessPoint;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.connectivity.setup;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.net.wifi.ScanResult;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScanResultIndexTest {
+    // Levels 3, 2 and 0 of the four signal levels.
+    private static final int STRONG = -50;
+    private static final int MEDIUM = -70;
+    private static final int WEAK = -90;
+
+    private ScanResultIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mIndex = new ScanResultIndex();
+    }
+
+    @Test
+    public void testUpdate_newNetworks_added() {
+        ScanResult home = scanResult("home", "[WPA2-PSK-CCMP]", STRONG);
+        ScanResult guest = scanResult("guest", "[ESS]", WEAK);
+
+        ScanResultIndex.Delta delta = mIndex.update(Arrays.asList(home, guest));
+
+        assertThat(delta.added).containsExactly(home, guest);
+        assertThat(delta.changed).isEmpty();
+        assertThat(delta.removed).isEmpty();
+        assertThat(mIndex.getScanResults()).containsExactly(home, guest);
+    }
+
+    @Test
+    public void testUpdate_hiddenNetworks_ignored() {
+        ScanResultIndex.Delta delta = mIndex.update(
+                Collections.singletonList(scanResult("", "[ESS]", STRONG)));
+
+        assertThat(delta.isEmpty()).isTrue();
+        assertThat(mIndex.getScanResults()).isEmpty();
+    }
+
+    @Test
+    public void testUpdate_sameSsidOtherSecurity_separateNetworks() {
+        ScanResult open = scanResult("cafe", "[ESS]", STRONG);
+        ScanResult secure = scanResult("cafe", "[WPA2-PSK-CCMP]", STRONG);
+
+        ScanResultIndex.Delta delta = mIndex.update(Arrays.asList(open, secure));
+
+        assertThat(delta.added).containsExactly(open, secure);
+    }
+
+    @Test
+    public void testUpdate_keepsStrongestAccessPoint() {
+        ScanResult weak = scanResult("home", "[WPA2-PSK-CCMP]", WEAK);
+        ScanResult strong = scanResult("home", "[WPA2-PSK-CCMP]", STRONG);
+        ScanResult medium = scanResult("home", "[WPA2-PSK-CCMP]", MEDIUM);
+
+        ScanResultIndex.Delta delta = mIndex.update(Arrays.asList(weak, strong, medium));
+
+        assertThat(delta.added).containsExactly(strong);
+        assertThat(mIndex.getCurrentScanResult(weak)).isSameInstanceAs(strong);
+    }
+
+    @Test
+    public void testUpdate_strongestFromLatestScanOnly() {
+        mIndex.update(Collections.singletonList(scanResult("home", "[ESS]", STRONG)));
+        ScanResult weaker = scanResult("home", "[ESS]", MEDIUM);
+
+        ScanResultIndex.Delta delta = mIndex.update(Collections.singletonList(weaker));
+
+        assertThat(delta.changed).containsExactly(weaker);
+        assertThat(mIndex.getCurrentScanResult(weaker)).isSameInstanceAs(weaker);
+    }
+
+    @Test
+    public void testUpdate_levelChanged_reportedAsChanged() {
+        mIndex.update(Collections.singletonList(scanResult("home", "[ESS]", WEAK)));
+        ScanResult stronger = scanResult("home", "[ESS]", STRONG);
+
+        ScanResultIndex.Delta delta = mIndex.update(Collections.singletonList(stronger));
+
+        assertThat(delta.added).isEmpty();
+        assertThat(delta.changed).containsExactly(stronger);
+        assertThat(delta.removed).isEmpty();
+    }
+
+    @Test
+    public void testUpdate_moveWithinLevel_notReported() {
+        mIndex.update(Collections.singletonList(scanResult("home", "[ESS]", STRONG)));
+        ScanResult stillStrong = scanResult("home", "[ESS]", STRONG + 5);
+        ScanResultIndex.Listener listener = mock(ScanResultIndex.Listener.class);
+        mIndex.addListener(listener);
+
+        ScanResultIndex.Delta delta = mIndex.update(Collections.singletonList(stillStrong));
+
+        assertThat(delta.isEmpty()).isTrue();
+        assertThat(mIndex.getCurrentScanResult(stillStrong)).isSameInstanceAs(stillStrong);
+        verify(listener, never()).onScanResultsChanged(any());
+    }
+
+    @Test
+    public void testUpdate_networkGone_removedWithLastResult() {
+        ScanResult home = scanResult("home", "[ESS]", STRONG);
+        ScanResult guest = scanResult("guest", "[ESS]", WEAK);
+        mIndex.update(Arrays.asList(home, guest));
+        ScanResultIndex.Listener listener = mock(ScanResultIndex.Listener.class);
+        mIndex.addListener(listener);
+
+        ScanResultIndex.Delta delta = mIndex.update(
+                Collections.singletonList(scanResult("home", "[ESS]", STRONG)));
+
+        assertThat(delta.added).isEmpty();
+        assertThat(delta.changed).isEmpty();
+        assertThat(delta.removed).containsExactly(guest);
+        assertThat(mIndex.getCurrentScanResult(guest)).isSameInstanceAs(guest);
+        verify(listener).onScanResultsChanged(delta);
+    }
+
+    @Test
+    public void testUpdate_nullResults_removesEverything() {
+        ScanResult home = scanResult("home", "[ESS]", STRONG);
+        mIndex.update(Collections.singletonList(home));
+
+        ScanResultIndex.Delta delta = mIndex.update(null);
+
+        assertThat(delta.removed).containsExactly(home);
+        assertThat(mIndex.getScanResults()).isEmpty();
+    }
+
+    private static ScanResult scanResult(String ssid, String capabilities, int level) {
+        ScanResult result = new ScanResult();
+        result.SSID = ssid;
+        result.capabilities = capabilities;
+        result.level = level;
+        return result;
+    }
+}
@@ -292,6 +292,66 @@ public class RecentAppsPreferenceControllerTest {
         verify(mCategory).addPreference(argThat(summaryMatches("0 minutes ago")));
     }
 
+    @Test
+    public void onStop_pendingLoadNotDelivered() {
+        final UsageStats stat1 = new UsageStats();
+        stat1.mLastTimeUsed = System.currentTimeMillis();
+        stat1.mPackageName = "pkg.class";
+        final List<UsageStats> stats = new ArrayList<>();
+        stats.add(stat1);
+
+        when(mAppState.getEntry(stat1.mPackageName, UserHandle.myUserId()))
+            .thenReturn(mAppEntry);
+        when(mPackageManager.resolveActivity(any(Intent.class), anyInt()))
+            .thenReturn(new ResolveInfo());
+        when(mUsageStatsManager.queryUsageStats(anyInt(), anyLong(), anyLong()))
+            .thenReturn(stats);
+        mAppEntry.info = mApplicationInfo;
+
+        final List<Runnable> mainTasks = new ArrayList<>();
+        mController = new RecentAppsPreferenceController(mContext, mAppState,
+                new RecentAppsSource(mPackageManager, mUsageStatsManager, mAppState,
+                        Runnable::run, mainTasks::add));
+
+        mController.displayPreference(mScreen);
+        mController.onStop();
+        for (Runnable task : mainTasks) {
+            task.run();
+        }
+
+        verify(mCategory, never()).addPreference(any(Preference.class));
+    }
+
+    @Test
+    public void display_pendingLoadDelivered() {
+        final UsageStats stat1 = new UsageStats();
+        stat1.mLastTimeUsed = System.currentTimeMillis();
+        stat1.mPackageName = "pkg.class";
+        final List<UsageStats> stats = new ArrayList<>();
+        stats.add(stat1);
+
+        when(mAppState.getEntry(stat1.mPackageName, UserHandle.myUserId()))
+            .thenReturn(mAppEntry);
+        when(mPackageManager.resolveActivity(any(Intent.class), anyInt()))
+            .thenReturn(new ResolveInfo());
+        when(mUsageStatsManager.queryUsageStats(anyInt(), anyLong(), anyLong()))
+            .thenReturn(stats);
+        mAppEntry.info = mApplicationInfo;
+
+        final List<Runnable> mainTasks = new ArrayList<>();
+        mController = new RecentAppsPreferenceController(mContext, mAppState,
+                new RecentAppsSource(mPackageManager, mUsageStatsManager, mAppState,
+                        Runnable::run, mainTasks::add));
+
+        mController.displayPreference(mScreen);
+        verify(mCategory, never()).addPreference(any(Preference.class));
+
+        for (Runnable task : mainTasks) {
+            task.run();
+        }
+        verify(mCategory).addPreference(any(Preference.class));
+    }
+
     private static ArgumentMatcher<Preference> summaryMatches(String expected) {
         return preference -> TextUtils.equals(expected, preference.getSummary());
     }
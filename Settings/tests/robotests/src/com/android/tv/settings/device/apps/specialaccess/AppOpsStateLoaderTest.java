@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.device.apps.specialaccess;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.Manifest;
+import android.app.AppOpsManager;
+import android.content.pm.IPackageManager;
+
+import com.android.internal.app.IAppOpsService;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Collections;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppOpsStateLoaderTest {
+    private static final int OP = AppOpsManager.OP_WRITE_SETTINGS;
+    private static final int UID = 10_123;
+    private static final String PACKAGE = "com.example.app";
+
+    @Mock
+    private IPackageManager mPackageManager;
+    @Mock
+    private AppOpsManager mAppOpsManager;
+    @Mock
+    private IAppOpsService mAppOpsService;
+
+    private AppOpsStateLoader mLoader;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(mPackageManager.getAppOpPermissionPackages(any())).thenReturn(new String[0]);
+        when(mAppOpsManager.getPackagesForOps(any(int[].class)))
+                .thenReturn(Collections.emptyList());
+        mLoader = new AppOpsStateLoader(mPackageManager, mAppOpsManager, mAppOpsService, OP,
+                Manifest.permission.WRITE_SETTINGS);
+    }
+
+    @Test
+    public void testNoModeSet_notRelevant() {
+        mLoader.load();
+
+        assertThat(mLoader.hasRequestedPermission(PACKAGE)).isFalse();
+        assertThat(mLoader.mayHaveMode(UID, PACKAGE)).isFalse();
+    }
+
+    @Test
+    public void testUidModeOnly_relevant() throws Exception {
+        when(mAppOpsService.getUidOps(eq(UID), any())).thenReturn(Collections.singletonList(
+                new AppOpsManager.PackageOps(null, UID, Collections.emptyList())));
+        when(mAppOpsManager.checkOpNoThrow(OP, UID, PACKAGE))
+                .thenReturn(AppOpsManager.MODE_ALLOWED);
+
+        mLoader.load();
+
+        // The app does not request the permission, but a mode was set for its uid.
+        assertThat(mLoader.hasRequestedPermission(PACKAGE)).isFalse();
+        assertThat(mLoader.mayHaveMode(UID, PACKAGE)).isTrue();
+        assertThat(mLoader.getAppOpMode(UID, PACKAGE)).isEqualTo(AppOpsManager.MODE_ALLOWED);
+    }
+
+    @Test
+    public void testUidModeLookedUpOncePerUid() throws Exception {
+        mLoader.load();
+
+        mLoader.mayHaveMode(UID, PACKAGE);
+        mLoader.mayHaveMode(UID, "com.example.shared");
+
+        verify(mAppOpsService, times(1)).getUidOps(anyInt(), any());
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.enterprise;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.VpnManager;
+import android.os.Looper;
+import android.os.UserManager;
+
+import androidx.preference.Preference;
+
+import com.android.tv.settings.enterprise.apps.ApplicationFeatureProvider;
+import com.android.tv.settings.overlay.FeatureFactory;
+import com.android.tv.settings.overlay.FlavorUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.androidx.fragment.FragmentController;
+
+@RunWith(RobolectricTestRunner.class)
+public class EnterprisePrivacySettingsFragmentTest {
+    private static final String KEY_SECURITY_LOGS = "security_logs";
+    private static final int SNAPSHOT_WAIT_ATTEMPTS = 100;
+
+    @Mock
+    private FeatureFactory mFeatureFactory;
+    @Mock
+    private ApplicationFeatureProvider mApplicationFeatureProvider;
+    @Mock
+    private DevicePolicyManager mDpm;
+    @Mock
+    private UserManager mUm;
+    @Mock
+    private ConnectivityManager mCm;
+    @Mock
+    private VpnManager mVm;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        final Context context = RuntimeEnvironment.application;
+        final EnterprisePrivacyFeatureProvider provider = new EnterprisePrivacyFeatureProviderImpl(
+                context, mDpm, context.getPackageManager(), mUm, mCm, mVm,
+                context.getResources());
+        when(mFeatureFactory.getEnterprisePrivacyFeatureProvider(any())).thenReturn(provider);
+        when(mFeatureFactory.getApplicationFeatureProvider(any()))
+                .thenReturn(mApplicationFeatureProvider);
+        FlavorUtils.setFeatureFactory(mFeatureFactory);
+
+        when(mDpm.getLastSecurityLogRetrievalTime()).thenReturn(-1L);
+        when(mDpm.getLastBugReportRequestTime()).thenReturn(-1L);
+        when(mDpm.getLastNetworkLogRetrievalTime()).thenReturn(-1L);
+        when(mDpm.isSecurityLoggingEnabled(null)).thenReturn(true);
+    }
+
+    @After
+    public void tearDown() {
+        FlavorUtils.setFeatureFactory(null);
+    }
+
+    @Test
+    public void testCreate_doesNotQueryPolicyOnMainThread() {
+        final EnterprisePrivacySettingsFragment fragment = new EnterprisePrivacySettingsFragment();
+        FragmentController.of(fragment).create();
+
+        verifyZeroInteractions(mDpm);
+        verifyZeroInteractions(mVm);
+        assertThat(fragment.findPreference(KEY_SECURITY_LOGS).isVisible()).isFalse();
+    }
+
+    @Test
+    public void testOpen_queriesEachPolicyOnce() throws InterruptedException {
+        final EnterprisePrivacySettingsFragment fragment = new EnterprisePrivacySettingsFragment();
+        FragmentController.of(fragment).create().start().resume();
+        waitForSnapshot(fragment);
+
+        // Only the snapshot pass asks; every row answers from its result.
+        verify(mDpm, times(1)).isSecurityLoggingEnabled(null);
+        verify(mDpm, times(1)).isNetworkLoggingEnabled(null);
+        verify(mDpm, times(1)).getLastSecurityLogRetrievalTime();
+        verify(mDpm, times(1)).getLastBugReportRequestTime();
+        verify(mDpm, times(1)).getLastNetworkLogRetrievalTime();
+        verify(mDpm, times(1)).isCurrentInputMethodSetByOwner();
+        verify(mDpm, times(1)).getOwnerInstalledCaCerts(any());
+        verify(mVm, times(1)).getAlwaysOnVpnPackageForUser(anyInt());
+    }
+
+    @Test
+    public void testSnapshotArrival_showsAvailableRows() throws InterruptedException {
+        final EnterprisePrivacySettingsFragment fragment = new EnterprisePrivacySettingsFragment();
+        FragmentController.of(fragment).create().start().resume();
+        waitForSnapshot(fragment);
+
+        final Preference securityLogs = fragment.findPreference(KEY_SECURITY_LOGS);
+        assertThat(securityLogs.isVisible()).isTrue();
+    }
+
+    private static void waitForSnapshot(EnterprisePrivacySettingsFragment fragment)
+            throws InterruptedException {
+        for (int i = 0; i < SNAPSHOT_WAIT_ATTEMPTS && !fragment.mSnapshotLoaded; i++) {
+            Thread.sleep(10);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+        assertThat(fragment.mSnapshotLoaded).isTrue();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.enterprise.apps;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.Manifest;
+import android.app.admin.DevicePolicyManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.IPackageManager;
+import android.content.pm.PackageManager;
+import android.content.pm.UserInfo;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Looper;
+import android.os.UserManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class AdminGrantedPermissionsEngineTest {
+    private static final String[] CAMERA = {Manifest.permission.CAMERA};
+    private static final String[] LOCATION = {Manifest.permission.ACCESS_FINE_LOCATION};
+    // More than two chunks of apps.
+    private static final int APP_COUNT = 70;
+
+    @Mock
+    private PackageManager mPackageManager;
+    @Mock
+    private IPackageManager mPackageManagerService;
+    @Mock
+    private DevicePolicyManager mDevicePolicyManager;
+    @Mock
+    private UserManager mUserManager;
+
+    private Context mContext;
+    private AdminGrantedPermissionsEngine mEngine;
+    private final List<ApplicationInfo> mApps = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        shadowOf(Looper.getMainLooper()).pause();
+        mContext = RuntimeEnvironment.application;
+        for (int i = 0; i < APP_COUNT; i++) {
+            mApps.add(app("app" + i, Build.VERSION_CODES.M));
+        }
+        when(mUserManager.getProfiles(anyInt())).thenReturn(Collections.singletonList(
+                new UserInfo(0, "owner", UserInfo.FLAG_ADMIN | UserInfo.FLAG_PRIMARY)));
+        when(mPackageManager.getInstalledApplicationsAsUser(anyInt(), eq(0))).thenReturn(mApps);
+        when(mDevicePolicyManager.getPermissionGrantState(any(), anyString(), anyString()))
+                .thenReturn(DevicePolicyManager.PERMISSION_GRANT_STATE_DEFAULT);
+        mEngine = new AdminGrantedPermissionsEngine(mContext, mPackageManager,
+                mPackageManagerService, mDevicePolicyManager, mUserManager);
+    }
+
+    @Test
+    public void testCount_checksEveryChunk() {
+        grant("app0", CAMERA[0]);
+        grant("app40", CAMERA[0]);
+        grant("app69", CAMERA[0]);
+
+        assertThat(count(CAMERA)).isEqualTo(3);
+        verify(mDevicePolicyManager, times(APP_COUNT))
+                .getPermissionGrantState(any(), anyString(), eq(CAMERA[0]));
+    }
+
+    @Test
+    public void testCount_laterPermission_checksOnlyThatPermission() {
+        grant("app1", CAMERA[0]);
+        grant("app2", LOCATION[0]);
+
+        assertThat(count(CAMERA)).isEqualTo(1);
+        assertThat(count(LOCATION)).isEqualTo(1);
+        assertThat(count(CAMERA)).isEqualTo(1);
+
+        verify(mPackageManager).getInstalledApplicationsAsUser(anyInt(), eq(0));
+        verify(mDevicePolicyManager, times(APP_COUNT))
+                .getPermissionGrantState(any(), anyString(), eq(CAMERA[0]));
+        verify(mDevicePolicyManager, times(APP_COUNT))
+                .getPermissionGrantState(any(), anyString(), eq(LOCATION[0]));
+    }
+
+    @Test
+    public void testCount_installTimePermissions_readInstallReasonOnce() throws Exception {
+        final ApplicationInfo legacy = app("legacy", Build.VERSION_CODES.LOLLIPOP);
+        mApps.add(legacy);
+        when(mPackageManager.getInstallReason(eq("legacy"), any()))
+                .thenReturn(PackageManager.INSTALL_REASON_POLICY);
+        when(mPackageManagerService.checkUidPermission(CAMERA[0], legacy.uid))
+                .thenReturn(PackageManager.PERMISSION_GRANTED);
+        when(mPackageManagerService.checkUidPermission(LOCATION[0], legacy.uid))
+                .thenReturn(PackageManager.PERMISSION_DENIED);
+
+        assertThat(count(CAMERA)).isEqualTo(1);
+        assertThat(count(LOCATION)).isEqualTo(0);
+
+        verify(mPackageManager).getInstallReason(eq("legacy"), any());
+    }
+
+    @Test
+    public void testPackageBroadcast_reloadsApps() {
+        assertThat(count(CAMERA)).isEqualTo(0);
+        grant("app3", CAMERA[0]);
+
+        mContext.sendBroadcast(new Intent(Intent.ACTION_PACKAGE_ADDED,
+                Uri.fromParts("package", "app3", null)));
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertThat(count(CAMERA)).isEqualTo(1);
+        verify(mPackageManager, times(2)).getInstalledApplicationsAsUser(anyInt(), eq(0));
+    }
+
+    @Test
+    public void testGrantWithoutBroadcast_seenOnceCacheExpires() {
+        assertThat(count(CAMERA)).isEqualTo(0);
+        grant("app3", CAMERA[0]);
+
+        assertThat(count(CAMERA)).isEqualTo(0);
+
+        shadowOf(Looper.getMainLooper()).idleFor(
+                Duration.ofMillis(AdminGrantedPermissionsEngine.MAX_AGE_MILLIS + 1));
+
+        assertThat(count(CAMERA)).isEqualTo(1);
+    }
+
+    private int count(String[] permissions) {
+        final int[] count = {-1};
+        mEngine.countApps(permissions, false /* async */, num -> count[0] = num);
+        return count[0];
+    }
+
+    private void grant(String packageName, String permission) {
+        when(mDevicePolicyManager.getPermissionGrantState(any(), eq(packageName), eq(permission)))
+                .thenReturn(DevicePolicyManager.PERMISSION_GRANT_STATE_GRANTED);
+    }
+
+    private ApplicationInfo app(String packageName, int targetSdk) {
+        final ApplicationInfo info = new ApplicationInfo();
+        info.packageName = packageName;
+        info.targetSdkVersion = targetSdk;
+        info.uid = 10000 + mApps.size();
+        return info;
+    }
+}
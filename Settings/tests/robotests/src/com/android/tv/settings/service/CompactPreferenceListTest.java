@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.service;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class CompactPreferenceListTest {
+    private static final String TAG = "CompactPreferenceListTest";
+    private static final int ACCESS_POINTS = 60;
+    private static final int ROUNDS = 200;
+    private static final int WARMUP_ROUNDS = 50;
+
+    @Test
+    public void testRoundTrip() {
+        List<PreferenceParcelable> preferences = createNetworkScreen(0);
+        PreferenceStringTable senderTable = new PreferenceStringTable();
+        PreferenceStringTable receiverTable = new PreferenceStringTable();
+
+        List<PreferenceParcelable> received = transfer(
+                new CompactPreferenceList(preferences, senderTable)).decode(receiverTable);
+
+        assertSamePreferences(received, preferences);
+        assertThat(receiverTable.size()).isEqualTo(senderTable.size());
+    }
+
+    @Test
+    public void testOnlyNewStringsAreSentAgain() {
+        PreferenceStringTable senderTable = new PreferenceStringTable();
+        PreferenceStringTable receiverTable = new PreferenceStringTable();
+        transfer(new CompactPreferenceList(createNetworkScreen(0), senderTable))
+                .decode(receiverTable);
+        int size = senderTable.size();
+
+        List<PreferenceParcelable> update = createNetworkScreen(1);
+        List<PreferenceParcelable> received = transfer(
+                new CompactPreferenceList(update, senderTable)).decode(receiverTable);
+
+        assertSamePreferences(received, update);
+        // Only signal levels changed, and every level was already in the table.
+        assertThat(senderTable.size()).isEqualTo(size);
+        assertThat(receiverTable.size()).isEqualTo(senderTable.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMissedListIsDetected() {
+        PreferenceStringTable senderTable = new PreferenceStringTable();
+        PreferenceStringTable receiverTable = new PreferenceStringTable();
+        // Never delivered.
+        new CompactPreferenceList(createNetworkScreen(0), senderTable);
+
+        transfer(new CompactPreferenceList(createNetworkScreen(1), senderTable))
+                .decode(receiverTable);
+    }
+
+    @Test
+    public void testResetStartsNewSession() {
+        PreferenceStringTable senderTable = new PreferenceStringTable();
+        PreferenceStringTable receiverTable = new PreferenceStringTable();
+        transfer(new CompactPreferenceList(createNetworkScreen(0), senderTable))
+                .decode(receiverTable);
+        senderTable.reset();
+
+        List<PreferenceParcelable> update = createNetworkScreen(1);
+        List<PreferenceParcelable> received = transfer(
+                new CompactPreferenceList(update, senderTable)).decode(receiverTable);
+
+        assertSamePreferences(received, update);
+    }
+
+    @Test
+    public void testFullTable_resetsAndResyncsReceiver() {
+        PreferenceStringTable senderTable = new PreferenceStringTable(1);
+        PreferenceStringTable receiverTable = new PreferenceStringTable();
+        transfer(new CompactPreferenceList(createNetworkScreen(0), senderTable))
+                .decode(receiverTable);
+        assertThat(senderTable.isFull()).isTrue();
+        int size = senderTable.size();
+
+        List<PreferenceParcelable> update = createNetworkScreen(1);
+        List<PreferenceParcelable> received = transfer(
+                new CompactPreferenceList(update, senderTable)).decode(receiverTable);
+
+        assertSamePreferences(received, update);
+        assertThat(senderTable.size()).isAtMost(size);
+        assertThat(receiverTable.size()).isEqualTo(senderTable.size());
+    }
+
+    /**
+     * A network screen that keeps being resent with its signal levels changing is smaller in the
+     * compact encoding than with {@link Parcel#writeTypedList}.
+     */
+    @Test
+    public void testParcelSize_smallerThanTypedList() {
+        long legacyBytes = 0;
+        long compactBytes = 0;
+        PreferenceStringTable senderTable = new PreferenceStringTable();
+        for (int i = 0; i < ROUNDS; i++) {
+            List<PreferenceParcelable> screen = createNetworkScreen(i % 5);
+
+            Parcel parcel = Parcel.obtain();
+            parcel.writeTypedList(screen);
+            legacyBytes += parcel.dataSize();
+            parcel.recycle();
+
+            parcel = Parcel.obtain();
+            new CompactPreferenceList(screen, senderTable).writeToParcel(parcel, 0);
+            compactBytes += parcel.dataSize();
+            parcel.recycle();
+        }
+
+        assertThat(compactBytes).isLessThan(legacyBytes);
+    }
+
+    /**
+     * Measures marshalling and unmarshalling the same screens with {@link Parcel#writeTypedList}
+     * and with the compact encoding. Timings depend on the host, so they are only logged; the
+     * test checks that both paths decoded every screen.
+     */
+    @Test
+    public void testMarshalTime_compactVersusTypedList() {
+        List<List<PreferenceParcelable>> screens = new ArrayList<>();
+        for (int i = 0; i < ROUNDS; i++) {
+            screens.add(createNetworkScreen(i % 5));
+        }
+        // Let the JIT settle on both paths before timing them.
+        measureTypedList(screens.subList(0, WARMUP_ROUNDS));
+        measureCompact(screens.subList(0, WARMUP_ROUNDS));
+
+        ParcelTiming legacy = measureTypedList(screens);
+        ParcelTiming compact = measureCompact(screens);
+
+        Log.i(TAG, "typed list: " + legacy);
+        Log.i(TAG, "compact: " + compact);
+        assertThat(legacy.mDecoded).isEqualTo(ROUNDS * screens.get(0).size());
+        assertThat(compact.mDecoded).isEqualTo(legacy.mDecoded);
+    }
+
+    private static ParcelTiming measureTypedList(List<List<PreferenceParcelable>> screens) {
+        ParcelTiming timing = new ParcelTiming(screens.size());
+        for (List<PreferenceParcelable> screen : screens) {
+            Parcel parcel = Parcel.obtain();
+            long start = System.nanoTime();
+            parcel.writeTypedList(screen);
+            long marshalled = System.nanoTime();
+            parcel.setDataPosition(0);
+            List<PreferenceParcelable> received =
+                    parcel.createTypedArrayList(PreferenceParcelable.CREATOR);
+            timing.add(marshalled - start, System.nanoTime() - marshalled, parcel.dataSize(),
+                    received.size());
+            parcel.recycle();
+        }
+        return timing;
+    }
+
+    private static ParcelTiming measureCompact(List<List<PreferenceParcelable>> screens) {
+        ParcelTiming timing = new ParcelTiming(screens.size());
+        PreferenceStringTable senderTable = new PreferenceStringTable();
+        PreferenceStringTable receiverTable = new PreferenceStringTable();
+        for (List<PreferenceParcelable> screen : screens) {
+            Parcel parcel = Parcel.obtain();
+            long start = System.nanoTime();
+            new CompactPreferenceList(screen, senderTable).writeToParcel(parcel, 0);
+            long marshalled = System.nanoTime();
+            parcel.setDataPosition(0);
+            List<PreferenceParcelable> received =
+                    CompactPreferenceList.CREATOR.createFromParcel(parcel).decode(receiverTable);
+            timing.add(marshalled - start, System.nanoTime() - marshalled, parcel.dataSize(),
+                    received.size());
+            parcel.recycle();
+        }
+        return timing;
+    }
+
+    /** Totals of one encoding over a run of screens. */
+    private static final class ParcelTiming {
+        final int mRounds;
+        long mMarshalNanos;
+        long mUnmarshalNanos;
+        long mBytes;
+        int mDecoded;
+
+        ParcelTiming(int rounds) {
+            mRounds = rounds;
+        }
+
+        void add(long marshalNanos, long unmarshalNanos, int bytes, int decoded) {
+            mMarshalNanos += marshalNanos;
+            mUnmarshalNanos += unmarshalNanos;
+            mBytes += bytes;
+            mDecoded += decoded;
+        }
+
+        @Override
+        public String toString() {
+            return mRounds + " screens, marshal " + mMarshalNanos / mRounds
+                    + " ns, unmarshal " + mUnmarshalNanos / mRounds + " ns, "
+                    + mBytes / mRounds + " bytes per screen";
+        }
+    }
+
+    private static void assertSamePreferences(List<PreferenceParcelable> actual,
+            List<PreferenceParcelable> expected) {
+        assertThat(actual).hasSize(expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            PreferenceParcelable a = actual.get(i);
+            PreferenceParcelable e = expected.get(i);
+            assertThat(a.getKey()).isEqualTo(e.getKey());
+            assertThat(a.getTitle()).isEqualTo(e.getTitle());
+            assertThat(a.getSummary()).isEqualTo(e.getSummary());
+            assertThat(a.getContentDescription()).isEqualTo(e.getContentDescription());
+            assertThat(a.getType()).isEqualTo(e.getType());
+            assertThat(a.getChecked()).isEqualTo(e.getChecked());
+            assertThat(a.getVisible()).isEqualTo(e.getVisible());
+            assertThat(a.getInfoMap()).isEqualTo(e.getInfoMap());
+            if (e.getExtras() == null) {
+                assertThat(a.getExtras()).isNull();
+            } else {
+                assertThat(a.getExtras().getString("key_ssid"))
+                        .isEqualTo(e.getExtras().getString("key_ssid"));
+            }
+            if (e.getIntent() == null) {
+                assertThat(a.getIntent()).isNull();
+            } else {
+                assertThat(a.getIntent().filterEquals(e.getIntent())).isTrue();
+                assertThat(a.getIntent().getStringExtra("ssid"))
+                        .isEqualTo(e.getIntent().getStringExtra("ssid"));
+            }
+            if (e.getChildPreferences() == null) {
+                assertThat(a.getChildPreferences()).isNull();
+            } else {
+                assertSamePreferences(a.getChildPreferences(), e.getChildPreferences());
+            }
+        }
+    }
+
+    private static CompactPreferenceList transfer(CompactPreferenceList list) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            list.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            return CompactPreferenceList.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /** Mirrors what NetworkMainState sends, with a signal level offset per access point. */
+    private static List<PreferenceParcelable> createNetworkScreen(int level) {
+        List<PreferenceParcelable> preferences = new ArrayList<>();
+        PreferenceParcelable enable = new PreferenceParcelable("wifi_enable");
+        enable.setTitle("Wi-Fi");
+        enable.setChecked(true);
+        preferences.add(enable);
+
+        PreferenceParcelable wifiList = new PreferenceParcelable("wifi_list");
+        wifiList.addInfo(ServiceUtil.INFO_COLLAPSE, "true");
+        wifiList.setVisible(true);
+        wifiList.initChildPreferences();
+        for (int i = 0; i < ACCESS_POINTS; i++) {
+            PreferenceParcelable accessPoint = new PreferenceParcelable(
+                    new String[]{"wifi_list", "\"network-" + i + "\",2"});
+            accessPoint.setTitle("network-" + i);
+            accessPoint.setSummary(i == 0 ? "Connected" : "Saved");
+            accessPoint.setType(PreferenceParcelable.TYPE_PREFERENCE_ACCESS_POINT);
+            accessPoint.addInfo(ServiceUtil.INFO_WIFI_SIGNAL_LEVEL,
+                    String.valueOf((i + level) % 5));
+            if (i == 0) {
+                Bundle extras = new Bundle();
+                extras.putString("key_ssid", "network-0");
+                accessPoint.setExtras(extras);
+                accessPoint.addInfo(ServiceUtil.INFO_NEXT_STATE,
+                        String.valueOf(ServiceUtil.STATE_WIFI_DETAILS));
+            } else {
+                accessPoint.setIntent(new Intent("com.android.tv.settings.WIFI_CONNECT")
+                        .putExtra("ssid", "network-" + i));
+            }
+            wifiList.addChildPrefParcelable(accessPoint);
+        }
+        preferences.add(wifiList);
+        return preferences;
+    }
+}
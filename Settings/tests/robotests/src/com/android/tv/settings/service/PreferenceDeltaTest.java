@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.service;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class PreferenceDeltaTest {
+    private static final String[] KEY = {"wifi_list", "ap"};
+
+    @Test
+    public void testDiff_newKey_hasEveryField() {
+        PreferenceDelta delta = PreferenceDelta.diff(null, accessPoint("Home", "2"), null, null);
+
+        assertThat(delta.has(PreferenceDelta.FIELD_TITLE)).isTrue();
+        assertThat(delta.has(PreferenceDelta.FIELD_SUMMARY)).isTrue();
+        assertThat(delta.has(PreferenceDelta.FIELD_TYPE)).isTrue();
+        assertThat(delta.has(PreferenceDelta.FIELD_INTENT)).isTrue();
+        assertThat(delta.has(PreferenceDelta.FIELD_INFO)).isTrue();
+        assertThat(delta.has(PreferenceDelta.FIELD_CHILDREN)).isFalse();
+        assertThat(delta.getTitle()).isEqualTo("Home");
+    }
+
+    @Test
+    public void testDiff_unchanged_returnsNull() {
+        assertThat(PreferenceDelta.diff(accessPoint("Home", "2"), accessPoint("Home", "2"),
+                null, null)).isNull();
+    }
+
+    @Test
+    public void testDiff_levelChanged_onlyCarriesInfo() {
+        PreferenceDelta delta = PreferenceDelta.diff(accessPoint("Home", "2"),
+                accessPoint("Home", "3"), null, null);
+
+        assertThat(delta.getFields()).isEqualTo(PreferenceDelta.FIELD_INFO);
+        assertThat(delta.getInfo()).containsExactly(ServiceUtil.INFO_WIFI_SIGNAL_LEVEL, "3");
+    }
+
+    @Test
+    public void testDiff_sameParcelableExtras_notResent() {
+        // Intent does not implement equals, like the WifiInfo an active access point carries.
+        PreferenceParcelable old = accessPoint("Home", "2");
+        old.setExtras(activeExtras("Home"));
+        PreferenceParcelable now = accessPoint("Home", "3");
+        now.setExtras(activeExtras("Home"));
+
+        PreferenceDelta delta = PreferenceDelta.diff(old, now, null, null);
+
+        assertThat(delta.getFields()).isEqualTo(PreferenceDelta.FIELD_INFO);
+    }
+
+    @Test
+    public void testDiff_changedParcelableExtras_resent() {
+        PreferenceParcelable old = accessPoint("Home", "2");
+        old.setExtras(activeExtras("Home"));
+        PreferenceParcelable now = accessPoint("Home", "2");
+        now.setExtras(activeExtras("Office"));
+
+        PreferenceDelta delta = PreferenceDelta.diff(old, now, null, null);
+
+        assertThat(delta.getFields()).isEqualTo(PreferenceDelta.FIELD_EXTRAS);
+    }
+
+    @Test
+    public void testDiff_removedInfo_sentAsNull() {
+        PreferenceParcelable now = accessPoint("Home", "2");
+        now.getInfoMap().remove(ServiceUtil.INFO_WIFI_SIGNAL_LEVEL);
+
+        PreferenceDelta delta = PreferenceDelta.diff(accessPoint("Home", "2"), now, null, null);
+
+        assertThat(delta.getInfo()).containsExactly(ServiceUtil.INFO_WIFI_SIGNAL_LEVEL, null);
+    }
+
+    @Test
+    public void testDiff_childKeys() {
+        PreferenceParcelable category = new PreferenceParcelable("wifi_list");
+        String[] oldKeys = {"a", "b"};
+        String[] newKeys = {"b", "a"};
+
+        PreferenceDelta delta = PreferenceDelta.diff(category, category, oldKeys, newKeys);
+
+        assertThat(delta.getFields()).isEqualTo(PreferenceDelta.FIELD_CHILDREN);
+        assertThat(delta.getChildKeys()).asList().containsExactly("b", "a").inOrder();
+        assertThat(PreferenceDelta.diff(category, category, oldKeys, oldKeys.clone())).isNull();
+    }
+
+    @Test
+    public void testMerge_keepsLatestOfEachField() {
+        PreferenceDelta first = PreferenceDelta.diff(accessPoint("Home", "2"),
+                accessPoint("Home", "3"), null, null);
+        PreferenceParcelable renamed = accessPoint("Office", "3");
+        PreferenceDelta second = PreferenceDelta.diff(accessPoint("Home", "3"), renamed,
+                null, null);
+        second.merge(PreferenceDelta.diff(renamed, accessPoint("Office", "4"), null, null));
+
+        first.merge(second);
+
+        assertThat(first.getFields())
+                .isEqualTo(PreferenceDelta.FIELD_INFO | PreferenceDelta.FIELD_TITLE);
+        assertThat(first.getTitle()).isEqualTo("Office");
+        assertThat(first.getInfo()).containsExactly(ServiceUtil.INFO_WIFI_SIGNAL_LEVEL, "4");
+    }
+
+    @Test
+    public void testMerge_removedThenAdded_takesFullDelta() {
+        PreferenceDelta delta = PreferenceDelta.removed(KEY);
+
+        delta.merge(PreferenceDelta.diff(null, accessPoint("Home", "2"), null, null));
+
+        assertThat(delta.has(PreferenceDelta.FIELD_REMOVED)).isFalse();
+        assertThat(delta.has(PreferenceDelta.FIELD_TITLE)).isTrue();
+        assertThat(delta.getTitle()).isEqualTo("Home");
+    }
+
+    @Test
+    public void testMerge_updatedThenRemoved_isRemoved() {
+        PreferenceDelta delta = PreferenceDelta.diff(accessPoint("Home", "2"),
+                accessPoint("Home", "3"), null, null);
+
+        delta.merge(PreferenceDelta.removed(KEY));
+
+        assertThat(delta.getFields()).isEqualTo(PreferenceDelta.FIELD_REMOVED);
+        assertThat(delta.getInfo()).isNull();
+    }
+
+    @Test
+    public void testParcel_roundTrip() {
+        PreferenceDelta delta = PreferenceDelta.diff(null, accessPoint("Home", "2"), null,
+                new String[]{"child"});
+
+        PreferenceDelta read = transfer(delta);
+
+        assertThat(read.getKey()).isEqualTo(KEY);
+        assertThat(read.getFields()).isEqualTo(delta.getFields());
+        assertThat(read.getTitle()).isEqualTo("Home");
+        assertThat(read.getSummary()).isEqualTo("Saved");
+        assertThat(read.getType()).isEqualTo(PreferenceParcelable.TYPE_PREFERENCE_ACCESS_POINT);
+        assertThat(read.getIntent().getAction()).isEqualTo("connect");
+        assertThat(read.getInfo()).containsExactly(ServiceUtil.INFO_WIFI_SIGNAL_LEVEL, "2");
+        assertThat(read.getChildKeys()).asList().containsExactly("child");
+    }
+
+    @Test
+    public void testParcel_onlyFlaggedFieldsWritten() {
+        PreferenceDelta delta = PreferenceDelta.diff(accessPoint("Home", "2"),
+                accessPoint("Home", "3"), null, null);
+
+        PreferenceDelta read = transfer(delta);
+
+        assertThat(read.getFields()).isEqualTo(PreferenceDelta.FIELD_INFO);
+        assertThat(read.getTitle()).isNull();
+        assertThat(read.getIntent()).isNull();
+        assertThat(read.getInfo()).containsExactly(ServiceUtil.INFO_WIFI_SIGNAL_LEVEL, "3");
+    }
+
+    @Test
+    public void testParcel_removed() {
+        PreferenceDelta read = transfer(PreferenceDelta.removed(KEY));
+
+        assertThat(read.getKey()).isEqualTo(KEY);
+        assertThat(read.getFields()).isEqualTo(PreferenceDelta.FIELD_REMOVED);
+    }
+
+    private static PreferenceParcelable accessPoint(String title, String level) {
+        PreferenceParcelable preference = new PreferenceParcelable(KEY, title, "Saved");
+        preference.setType(PreferenceParcelable.TYPE_PREFERENCE_ACCESS_POINT);
+        preference.addInfo(ServiceUtil.INFO_WIFI_SIGNAL_LEVEL, level);
+        preference.setIntent(new Intent("connect"));
+        return preference;
+    }
+
+    private static Bundle activeExtras(String ssid) {
+        Bundle extras = new Bundle();
+        extras.putString("key_ssid", ssid);
+        extras.putParcelable("key_state", new Intent("state").putExtra("ssid", ssid));
+        return extras;
+    }
+
+    private static PreferenceDelta transfer(PreferenceDelta delta) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            delta.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            return PreferenceDelta.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
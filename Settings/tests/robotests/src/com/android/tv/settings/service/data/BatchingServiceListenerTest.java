@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.service.data;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.tv.settings.service.ISettingsServiceListener;
+import com.android.tv.settings.service.PreferenceDelta;
+import com.android.tv.settings.service.PreferenceParcelable;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class BatchingServiceListenerTest {
+    private static final int STATE = 0;
+
+    @Mock
+    private ISettingsServiceListener mRemote;
+
+    private BatchingServiceListener mListener;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        shadowOf(Looper.getMainLooper()).pause();
+        mListener = new BatchingServiceListener(mRemote, true,
+                new Handler(Looper.getMainLooper()));
+    }
+
+    @Test
+    public void testLegacyListener_getsCallsUnchanged() throws Exception {
+        mListener = new BatchingServiceListener(mRemote, false,
+                new Handler(Looper.getMainLooper()));
+        PreferenceParcelable preference = pref("a", "A");
+        List<PreferenceParcelable> preferences = Arrays.asList(preference);
+
+        mListener.notifyUpdate(STATE, preference);
+        mListener.notifyUpdateAll(STATE, preferences);
+        flushFrame();
+
+        verify(mRemote).notifyUpdate(STATE, preference);
+        verify(mRemote).notifyUpdateAll(STATE, preferences);
+        verify(mRemote, never()).notifyDelta(anyInt(), anyLong(), anyLong(), anyList());
+    }
+
+    @Test
+    public void testUpdatesInOneFrame_batchedIntoOneDelta() throws Exception {
+        mListener.notifyUpdateAll(STATE, Arrays.asList(pref("a", "A"), pref("b", "B")));
+        mListener.notifyUpdate(STATE, pref("a", "A2"));
+        flushFrame();
+
+        List<PreferenceDelta> deltas = captureDeltas(0, 1);
+        assertThat(deltas).hasSize(2);
+        assertThat(deltas.get(0).getTitle()).isEqualTo("A2");
+        assertThat(deltas.get(1).getTitle()).isEqualTo("B");
+    }
+
+    @Test
+    public void testUnchangedUpdate_sendsNothing() throws Exception {
+        mListener.notifyUpdateAll(STATE, Arrays.asList(pref("a", "A")));
+        flushFrame();
+        mListener.notifyUpdateAll(STATE, Arrays.asList(pref("a", "A")));
+        flushFrame();
+
+        verify(mRemote).notifyDelta(eq(STATE), anyLong(), anyLong(), anyList());
+    }
+
+    @Test
+    public void testTopLevelKeyGone_sendsRemoval() throws Exception {
+        PreferenceParcelable category = pref("list", "List");
+        category.addChildPrefParcelable(child("list", "x", "X"));
+        mListener.notifyUpdateAll(STATE, Arrays.asList(pref("a", "A"), category));
+        flushFrame();
+
+        mListener.notifyUpdateAll(STATE, Arrays.asList(pref("a", "A")));
+        flushFrame();
+
+        List<PreferenceDelta> deltas = captureDeltas(1, 2);
+        List<String> removed = new ArrayList<>();
+        for (PreferenceDelta delta : deltas) {
+            assertThat(delta.getFields()).isEqualTo(PreferenceDelta.FIELD_REMOVED);
+            removed.add(String.join(" ", delta.getKey()));
+        }
+        assertThat(removed).containsExactly("list", "list x");
+    }
+
+    @Test
+    public void testChildGone_sendsRemovalAndNewChildKeys() throws Exception {
+        PreferenceParcelable category = pref("list", "List");
+        category.addChildPrefParcelable(child("list", "x", "X"));
+        category.addChildPrefParcelable(child("list", "y", "Y"));
+        mListener.notifyUpdateAll(STATE, Arrays.asList(category));
+        flushFrame();
+
+        PreferenceParcelable updated = pref("list", "List");
+        updated.addChildPrefParcelable(child("list", "y", "Y"));
+        mListener.notifyUpdateAll(STATE, Arrays.asList(updated));
+        flushFrame();
+
+        List<PreferenceDelta> deltas = captureDeltas(1, 2);
+        assertThat(deltas).hasSize(2);
+        assertThat(deltas.get(0).getChildKeys()).asList().containsExactly("y");
+        assertThat(deltas.get(1).getKey()).asList().containsExactly("list", "x").inOrder();
+        assertThat(deltas.get(1).getFields()).isEqualTo(PreferenceDelta.FIELD_REMOVED);
+    }
+
+    @Test
+    public void testScreenTitle_flushesStagedChangesFirst() throws Exception {
+        mListener.notifyUpdateAll(STATE, Arrays.asList(pref("a", "A")));
+
+        mListener.notifyUpdateScreenTitle(STATE, "Title");
+
+        InOrder inOrder = inOrder(mRemote);
+        inOrder.verify(mRemote).notifyDelta(eq(STATE), eq(0L), eq(1L), anyList());
+        inOrder.verify(mRemote).notifyUpdateScreenTitle(STATE, "Title");
+    }
+
+    @Test
+    public void testRemoteCall_doesNotBlockStaging() throws Exception {
+        final boolean[] staged = new boolean[1];
+        doAnswer(invocation -> {
+            // Another lane stages a change while the call is in flight.
+            Thread thread = new Thread(() -> {
+                try {
+                    mListener.notifyUpdate(STATE, pref("b", "B"));
+                    staged[0] = true;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            thread.start();
+            thread.join(5000);
+            return null;
+        }).when(mRemote).notifyUpdateScreenTitle(STATE, "Title");
+
+        mListener.notifyUpdateScreenTitle(STATE, "Title");
+
+        assertThat(staged[0]).isTrue();
+    }
+
+    @Test
+    public void testSlowScreenTitle_doesNotBlockOtherSends() throws Exception {
+        mListener.notifyUpdateAll(STATE, Arrays.asList(pref("a", "A")));
+        final boolean[] resynced = new boolean[1];
+        doAnswer(invocation -> {
+            // Another lane asks for a resync while the two-way call is in flight.
+            Thread thread = new Thread(() -> {
+                mListener.resync(STATE, false);
+                resynced[0] = true;
+            });
+            thread.start();
+            thread.join(5000);
+            return null;
+        }).when(mRemote).notifyUpdateScreenTitle(STATE, "Title");
+
+        mListener.notifyUpdateScreenTitle(STATE, "Title");
+
+        assertThat(resynced[0]).isTrue();
+    }
+
+    private List<PreferenceDelta> captureDeltas(long fromVersion, long toVersion)
+            throws Exception {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<PreferenceDelta>> captor = ArgumentCaptor.forClass(List.class);
+        verify(mRemote).notifyDelta(eq(STATE), eq(fromVersion), eq(toVersion), captor.capture());
+        return captor.getValue();
+    }
+
+    private static void flushFrame() {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(20));
+    }
+
+    private static PreferenceParcelable pref(String key, String title) {
+        return new PreferenceParcelable(new String[]{key}, title);
+    }
+
+    private static PreferenceParcelable child(String parentKey, String key, String title) {
+        return new PreferenceParcelable(new String[]{parentKey, key}, title);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.settings.service.data;
+
+import static com.android.tv.settings.service.ServiceUtil.STATE_NETWORK_MAIN;
+import static com.android.tv.settings.service.ServiceUtil.STATE_WIFI_DETAILS;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class StateSchedulerTest {
+    private StateScheduler mScheduler;
+    private final List<String> mCalls = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() {
+        shadowOf(Looper.getMainLooper()).pause();
+        // A single worker, so the order of the calls is deterministic.
+        mScheduler = new StateScheduler(new Handler(Looper.getMainLooper())::post);
+    }
+
+    @Test
+    public void testPauseThenResumeCancelOut() {
+        submit(STATE_NETWORK_MAIN, StateScheduler.OP_RESUME, "resume");
+        submit(STATE_NETWORK_MAIN, StateScheduler.OP_PAUSE, "pause");
+        submit(STATE_NETWORK_MAIN, StateScheduler.OP_RESUME, "resume");
+
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertThat(mCalls).containsExactly("resume");
+    }
+
+    @Test
+    public void testStopThenStartCancelOut() {
+        submit(STATE_NETWORK_MAIN, StateScheduler.OP_STOP, "stop");
+        submit(STATE_NETWORK_MAIN, StateScheduler.OP_START, "start");
+
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertThat(mCalls).isEmpty();
+    }
+
+    @Test
+    public void testRepeatedLifecycleCallIsDropped() {
+        submit(STATE_NETWORK_MAIN, StateScheduler.OP_RESUME, "resume");
+        submit(STATE_NETWORK_MAIN, StateScheduler.OP_RESUME, "resume");
+
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertThat(mCalls).containsExactly("resume");
+    }
+
+    @Test
+    public void testCreateAndDestroyAreNeverCoalesced() {
+        submit(STATE_NETWORK_MAIN, StateScheduler.OP_CREATE, "create");
+        submit(STATE_NETWORK_MAIN, StateScheduler.OP_CREATE, "create");
+        submit(STATE_NETWORK_MAIN, StateScheduler.OP_DESTROY, "destroy");
+        submit(STATE_NETWORK_MAIN, StateScheduler.OP_DESTROY, "destroy");
+
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertThat(mCalls).containsExactly("create", "create", "destroy", "destroy").inOrder();
+    }
+
+    @Test
+    public void testQueuedClicksAreBounded() {
+        for (int i = 0; i < StateScheduler.MAX_QUEUED_CLICKS; i++) {
+            assertThat(submit(STATE_NETWORK_MAIN, StateScheduler.OP_CLICK, "click" + i)).isTrue();
+        }
+        assertThat(submit(STATE_NETWORK_MAIN, StateScheduler.OP_CLICK, "rejected")).isFalse();
+
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertThat(mCalls).hasSize(StateScheduler.MAX_QUEUED_CLICKS);
+        assertThat(mCalls).doesNotContain("rejected");
+        // Once the backlog drained, clicks are accepted again.
+        assertThat(submit(STATE_NETWORK_MAIN, StateScheduler.OP_CLICK, "later")).isTrue();
+    }
+
+    @Test
+    public void testQueuedCallbackIsNotQueuedAgain() {
+        Runnable update = () -> mCalls.add("update");
+        Runnable other = () -> mCalls.add("other");
+
+        mScheduler.getExecutor(STATE_NETWORK_MAIN).execute(update);
+        mScheduler.getExecutor(STATE_NETWORK_MAIN).execute(other);
+        mScheduler.getExecutor(STATE_NETWORK_MAIN).execute(update);
+        shadowOf(Looper.getMainLooper()).idle();
+        mScheduler.getExecutor(STATE_NETWORK_MAIN).execute(update);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertThat(mCalls).containsExactly("update", "other", "update").inOrder();
+    }
+
+    @Test
+    public void testStatesAreInterleaved() {
+        submit(STATE_NETWORK_MAIN, StateScheduler.OP_CLICK, "main1");
+        submit(STATE_NETWORK_MAIN, StateScheduler.OP_CLICK, "main2");
+        submit(STATE_WIFI_DETAILS, StateScheduler.OP_CLICK, "details1");
+
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertThat(mCalls).containsExactly("main1", "details1", "main2").inOrder();
+    }
+
+    @Test
+    public void testBlockedStateDoesNotDelayOthers() throws Exception {
+        mScheduler = new StateScheduler();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch otherRan = new CountDownLatch(1);
+        mScheduler.submit(STATE_NETWORK_MAIN, StateScheduler.OP_CLICK, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mCalls.add("blocked");
+        });
+        submit(STATE_NETWORK_MAIN, StateScheduler.OP_CLICK, "after");
+
+        mScheduler.submit(STATE_WIFI_DETAILS, StateScheduler.OP_RESUME, otherRan::countDown);
+
+        try {
+            assertThat(otherRan.await(5, TimeUnit.SECONDS)).isTrue();
+            // The calls of the blocked state stay in order behind it.
+            assertThat(mCalls).isEmpty();
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private boolean submit(int state, int op, String name) {
+        return mScheduler.submit(state, op, () -> mCalls.add(name));
+    }
+}
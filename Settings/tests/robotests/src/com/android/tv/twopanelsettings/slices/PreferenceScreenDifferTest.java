@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.twopanelsettings.slices;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
+
+import androidx.preference.Preference;
+import androidx.preference.PreferenceManager;
+import androidx.preference.PreferenceScreen;
+import androidx.preference.SwitchPreference;
+import androidx.preference.TwoStatePreference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+@RunWith(RobolectricTestRunner.class)
+public class PreferenceScreenDifferTest {
+
+    private Context mContext;
+    private PreferenceManager mPreferenceManager;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mPreferenceManager = new PreferenceManager(mContext);
+    }
+
+    @Test
+    public void testApply_insertsIntoEmptyScreen() {
+        PreferenceScreen screen = mPreferenceManager.createPreferenceScreen(mContext);
+
+        PreferenceScreenDiffer.Result result = PreferenceScreenDiffer.apply(screen,
+                prefs(new Spec("a", "A", null, false), new Spec("b", "B", "b", true)));
+
+        assertThat(result.mInserted).isEqualTo(2);
+        assertThat(result.mRemoved).isEqualTo(0);
+        assertThat(screen.getPreferenceCount()).isEqualTo(2);
+        assertThat(screen.findPreference("b").getOrder()).isEqualTo(1);
+    }
+
+    @Test
+    public void testApply_identicalContent_touchesNothing() {
+        PreferenceScreen screen = mPreferenceManager.createPreferenceScreen(mContext);
+        Spec[] specs = {new Spec("a", "A", "s", false), new Spec("b", "B", null, true)};
+        PreferenceScreenDiffer.apply(screen, prefs(specs));
+        Preference a = screen.findPreference("a");
+
+        PreferenceScreenDiffer.Result result = PreferenceScreenDiffer.apply(screen, prefs(specs));
+
+        assertThat(result.isEmpty()).isTrue();
+        assertThat((Preference) screen.findPreference("a")).isSameInstanceAs(a);
+    }
+
+    @Test
+    public void testApply_reorderAndUpdate_keepsInstances() {
+        PreferenceScreen screen = mPreferenceManager.createPreferenceScreen(mContext);
+        PreferenceScreenDiffer.apply(screen, prefs(
+                new Spec("a", "A", null, false),
+                new Spec("b", "B", null, false),
+                new Spec("c", "C", null, false)));
+        Preference b = screen.findPreference("b");
+
+        PreferenceScreenDiffer.Result result = PreferenceScreenDiffer.apply(screen, prefs(
+                new Spec("b", "B2", null, true),
+                new Spec("a", "A", null, false)));
+
+        assertThat(result.mRemoved).isEqualTo(1);
+        assertThat(result.mInserted).isEqualTo(0);
+        assertThat(result.mMoved).isEqualTo(2);
+        assertThat(result.mUpdated).isEqualTo(1);
+        assertThat((Preference) screen.findPreference("b")).isSameInstanceAs(b);
+        assertThat(b.getOrder()).isEqualTo(0);
+        assertThat(b.getTitle().toString()).isEqualTo("B2");
+        assertThat((Preference) screen.findPreference("c")).isNull();
+    }
+
+    @Test
+    public void testApply_keylessRowsAreReplaced() {
+        PreferenceScreen screen = mPreferenceManager.createPreferenceScreen(mContext);
+        PreferenceScreenDiffer.apply(screen, prefs(new Spec(null, "header", null, false)));
+        Preference header = screen.getPreference(0);
+
+        PreferenceScreenDiffer.apply(screen, prefs(new Spec(null, "header", null, false)));
+
+        assertThat(screen.getPreferenceCount()).isEqualTo(1);
+        assertThat(screen.getPreference(0)).isNotSameInstanceAs(header);
+    }
+
+    @Test
+    public void testApply_rowOfAnotherClassIsReplaced() {
+        PreferenceScreen screen = mPreferenceManager.createPreferenceScreen(mContext);
+        Preference plain = new Preference(mContext);
+        plain.setKey("a");
+        screen.addPreference(plain);
+        SwitchPreference toggle = new SwitchPreference(mContext);
+        toggle.setKey("a");
+        List<Preference> newPrefs = new ArrayList<>();
+        newPrefs.add(toggle);
+
+        PreferenceScreenDiffer.Result result = PreferenceScreenDiffer.apply(screen, newPrefs);
+
+        assertThat(result.mRemoved).isEqualTo(1);
+        assertThat(result.mInserted).isEqualTo(1);
+        assertThat((Preference) screen.findPreference("a")).isSameInstanceAs(toggle);
+    }
+
+    @Test
+    public void testIsSameIcon_sharedBitmap() {
+        Bitmap bitmap = bitmap(8, Color.RED);
+
+        assertThat(PreferenceScreenDiffer.isSameIcon(drawable(bitmap), drawable(bitmap)))
+                .isTrue();
+    }
+
+    @Test
+    public void testIsSameIcon_samePixels() {
+        assertThat(PreferenceScreenDiffer.isSameIcon(
+                drawable(bitmap(8, Color.RED)), drawable(bitmap(8, Color.RED)))).isTrue();
+    }
+
+    @Test
+    public void testIsSameIcon_differentSize() {
+        assertThat(PreferenceScreenDiffer.isSameIcon(
+                drawable(bitmap(8, Color.RED)), drawable(bitmap(16, Color.RED)))).isFalse();
+    }
+
+    @Test
+    public void testIsSameIcon_differentPixels() {
+        assertThat(PreferenceScreenDiffer.isSameIcon(
+                drawable(bitmap(8, Color.RED)), drawable(bitmap(8, Color.BLUE)))).isFalse();
+    }
+
+    @Test
+    public void testApply_matchesLegacyBehavior() {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            Spec[] before = randomSpecs(random);
+            Spec[] after = randomSpecs(random);
+
+            PreferenceScreen expected = mPreferenceManager.createPreferenceScreen(mContext);
+            PreferenceScreen actual = mPreferenceManager.createPreferenceScreen(mContext);
+            Map<Preference, String> origins = new IdentityHashMap<>();
+            legacyUpdate(expected, track(prefs(before), "old", origins));
+            PreferenceScreenDiffer.apply(actual, track(prefs(before), "old", origins));
+            legacyUpdate(expected, track(prefs(after), "new", origins));
+            PreferenceScreenDiffer.apply(actual, track(prefs(after), "new", origins));
+
+            assertThat(snapshot(actual, origins)).isEqualTo(snapshot(expected, origins));
+        }
+    }
+
+    private static Spec[] randomSpecs(Random random) {
+        Spec[] specs = new Spec[random.nextInt(12)];
+        for (int i = 0; i < specs.length; i++) {
+            int key = random.nextInt(10);
+            specs[i] = new Spec(key == 0 ? null : "k" + key, "t" + random.nextInt(3),
+                    random.nextBoolean() ? null : "s" + random.nextInt(3), random.nextBoolean());
+        }
+        return specs;
+    }
+
+    private static List<Preference> track(List<Preference> prefs, String tag,
+            Map<Preference, String> origins) {
+        for (int i = 0; i < prefs.size(); i++) {
+            origins.put(prefs.get(i), tag + i);
+        }
+        return prefs;
+    }
+
+    private static List<String> snapshot(PreferenceScreen screen, Map<Preference, String> origins) {
+        List<Preference> prefs = new ArrayList<>();
+        for (int i = 0; i < screen.getPreferenceCount(); i++) {
+            prefs.add(screen.getPreference(i));
+        }
+        prefs.sort(Comparator.comparingInt(Preference::getOrder)
+                .thenComparing(origins::get));
+        List<String> rows = new ArrayList<>();
+        for (Preference pref : prefs) {
+            rows.add(origins.get(pref) + "|" + pref.getKey() + "|" + pref.getOrder() + "|"
+                    + pref.getTitle() + "|" + pref.getSummary() + "|"
+                    + (pref instanceof TwoStatePreference
+                            ? ((TwoStatePreference) pref).isChecked() : "-"));
+        }
+        return rows;
+    }
+
+    private List<Preference> prefs(Spec... specs) {
+        List<Preference> prefs = new ArrayList<>();
+        for (Spec spec : specs) {
+            Preference pref;
+            if (spec.mKey != null && spec.mKey.hashCode() % 2 == 0) {
+                pref = new SwitchPreference(mContext);
+                ((SwitchPreference) pref).setChecked(spec.mChecked);
+            } else {
+                pref = new Preference(mContext);
+            }
+            pref.setKey(spec.mKey);
+            pref.setTitle(spec.mTitle);
+            pref.setSummary(spec.mSummary);
+            prefs.add(pref);
+        }
+        return prefs;
+    }
+
+    /** The quadratic matching SliceFragment used before the keyed differ. */
+    private static void legacyUpdate(PreferenceScreen screen, List<Preference> newPrefs) {
+        int index = 0;
+        while (index < screen.getPreferenceCount()) {
+            boolean needToRemoveCurrentPref = true;
+            Preference oldPref = screen.getPreference(index);
+            if (oldPref != null && oldPref.getKey() != null) {
+                for (Preference newPref : newPrefs) {
+                    if (newPref.getKey() != null && newPref.getKey().equals(oldPref.getKey())) {
+                        needToRemoveCurrentPref = false;
+                        break;
+                    }
+                }
+            }
+            if (needToRemoveCurrentPref) {
+                screen.removePreference(oldPref);
+            } else {
+                index++;
+            }
+        }
+
+        for (int i = 0; i < newPrefs.size(); i++) {
+            Preference newPref = newPrefs.get(i);
+            boolean neededToAddNewPref = true;
+            if (newPref.getKey() != null) {
+                for (int j = 0; j < screen.getPreferenceCount(); j++) {
+                    Preference oldPref = screen.getPreference(j);
+                    if (oldPref.getKey() != null && oldPref.getKey().equals(newPref.getKey())) {
+                        oldPref.setIcon(newPref.getIcon());
+                        oldPref.setTitle(newPref.getTitle());
+                        oldPref.setSummary(newPref.getSummary());
+                        oldPref.setEnabled(newPref.isEnabled());
+                        oldPref.setSelectable(newPref.isSelectable());
+                        oldPref.setFragment(newPref.getFragment());
+                        oldPref.getExtras().putAll(newPref.getExtras());
+                        if ((oldPref instanceof TwoStatePreference)
+                                && (newPref instanceof TwoStatePreference)) {
+                            ((TwoStatePreference) oldPref)
+                                    .setChecked(((TwoStatePreference) newPref).isChecked());
+                        }
+                        oldPref.setOrder(i);
+                        neededToAddNewPref = false;
+                        break;
+                    }
+                }
+            }
+            if (neededToAddNewPref) {
+                newPref.setOrder(i);
+                screen.addPreference(newPref);
+            }
+        }
+    }
+
+    private static final class Spec {
+        final String mKey;
+        final String mTitle;
+        final String mSummary;
+        final boolean mChecked;
+
+        Spec(String key, String title, String summary, boolean checked) {
+            mKey = key;
+            mTitle = title;
+            mSummary = summary;
+            mChecked = checked;
+        }
+    }
+
+    private BitmapDrawable drawable(Bitmap bitmap) {
+        return new BitmapDrawable(mContext.getResources(), bitmap);
+    }
+
+    private static Bitmap bitmap(int size, int color) {
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(color);
+        return bitmap;
+    }
+}
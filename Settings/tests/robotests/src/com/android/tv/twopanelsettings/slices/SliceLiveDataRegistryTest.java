@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.twopanelsettings.slices;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import androidx.core.graphics.drawable.IconCompat;
+import androidx.lifecycle.Observer;
+import androidx.slice.Slice;
+
+import com.android.tv.twopanelsettings.slices.PreferenceSliceLiveData.SliceLiveDataImpl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class SliceLiveDataRegistryTest {
+    private static final Uri URI_A = Uri.parse("content://com.example/a");
+    private static final Uri URI_B = Uri.parse("content://com.example/b");
+    private static final Uri URI_C = Uri.parse("content://com.example/c");
+
+    private final Observer<Slice> mObserver = slice -> { };
+    private Context mContext;
+    private int mCreated;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+    }
+
+    @Test
+    public void testGet_sameUri_returnsSameEntry() {
+        SliceLiveDataRegistry registry = registry(4, Long.MAX_VALUE);
+
+        SliceLiveDataImpl first = registry.get(mContext, URI_A);
+
+        assertThat(registry.get(mContext, URI_A)).isSameInstanceAs(first);
+        assertThat(mCreated).isEqualTo(1);
+    }
+
+    @Test
+    public void testGet_overEntryLimit_keepsNewEntry() {
+        SliceLiveDataRegistry registry = registry(1, Long.MAX_VALUE);
+        SliceLiveDataImpl a = registry.get(mContext, URI_A);
+
+        SliceLiveDataImpl b = registry.get(mContext, URI_B);
+
+        assertThat(registry.size()).isEqualTo(1);
+        assertThat(registry.get(mContext, URI_B)).isSameInstanceAs(b);
+        assertThat(registry.get(mContext, URI_A)).isNotSameInstanceAs(a);
+    }
+
+    @Test
+    public void testGet_newEntryOverWeightLimit_notEvicted() {
+        SliceLiveDataRegistry registry = registry(4, 1);
+        SliceLiveDataImpl a = registry.get(mContext, URI_A);
+        a.observeForever(mObserver);
+        a.setValue(bitmapSlice(URI_A));
+
+        SliceLiveDataImpl b = registry.get(mContext, URI_B);
+
+        assertThat(registry.size()).isEqualTo(2);
+        assertThat(registry.get(mContext, URI_B)).isSameInstanceAs(b);
+    }
+
+    @Test
+    public void testObservedEntries_neverEvicted() {
+        SliceLiveDataRegistry registry = registry(1, Long.MAX_VALUE);
+        SliceLiveDataImpl a = registry.get(mContext, URI_A);
+        a.observeForever(mObserver);
+        SliceLiveDataImpl b = registry.get(mContext, URI_B);
+        b.observeForever(mObserver);
+
+        registry.get(mContext, URI_C);
+
+        assertThat(registry.size()).isEqualTo(3);
+        assertThat(registry.get(mContext, URI_A)).isSameInstanceAs(a);
+        assertThat(registry.get(mContext, URI_B)).isSameInstanceAs(b);
+    }
+
+    @Test
+    public void testLastObserverRemoved_trimsLeastRecentlyUsed() {
+        SliceLiveDataRegistry registry = registry(1, Long.MAX_VALUE);
+        SliceLiveDataImpl a = registry.get(mContext, URI_A);
+        a.observeForever(mObserver);
+        SliceLiveDataImpl b = registry.get(mContext, URI_B);
+        b.observeForever(mObserver);
+
+        a.removeObserver(mObserver);
+
+        assertThat(registry.size()).isEqualTo(1);
+        assertThat(registry.get(mContext, URI_B)).isSameInstanceAs(b);
+    }
+
+    @Test
+    public void testLastObserverRemoved_overWeightLimit_evictsHeavyEntry() {
+        SliceLiveDataRegistry registry = registry(4,
+                SliceLiveDataRegistry.estimateWeightBytes(bitmapSlice(URI_A)));
+        SliceLiveDataImpl a = registry.get(mContext, URI_A);
+        a.observeForever(mObserver);
+        a.setValue(bitmapSlice(URI_A));
+        SliceLiveDataImpl b = registry.get(mContext, URI_B);
+        b.observeForever(mObserver);
+        b.setValue(bitmapSlice(URI_B));
+
+        a.removeObserver(mObserver);
+
+        assertThat(registry.size()).isEqualTo(1);
+        assertThat(registry.getWeightBytes())
+                .isEqualTo(SliceLiveDataRegistry.estimateWeightBytes(bitmapSlice(URI_B)));
+    }
+
+    @Test
+    public void testWeight_followsCurrentSlice() {
+        SliceLiveDataImpl liveData = registry(4, Long.MAX_VALUE).get(mContext, URI_A);
+        assertThat(liveData.getWeightBytes()).isEqualTo(0);
+
+        liveData.setValue(bitmapSlice(URI_A));
+        long heavy = liveData.getWeightBytes();
+        liveData.setValue(new Slice.Builder(URI_A).build());
+
+        assertThat(heavy).isGreaterThan(0);
+        assertThat(liveData.getWeightBytes()).isEqualTo(0);
+    }
+
+    @Test
+    public void testEstimateWeight_countsNestedBitmaps() {
+        Slice flat = new Slice.Builder(URI_A).addText("text", null).build();
+        Slice nested = new Slice.Builder(URI_A).addSubSlice(bitmapSlice(URI_A)).build();
+
+        assertThat(SliceLiveDataRegistry.estimateWeightBytes(nested))
+                .isGreaterThan(SliceLiveDataRegistry.estimateWeightBytes(bitmapSlice(URI_A)));
+        assertThat(SliceLiveDataRegistry.estimateWeightBytes(bitmapSlice(URI_A)))
+                .isGreaterThan(SliceLiveDataRegistry.estimateWeightBytes(flat));
+        assertThat(SliceLiveDataRegistry.estimateWeightBytes(null)).isEqualTo(0);
+    }
+
+    private SliceLiveDataRegistry registry(int maxEntries, long maxWeightBytes) {
+        return new SliceLiveDataRegistry(maxEntries, maxWeightBytes, (context, uri) -> {
+            mCreated++;
+            return new FakeSliceLiveData(context);
+        });
+    }
+
+    private static Slice bitmapSlice(Uri uri) {
+        Bitmap bitmap = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888);
+        return new Slice.Builder(uri).addIcon(IconCompat.createWithBitmap(bitmap), null).build();
+    }
+
+    /** Live data that never binds, so observing it does not reach a slice provider. */
+    private static final class FakeSliceLiveData extends SliceLiveDataImpl {
+        FakeSliceLiveData(Context context) {
+            super(context, null /* uri */);
+        }
+
+        @Override
+        protected void onActive() {
+        }
+    }
+}
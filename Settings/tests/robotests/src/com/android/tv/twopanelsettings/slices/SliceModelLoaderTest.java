@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.twopanelsettings.slices;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import androidx.slice.Slice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class SliceModelLoaderTest {
+    private Context mContext;
+    private Slice mSlice;
+    private final List<SliceScreenModel> mDelivered = new ArrayList<>();
+    // Read on the parsing thread.
+    private volatile boolean mFail;
+    private HandlerThread mThread;
+    private SliceModelLoader mLoader;
+
+    @Before
+    public void setUp() {
+        shadowOf(Looper.getMainLooper()).pause();
+        mContext = RuntimeEnvironment.application;
+        mSlice = new Slice.Builder(Uri.parse("content://com.example/slice")).build();
+        mThread = new HandlerThread("SliceModelLoaderTest");
+        mThread.start();
+        mLoader = new SliceModelLoader(mDelivered::add,
+                (slice, context, contextThemeWrapper, className, isTwoPanel) -> {
+                    if (mFail) {
+                        throw new IllegalStateException("bad slice");
+                    }
+                    return SliceScreenModel.build(
+                            slice, context, contextThemeWrapper, className, isTwoPanel);
+                }, new Handler(mThread.getLooper()));
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quit();
+    }
+
+    @Test
+    public void testLoad_deliversModelAndStopsLoading() {
+        load();
+        assertThat(mLoader.isLoading()).isTrue();
+
+        finishLoads();
+
+        assertThat(mDelivered).hasSize(1);
+        assertThat(mLoader.isLoading()).isFalse();
+    }
+
+    @Test
+    public void testLoad_parseFails_stopsLoading() {
+        mFail = true;
+        load();
+
+        finishLoads();
+
+        assertThat(mDelivered).isEmpty();
+        assertThat(mLoader.isLoading()).isFalse();
+    }
+
+    @Test
+    public void testCancel_dropsResultAndStopsLoading() {
+        load();
+
+        mLoader.cancel();
+
+        assertThat(mLoader.isLoading()).isFalse();
+        finishLoads();
+        assertThat(mDelivered).isEmpty();
+    }
+
+    @Test
+    public void testNewerLoad_onlyNewestDelivered() {
+        load();
+        load();
+
+        finishLoads();
+
+        assertThat(mDelivered).hasSize(1);
+        assertThat(mLoader.isLoading()).isFalse();
+    }
+
+    @Test
+    public void testNewerLoadFails_olderResultNotDelivered() {
+        load();
+        mFail = true;
+        load();
+
+        finishLoads();
+
+        assertThat(mDelivered).isEmpty();
+        assertThat(mLoader.isLoading()).isFalse();
+    }
+
+    private void load() {
+        mLoader.load(mSlice, mContext, null /* contextThemeWrapper */, "SliceFragment", false);
+    }
+
+    private void finishLoads() {
+        shadowOf(mThread.getLooper()).idle();
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.twopanelsettings.slices;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+
+import androidx.preference.Preference;
+import androidx.preference.PreferenceCategory;
+import androidx.preference.PreferenceManager;
+import androidx.preference.PreferenceScreen;
+import androidx.preference.SwitchPreference;
+import androidx.preference.TwoStatePreference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class SliceSnapshotTest {
+    private static final String URI = "content://com.example/slice";
+
+    private Context mContext;
+    private PreferenceManager mPreferenceManager;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mPreferenceManager = new PreferenceManager(mContext);
+    }
+
+    @Test
+    public void testWriteAndRead_keepsTitlesAndState_dropsSummaries() throws IOException {
+        SliceSnapshot snapshot = SliceSnapshot.capture(URI, 1000L, "Title", "Subtitle",
+                livePrefs());
+
+        SliceSnapshot read = readFrom(writeTo(snapshot));
+
+        assertThat(read.mUri).isEqualTo(URI);
+        assertThat(read.mTimestampMillis).isEqualTo(1000L);
+        assertThat(read.mTitle.toString()).isEqualTo("Title");
+        assertThat(read.mSubtitle.toString()).isEqualTo("Subtitle");
+        assertThat(read.mRows).hasSize(4);
+        assertThat(read.mRows.get(0).mType).isEqualTo(SliceSnapshot.TYPE_CATEGORY);
+        assertThat(read.mRows.get(1).mType).isEqualTo(SliceSnapshot.TYPE_SLICE);
+        assertThat(read.mRows.get(2).mType).isEqualTo(SliceSnapshot.TYPE_OTHER);
+        assertThat(read.mRows.get(3).mType).isEqualTo(SliceSnapshot.TYPE_PREFERENCE);
+        assertThat(read.mRows.get(1).mKey).isEqualTo("network");
+        assertThat(read.mRows.get(1).mTitle.toString()).isEqualTo("Network");
+
+        for (Preference preference : read.createPreferences(mContext)) {
+            assertThat(preference.getSummary()).isNull();
+        }
+    }
+
+    @Test
+    public void testRead_otherVersion_returnsNull() throws IOException {
+        byte[] bytes = writeTo(SliceSnapshot.capture(URI, 1000L, null, null, livePrefs()));
+        // The version follows the magic number.
+        bytes[7]++;
+
+        assertThat(readFrom(bytes)).isNull();
+    }
+
+    @Test
+    public void testCreatePreferences_placeholdersHaveNoWidgetOrAction() {
+        SliceSnapshot snapshot = SliceSnapshot.capture(URI, 1000L, null, null, livePrefs());
+
+        List<Preference> placeholders = snapshot.createPreferences(mContext);
+
+        assertThat(placeholders).hasSize(4);
+        assertThat(placeholders.get(0)).isInstanceOf(PreferenceCategory.class);
+        assertThat(placeholders.get(1).getClass()).isEqualTo(SlicePreference.class);
+        assertThat(((SlicePreference) placeholders.get(1)).getSliceAction()).isNull();
+        assertThat(placeholders.get(2)).isNotInstanceOf(TwoStatePreference.class);
+        assertThat(placeholders.get(2).isEnabled()).isFalse();
+        assertThat(placeholders.get(3).getOrder()).isEqualTo(3);
+    }
+
+    @Test
+    public void testLiveModel_updatesMatchingPlaceholdersInPlace() {
+        PreferenceScreen screen = mPreferenceManager.createPreferenceScreen(mContext);
+        SliceSnapshot snapshot = SliceSnapshot.capture(URI, 1000L, null, null, livePrefs());
+        for (Preference preference : snapshot.createPreferences(mContext)) {
+            screen.addPreference(preference);
+        }
+        Preference network = screen.findPreference("network");
+        Preference toggle = screen.findPreference("toggle");
+
+        PreferenceScreenDiffer.apply(screen, livePrefs());
+
+        assertThat(screen.getPreferenceCount()).isEqualTo(4);
+        assertThat((Preference) screen.findPreference("network")).isSameInstanceAs(network);
+        assertThat(network.getSummary().toString()).isEqualTo("Connected");
+        Preference liveToggle = screen.findPreference("toggle");
+        assertThat(liveToggle).isNotSameInstanceAs(toggle);
+        assertThat(((TwoStatePreference) liveToggle).isChecked()).isTrue();
+    }
+
+    private List<Preference> livePrefs() {
+        List<Preference> prefs = new ArrayList<>();
+        PreferenceCategory category = new PreferenceCategory(mContext);
+        category.setKey("category");
+        category.setTitle("Category");
+        prefs.add(category);
+
+        SlicePreference network = new SlicePreference(mContext);
+        network.setKey("network");
+        network.setTitle("Network");
+        network.setSummary("Connected");
+        prefs.add(network);
+
+        SwitchPreference toggle = new SwitchPreference(mContext);
+        toggle.setKey("toggle");
+        toggle.setTitle("Toggle");
+        toggle.setChecked(true);
+        toggle.setEnabled(false);
+        prefs.add(toggle);
+
+        Preference info = new Preference(mContext);
+        info.setKey("info");
+        info.setTitle("Info");
+        info.setSummary("Details");
+        prefs.add(info);
+        return prefs;
+    }
+
+    private static byte[] writeTo(SliceSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        snapshot.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static SliceSnapshot readFrom(byte[] bytes) throws IOException {
+        return SliceSnapshot.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+}
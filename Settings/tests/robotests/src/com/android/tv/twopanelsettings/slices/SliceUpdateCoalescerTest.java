@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.twopanelsettings.slices;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.robolectric.Shadows.shadowOf;
+
+import android.net.Uri;
+import android.os.Looper;
+
+import androidx.slice.Slice;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class SliceUpdateCoalescerTest {
+    private static final Uri URI = Uri.parse("content://com.example/slice");
+
+    private final List<Slice> mDelivered = new ArrayList<>();
+    private SliceUpdateCoalescer mCoalescer;
+
+    @Before
+    public void setUp() {
+        shadowOf(Looper.getMainLooper()).pause();
+        mCoalescer = new SliceUpdateCoalescer(mDelivered::add);
+    }
+
+    @Test
+    public void testSubmit_deliveredOnNextFrame() {
+        Slice slice = slice();
+
+        mCoalescer.submit(slice);
+        assertThat(mDelivered).isEmpty();
+
+        nextFrame();
+
+        assertThat(mDelivered).containsExactly(slice);
+    }
+
+    @Test
+    public void testBurst_onlyLatestDelivered() {
+        long coalesced = SliceUpdateCoalescer.getCoalescedCount();
+        long delivered = SliceUpdateCoalescer.getDeliveredCount();
+        Slice last = slice();
+
+        mCoalescer.submit(slice());
+        mCoalescer.submit(slice());
+        mCoalescer.submit(last);
+        nextFrame();
+
+        assertThat(mDelivered).containsExactly(last);
+        assertThat(SliceUpdateCoalescer.getCoalescedCount() - coalesced).isEqualTo(2);
+        assertThat(SliceUpdateCoalescer.getDeliveredCount() - delivered).isEqualTo(1);
+    }
+
+    @Test
+    public void testUpdatesInLaterFrames_eachDelivered() {
+        Slice first = slice();
+        Slice second = slice();
+
+        mCoalescer.submit(first);
+        nextFrame();
+        mCoalescer.submit(second);
+        nextFrame();
+
+        assertThat(mDelivered).containsExactly(first, second).inOrder();
+    }
+
+    @Test
+    public void testSubmitFromBackgroundThread_deliveredOnMainThread() throws Exception {
+        Slice slice = slice();
+        final Thread[] deliveredOn = new Thread[1];
+        mCoalescer = new SliceUpdateCoalescer(s -> {
+            deliveredOn[0] = Thread.currentThread();
+            mDelivered.add(s);
+        });
+
+        Thread thread = new Thread(() -> mCoalescer.submit(slice));
+        thread.start();
+        thread.join();
+        nextFrame();
+
+        assertThat(mDelivered).containsExactly(slice);
+        assertThat(deliveredOn[0]).isSameInstanceAs(Looper.getMainLooper().getThread());
+    }
+
+    @Test
+    public void testCancel_dropsPendingUpdate() {
+        mCoalescer.submit(slice());
+
+        mCoalescer.cancel();
+        nextFrame();
+
+        assertThat(mDelivered).isEmpty();
+    }
+
+    @Test
+    public void testSubmitAfterCancel_delivered() {
+        mCoalescer.submit(slice());
+        mCoalescer.cancel();
+        Slice slice = slice();
+
+        mCoalescer.submit(slice);
+        nextFrame();
+
+        assertThat(mDelivered).containsExactly(slice);
+    }
+
+    @Test
+    public void testWindow_heldUntilWindowElapses() {
+        mCoalescer = new SliceUpdateCoalescer(mDelivered::add, 100);
+        Slice first = slice();
+        Slice last = slice();
+
+        mCoalescer.submit(first);
+        nextFrame();
+        mCoalescer.submit(last);
+        assertThat(mDelivered).isEmpty();
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100));
+
+        assertThat(mDelivered).containsExactly(last);
+    }
+
+    @Test
+    public void testSubmitNull_delivered() {
+        mCoalescer.submit(slice());
+        mCoalescer.submit(null);
+        nextFrame();
+
+        assertThat(mDelivered).containsExactly((Slice) null);
+    }
+
+    private static Slice slice() {
+        return new Slice.Builder(URI).build();
+    }
+
+    private static void nextFrame() {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(20));
+    }
+}
@@ -70,10 +70,13 @@ import com.android.tv.twopanelsettings.slices.HasSliceUri;
 import com.android.tv.twopanelsettings.slices.InfoFragment;
 import com.android.tv.twopanelsettings.slices.SliceFragment;
 import com.android.tv.twopanelsettings.slices.SlicePreference;
+import com.android.tv.twopanelsettings.slices.SlicePrefetcher;
 import com.android.tv.twopanelsettings.slices.SliceSwitchPreference;
 import com.android.tv.twopanelsettings.slices.SlicesConstants;
 import com.android.tv.twopanelsettings.slices.SliceSeekbarPreference;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -115,6 +118,7 @@ public abstract class TwoPanelSettingsFragment extends Fragment implements
     private Preference mFocusedPreference;
     private boolean mIsWaitingForUpdatingPreview = false;
     private AudioManager mAudioManager;
+    private SlicePrefetcher mSlicePrefetcher;
 
     private static final String DELAY_MS = "delay_ms";
     private static final String CHECK_SCROLL_STATE = "check_scroll_state";
@@ -174,6 +178,10 @@ public abstract class TwoPanelSettingsFragment extends Fragment implements
         mPreviewPanelCreationDelay = getContext().getResources()
                 .getInteger(R.integer.config_preview_panel_create_delay);
         mAudioManager = (AudioManager) getContext().getSystemService(Context.AUDIO_SERVICE);
+        mSlicePrefetcher = new SlicePrefetcher(getContext(),
+                getContext().getResources()
+                        .getInteger(R.integer.config_slice_prefetch_max_concurrent),
+                getContext().getResources().getInteger(R.integer.config_slice_prefetch_delay));
     }
 
     @Override
@@ -472,6 +480,7 @@ public abstract class TwoPanelSettingsFragment extends Fragment implements
             ((SliceFragmentCallback) prefFragment).onPreferenceFocused(pref);
         }
         mFocusedPreference = pref;
+        prefetchSlices(prefFragment, pref);
         if (mCheckVerticalGridViewScrollState || mPreviewPanelCreationDelay > 0) {
             mIsWaitingForUpdatingPreview = true;
             VerticalGridView listView = (VerticalGridView)
@@ -483,6 +492,40 @@ public abstract class TwoPanelSettingsFragment extends Fragment implements
         }
     }
 
+    /**
+     * Starts binding the slices of the focused preference and of its direct neighbours so that
+     * the preview panel has its data by the time it is created.
+     */
+    private void prefetchSlices(Fragment prefFragment, Preference pref) {
+        List<String> uris = new ArrayList<>(3);
+        addPrefetchUri(uris, pref);
+        if (prefFragment instanceof LeanbackPreferenceFragmentCompat
+                && ((LeanbackPreferenceFragmentCompat) prefFragment).getListView() != null) {
+            RecyclerView.Adapter adapter =
+                    ((LeanbackPreferenceFragmentCompat) prefFragment).getListView().getAdapter();
+            if (adapter instanceof PreferenceGroupAdapter) {
+                PreferenceGroupAdapter groupAdapter = (PreferenceGroupAdapter) adapter;
+                int position = groupAdapter.getPreferenceAdapterPosition(pref);
+                if (position != RecyclerView.NO_POSITION) {
+                    if (position + 1 < groupAdapter.getItemCount()) {
+                        addPrefetchUri(uris, groupAdapter.getItem(position + 1));
+                    }
+                    if (position > 0) {
+                        addPrefetchUri(uris, groupAdapter.getItem(position - 1));
+                    }
+                }
+            }
+        }
+        mSlicePrefetcher.prefetch(uris);
+    }
+
+    private void addPrefetchUri(List<String> uris, Preference pref) {
+        if (pref instanceof HasSliceUri && pref.getFragment() != null
+                && isPreferenceFragment(pref.getFragment())) {
+            uris.add(((HasSliceUri) pref).getUri());
+        }
+    }
+
     private final class PostShowPreviewRunnable implements Runnable {
         private final VerticalGridView mListView;
         private final Preference mPref;
@@ -596,6 +639,7 @@ public abstract class TwoPanelSettingsFragment extends Fragment implements
             Log.d(TAG, "onPause");
         }
         super.onPause();
+        mSlicePrefetcher.cancelAll();
         getContext().unregisterReceiver(mPreviewPanelDelayReceiver);
         final TwoPanelSettingsRootView rootView = (TwoPanelSettingsRootView) getView();
         if (rootView != null) {
@@ -19,17 +19,18 @@ package com.android.tv.twopanelsettings.slices;
 import android.app.slice.SliceManager;
 import android.content.Context;
 import android.net.Uri;
-import android.util.ArrayMap;
 
 import com.android.tv.twopanelsettings.slices.PreferenceSliceLiveData.SliceLiveDataImpl;
 
+import java.io.PrintWriter;
+
 
 /**
  * Ensure the SliceLiveData with same uri is created only once across the activity.
  */
 public class ContextSingleton {
     private static ContextSingleton sInstance;
-    private ArrayMap<Uri, SliceLiveDataImpl> mSliceMap;
+    private final SliceLiveDataRegistry mSliceRegistry;
     private boolean mGivenFullSliceAccess;
 
     /**
@@ -43,7 +44,9 @@ public class ContextSingleton {
     }
 
     private ContextSingleton() {
-        mSliceMap = new ArrayMap<>();
+        mSliceRegistry = new SliceLiveDataRegistry(
+                SliceLiveDataRegistry.DEFAULT_MAX_ENTRIES,
+                SliceLiveDataRegistry.DEFAULT_MAX_WEIGHT_BYTES);
         mGivenFullSliceAccess = false;
     }
 
@@ -51,11 +54,15 @@ public class ContextSingleton {
      * Get the corresponding SliceLiveData based on the uri.
      */
     public SliceLiveDataImpl getSliceLiveData(Context context, Uri uri) {
-        if (!mSliceMap.containsKey(uri)) {
-            mSliceMap.put(uri, PreferenceSliceLiveData.fromUri(context, uri));
-        }
+        return mSliceRegistry.get(context, uri);
+    }
 
-        return mSliceMap.get(uri);
+    /**
+     * Dump the slice cache state, for dumpsys.
+     */
+    public void dump(String prefix, PrintWriter pw) {
+        mSliceRegistry.dump(prefix, pw);
+        SliceUpdateCoalescer.dump(prefix, pw);
     }
 
     /**
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.twopanelsettings.slices;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+
+import androidx.preference.Preference;
+import androidx.preference.PreferenceGroup;
+import androidx.preference.TwoStatePreference;
+import androidx.slice.core.SliceActionImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Applies a freshly parsed list of slice preferences onto an existing {@link PreferenceGroup}.
+ *
+ * <p>Rows are matched by key through a hash index, so a whole update runs in time linear in the
+ * size of the screen. Matched rows are kept in place and only the properties that actually
+ * changed are rebound; rows without a key, whose key is gone, or whose key now belongs to a row
+ * of another class are removed; the remaining new rows are inserted at their position.
+ */
+final class PreferenceScreenDiffer {
+
+    static final int CHANGE_ICON = 1;
+    static final int CHANGE_TITLE = 1 << 1;
+    static final int CHANGE_SUMMARY = 1 << 2;
+    static final int CHANGE_ENABLED = 1 << 3;
+    static final int CHANGE_SELECTABLE = 1 << 4;
+    static final int CHANGE_FRAGMENT = 1 << 5;
+    static final int CHANGE_CHECKED = 1 << 6;
+    static final int CHANGE_SLICE_ACTION = 1 << 7;
+    static final int CHANGE_URI = 1 << 8;
+
+    /** Summary of the operations performed by {@link #apply}. */
+    static final class Result {
+        int mInserted;
+        int mRemoved;
+        int mMoved;
+        int mUpdated;
+
+        boolean isEmpty() {
+            return mInserted == 0 && mRemoved == 0 && mMoved == 0 && mUpdated == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{inserted=" + mInserted + ", removed=" + mRemoved
+                    + ", moved=" + mMoved + ", updated=" + mUpdated + "}";
+        }
+    }
+
+    private PreferenceScreenDiffer() {
+    }
+
+    /**
+     * Makes {@code group} reflect {@code newPrefs}, reusing existing preferences with the same key.
+     */
+    static Result apply(PreferenceGroup group, List<Preference> newPrefs) {
+        final Result result = new Result();
+
+        final ArrayMap<String, Class<?>> newClasses = new ArrayMap<>(newPrefs.size());
+        for (Preference newPref : newPrefs) {
+            if (newPref.getKey() != null && !newClasses.containsKey(newPref.getKey())) {
+                newClasses.put(newPref.getKey(), newPref.getClass());
+            }
+        }
+
+        // Drop rows without a key or whose key no longer appears, and index the survivors. A row
+        // whose key comes back as another kind of row can't be rebound: update() only copies the
+        // properties all preferences share, so the old row would keep its layout, widget and
+        // class specific state, e.g. a switch staying a switch. It is replaced instead. When the
+        // screen holds duplicate keys only the first row is matched, as before.
+        final List<Preference> toRemove = new ArrayList<>();
+        final ArrayMap<String, Preference> oldByKey = new ArrayMap<>(group.getPreferenceCount());
+        for (int i = 0; i < group.getPreferenceCount(); i++) {
+            Preference oldPref = group.getPreference(i);
+            if (oldPref.getKey() == null
+                    || newClasses.get(oldPref.getKey()) != oldPref.getClass()) {
+                toRemove.add(oldPref);
+            } else if (!oldByKey.containsKey(oldPref.getKey())) {
+                oldByKey.put(oldPref.getKey(), oldPref);
+            }
+        }
+        for (Preference oldPref : toRemove) {
+            group.removePreference(oldPref);
+        }
+        result.mRemoved = toRemove.size();
+
+        for (int i = 0; i < newPrefs.size(); i++) {
+            Preference newPref = newPrefs.get(i);
+            Preference oldPref = newPref.getKey() != null ? oldByKey.get(newPref.getKey()) : null;
+            if (oldPref == null) {
+                newPref.setOrder(i);
+                group.addPreference(newPref);
+                result.mInserted++;
+                if (newPref.getKey() != null) {
+                    // Later rows repeating this key fold into the one just added.
+                    oldByKey.put(newPref.getKey(), newPref);
+                }
+                continue;
+            }
+            if (update(oldPref, newPref) != 0) {
+                result.mUpdated++;
+            }
+            if (oldPref.getOrder() != i) {
+                oldPref.setOrder(i);
+                result.mMoved++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copies the bindable state of {@code newPref} onto {@code oldPref}, touching only properties
+     * that differ.
+     *
+     * @return a bit mask of the {@code CHANGE_*} flags describing what was rebound
+     */
+    static int update(Preference oldPref, Preference newPref) {
+        int changes = 0;
+        if (!isSameIcon(oldPref.getIcon(), newPref.getIcon())) {
+            oldPref.setIcon(newPref.getIcon());
+            changes |= CHANGE_ICON;
+        }
+        if (!TextUtils.equals(oldPref.getTitle(), newPref.getTitle())) {
+            oldPref.setTitle(newPref.getTitle());
+            changes |= CHANGE_TITLE;
+        }
+        if (!TextUtils.equals(oldPref.getSummary(), newPref.getSummary())) {
+            oldPref.setSummary(newPref.getSummary());
+            changes |= CHANGE_SUMMARY;
+        }
+        if (oldPref.isEnabled() != newPref.isEnabled()) {
+            oldPref.setEnabled(newPref.isEnabled());
+            changes |= CHANGE_ENABLED;
+        }
+        if (oldPref.isSelectable() != newPref.isSelectable()) {
+            oldPref.setSelectable(newPref.isSelectable());
+            changes |= CHANGE_SELECTABLE;
+        }
+        if (!TextUtils.equals(oldPref.getFragment(), newPref.getFragment())) {
+            oldPref.setFragment(newPref.getFragment());
+            changes |= CHANGE_FRAGMENT;
+        }
+        // Extras are not part of the bound view, merge them unconditionally.
+        oldPref.getExtras().putAll(newPref.getExtras());
+        if ((oldPref instanceof TwoStatePreference) && (newPref instanceof TwoStatePreference)) {
+            boolean checked = ((TwoStatePreference) newPref).isChecked();
+            if (((TwoStatePreference) oldPref).isChecked() != checked) {
+                ((TwoStatePreference) oldPref).setChecked(checked);
+                changes |= CHANGE_CHECKED;
+            }
+        }
+        if ((oldPref instanceof HasSliceAction) && (newPref instanceof HasSliceAction)) {
+            HasSliceAction oldAction = (HasSliceAction) oldPref;
+            HasSliceAction newAction = (HasSliceAction) newPref;
+            if (!isSameAction(oldAction.getSliceAction(), newAction.getSliceAction())) {
+                changes |= CHANGE_SLICE_ACTION;
+            }
+            // Setting the actions does not rebind the row, always keep the latest instances.
+            oldAction.setSliceAction(newAction.getSliceAction());
+            oldAction.setFollowupSliceAction(newAction.getFollowupSliceAction());
+            oldAction.setActionId(newAction.getActionId());
+        }
+        if ((oldPref instanceof HasSliceUri) && (newPref instanceof HasSliceUri)) {
+            String uri = ((HasSliceUri) newPref).getUri();
+            if (!Objects.equals(((HasSliceUri) oldPref).getUri(), uri)) {
+                ((HasSliceUri) oldPref).setUri(uri);
+                changes |= CHANGE_URI;
+            }
+        }
+        return changes;
+    }
+
+    private static boolean isSameAction(SliceActionImpl a, SliceActionImpl b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        return Objects.equals(a.getAction(), b.getAction()) && a.isChecked() == b.isChecked();
+    }
+
+    /**
+     * Returns whether two icons render identically without forcing a new drawable onto the row.
+     */
+    static boolean isSameIcon(Drawable a, Drawable b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a.getConstantState() != null && a.getConstantState() == b.getConstantState()) {
+            return true;
+        }
+        if (a instanceof BitmapDrawable && b instanceof BitmapDrawable) {
+            if (!Objects.equals(a.getColorFilter(), b.getColorFilter())) {
+                return false;
+            }
+            return isSameBitmap(((BitmapDrawable) a).getBitmap(),
+                    ((BitmapDrawable) b).getBitmap());
+        }
+        return false;
+    }
+
+    /**
+     * Compares bitmaps from cheapest to most expensive: instance, then shape, and only then the
+     * pixels, which takes a pass over both bitmaps.
+     */
+    private static boolean isSameBitmap(Bitmap a, Bitmap b) {
+        if (a == b) {
+            return a != null;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()
+                || a.getConfig() != b.getConfig()) {
+            return false;
+        }
+        return a.sameAs(b);
+    }
+}
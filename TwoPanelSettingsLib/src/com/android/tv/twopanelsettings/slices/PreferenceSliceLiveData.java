@@ -31,7 +31,10 @@ import androidx.lifecycle.MutableLiveData;
 import androidx.slice.Slice;
 import androidx.slice.SliceViewManager;
 
+import com.android.tv.twopanelsettings.R;
+
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * In TvSettings, if a preference item with corresponding slice first get focused, and regain focus
@@ -66,9 +69,19 @@ public final class PreferenceSliceLiveData {
         final SliceViewManager mSliceViewManager;
         Uri mUri;
         final AtomicBoolean mUpdatePending = new AtomicBoolean(false);
+        final SliceUpdateCoalescer mCoalescer;
+        private int mVersion;
+        private int mWeighedVersion = -1;
+        private long mWeightBytes;
+        private Runnable mOnInactiveListener;
+        // Bumped whenever the live data becomes active or inactive; a queued bind only runs if
+        // the generation it was queued with is still current.
+        private final AtomicInteger mBindGeneration = new AtomicInteger();
         SliceLiveDataImpl(Context context, Uri uri) {
             super();
             mSliceViewManager = SliceViewManager.getInstance(context);
+            mCoalescer = new SliceUpdateCoalescer(this::setValue,
+                    context.getResources().getInteger(R.integer.config_slice_update_window));
             mUri = uri;
             mIntent = null;
             // TODO: Check if uri points at a Slice?
@@ -76,7 +89,8 @@ public final class PreferenceSliceLiveData {
 
         @Override
         protected void onActive() {
-            AsyncTask.execute(mUpdateSlice);
+            final int generation = mBindGeneration.incrementAndGet();
+            AsyncTask.execute(() -> bindSlice(generation));
             if (mUri != null) {
                 mSliceViewManager.registerSliceCallback(mUri, mSliceCallback);
             }
@@ -84,41 +98,71 @@ public final class PreferenceSliceLiveData {
 
         @Override
         protected void onInactive() {
+            // Binds still queued, e.g. for prefetched uris focus already left, are dropped.
+            mBindGeneration.incrementAndGet();
             if (mUri != null) {
                 mSliceViewManager.unregisterSliceCallback(mUri, mSliceCallback);
             }
+            mCoalescer.cancel();
+            if (mOnInactiveListener != null) {
+                mOnInactiveListener.run();
+            }
         }
 
         @Override
         @MainThread
         public void setValue(Slice slice) {
             mUpdatePending.set(true);
+            mVersion++;
             super.setValue(slice);
         }
 
-        private final Runnable mUpdateSlice = new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    Slice s = mUri != null ? mSliceViewManager.bindSlice(mUri)
-                            : mSliceViewManager.bindSlice(mIntent);
-                    if (mUri == null && s != null) {
-                        mUri = s.getUri();
-                        mSliceViewManager.registerSliceCallback(mUri, mSliceCallback);
-                    }
-                    postValue(s);
-                } catch (Exception e) {
-                    Log.e(TAG, "Error binding slice", e);
-                    postValue(null);
+        /**
+         * Estimated memory held by the current slice. The slice is only walked the first time this
+         * is asked after it changed, not on every update.
+         */
+        @MainThread
+        long getWeightBytes() {
+            if (mWeighedVersion != mVersion) {
+                mWeightBytes = SliceLiveDataRegistry.estimateWeightBytes(getValue());
+                mWeighedVersion = mVersion;
+            }
+            return mWeightBytes;
+        }
+
+        /** Sets a callback run on the main thread once the last active observer is gone. */
+        void setOnInactiveListener(Runnable listener) {
+            mOnInactiveListener = listener;
+        }
+
+        private void bindSlice(int generation) {
+            if (mBindGeneration.get() != generation) {
+                return;
+            }
+            Slice s;
+            try {
+                s = mUri != null ? mSliceViewManager.bindSlice(mUri)
+                        : mSliceViewManager.bindSlice(mIntent);
+                if (mUri == null && s != null) {
+                    mUri = s.getUri();
+                    mSliceViewManager.registerSliceCallback(mUri, mSliceCallback);
                 }
+            } catch (Exception e) {
+                Log.e(TAG, "Error binding slice", e);
+                s = null;
+            }
+            if (mBindGeneration.get() == generation) {
+                // Goes through the coalescer too, so an update the provider sends while the
+                // bind is delivered collapses into the same frame.
+                mCoalescer.submit(s);
             }
-        };
+        }
 
         final SliceViewManager.SliceCallback mSliceCallback =
                 new SliceViewManager.SliceCallback() {
                     @Override
                     public void onSliceUpdated(@NonNull Slice s) {
-                        postValue(s);
+                        mCoalescer.submit(s);
                     }
                 };
     }
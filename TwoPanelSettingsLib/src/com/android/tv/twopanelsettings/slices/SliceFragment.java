@@ -30,7 +30,6 @@ import android.app.Activity;
 import android.app.PendingIntent;
 import android.app.PendingIntent.CanceledException;
 import android.app.tvsettings.TvSettingsEnums;
-import android.content.ContentProviderClient;
 import android.content.Intent;
 import android.content.IntentSender;
 import android.database.ContentObserver;
@@ -57,22 +56,22 @@ import androidx.activity.result.IntentSenderRequest;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.Keep;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.Observer;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceScreen;
 import androidx.preference.TwoStatePreference;
 import androidx.slice.Slice;
-import androidx.slice.SliceItem;
-import androidx.slice.widget.ListContent;
-import androidx.slice.widget.SliceContent;
 
 import com.android.tv.twopanelsettings.R;
 import com.android.tv.twopanelsettings.TwoPanelSettingsFragment;
 import com.android.tv.twopanelsettings.TwoPanelSettingsFragment.SliceFragmentCallback;
 import com.android.tv.twopanelsettings.slices.PreferenceSliceLiveData.SliceLiveDataImpl;
-import com.android.tv.twopanelsettings.slices.SlicePreferencesUtil.Data;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -83,6 +82,7 @@ public class SliceFragment extends SettingsPreferenceFragment implements Observe
         SliceFragmentCallback {
     private static final int SLICE_REQUEST_CODE = 10000;
     private static final String TAG = "SliceFragment";
+    private static final boolean DEBUG = false;
     private static final String KEY_PREFERENCE_FOLLOWUP_INTENT = "key_preference_followup_intent";
     private static final String KEY_PREFERENCE_FOLLOWUP_RESULT_CODE =
             "key_preference_followup_result_code";
@@ -91,7 +91,6 @@ public class SliceFragment extends SettingsPreferenceFragment implements Observe
     private static final String KEY_SCREEN_ICON = "key_screen_icon";
     private static final String KEY_LAST_PREFERENCE = "key_last_preference";
     private static final String KEY_URI_STRING = "key_uri_string";
-    private ListContent mListContent;
     private Slice mSlice;
     private ContextThemeWrapper mContextThemeWrapper;
     private String mUriString = null;
@@ -104,9 +103,11 @@ public class SliceFragment extends SettingsPreferenceFragment implements Observe
     private Intent mFollowupPendingIntentExtras;
     private Intent mFollowupPendingIntentExtrasCopy;
     private String mLastFocusedPreferenceKey;
-    private boolean mIsMainPanelReady = true;
+    private boolean mHasLiveContent;
+    private boolean mShowingSnapshot;
 
     private final Handler mHandler = new Handler();
+    private final SliceModelLoader mModelLoader = new SliceModelLoader(this::applyModel);
     private final ActivityResultLauncher<IntentSenderRequest> mActivityResultLauncher =
             registerForActivityResult(new ActivityResultContracts.StartIntentSenderForResult(),
                     new ActivityResultCallback<ActivityResult>() {
@@ -145,8 +146,13 @@ public class SliceFragment extends SettingsPreferenceFragment implements Observe
         this.setSubtitle(mScreenSubtitle);
         this.setIcon(mScreenIcon);
         this.getPreferenceScreen().removeAll();
+        mHasLiveContent = false;
+        mShowingSnapshot = false;
 
         showProgressBar();
+        final String uriString = mUriString;
+        SliceSnapshotCache.getInstance(getContext()).load(
+                uriString, snapshot -> showSnapshot(uriString, snapshot));
         getSliceLiveData().observeForever(this);
         if (TextUtils.isEmpty(mScreenTitle)) {
             mScreenTitle = getArguments().getCharSequence(SlicesConstants.TAG_SCREEN_TITLE, "");
@@ -200,6 +206,8 @@ public class SliceFragment extends SettingsPreferenceFragment implements Observe
     public void onPause() {
         super.onPause();
         hideProgressBar();
+        mModelLoader.cancel();
+        saveSnapshot();
         getContext().getContentResolver().unregisterContentObserver(mContentObserver);
         getSliceLiveData().removeObserver(this);
     }
@@ -216,59 +224,77 @@ public class SliceFragment extends SettingsPreferenceFragment implements Observe
 
     }
 
-    private boolean isUriValid(String uri) {
-        if (uri == null) {
-            return false;
+    /** Paints the last rendered rows of the slice until the provider answers. */
+    private void showSnapshot(String uriString, SliceSnapshot snapshot) {
+        PreferenceScreen preferenceScreen = getPreferenceManager().getPreferenceScreen();
+        if (!isResumed() || mHasLiveContent || preferenceScreen == null
+                || !TextUtils.equals(uriString, mUriString)) {
+            return;
         }
-        ContentProviderClient client =
-                getContext().getContentResolver().acquireContentProviderClient(Uri.parse(uri));
-        if (client != null) {
-            client.close();
-            return true;
-        } else {
-            return false;
+        if (!TextUtils.isEmpty(snapshot.mTitle)) {
+            setTitle(snapshot.mTitle);
+        }
+        setSubtitle(snapshot.mSubtitle);
+        for (Preference preference : snapshot.createPreferences(mContextThemeWrapper)) {
+            preferenceScreen.addPreference(preference);
+        }
+        mShowingSnapshot = true;
+    }
+
+    private void saveSnapshot() {
+        PreferenceScreen preferenceScreen = getPreferenceManager().getPreferenceScreen();
+        if (!mHasLiveContent || mShowingSnapshot || preferenceScreen == null || mSlice == null
+                || mSlice.getHints().contains(HINT_PARTIAL)) {
+            return;
+        }
+        List<Preference> preferences = new ArrayList<>(preferenceScreen.getPreferenceCount());
+        for (int i = 0; i < preferenceScreen.getPreferenceCount(); i++) {
+            preferences.add(preferenceScreen.getPreference(i));
         }
+        preferences.sort(Comparator.comparingInt(Preference::getOrder));
+        SliceSnapshotCache.getInstance(getContext()).save(SliceSnapshot.capture(mUriString,
+                System.currentTimeMillis(), mScreenTitle, mScreenSubtitle, preferences));
     }
 
     private void update() {
-        mListContent = new ListContent(mSlice);
         PreferenceScreen preferenceScreen =
                 getPreferenceManager().getPreferenceScreen();
 
-        if (preferenceScreen == null) {
+        if (preferenceScreen == null || mSlice == null) {
             return;
         }
+        mModelLoader.load(mSlice, getContext(), mContextThemeWrapper,
+                getClass().getCanonicalName(),
+                getParentFragment() instanceof TwoPanelSettingsFragment);
+    }
+
+    private void applyModel(SliceScreenModel model) {
+        PreferenceScreen preferenceScreen =
+                getPreferenceManager().getPreferenceScreen();
 
-        List<SliceContent> items = mListContent.getRowItems();
-        if (items == null || items.size() == 0) {
+        if (preferenceScreen == null || !model.mHasRows) {
             return;
         }
 
-        SliceItem redirectSliceItem = SlicePreferencesUtil.getRedirectSlice(items);
-        String redirectSlice = null;
-        if (redirectSliceItem != null) {
-            Data data = SlicePreferencesUtil.extract(redirectSliceItem);
-            CharSequence title = SlicePreferencesUtil.getText(data.mTitleItem);
-            if (!TextUtils.isEmpty(title)) {
-                redirectSlice = title.toString();
-            }
-        }
-        if (isUriValid(redirectSlice)) {
+        // Placeholder rows go through the differ like any other rows: those the live slice
+        // shows as the same kind of row keep their place and focus and get its actions.
+        mShowingSnapshot = false;
+        mHasLiveContent = true;
+
+        if (model.mRedirectUri != null) {
             getSliceLiveData().removeObserver(this);
             getContext().getContentResolver().unregisterContentObserver(mContentObserver);
-            mUriString = redirectSlice;
+            mUriString = model.mRedirectUri;
             getSliceLiveData().observeForever(this);
             getContext().getContentResolver().registerContentObserver(
                     SlicePreferencesUtil.getStatusPath(mUriString), false, mContentObserver);
         }
 
-        SliceItem screenTitleItem = SlicePreferencesUtil.getScreenTitleItem(items);
-        if (screenTitleItem == null) {
+        if (!model.mHasScreenTitle) {
             setTitle(mScreenTitle);
         } else {
-            Data data = SlicePreferencesUtil.extract(screenTitleItem);
-            mCurrentPageId = SlicePreferencesUtil.getPageId(screenTitleItem);
-            CharSequence title = SlicePreferencesUtil.getText(data.mTitleItem);
+            mCurrentPageId = model.mPageId;
+            CharSequence title = model.mTitle;
             if (!TextUtils.isEmpty(title)) {
                 setTitle(title);
                 mScreenTitle = title;
@@ -276,40 +302,13 @@ public class SliceFragment extends SettingsPreferenceFragment implements Observe
                 setTitle(mScreenTitle);
             }
 
-            CharSequence subtitle = SlicePreferencesUtil.getText(data.mSubtitleItem);
-            setSubtitle(subtitle);
-
-            Icon icon = SlicePreferencesUtil.getIcon(data.mStartItem);
-            setIcon(icon);
-        }
-
-        SliceItem focusedPrefItem = SlicePreferencesUtil.getFocusedPreferenceItem(items);
-        CharSequence defaultFocusedKey = null;
-        if (focusedPrefItem != null) {
-            Data data = SlicePreferencesUtil.extract(focusedPrefItem);
-            CharSequence title = SlicePreferencesUtil.getText(data.mTitleItem);
-            if (!TextUtils.isEmpty(title)) {
-                defaultFocusedKey = title;
-            }
+            setSubtitle(model.mSubtitle);
+            setIcon(model.mIcon);
         }
 
-        List<Preference> newPrefs = new ArrayList<>();
-        for (SliceContent contentItem : items) {
-            SliceItem item = contentItem.getSliceItem();
-            if (SlicesConstants.TYPE_PREFERENCE.equals(item.getSubType())
-                    || SlicesConstants.TYPE_PREFERENCE_CATEGORY.equals(item.getSubType())) {
-                Preference preference =
-                        SlicePreferencesUtil.getPreference(
-                                item, mContextThemeWrapper, getClass().getCanonicalName(),
-                                getParentFragment() instanceof TwoPanelSettingsFragment);
-                if (preference != null) {
-                    newPrefs.add(preference);
-                }
-            }
-        }
-        updatePreferenceScreen(preferenceScreen, newPrefs);
-        if (defaultFocusedKey != null) {
-            scrollToPreference(defaultFocusedKey.toString());
+        updatePreferenceScreen(preferenceScreen, model.mPreferences);
+        if (model.mDefaultFocusedKey != null) {
+            scrollToPreference(model.mDefaultFocusedKey.toString());
         } else if (mLastFocusedPreferenceKey != null) {
             scrollToPreference(mLastFocusedPreferenceKey);
         }
@@ -317,7 +316,6 @@ public class SliceFragment extends SettingsPreferenceFragment implements Observe
         if (getParentFragment() instanceof TwoPanelSettingsFragment) {
             ((TwoPanelSettingsFragment) getParentFragment()).refocusPreference(this);
         }
-        mIsMainPanelReady = true;
     }
 
 
@@ -334,7 +332,8 @@ public class SliceFragment extends SettingsPreferenceFragment implements Observe
     }
 
     private void forward() {
-        if (mIsMainPanelReady) {
+        // Wait until the rows of the newest slice are on screen.
+        if (!mModelLoader.isLoading()) {
             if (getCallbackFragment() instanceof TwoPanelSettingsFragment) {
                 TwoPanelSettingsFragment parentFragment =
                         (TwoPanelSettingsFragment) getCallbackFragment();
@@ -357,72 +356,9 @@ public class SliceFragment extends SettingsPreferenceFragment implements Observe
     }
 
     private void updatePreferenceScreen(PreferenceScreen screen, List<Preference> newPrefs) {
-        // Remove all the preferences in the screen that satisfy such two cases:
-        // (a) Preference without key
-        // (b) Preference with key which does not appear in the new list.
-        int index = 0;
-        while (index < screen.getPreferenceCount()) {
-            boolean needToRemoveCurrentPref = true;
-            Preference oldPref = screen.getPreference(index);
-            if (oldPref != null && oldPref.getKey() != null) {
-                for (Preference newPref : newPrefs) {
-                    if (newPref.getKey() != null && newPref.getKey().equals(oldPref.getKey())) {
-                        needToRemoveCurrentPref = false;
-                        break;
-                    }
-                }
-            }
-            if (needToRemoveCurrentPref) {
-                screen.removePreference(oldPref);
-            } else {
-                index++;
-            }
-        }
-
-        //Iterate the new preferences list and give each preference a correct order
-        for (int i = 0; i < newPrefs.size(); i++) {
-            Preference newPref = newPrefs.get(i);
-            boolean neededToAddNewPref = true;
-            // If the newPref has a key and has a corresponding old preference, update the old
-            // preference and give it a new order.
-            if (newPref.getKey() != null) {
-                for (int j = 0; j < screen.getPreferenceCount(); j++) {
-                    Preference oldPref = screen.getPreference(j);
-                    if (oldPref.getKey() != null && oldPref.getKey().equals(newPref.getKey())) {
-                        oldPref.setIcon(newPref.getIcon());
-                        oldPref.setTitle(newPref.getTitle());
-                        oldPref.setSummary(newPref.getSummary());
-                        oldPref.setEnabled(newPref.isEnabled());
-                        oldPref.setSelectable(newPref.isSelectable());
-                        oldPref.setFragment(newPref.getFragment());
-                        oldPref.getExtras().putAll(newPref.getExtras());
-                        if ((oldPref instanceof TwoStatePreference)
-                                && (newPref instanceof TwoStatePreference)) {
-                            ((TwoStatePreference) oldPref)
-                                    .setChecked(((TwoStatePreference) newPref).isChecked());
-                        }
-                        if ((oldPref instanceof HasSliceAction)
-                                && (newPref instanceof HasSliceAction)) {
-                            ((HasSliceAction) oldPref)
-                                    .setSliceAction(((HasSliceAction) newPref).getSliceAction());
-                        }
-                        if ((oldPref instanceof HasSliceUri)
-                                && (newPref instanceof HasSliceUri)) {
-                            ((HasSliceUri) oldPref)
-                                    .setUri(((HasSliceUri) newPref).getUri());
-                        }
-                        oldPref.setOrder(i);
-                        neededToAddNewPref = false;
-                        break;
-                    }
-                }
-            }
-            // If the newPref cannot find a corresponding old preference, or it does not have a key,
-            // add it to the screen with the correct order.
-            if (neededToAddNewPref) {
-                newPref.setOrder(i);
-                screen.addPreference(newPref);
-            }
+        PreferenceScreenDiffer.Result result = PreferenceScreenDiffer.apply(screen, newPrefs);
+        if (DEBUG) {
+            Log.d(TAG, "updatePreferenceScreen " + mUriString + " " + result);
         }
         removeAnimationClipping(getView());
     }
@@ -464,6 +400,10 @@ public class SliceFragment extends SettingsPreferenceFragment implements Observe
 
     @Override
     public boolean onPreferenceTreeClick(Preference preference) {
+        if (mShowingSnapshot) {
+            // Snapshot rows are not actionable until the live slice replaces them.
+            return true;
+        }
         if (preference instanceof SliceRadioPreference) {
             SliceRadioPreference radioPref = (SliceRadioPreference) preference;
             if (!radioPref.isChecked()) {
@@ -569,7 +509,6 @@ public class SliceFragment extends SettingsPreferenceFragment implements Observe
         } else {
             hideProgressBar();
         }
-        mIsMainPanelReady = false;
         update();
     }
 
@@ -705,6 +644,14 @@ public class SliceFragment extends SettingsPreferenceFragment implements Observe
         return mScreenTitle;
     }
 
+    @Override
+    public void dump(@NonNull String prefix, @Nullable FileDescriptor fd,
+            @NonNull PrintWriter writer, @Nullable String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.println(prefix + "SliceFragment uri=" + mUriString);
+        ContextSingleton.getInstance().dump(prefix + "  ", writer);
+    }
+
     @Override
     protected int getPageId() {
         return mCurrentPageId != 0 ? mCurrentPageId : TvSettingsEnums.PAGE_SLICE_DEFAULT;
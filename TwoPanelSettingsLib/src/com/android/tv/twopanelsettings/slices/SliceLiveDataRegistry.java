@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.twopanelsettings.slices;
+
+import static android.app.slice.SliceItem.FORMAT_IMAGE;
+import static android.app.slice.SliceItem.FORMAT_SLICE;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.graphics.drawable.IconCompat;
+import androidx.slice.Slice;
+import androidx.slice.SliceItem;
+
+import com.android.tv.twopanelsettings.slices.PreferenceSliceLiveData.SliceLiveDataImpl;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps one {@link SliceLiveDataImpl} per slice uri, bounded by entry count and by an estimate of
+ * the memory held by the last slice of each entry.
+ *
+ * <p>Entries that still have observers are never evicted. Entries without observers are dropped in
+ * least recently used order when an entry is added or loses its last observer, so the slices (and
+ * their bitmaps) of screens and embedded preferences that are gone no longer stay resident.
+ */
+final class SliceLiveDataRegistry {
+    static final int DEFAULT_MAX_ENTRIES = 24;
+    static final long DEFAULT_MAX_WEIGHT_BYTES = 4 * 1024 * 1024;
+
+    /** Rough cost of a slice item, used when estimating the weight of a slice. */
+    private static final int ITEM_WEIGHT_BYTES = 256;
+    /** Rough cost of a bitmap icon; slice icons are launcher-sized at most. */
+    private static final int BITMAP_WEIGHT_BYTES = 128 * 128 * 4;
+
+    @VisibleForTesting
+    interface Factory {
+        SliceLiveDataImpl create(Context context, Uri uri);
+    }
+
+    private final LinkedHashMap<Uri, SliceLiveDataImpl> mEntries =
+            new LinkedHashMap<>(16, 0.75f, true /* accessOrder */);
+    private final int mMaxEntries;
+    private final long mMaxWeightBytes;
+    private final Factory mFactory;
+
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    SliceLiveDataRegistry(int maxEntries, long maxWeightBytes) {
+        this(maxEntries, maxWeightBytes, PreferenceSliceLiveData::fromUri);
+    }
+
+    @VisibleForTesting
+    SliceLiveDataRegistry(int maxEntries, long maxWeightBytes, Factory factory) {
+        mMaxEntries = maxEntries;
+        mMaxWeightBytes = maxWeightBytes;
+        mFactory = factory;
+    }
+
+    /** Returns the live data for {@code uri}, creating it if needed. */
+    @MainThread
+    SliceLiveDataImpl get(Context context, Uri uri) {
+        SliceLiveDataImpl liveData = mEntries.get(uri);
+        if (liveData != null) {
+            mHits++;
+            return liveData;
+        }
+        mMisses++;
+        liveData = mFactory.create(context, uri);
+        liveData.setOnInactiveListener(this::trim);
+        mEntries.put(uri, liveData);
+        // The caller has not observed the new entry yet, so it must not count as unobserved.
+        trim(liveData);
+        return liveData;
+    }
+
+    /** Evicts unobserved entries, least recently used first, until both limits are met. */
+    @MainThread
+    void trim() {
+        trim(null);
+    }
+
+    private void trim(SliceLiveDataImpl keep) {
+        long weight = getWeightBytes();
+        Iterator<Map.Entry<Uri, SliceLiveDataImpl>> it = mEntries.entrySet().iterator();
+        while ((mEntries.size() > mMaxEntries || weight > mMaxWeightBytes) && it.hasNext()) {
+            SliceLiveDataImpl liveData = it.next().getValue();
+            if (liveData == keep || liveData.hasObservers()) {
+                continue;
+            }
+            weight -= liveData.getWeightBytes();
+            liveData.setOnInactiveListener(null);
+            it.remove();
+            mEvictions++;
+        }
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    long getWeightBytes() {
+        long weight = 0;
+        for (SliceLiveDataImpl liveData : mEntries.values()) {
+            weight += liveData.getWeightBytes();
+        }
+        return weight;
+    }
+
+    void dump(String prefix, PrintWriter pw) {
+        int observed = 0;
+        for (SliceLiveDataImpl liveData : mEntries.values()) {
+            if (liveData.hasObservers()) {
+                observed++;
+            }
+        }
+        pw.println(prefix + "SliceLiveDataRegistry: entries=" + mEntries.size() + "/" + mMaxEntries
+                + " observed=" + observed
+                + " weight=" + getWeightBytes() + "/" + mMaxWeightBytes + "B"
+                + " hits=" + mHits + " misses=" + mMisses + " evictions=" + mEvictions);
+        for (Map.Entry<Uri, SliceLiveDataImpl> entry : mEntries.entrySet()) {
+            pw.println(prefix + "  " + entry.getKey()
+                    + " observers=" + entry.getValue().hasObservers()
+                    + " weight=" + entry.getValue().getWeightBytes() + "B");
+        }
+    }
+
+    /** Estimates how much memory {@code slice} keeps alive, bitmaps included. */
+    static long estimateWeightBytes(Slice slice) {
+        if (slice == null) {
+            return 0;
+        }
+        long weight = 0;
+        for (SliceItem item : slice.getItems()) {
+            weight += ITEM_WEIGHT_BYTES;
+            if (FORMAT_SLICE.equals(item.getFormat())) {
+                weight += estimateWeightBytes(item.getSlice());
+            } else if (FORMAT_IMAGE.equals(item.getFormat()) && item.getIcon() != null) {
+                int type = item.getIcon().getType();
+                if (type == IconCompat.TYPE_BITMAP || type == IconCompat.TYPE_ADAPTIVE_BITMAP) {
+                    weight += BITMAP_WEIGHT_BYTES;
+                }
+            }
+        }
+        return weight;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.twopanelsettings.slices;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.slice.Slice;
+
+/**
+ * Builds {@link SliceScreenModel}s on a shared background thread and posts them back to the main
+ * thread. Only the result of the most recent {@link #load} is delivered; older ones still in
+ * flight are dropped. {@link #isLoading} stays true until that load is delivered, fails or is
+ * cancelled.
+ */
+final class SliceModelLoader {
+    private static final String TAG = "SliceModelLoader";
+
+    private static HandlerThread sThread;
+    private static Handler sHandler;
+
+    /** Receives parsed models on the main thread. */
+    interface Callback {
+        @MainThread
+        void onModelLoaded(@NonNull SliceScreenModel model);
+    }
+
+    /** Builds the model of a slice; {@link SliceScreenModel#build} outside of tests. */
+    @VisibleForTesting
+    interface ModelFactory {
+        SliceScreenModel build(Slice slice, Context context,
+                ContextThemeWrapper contextThemeWrapper, String className, boolean isTwoPanel);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Callback mCallback;
+    private final ModelFactory mModelFactory;
+    private final Handler mBackgroundHandler;
+    private volatile int mGeneration;
+    // Main thread only.
+    private boolean mLoading;
+
+    SliceModelLoader(@NonNull Callback callback) {
+        this(callback, SliceScreenModel::build, getBackgroundHandler());
+    }
+
+    @VisibleForTesting
+    SliceModelLoader(@NonNull Callback callback, @NonNull ModelFactory modelFactory,
+            @NonNull Handler backgroundHandler) {
+        mCallback = callback;
+        mModelFactory = modelFactory;
+        mBackgroundHandler = backgroundHandler;
+    }
+
+    /** Returns the handler of the shared slice parsing thread. */
+    @MainThread
+    static Handler getBackgroundHandler() {
+        if (sHandler == null) {
+            // Slice parsing feeds what is on screen, keep it ahead of ordinary background work.
+            sThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DISPLAY);
+            sThread.start();
+            sHandler = new Handler(sThread.getLooper());
+        }
+        return sHandler;
+    }
+
+    /** Parses {@code slice} off the main thread, superseding any load still pending. */
+    @MainThread
+    void load(@NonNull Slice slice, Context context, ContextThemeWrapper contextThemeWrapper,
+            String className, boolean isTwoPanel) {
+        final int generation = ++mGeneration;
+        final Context appContext = context.getApplicationContext();
+        mLoading = true;
+        mBackgroundHandler.post(() -> {
+            // A newer load, or the cancel that superseded this one, owns mLoading.
+            if (generation != mGeneration) {
+                return;
+            }
+            SliceScreenModel model;
+            try {
+                model = mModelFactory.build(
+                        slice, appContext, contextThemeWrapper, className, isTwoPanel);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error parsing slice " + slice.getUri(), e);
+                model = null;
+            }
+            final SliceScreenModel result = model;
+            mMainHandler.post(() -> {
+                if (generation != mGeneration) {
+                    return;
+                }
+                mLoading = false;
+                if (result != null) {
+                    mCallback.onModelLoaded(result);
+                }
+            });
+        });
+    }
+
+    /** Whether the result of the last {@link #load} is still to come. */
+    @MainThread
+    boolean isLoading() {
+        return mLoading;
+    }
+
+    /** Drops any pending result. */
+    @MainThread
+    void cancel() {
+        mGeneration++;
+        mLoading = false;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.twopanelsettings.slices;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.lifecycle.Observer;
+import androidx.slice.Slice;
+
+import com.android.tv.twopanelsettings.slices.PreferenceSliceLiveData.SliceLiveDataImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Starts binding the slices behind focused preferences before their preview panel is created.
+ *
+ * <p>Prefetching a uri observes its shared {@link SliceLiveDataImpl}, which binds the slice and
+ * subscribes to its updates. When the preview {@link SliceFragment} later observes the same live
+ * data, the slice is already there. At most a fixed number of uris are kept warm; uris that are no
+ * longer requested are released as soon as focus moves, which also drops their binds that are
+ * still queued.
+ *
+ * <p>New uris are only bound once focus has rested for a short delay, so scrolling through a list
+ * does not queue binds for every row passed on the way.
+ */
+public final class SlicePrefetcher {
+    private static final String TAG = "SlicePrefetcher";
+    private static final boolean DEBUG = false;
+
+    private final Context mContext;
+    private final int mMaxConcurrent;
+    private final long mDelayMillis;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayMap<String, SliceLiveDataImpl> mActive = new ArrayMap<>();
+    private final List<String> mPending = new ArrayList<>();
+    private final Observer<Slice> mObserver = slice -> { };
+    private final Runnable mStartPendingRunnable = this::startPending;
+
+    /**
+     * @param maxConcurrent the maximum number of slices kept warm at once, 0 disables prefetching
+     * @param delayMillis how long focus has to rest before new uris are bound
+     */
+    public SlicePrefetcher(Context context, int maxConcurrent, long delayMillis) {
+        mContext = context.getApplicationContext();
+        mMaxConcurrent = maxConcurrent;
+        mDelayMillis = delayMillis;
+    }
+
+    /**
+     * Warms the given slice uris, most important first, and releases every other uri this
+     * prefetcher was holding. Uris beyond the concurrency cap are ignored.
+     */
+    @MainThread
+    public void prefetch(List<String> uris) {
+        mHandler.removeCallbacks(mStartPendingRunnable);
+        mPending.clear();
+        for (String uri : uris) {
+            if (mPending.size() >= mMaxConcurrent) {
+                break;
+            }
+            if (uri != null && !mPending.contains(uri)) {
+                mPending.add(uri);
+            }
+        }
+        ArrayMap<String, SliceLiveDataImpl> stale = new ArrayMap<>();
+        for (int i = mActive.size() - 1; i >= 0; i--) {
+            if (!mPending.contains(mActive.keyAt(i))) {
+                stale.put(mActive.keyAt(i), mActive.removeAt(i));
+            }
+        }
+        release(stale);
+        if (mPending.size() > mActive.size()) {
+            mHandler.postDelayed(mStartPendingRunnable, mDelayMillis);
+        }
+    }
+
+    /** Releases every prefetched uri, and forgets the uris waiting for focus to rest. */
+    @MainThread
+    public void cancelAll() {
+        mHandler.removeCallbacks(mStartPendingRunnable);
+        mPending.clear();
+        release(mActive);
+        mActive.clear();
+    }
+
+    private void startPending() {
+        for (String uri : mPending) {
+            if (mActive.containsKey(uri)) {
+                continue;
+            }
+            if (DEBUG) {
+                Log.d(TAG, "prefetch " + uri);
+            }
+            Uri sliceUri = Uri.parse(uri);
+            ContextSingleton.getInstance().grantFullAccess(mContext, sliceUri);
+            SliceLiveDataImpl liveData =
+                    ContextSingleton.getInstance().getSliceLiveData(mContext, sliceUri);
+            liveData.observeForever(mObserver);
+            mActive.put(uri, liveData);
+        }
+    }
+
+    private void release(ArrayMap<String, SliceLiveDataImpl> entries) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (DEBUG) {
+                Log.d(TAG, "cancel " + entries.keyAt(i));
+            }
+            entries.valueAt(i).removeObserver(mObserver);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.twopanelsettings.slices;
+
+import android.content.ContentProviderClient;
+import android.content.Context;
+import android.graphics.drawable.Icon;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.view.ContextThemeWrapper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.preference.Preference;
+import androidx.slice.Slice;
+import androidx.slice.SliceItem;
+import androidx.slice.widget.ListContent;
+import androidx.slice.widget.SliceContent;
+
+import com.android.tv.twopanelsettings.slices.SlicePreferencesUtil.Data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything {@link SliceFragment} needs from a slice, resolved ahead of time.
+ *
+ * <p>Building the model walks the slice with {@link androidx.slice.core.SliceQuery}, loads and
+ * composes the icons, creates the slice actions and the detached preferences, and checks the
+ * redirect uri against its provider. All of that is safe to run on a background thread, which
+ * leaves only the diff against the current screen for the UI thread. The preferences in a model
+ * are not attached to any hierarchy and must only be touched by the UI thread once the model has
+ * been handed over.
+ */
+final class SliceScreenModel {
+    final Slice mSlice;
+    /** Whether the slice had any row; an empty model leaves the screen untouched. */
+    final boolean mHasRows;
+    /** Uri the screen should switch to, already verified to resolve to a provider. */
+    @Nullable final String mRedirectUri;
+    /** Whether the slice carried its own screen title row. */
+    final boolean mHasScreenTitle;
+    @Nullable final CharSequence mTitle;
+    @Nullable final CharSequence mSubtitle;
+    @Nullable final Icon mIcon;
+    final int mPageId;
+    @Nullable final CharSequence mDefaultFocusedKey;
+    @NonNull final List<Preference> mPreferences;
+
+    private SliceScreenModel(Builder builder) {
+        mSlice = builder.mSlice;
+        mHasRows = builder.mHasRows;
+        mRedirectUri = builder.mRedirectUri;
+        mHasScreenTitle = builder.mHasScreenTitle;
+        mTitle = builder.mTitle;
+        mSubtitle = builder.mSubtitle;
+        mIcon = builder.mIcon;
+        mPageId = builder.mPageId;
+        mDefaultFocusedKey = builder.mDefaultFocusedKey;
+        mPreferences = Collections.unmodifiableList(builder.mPreferences);
+    }
+
+    /**
+     * Parses {@code slice} into a model.
+     *
+     * @param context used to check whether the redirect uri resolves
+     * @param contextThemeWrapper themed context the preferences are created with
+     * @param className fragment class set on preferences that open another slice
+     * @param isTwoPanel whether icons should be composed for the two panel layout
+     */
+    @WorkerThread
+    static SliceScreenModel build(@NonNull Slice slice, Context context,
+            ContextThemeWrapper contextThemeWrapper, String className, boolean isTwoPanel) {
+        Builder builder = new Builder(slice);
+        List<SliceContent> items = new ListContent(slice).getRowItems();
+        if (items == null || items.size() == 0) {
+            return builder.build();
+        }
+        builder.mHasRows = true;
+
+        SliceItem redirectSliceItem = SlicePreferencesUtil.getRedirectSlice(items);
+        if (redirectSliceItem != null) {
+            Data data = SlicePreferencesUtil.extract(redirectSliceItem);
+            CharSequence title = SlicePreferencesUtil.getText(data.mTitleItem);
+            if (!TextUtils.isEmpty(title) && isUriValid(context, title.toString())) {
+                builder.mRedirectUri = title.toString();
+            }
+        }
+
+        SliceItem screenTitleItem = SlicePreferencesUtil.getScreenTitleItem(items);
+        if (screenTitleItem != null) {
+            Data data = SlicePreferencesUtil.extract(screenTitleItem);
+            builder.mHasScreenTitle = true;
+            builder.mPageId = SlicePreferencesUtil.getPageId(screenTitleItem);
+            builder.mTitle = SlicePreferencesUtil.getText(data.mTitleItem);
+            builder.mSubtitle = SlicePreferencesUtil.getText(data.mSubtitleItem);
+            builder.mIcon = SlicePreferencesUtil.getIcon(data.mStartItem);
+        }
+
+        SliceItem focusedPrefItem = SlicePreferencesUtil.getFocusedPreferenceItem(items);
+        if (focusedPrefItem != null) {
+            Data data = SlicePreferencesUtil.extract(focusedPrefItem);
+            CharSequence title = SlicePreferencesUtil.getText(data.mTitleItem);
+            if (!TextUtils.isEmpty(title)) {
+                builder.mDefaultFocusedKey = title;
+            }
+        }
+
+        for (SliceContent contentItem : items) {
+            SliceItem item = contentItem.getSliceItem();
+            if (SlicesConstants.TYPE_PREFERENCE.equals(item.getSubType())
+                    || SlicesConstants.TYPE_PREFERENCE_CATEGORY.equals(item.getSubType())) {
+                Preference preference = SlicePreferencesUtil.getPreference(
+                        item, contextThemeWrapper, className, isTwoPanel);
+                if (preference != null) {
+                    builder.mPreferences.add(preference);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private static boolean isUriValid(Context context, String uri) {
+        ContentProviderClient client =
+                context.getContentResolver().acquireContentProviderClient(Uri.parse(uri));
+        if (client != null) {
+            client.close();
+            return true;
+        }
+        return false;
+    }
+
+    private static final class Builder {
+        final Slice mSlice;
+        boolean mHasRows;
+        String mRedirectUri;
+        boolean mHasScreenTitle;
+        CharSequence mTitle;
+        CharSequence mSubtitle;
+        Icon mIcon;
+        int mPageId;
+        CharSequence mDefaultFocusedKey;
+        final List<Preference> mPreferences = new ArrayList<>();
+
+        Builder(Slice slice) {
+            mSlice = slice;
+        }
+
+        SliceScreenModel build() {
+            return new SliceScreenModel(this);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.twopanelsettings.slices;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.preference.Preference;
+import androidx.preference.PreferenceCategory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a {@link SliceFragment} last rendered for a uri, reduced to the titles and state of its
+ * rows.
+ *
+ * <p>A snapshot carries no slice actions, icons or summaries; summaries often hold the most
+ * personal text of a screen, such as network or account names, and change the most. It is only
+ * used to paint placeholder rows while the provider binds. Rows that the live slice shows the
+ * same way are then updated in place, the others are replaced.
+ */
+final class SliceSnapshot {
+    /** Bump whenever the serialized layout changes; older files are discarded. */
+    static final int VERSION = 2;
+    private static final int MAGIC = 0x534c4353; // "SLCS"
+    private static final int MAX_ROWS = 256;
+
+    /** A plain {@link Preference}. */
+    static final int TYPE_PREFERENCE = 0;
+    static final int TYPE_CATEGORY = 1;
+    /** A {@link SlicePreference}; the placeholder is one too, so the live row can reuse it. */
+    static final int TYPE_SLICE = 2;
+    /** Any other row, e.g. a toggle; painted as a plain row and replaced by the live one. */
+    static final int TYPE_OTHER = 3;
+
+    private static final int FLAG_ENABLED = 1;
+    private static final int FLAG_SELECTABLE = 1 << 1;
+
+    final String mUri;
+    final long mTimestampMillis;
+    @Nullable final CharSequence mTitle;
+    @Nullable final CharSequence mSubtitle;
+    @NonNull final List<Row> mRows;
+
+    static final class Row {
+        final int mType;
+        final int mFlags;
+        @Nullable final String mKey;
+        @Nullable final CharSequence mTitle;
+
+        Row(int type, int flags, String key, CharSequence title) {
+            mType = type;
+            mFlags = flags;
+            mKey = key;
+            mTitle = title;
+        }
+    }
+
+    SliceSnapshot(String uri, long timestampMillis, CharSequence title, CharSequence subtitle,
+            List<Row> rows) {
+        mUri = uri;
+        mTimestampMillis = timestampMillis;
+        mTitle = title;
+        mSubtitle = subtitle;
+        mRows = Collections.unmodifiableList(rows);
+    }
+
+    /** Captures the rows currently backing a screen. Must be called on the main thread. */
+    static SliceSnapshot capture(String uri, long timestampMillis, CharSequence title,
+            CharSequence subtitle, List<Preference> preferences) {
+        List<Row> rows = new ArrayList<>(Math.min(preferences.size(), MAX_ROWS));
+        for (Preference preference : preferences) {
+            if (rows.size() == MAX_ROWS) {
+                break;
+            }
+            // Match exact classes, placeholders are only reused by rows of the same class.
+            int type;
+            if (preference.getClass() == PreferenceCategory.class) {
+                type = TYPE_CATEGORY;
+            } else if (preference.getClass() == SlicePreference.class) {
+                type = TYPE_SLICE;
+            } else if (preference.getClass() == Preference.class) {
+                type = TYPE_PREFERENCE;
+            } else {
+                type = TYPE_OTHER;
+            }
+            int flags = 0;
+            if (preference.isEnabled()) {
+                flags |= FLAG_ENABLED;
+            }
+            if (preference.isSelectable()) {
+                flags |= FLAG_SELECTABLE;
+            }
+            rows.add(new Row(type, flags, preference.getKey(), preference.getTitle()));
+        }
+        return new SliceSnapshot(uri, timestampMillis, title, subtitle, rows);
+    }
+
+    /**
+     * Creates placeholder preferences for the rows, ordered as they were captured. Placeholders
+     * have no widget or action, so they can be focused but do nothing when clicked.
+     */
+    List<Preference> createPreferences(Context context) {
+        List<Preference> preferences = new ArrayList<>(mRows.size());
+        for (int i = 0; i < mRows.size(); i++) {
+            Row row = mRows.get(i);
+            Preference preference;
+            switch (row.mType) {
+                case TYPE_CATEGORY:
+                    preference = new PreferenceCategory(context);
+                    break;
+                case TYPE_SLICE:
+                    preference = new SlicePreference(context);
+                    break;
+                default:
+                    preference = new Preference(context);
+                    break;
+            }
+            preference.setEnabled((row.mFlags & FLAG_ENABLED) != 0);
+            preference.setSelectable((row.mFlags & FLAG_SELECTABLE) != 0);
+            preference.setPersistent(false);
+            preference.setKey(row.mKey);
+            preference.setTitle(row.mTitle);
+            preference.setOrder(i);
+            preferences.add(preference);
+        }
+        return preferences;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(mTimestampMillis);
+        out.writeUTF(mUri);
+        writeString(out, mTitle);
+        writeString(out, mSubtitle);
+        out.writeShort(mRows.size());
+        for (Row row : mRows) {
+            out.writeByte(row.mType);
+            out.writeByte(row.mFlags);
+            writeString(out, row.mKey);
+            writeString(out, row.mTitle);
+        }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #writeTo}.
+     *
+     * @return the snapshot, or {@code null} if it was written by another version
+     */
+    @Nullable
+    static SliceSnapshot readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            return null;
+        }
+        long timestamp = in.readLong();
+        String uri = in.readUTF();
+        CharSequence title = readString(in);
+        CharSequence subtitle = readString(in);
+        int count = in.readUnsignedShort();
+        if (count > MAX_ROWS) {
+            return null;
+        }
+        List<Row> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int type = in.readUnsignedByte();
+            int flags = in.readUnsignedByte();
+            String key = readString(in);
+            String rowTitle = readString(in);
+            rows.add(new Row(type, flags, key, rowTitle));
+        }
+        return new SliceSnapshot(uri, timestamp, title, subtitle, rows);
+    }
+
+    private static void writeString(DataOutputStream out, CharSequence value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value.toString());
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
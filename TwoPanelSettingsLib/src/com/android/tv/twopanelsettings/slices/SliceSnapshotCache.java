@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.twopanelsettings.slices;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.tv.twopanelsettings.R;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * On-disk cache of the last {@link SliceSnapshot} rendered for each slice uri.
+ *
+ * <p>Files live in the app cache directory, one per uri, and all disk access happens on the slice
+ * parsing thread. Snapshots from another format version or older than
+ * {@code config_slice_snapshot_max_age_minutes} are deleted instead of returned. Setting
+ * {@code config_slice_snapshot_cache_enabled} to false turns the cache off and clears it.
+ */
+final class SliceSnapshotCache {
+    private static final String TAG = "SliceSnapshotCache";
+    private static final String DIR_NAME = "slice_snapshots";
+    private static final int MAX_FILES = 64;
+
+    private static SliceSnapshotCache sInstance;
+
+    private final File mDir;
+    private final boolean mEnabled;
+    private final long mMaxAgeMillis;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    @MainThread
+    static SliceSnapshotCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SliceSnapshotCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SliceSnapshotCache(Context context) {
+        mDir = new File(context.getCacheDir(), DIR_NAME);
+        mEnabled = context.getResources().getBoolean(R.bool.config_slice_snapshot_cache_enabled);
+        mMaxAgeMillis = TimeUnit.MINUTES.toMillis(
+                context.getResources().getInteger(R.integer.config_slice_snapshot_max_age_minutes));
+        if (!mEnabled) {
+            SliceModelLoader.getBackgroundHandler().post(this::clear);
+        }
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /** Loads the snapshot for {@code uri} and delivers it, or nothing, on the main thread. */
+    @MainThread
+    void load(@NonNull String uri, @NonNull Consumer<SliceSnapshot> callback) {
+        if (!mEnabled) {
+            return;
+        }
+        SliceModelLoader.getBackgroundHandler().post(() -> {
+            SliceSnapshot snapshot = read(uri);
+            if (snapshot != null) {
+                mMainHandler.post(() -> callback.accept(snapshot));
+            }
+        });
+    }
+
+    /** Persists {@code snapshot} in the background, replacing the previous one for its uri. */
+    @MainThread
+    void save(@NonNull SliceSnapshot snapshot) {
+        if (!mEnabled) {
+            return;
+        }
+        SliceModelLoader.getBackgroundHandler().post(() -> write(snapshot));
+    }
+
+    @WorkerThread
+    @Nullable
+    private SliceSnapshot read(String uri) {
+        AtomicFile file = getFile(uri);
+        if (!file.getBaseFile().exists()) {
+            return null;
+        }
+        SliceSnapshot snapshot = null;
+        try (FileInputStream fis = file.openRead();
+             DataInputStream in = new DataInputStream(new BufferedInputStream(fis))) {
+            snapshot = SliceSnapshot.readFrom(in);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read snapshot for " + uri, e);
+        }
+        if (snapshot == null || !uri.equals(snapshot.mUri)
+                || System.currentTimeMillis() - snapshot.mTimestampMillis > mMaxAgeMillis
+                || snapshot.mTimestampMillis > System.currentTimeMillis()) {
+            if (snapshot == null || uri.equals(snapshot.mUri)) {
+                // Stale or unreadable. On a hash collision leave the other uri's snapshot alone.
+                file.delete();
+            }
+            return null;
+        }
+        return snapshot;
+    }
+
+    @WorkerThread
+    private void write(SliceSnapshot snapshot) {
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            Log.w(TAG, "Unable to create " + mDir);
+            return;
+        }
+        AtomicFile file = getFile(snapshot.mUri);
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            snapshot.writeTo(out);
+            out.flush();
+            file.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write snapshot for " + snapshot.mUri, e);
+            file.failWrite(fos);
+        }
+        trim();
+    }
+
+    /** Keeps only the most recently written files. */
+    @WorkerThread
+    private void trim() {
+        File[] files = mDir.listFiles();
+        if (files == null || files.length <= MAX_FILES) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+        for (int i = MAX_FILES; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+
+    @WorkerThread
+    private void clear() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    private AtomicFile getFile(String uri) {
+        return new AtomicFile(new File(mDir, Integer.toHexString(uri.hashCode())));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.twopanelsettings.slices;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.slice.Slice;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Collapses bursts of slice updates for a single uri into one delivery per frame.
+ *
+ * <p>Providers such as the connected devices slice call {@code notifyChange} many times in a row,
+ * and each notification used to re-parse and rebuild the whole screen. Updates submitted here are
+ * held until the next frame after the coalescing window, and only the latest slice is handed to
+ * the sink on the main thread. The window is {@code R.integer.config_slice_update_window}; the
+ * default of zero delivers on the very next frame.
+ */
+final class SliceUpdateCoalescer {
+
+    /** Receives the coalesced slice on the main thread. */
+    interface Sink {
+        @MainThread
+        void deliver(@Nullable Slice slice);
+    }
+
+    // Held in mPending while no update is waiting, since a null slice is a valid update.
+    private static final Object NO_UPDATE = new Object();
+
+    private static final AtomicLong sReceived = new AtomicLong();
+    private static final AtomicLong sCoalesced = new AtomicLong();
+    private static final AtomicLong sDelivered = new AtomicLong();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicReference<Object> mPending = new AtomicReference<>(NO_UPDATE);
+    private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+    private final Sink mSink;
+    private final long mWindowMs;
+
+    SliceUpdateCoalescer(@NonNull Sink sink) {
+        this(sink, 0);
+    }
+
+    /**
+     * @param windowMs how long updates are held before the next frame delivers them; zero
+     *                 delivers on the very next frame.
+     */
+    SliceUpdateCoalescer(@NonNull Sink sink, long windowMs) {
+        mSink = sink;
+        mWindowMs = Math.max(0, windowMs);
+    }
+
+    /** Number of slice updates submitted across all uris. */
+    static long getReceivedCount() {
+        return sReceived.get();
+    }
+
+    /** Number of slice updates dropped because a newer one replaced them within the window. */
+    static long getCoalescedCount() {
+        return sCoalesced.get();
+    }
+
+    /** Number of slice updates handed to their sink. */
+    static long getDeliveredCount() {
+        return sDelivered.get();
+    }
+
+    static void dump(String prefix, PrintWriter pw) {
+        pw.println(prefix + "SliceUpdateCoalescer: received=" + sReceived.get()
+                + " coalesced=" + sCoalesced.get()
+                + " delivered=" + sDelivered.get());
+    }
+
+    /** Queues {@code slice}, replacing any update still waiting for its frame. Any thread. */
+    void submit(@Nullable Slice slice) {
+        sReceived.incrementAndGet();
+        if (mPending.getAndSet(slice) != NO_UPDATE) {
+            sCoalesced.incrementAndGet();
+        }
+        if (mScheduled.compareAndSet(false, true)) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                mScheduleFrame.run();
+            } else {
+                mMainHandler.post(mScheduleFrame);
+            }
+        }
+    }
+
+    /** Drops any pending update without delivering it. */
+    @MainThread
+    void cancel() {
+        Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+        mMainHandler.removeCallbacks(mScheduleFrame);
+        mPending.set(NO_UPDATE);
+        mScheduled.set(false);
+    }
+
+    private final Runnable mScheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            if (mWindowMs > 0) {
+                Choreographer.getInstance().postFrameCallbackDelayed(mFrameCallback, mWindowMs);
+            } else {
+                Choreographer.getInstance().postFrameCallback(mFrameCallback);
+            }
+        }
+    };
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mScheduled.set(false);
+            Object pending = mPending.getAndSet(NO_UPDATE);
+            if (pending != NO_UPDATE) {
+                sDelivered.incrementAndGet();
+                mSink.deliver((Slice) pending);
+            }
+        }
+    };
+}